@@ -0,0 +1,83 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.util.BenchmarkData;
+
+/**
+ * Compares matching a whole batch of addresses with
+ * {@link Cidr4Trie#longestPrefixOfValues} against calling
+ * {@link Cidr4Trie#longestPrefixOfValue(int)} for each address in a loop.
+ * Scores are the time per batch.
+ *
+ * <p>
+ * Run with: {@code mvn -P benchmark package exec:exec -Djmh.args="BatchLongestPrefix"}
+ *
+ * @author Chris Duncan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchLongestPrefixBenchmark {
+
+  @Param({"100000"})
+  public int routes;
+
+  @Param({"4096", "65536"})
+  public int batchSize;
+
+  @Param({"false", "true"})
+  public boolean compressed;
+
+  private Cidr4Trie<Cidr4> trie;
+  private int[] addresses;
+  private Cidr4[] values;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    final Cidr4[] table = BenchmarkData.bgpRoutes(random, routes);
+    trie = new Cidr4Trie<Cidr4>(compressed);
+    for (final Cidr4 route : table) {
+      trie.put(route, route);
+    }
+    addresses = BenchmarkData.addresses(random, table, batchSize);
+    values = new Cidr4[batchSize];
+  }
+
+  @Benchmark
+  public Cidr4[] longestPrefixLoop() {
+    for (int i = 0; i < addresses.length; ++i) {
+      values[i] = trie.longestPrefixOfValue(addresses[i]);
+    }
+    return values;
+  }
+
+  @Benchmark
+  public Cidr4[] longestPrefixBatch() {
+    trie.longestPrefixOfValues(addresses, 0, addresses.length, values, 0);
+    return values;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.util.BenchmarkData;
+
+/**
+ * Compares building a {@link Cidr4Trie} from sorted input with
+ * {@link Cidr4Trie#buildSorted} against calling put for every entry.
+ *
+ * <p>
+ * Run with: {@code mvn -P benchmark package exec:exec -Djmh.args="BulkLoad"}
+ *
+ * @author Chris Duncan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkLoadBenchmark {
+
+  @Param({"100000"})
+  public int routes;
+
+  @Param({"false", "true"})
+  public boolean compressed;
+
+  private TreeMap<Cidr4, Cidr4> sorted;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    sorted = new TreeMap<Cidr4, Cidr4>();
+    for (final Cidr4 route : BenchmarkData.bgpRoutes(random, routes)) {
+      sorted.put(route, route);
+    }
+  }
+
+  @Benchmark
+  public Cidr4Trie<Cidr4> buildSorted() {
+    return Cidr4Trie.buildSorted(sorted.entrySet().iterator(), compressed);
+  }
+
+  @Benchmark
+  public Cidr4Trie<Cidr4> putEach() {
+    final Cidr4Trie<Cidr4> trie = new Cidr4Trie<Cidr4>(compressed);
+    for (final Entry<Cidr4, Cidr4> entry : sorted.entrySet()) {
+      trie.put(entry.getKey(), entry.getValue());
+    }
+    return trie;
+  }
+}
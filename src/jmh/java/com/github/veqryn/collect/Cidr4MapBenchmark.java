@@ -0,0 +1,252 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.util.BenchmarkData;
+
+/**
+ * Compares {@link Cidr4Trie} against a {@link TreeMap} of {@link Cidr4}
+ * keys, and against the Apache Commons Collections
+ * {@link org.apache.commons.collections4.trie.PatriciaTrie} (which only
+ * takes String keys, so CIDRs are stored as strings of '0' and '1' bits),
+ * for the operations a routing table needs.
+ *
+ * <p>
+ * The TreeMap and Commons PatriciaTrie have no longest prefix operation,
+ * so they are queried the usual way: by trying every shorter mask in turn.
+ *
+ * <p>
+ * Run with: {@code mvn -P benchmark package exec:exec -Djmh.args="Cidr4Map"}
+ *
+ * @author Chris Duncan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Cidr4MapBenchmark {
+
+  private static final int LOOKUPS = 1 << 12;
+
+  @Param({"100000"})
+  public int routes;
+
+  @Param({"false", "true"})
+  public boolean compressed;
+
+  private Cidr4Trie<Cidr4> trie;
+  private TreeMap<Cidr4, Cidr4> treeMap;
+  private org.apache.commons.collections4.trie.PatriciaTrie<Cidr4> commons;
+
+  private Cidr4[] keys;
+  private String[] keyBits;
+  private Cidr4[] ips;
+  private String[] ipBits;
+  private int next = 0;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    final Cidr4[] table = BenchmarkData.bgpRoutes(random, routes);
+    trie = new Cidr4Trie<Cidr4>(compressed);
+    treeMap = new TreeMap<Cidr4, Cidr4>();
+    commons = new org.apache.commons.collections4.trie.PatriciaTrie<Cidr4>();
+    for (final Cidr4 route : table) {
+      trie.put(route, route);
+      treeMap.put(route, route);
+      commons.put(bits(route), route);
+    }
+
+    final int[] addresses = BenchmarkData.addresses(random, table, LOOKUPS);
+    keys = new Cidr4[LOOKUPS];
+    keyBits = new String[LOOKUPS];
+    ips = new Cidr4[LOOKUPS];
+    ipBits = new String[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; ++i) {
+      keys[i] = table[random.nextInt(table.length)];
+      keyBits[i] = bits(keys[i]);
+      ips[i] = new Cidr4(addresses[i], 32);
+      ipBits[i] = bits(ips[i]);
+    }
+  }
+
+  /**
+   * @return the CIDR as a string of '0' and '1' characters, one per mask bit
+   */
+  private static String bits(final Cidr4 cidr) {
+    final int address = cidr.getLowBinaryInteger(true);
+    final char[] chars = new char[cidr.getMaskBits()];
+    for (int i = 0; i < chars.length; ++i) {
+      chars[i] = (address & (1 << (31 - i))) == 0 ? '0' : '1';
+    }
+    return new String(chars);
+  }
+
+  private int nextIndex() {
+    return next++ & (LOOKUPS - 1);
+  }
+
+
+
+  // get
+
+  @Benchmark
+  public Cidr4 getTrie() {
+    return trie.get(keys[nextIndex()]);
+  }
+
+  @Benchmark
+  public Cidr4 getTreeMap() {
+    return treeMap.get(keys[nextIndex()]);
+  }
+
+  @Benchmark
+  public Cidr4 getCommons() {
+    return commons.get(keyBits[nextIndex()]);
+  }
+
+
+
+  // put (replacing the value of an existing route)
+
+  @Benchmark
+  public Cidr4 putTrie() {
+    final Cidr4 key = keys[nextIndex()];
+    return trie.put(key, key);
+  }
+
+  @Benchmark
+  public Cidr4 putTreeMap() {
+    final Cidr4 key = keys[nextIndex()];
+    return treeMap.put(key, key);
+  }
+
+  @Benchmark
+  public Cidr4 putCommons() {
+    final int i = nextIndex();
+    return commons.put(keyBits[i], keys[i]);
+  }
+
+
+
+  // longest prefix match
+
+  @Benchmark
+  public Cidr4 longestPrefixTrie() {
+    return trie.longestPrefixOfValue(ips[nextIndex()], true);
+  }
+
+  @Benchmark
+  public Cidr4 longestPrefixTreeMap() {
+    final Cidr4 ip = ips[nextIndex()];
+    final int address = ip.getLowBinaryInteger(true);
+    for (int maskBits = 32; maskBits > 0; --maskBits) {
+      final Cidr4 value = treeMap.get(new Cidr4(address, maskBits));
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  @Benchmark
+  public Cidr4 longestPrefixCommons() {
+    final String ip = ipBits[nextIndex()];
+    for (int maskBits = 32; maskBits > 0; --maskBits) {
+      final Cidr4 value = commons.get(ip.substring(0, maskBits));
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+
+
+  // all prefixes of (routes containing an address)
+
+  @Benchmark
+  public Collection<Cidr4> prefixOfValuesTrie() {
+    return new ArrayList<Cidr4>(trie.prefixOfValues(ips[nextIndex()], true));
+  }
+
+  @Benchmark
+  public Collection<Cidr4> prefixOfValuesTreeMap() {
+    final int address = ips[nextIndex()].getLowBinaryInteger(true);
+    final List<Cidr4> values = new ArrayList<Cidr4>();
+    for (int maskBits = 1; maskBits <= 32; ++maskBits) {
+      final Cidr4 value = treeMap.get(new Cidr4(address, maskBits));
+      if (value != null) {
+        values.add(value);
+      }
+    }
+    return values;
+  }
+
+  @Benchmark
+  public Collection<Cidr4> prefixOfValuesCommons() {
+    final String ip = ipBits[nextIndex()];
+    final List<Cidr4> values = new ArrayList<Cidr4>();
+    for (int maskBits = 1; maskBits <= 32; ++maskBits) {
+      final Cidr4 value = commons.get(ip.substring(0, maskBits));
+      if (value != null) {
+        values.add(value);
+      }
+    }
+    return values;
+  }
+
+
+
+  // all prefixed by (routes inside of a route)
+
+  @Benchmark
+  public Collection<Cidr4> prefixedByValuesTrie() {
+    return new ArrayList<Cidr4>(trie.prefixedByValues(keys[nextIndex()], true));
+  }
+
+  @Benchmark
+  public Collection<Cidr4> prefixedByValuesTreeMap() {
+    final Cidr4 key = keys[nextIndex()];
+    final List<Cidr4> values = new ArrayList<Cidr4>();
+    // Cidr4 sorts by low address then widest first, so contained routes follow the key
+    for (final Entry<Cidr4, Cidr4> entry : treeMap.tailMap(key, true).entrySet()) {
+      if (!key.isInRange(entry.getKey(), true)) {
+        break;
+      }
+      values.add(entry.getValue());
+    }
+    return values;
+  }
+
+  @Benchmark
+  public Collection<Cidr4> prefixedByValuesCommons() {
+    return new ArrayList<Cidr4>(commons.prefixMap(keyBits[nextIndex()]).values());
+  }
+}
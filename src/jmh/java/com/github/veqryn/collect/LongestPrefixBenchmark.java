@@ -0,0 +1,121 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.util.BenchmarkData;
+
+/**
+ * Compares the single descent used by {@link Trie#longestPrefixOfValue}
+ * against walking the {@link Trie#prefixOfValues} iterator, which is how
+ * longest prefix matching used to be done, as well as the primitive int
+ * lookups, the {@link FrozenCidr4Trie} and the {@link Cidr4MultibitTrie}.
+ *
+ * <p>
+ * Run with: {@code mvn -P benchmark package exec:exec -Djmh.args="LongestPrefix -prof gc"}
+ *
+ * @author Chris Duncan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongestPrefixBenchmark {
+
+  private static final int LOOKUPS = 1 << 12;
+
+  @Param({"100000"})
+  public int routes;
+
+  @Param({"false", "true"})
+  public boolean compressed;
+
+  private Cidr4Trie<Cidr4> trie;
+  private Cidr4MultibitTrie<Cidr4> multibit;
+  private FrozenCidr4Trie<Cidr4> frozen;
+  private Cidr4[] ips;
+  private int next = 0;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    final Cidr4[] table = BenchmarkData.bgpRoutes(random, routes);
+    trie = new Cidr4Trie<Cidr4>(compressed);
+    for (final Cidr4 route : table) {
+      trie.put(route, route);
+    }
+    multibit = new Cidr4MultibitTrie<Cidr4>(trie);
+    frozen = trie.freeze();
+    final int[] addresses = BenchmarkData.addresses(random, table, LOOKUPS);
+    ips = new Cidr4[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; ++i) {
+      ips[i] = new Cidr4(addresses[i], 32);
+    }
+  }
+
+  private Cidr4 nextIp() {
+    return ips[next++ & (LOOKUPS - 1)];
+  }
+
+  @Benchmark
+  public Cidr4 longestPrefixDescent() {
+    return trie.longestPrefixOfValue(nextIp(), true);
+  }
+
+  @Benchmark
+  public Cidr4 longestPrefixIterator() {
+    final Iterator<Cidr4> iter = trie.prefixOfValues(nextIp(), true).iterator();
+    Cidr4 value = null;
+    while (iter.hasNext()) {
+      value = iter.next();
+    }
+    return value;
+  }
+
+  @Benchmark
+  public Cidr4 longestPrefixPrimitive() {
+    return trie.longestPrefixOfValue(nextIp().getLowBinaryInteger(true));
+  }
+
+  @Benchmark
+  public Cidr4 longestPrefixMultibit() {
+    return multibit.longestPrefixOfValue(nextIp().getLowBinaryInteger(true));
+  }
+
+  @Benchmark
+  public Cidr4 longestPrefixFrozen() {
+    return frozen.longestPrefixOfValue(nextIp().getLowBinaryInteger(true));
+  }
+
+  @Benchmark
+  public Cidr4 shortestPrefixDescent() {
+    return trie.shortestPrefixOfValue(nextIp(), true);
+  }
+
+  @Benchmark
+  public Cidr4 shortestPrefixIterator() {
+    final Iterator<Cidr4> iter = trie.prefixOfValues(nextIp(), true).iterator();
+    return iter.hasNext() ? iter.next() : null;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.util.BenchmarkData;
+
+/**
+ * Compares the Node layouts of a {@link Cidr4Trie}: nodes that keep their
+ * parent and cache their key, keyless nodes that keep their parent, and
+ * parentless nodes. Building a trie allocates little besides its nodes, so
+ * the {@code gc.alloc.rate.norm} of the build benchmark, from {@code -prof gc},
+ * is close to the footprint of each layout.
+ *
+ * <p>
+ * Run with: {@code mvn -P benchmark package exec:exec -Djmh.args="NodeLayout -prof gc"}
+ *
+ * @author Chris Duncan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeLayoutBenchmark {
+
+  @Param({"100000"})
+  public int routes;
+
+  @Param({"keyed", "keyless", "parentless"})
+  public String layout;
+
+  private Cidr4[] cidrs;
+  private Cidr4Trie<Cidr4> trie;
+
+  @Setup
+  public void setup() {
+    cidrs = BenchmarkData.bgpRoutes(new Random(42), routes);
+    trie = newTrie();
+    for (final Cidr4 key : trie.keySet()) {
+      key.hashCode(); // fill the key cache of the keyed layout
+    }
+  }
+
+  private Cidr4Trie<Cidr4> newTrie() {
+    final boolean parentless = "parentless".equals(layout);
+    final boolean keyless = parentless || "keyless".equals(layout);
+    final Cidr4Trie<Cidr4> built = new Cidr4Trie<Cidr4>(true, keyless, parentless);
+    for (final Cidr4 cidr : cidrs) {
+      built.put(cidr, cidr);
+    }
+    return built;
+  }
+
+  @Benchmark
+  public Cidr4Trie<Cidr4> build() {
+    return newTrie();
+  }
+
+  @Benchmark
+  public int iterateValues() {
+    int sum = 0;
+    for (final Cidr4 value : trie.values()) {
+      sum += value.getMaskBits();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int iterateKeys() {
+    int sum = 0;
+    for (final Cidr4 key : trie.keySet()) {
+      sum += key.getMaskBits();
+    }
+    return sum;
+  }
+}
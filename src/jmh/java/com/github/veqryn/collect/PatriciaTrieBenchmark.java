@@ -0,0 +1,172 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.veqryn.util.BenchmarkData;
+
+/**
+ * Compares the String {@link PatriciaTrie} against a {@link TreeMap} and the
+ * Apache Commons Collections
+ * {@link org.apache.commons.collections4.trie.PatriciaTrie}, using words
+ * that share many prefixes.
+ *
+ * <p>
+ * Run with: {@code mvn -P benchmark package exec:exec -Djmh.args="PatriciaTrie"}
+ *
+ * @author Chris Duncan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatriciaTrieBenchmark {
+
+  private static final int LOOKUPS = 1 << 12;
+
+  @Param({"100000"})
+  public int words;
+
+  @Param({"false", "true"})
+  public boolean compressed;
+
+  private PatriciaTrie<String> trie;
+  private TreeMap<String, String> treeMap;
+  private org.apache.commons.collections4.trie.PatriciaTrie<String> commons;
+
+  private String[] keys;
+  private String[] prefixes;
+  private int next = 0;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    final String[] dictionary = BenchmarkData.words(random, words);
+    trie = new PatriciaTrie<String>(compressed);
+    treeMap = new TreeMap<String, String>();
+    commons = new org.apache.commons.collections4.trie.PatriciaTrie<String>();
+    for (final String word : dictionary) {
+      trie.put(word, word);
+      treeMap.put(word, word);
+      commons.put(word, word);
+    }
+
+    keys = new String[LOOKUPS];
+    prefixes = new String[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; ++i) {
+      keys[i] = dictionary[random.nextInt(dictionary.length)];
+      prefixes[i] = keys[i].substring(0, Math.min(keys[i].length(), 2 + random.nextInt(4)));
+    }
+  }
+
+  private int nextIndex() {
+    return next++ & (LOOKUPS - 1);
+  }
+
+
+
+  // get
+
+  @Benchmark
+  public String getTrie() {
+    return trie.get(keys[nextIndex()]);
+  }
+
+  @Benchmark
+  public String getTreeMap() {
+    return treeMap.get(keys[nextIndex()]);
+  }
+
+  @Benchmark
+  public String getCommons() {
+    return commons.get(keys[nextIndex()]);
+  }
+
+
+
+  // put (replacing the value of an existing word)
+
+  @Benchmark
+  public String putTrie() {
+    final String key = keys[nextIndex()];
+    return trie.put(key, key);
+  }
+
+  @Benchmark
+  public String putTreeMap() {
+    final String key = keys[nextIndex()];
+    return treeMap.put(key, key);
+  }
+
+  @Benchmark
+  public String putCommons() {
+    final String key = keys[nextIndex()];
+    return commons.put(key, key);
+  }
+
+
+
+  // all prefixes of (words that start a word)
+
+  @Benchmark
+  public Collection<String> prefixOfValuesTrie() {
+    return new ArrayList<String>(trie.prefixOfValues(keys[nextIndex()], true));
+  }
+
+  @Benchmark
+  public Collection<String> prefixOfValuesTreeMap() {
+    final String key = keys[nextIndex()];
+    final List<String> values = new ArrayList<String>();
+    for (int length = 1; length <= key.length(); ++length) {
+      final String value = treeMap.get(key.substring(0, length));
+      if (value != null) {
+        values.add(value);
+      }
+    }
+    return values;
+  }
+
+
+
+  // all prefixed by (words starting with a prefix)
+
+  @Benchmark
+  public Collection<String> prefixedByValuesTrie() {
+    return new ArrayList<String>(trie.prefixedByValues(prefixes[nextIndex()], true));
+  }
+
+  @Benchmark
+  public Collection<String> prefixedByValuesTreeMap() {
+    final String prefix = prefixes[nextIndex()];
+    return new ArrayList<String>(
+        treeMap.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+  }
+
+  @Benchmark
+  public Collection<String> prefixedByValuesCommons() {
+    return new ArrayList<String>(commons.prefixMap(prefixes[nextIndex()]).values());
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.util.BenchmarkData;
+
+/**
+ * Measures Java serialization round-trips (write then read back) of a
+ * routing table held in a {@link Cidr4Trie}, a {@link FrozenCidr4Trie},
+ * a {@link PatriciaTrie} and a {@link TreeMap}. Values are small Strings,
+ * so the cost is dominated by the structure of each collection.
+ *
+ * <p>
+ * Run with: {@code mvn -P benchmark package exec:exec -Djmh.args="Serialization -prof gc"}
+ *
+ * @author Chris Duncan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+  @Param({"100000"})
+  public int routes;
+
+  @Param({"false", "true"})
+  public boolean compressed;
+
+  private Cidr4Trie<String> trie;
+  private FrozenCidr4Trie<String> frozen;
+  private PatriciaTrie<String> patricia;
+  private TreeMap<Cidr4, String> treeMap;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    trie = new Cidr4Trie<String>(compressed);
+    patricia = new PatriciaTrie<String>(compressed);
+    treeMap = new TreeMap<Cidr4, String>();
+    for (final Cidr4 route : BenchmarkData.bgpRoutes(random, routes)) {
+      final String value = route.getCidrSignature();
+      trie.put(route, value);
+      patricia.put(value, value);
+      treeMap.put(route, value);
+    }
+    frozen = trie.freeze();
+  }
+
+  private static Object roundTrip(final Object object) throws IOException, ClassNotFoundException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(object);
+    out.close();
+    final ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    try {
+      return in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  @Benchmark
+  public Object roundTripCidr4Trie() throws IOException, ClassNotFoundException {
+    return roundTrip(trie);
+  }
+
+  @Benchmark
+  public Object roundTripFrozenCidr4Trie() throws IOException, ClassNotFoundException {
+    return roundTrip(frozen);
+  }
+
+  @Benchmark
+  public Object roundTripPatriciaTrie() throws IOException, ClassNotFoundException {
+    return roundTrip(patricia);
+  }
+
+  @Benchmark
+  public Object roundTripTreeMap() throws IOException, ClassNotFoundException {
+    return roundTrip(treeMap);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.net;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.veqryn.util.BenchmarkData;
+
+/**
+ * Measures parsing {@link Ip4} and {@link Cidr4} from Strings, formatting
+ * them back, and comparing them.
+ *
+ * <p>
+ * Run with: {@code mvn -P benchmark package exec:exec -Djmh.args="net.ParseBenchmark"}
+ *
+ * @author Chris Duncan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+  private static final int COUNT = 1 << 12;
+
+  private String[] ipStrings;
+  private String[] cidrStrings;
+  private char[][] ipChars;
+  private byte[][] ipBytes;
+  private ByteBuffer logBuffer;
+  private int[] batch;
+  private Ip4[] ips;
+  private Cidr4[] cidrs;
+  private int next = 0;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    cidrs = BenchmarkData.bgpRoutes(random, COUNT);
+    final int[] addresses = BenchmarkData.addresses(random, cidrs, COUNT);
+    ips = new Ip4[COUNT];
+    ipStrings = new String[COUNT];
+    cidrStrings = new String[COUNT];
+    ipChars = new char[COUNT][];
+    ipBytes = new byte[COUNT][];
+    for (int i = 0; i < COUNT; ++i) {
+      ips[i] = new Ip4(addresses[i]);
+      ipStrings[i] = ips[i].getAddress();
+      cidrStrings[i] = cidrs[i].getCidrSignature();
+      ipChars[i] = ipStrings[i].toCharArray();
+      ipBytes[i] = ipStrings[i].getBytes(StandardCharsets.US_ASCII);
+    }
+    final StringBuilder log = new StringBuilder();
+    for (final String ip : ipStrings) {
+      log.append(ip).append('\n');
+    }
+    final byte[] logBytes = log.toString().getBytes(StandardCharsets.US_ASCII);
+    logBuffer = ByteBuffer.allocateDirect(logBytes.length);
+    logBuffer.put(logBytes);
+    batch = new int[256];
+  }
+
+  private int nextIndex() {
+    return next++ & (COUNT - 1);
+  }
+
+  @Benchmark
+  public Ip4 parseIp4() {
+    return new Ip4(ipStrings[nextIndex()]);
+  }
+
+  @Benchmark
+  public Cidr4 parseCidr4() {
+    return new Cidr4(cidrStrings[nextIndex()]);
+  }
+
+  @Benchmark
+  public int parseIp4Binary() {
+    return Ip4Parser.parseIp4(ipStrings[nextIndex()]);
+  }
+
+  @Benchmark
+  public int parseIp4Chars() {
+    final char[] chars = ipChars[nextIndex()];
+    return Ip4Parser.parseIp4(chars, 0, chars.length);
+  }
+
+  @Benchmark
+  public int parseIp4Bytes() {
+    final byte[] bytes = ipBytes[nextIndex()];
+    return Ip4Parser.parseIp4(bytes, 0, bytes.length);
+  }
+
+  /** Parses all COUNT addresses, from newline-separated bytes off-heap */
+  @Benchmark
+  public int parseIp4Batches() {
+    logBuffer.rewind();
+    int sum = 0;
+    int count;
+    while ((count = Ip4Parser.parseIp4Batch(logBuffer, (byte) '\n', batch, null)) > 0) {
+      for (int i = 0; i < count; ++i) {
+        sum += batch[i];
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public String formatIp4() {
+    return ips[nextIndex()].getAddress();
+  }
+
+  @Benchmark
+  public String formatCidr4() {
+    return cidrs[nextIndex()].getCidrSignature();
+  }
+
+  @Benchmark
+  public int compareIp4() {
+    final int i = nextIndex();
+    return ips[i].compareTo(ips[(i + 1) & (COUNT - 1)]);
+  }
+
+  @Benchmark
+  public int compareCidr4() {
+    final int i = nextIndex();
+    return cidrs[i].compareTo(cidrs[(i + 1) & (COUNT - 1)]);
+  }
+}
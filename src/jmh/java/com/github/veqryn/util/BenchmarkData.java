@@ -0,0 +1,142 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.github.veqryn.net.Cidr4;
+
+/**
+ * Generated datasets shared by the benchmarks. Every method takes its own
+ * {@link Random}, so that a fixed seed gives the same data on every run.
+ *
+ * @author Chris Duncan
+ */
+public final class BenchmarkData {
+
+  /**
+   * Relative number of routes of each prefix length, from /8 to /24 (out of
+   * 100000), roughly as seen in a full IPv4 BGP table: over half are /24's,
+   * most of the rest are /16 to /23, and there are very few short routes.
+   */
+  private static final int[] BGP_LENGTH_WEIGHTS = new int[] {
+      2, 2, 5, 15, 40, 80, 150, 250, // /8 to /15
+      2200, 1300, 2200, 4300, 4800, 5300, 10000, 9500, // /16 to /23
+      59856, // /24
+  };
+  private static final int BGP_MIN_LENGTH = 8;
+  private static final int BGP_TOTAL_WEIGHT = 100000;
+
+  /** Fraction of routes that are more specifics of an earlier, shorter route */
+  private static final double MORE_SPECIFIC_RATE = 0.4;
+
+  private static final String[] SYLLABLES = new String[] {
+      "ka", "ro", "mi", "te", "ran", "sho", "el", "ba", "qu", "in", "de", "tor",
+      "a", "lu", "ver", "pa", "ix", "on", "sta", "gr",
+  };
+
+  private BenchmarkData() {}
+
+
+
+  /**
+   * @param random Random
+   * @return a prefix length from /8 to /24, following a BGP-like distribution
+   */
+  public static int bgpPrefixLength(final Random random) {
+    int pick = random.nextInt(BGP_TOTAL_WEIGHT);
+    for (int i = 0; i < BGP_LENGTH_WEIGHTS.length; ++i) {
+      pick -= BGP_LENGTH_WEIGHTS[i];
+      if (pick < 0) {
+        return BGP_MIN_LENGTH + i;
+      }
+    }
+    return BGP_MIN_LENGTH + BGP_LENGTH_WEIGHTS.length - 1;
+  }
+
+  /**
+   * Generates a BGP-like table of distinct routes, with prefix lengths
+   * following {@link #bgpPrefixLength}, and where a share of the routes are
+   * more specifics (deaggregates) of other routes in the table, so that
+   * lookups find nested prefixes the way they do in a real routing table.
+   *
+   * @param random Random
+   * @param count number of routes
+   * @return distinct routes, in the order they were generated
+   */
+  public static Cidr4[] bgpRoutes(final Random random, final int count) {
+    final Set<Cidr4> routes = new LinkedHashSet<Cidr4>(count * 2);
+    final List<Cidr4> covering = new ArrayList<Cidr4>();
+    while (routes.size() < count) {
+      final int length = bgpPrefixLength(random);
+      Cidr4 route = null;
+      if (!covering.isEmpty() && random.nextDouble() < MORE_SPECIFIC_RATE) {
+        final Cidr4 parent = covering.get(random.nextInt(covering.size()));
+        if (parent.getMaskBits() < length) {
+          final int hostBits = random.nextInt() & ~parent.getBinaryNetmask();
+          route = new Cidr4(parent.getLowBinaryInteger(true) | hostBits, length);
+        }
+      }
+      if (route == null) {
+        route = new Cidr4(random.nextInt(), length);
+      }
+      if (routes.add(route) && length < 24) {
+        covering.add(route);
+      }
+    }
+    return routes.toArray(new Cidr4[count]);
+  }
+
+  /**
+   * Generates addresses to look up, most of which fall inside of one of the
+   * given routes (as traffic through a router would), and the rest anywhere.
+   *
+   * @param random Random
+   * @param routes routes to pick most addresses from
+   * @param count number of addresses
+   * @return binary IPv4 addresses, where Integer.MIN_VALUE = 128.0.0.0
+   */
+  public static int[] addresses(final Random random, final Cidr4[] routes, final int count) {
+    final int[] addresses = new int[count];
+    for (int i = 0; i < count; ++i) {
+      if (routes.length > 0 && random.nextInt(10) < 8) {
+        final Cidr4 route = routes[random.nextInt(routes.length)];
+        addresses[i] = route.getLowBinaryInteger(true)
+            | (random.nextInt() & ~route.getBinaryNetmask());
+      } else {
+        addresses[i] = random.nextInt();
+      }
+    }
+    return addresses;
+  }
+
+  /**
+   * Generates distinct words built from a small set of syllables, so that
+   * many words share prefixes, as they do in natural language and in URLs.
+   *
+   * @param random Random
+   * @param count number of words
+   * @return distinct words, in the order they were generated
+   */
+  public static String[] words(final Random random, final int count) {
+    final Set<String> words = new LinkedHashSet<String>(count * 2);
+    final StringBuilder sb = new StringBuilder();
+    while (words.size() < count) {
+      sb.setLength(0);
+      final int syllables = 1 + random.nextInt(3) + random.nextInt(4);
+      for (int i = 0; i < syllables; ++i) {
+        sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+      }
+      words.add(sb.toString());
+    }
+    return words.toArray(new String[count]);
+  }
+
+}
@@ -9,21 +9,29 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 
 
 /**
  * Implementation of the {@link Trie} interface, as an
- * uncompressed binary bitwise trie. For more information, see:
+ * uncompressed (or optionally path-compressed) binary bitwise trie.
+ * For more information, see:
  * <a href="http://en.wikipedia.org/wiki/Trie">wikipedia entry on tries</a>.
  *
  * <p>
@@ -32,18 +40,57 @@ import java.util.Set;
  * Keys will be analyzed as they come in by a {@link KeyCodec}, for the
  * length of their elements, and for the element at any index belonging in
  * either the left or right nodes in a tree. A single empty root node is our
- * starting point, with nodes containing references to their parent, their
- * left and right children if any, and their value if any. Leaf nodes must
- * always have a value, but intermediate nodes may or may not have values.
+ * starting point, with nodes containing references to their left and right
+ * children if any, their value if any, and (unless the trie is parentless)
+ * their parent. Leaf nodes must always have a value, but intermediate nodes
+ * may or may not have values.
+ *
+ * <p>
+ * If the trie is created as <code>compressed</code>, chains of intermediate
+ * nodes that have no value and only a single child are collapsed into the
+ * node below them (PATRICIA style path compression). Each node then
+ * represents up to {@link #MAX_SKIP} + 1 elements of a key: the element
+ * implied by it being a left or right child, plus up to {@code MAX_SKIP}
+ * skipped elements stored within the node itself. This greatly reduces
+ * the number of nodes (a lone /32 CIDR needs a single node instead of 32),
+ * and the number of nodes that must be dereferenced during a lookup.
  *
  * <p>
  * Keys and Values may never be {@code null}, and therefore if any node
  * has a value, it implicitly has a key.
  *
  * <p>
+ * Keys are recreated from the position of their node whenever they are
+ * needed, and by default are then cached on the node. If the trie is
+ * created as <code>keyless</code>, keys are never cached, and nodes are
+ * created without a field for them, so each node is smaller and no key
+ * instances are kept alive by the trie. Iterators and Spliterators recreate
+ * keys from the path they have walked, so iterating over the keys or
+ * entries of a keyless trie does not need to walk back up to the root.
+ *
+ * <p>
+ * Traversals and deletions never follow parent references. Instead they keep
+ * a stack of the ancestors of their current node, found on the way down from
+ * the root. If the trie is created as <code>parentless</code> (which implies
+ * keyless), nodes are created without a parent reference at all, making
+ * each node smaller again.
+ *
+ * <p>
+ * If the trie is created as <code>counted</code>, each node also keeps the
+ * number of values in its subtree, updated by every put and remove, so that
+ * the size of a prefixed-by view can be found in time proportional to the
+ * length of its key, instead of by iterating over the whole view. The size
+ * of a prefix-of view is always found by walking the path of its key.
+ *
+ * <p>
  * Keys and Values are returned in an order according to the order of the
  * elements in the key, and the number of elements in the key.
  *
+ * <p>
+ * The Spliterators of the key, value and entry views split at subtree
+ * boundaries, so that parallel streams over a large trie can divide the work
+ * between threads.
+ *
  * @author Chris Duncan
  *
  * @param <K> Key
@@ -53,11 +100,51 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
   private static final long serialVersionUID = -6697831108554350305L;
 
+  /** Maximum number of skipped key elements a single compressed node may hold */
+  public static final int MAX_SKIP = 31;
+
+  /** Characteristics of Spliterators over keys (SIZED is added for whole tries) */
+  protected static final int KEY_CHARACTERISTICS = Spliterator.ORDERED | Spliterator.SORTED
+      | Spliterator.DISTINCT | Spliterator.NONNULL;
+
+  /** Characteristics of Spliterators over values (SIZED is added for whole tries) */
+  protected static final int VALUE_CHARACTERISTICS = Spliterator.ORDERED | Spliterator.NONNULL;
+
+  /** Characteristics of Spliterators over entries (SIZED is added for whole tries) */
+  protected static final int ENTRY_CHARACTERISTICS = Spliterator.ORDERED | Spliterator.DISTINCT
+      | Spliterator.NONNULL;
+
+  /** Characteristics of Spliterators over the prefixes of a key */
+  protected static final int PREFIX_OF_CHARACTERISTICS = Spliterator.ORDERED
+      | Spliterator.DISTINCT | Spliterator.NONNULL;
+
   /** The {@link KeyCodec} being used to analyze keys */
   protected final KeyCodec<K> codec;
 
+  /** True if chains of single-child empty nodes are collapsed (path compression) */
+  protected final boolean compressed;
+
+  /**
+   * True if keys are never cached on their nodes, and nodes are created
+   * without a field for them, so keys are recreated every time they are used
+   */
+  protected final boolean keyless;
+
+  /**
+   * True if nodes are created without a reference to their parent
+   * (and without a field for their key), so that each node is as small
+   * as possible
+   */
+  protected final boolean parentless;
+
+  /**
+   * True if nodes are created with a count of the values in their subtree,
+   * so that the size of prefixed-by views does not need an iteration
+   */
+  protected final boolean counted;
+
   /** The entry point for the start of any lookup. Root can not hold a value. */
-  protected transient Node<K, V> root = new Node<K, V>(null); // final
+  protected transient Node<K, V> root; // final
 
   protected transient long size = 0;
 
@@ -67,6 +154,13 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
   protected transient Set<K> keySet = null;
   protected transient Collection<V> values = null;
 
+  /**
+   * Instrumentation of lookups, or null (the default) for none. Not volatile,
+   * so that lookups pay nothing extra for it, which means it must be set
+   * before the trie is published to other threads.
+   */
+  protected transient TrieListener listener = null;
+
 
 
   // Constructors:
@@ -79,10 +173,110 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
    * @param keyCodec KeyCodec for analyzing of keys
    */
   public AbstractBinaryTrie(final KeyCodec<K> keyCodec) {
+    this(keyCodec, false);
+  }
+
+  /**
+   * Create an empty {@link AbstractBinaryTrie} using the given
+   * {@link KeyCodec}, and the given node layout.
+   *
+   * @param keyCodec KeyCodec for analyzing of keys
+   * @param compressed true if chains of empty intermediate nodes with a
+   *        single child should be collapsed into a single node (path
+   *        compression), false for one node per key element
+   */
+  public AbstractBinaryTrie(final KeyCodec<K> keyCodec, final boolean compressed) {
+    this(keyCodec, compressed, false);
+  }
+
+  /**
+   * Create an empty {@link AbstractBinaryTrie} using the given
+   * {@link KeyCodec}, the given node layout, and the given policy for
+   * keeping keys.
+   *
+   * <p>
+   * A keyless trie never caches the keys it recreates, and its nodes have
+   * no field to hold them, which saves memory (both the field and a key
+   * object per entry once keys have been returned), at the cost of
+   * recreating a key every time one is returned, hashed or compared.
+   *
+   * @param keyCodec KeyCodec for analyzing of keys
+   * @param compressed true if chains of empty intermediate nodes with a
+   *        single child should be collapsed into a single node (path
+   *        compression), false for one node per key element
+   * @param keyless true if keys should never be cached, false if keys
+   *        should be kept on their nodes once they have been recreated
+   */
+  public AbstractBinaryTrie(final KeyCodec<K> keyCodec, final boolean compressed,
+      final boolean keyless) {
+    this(keyCodec, compressed, keyless, false);
+  }
+
+  /**
+   * Create an empty {@link AbstractBinaryTrie} using the given
+   * {@link KeyCodec}, the given node layout, the given policy for keeping
+   * keys, and with or without parent references in its nodes.
+   *
+   * <p>
+   * A parentless trie uses nodes with only a value, two children and any
+   * skipped elements, which saves a reference per node. Everything works
+   * the same, except that a Node can no longer recreate its own key by
+   * walking up to the root, so parentless tries must also be keyless.
+   *
+   * @param keyCodec KeyCodec for analyzing of keys
+   * @param compressed true if chains of empty intermediate nodes with a
+   *        single child should be collapsed into a single node (path
+   *        compression), false for one node per key element
+   * @param keyless true if keys should never be cached, false if keys
+   *        should be kept on their nodes once they have been recreated
+   * @param parentless true if nodes should not keep a reference to their
+   *        parent, which requires {@code keyless} to also be true
+   * @throws IllegalArgumentException if parentless but not keyless
+   */
+  public AbstractBinaryTrie(final KeyCodec<K> keyCodec, final boolean compressed,
+      final boolean keyless, final boolean parentless) {
+    this(keyCodec, compressed, keyless, parentless, false);
+  }
+
+  /**
+   * Create an empty {@link AbstractBinaryTrie} using the given
+   * {@link KeyCodec}, the given node layout, the given policy for keeping
+   * keys, with or without parent references in its nodes, and with or
+   * without a count of the values under each node.
+   *
+   * <p>
+   * A counted trie uses nodes with an extra int field, holding the number of
+   * values in the subtree under and including the node. Every put and remove
+   * of a key updates the count of each node on the path to it, and in
+   * return the size of a prefixed-by view is found by a single descent to
+   * the view's key, instead of by iterating over every value in the view.
+   *
+   * @param keyCodec KeyCodec for analyzing of keys
+   * @param compressed true if chains of empty intermediate nodes with a
+   *        single child should be collapsed into a single node (path
+   *        compression), false for one node per key element
+   * @param keyless true if keys should never be cached, false if keys
+   *        should be kept on their nodes once they have been recreated
+   * @param parentless true if nodes should not keep a reference to their
+   *        parent, which requires {@code keyless} to also be true
+   * @param counted true if nodes should keep a count of the values in
+   *        their subtree
+   * @throws IllegalArgumentException if parentless but not keyless
+   */
+  public AbstractBinaryTrie(final KeyCodec<K> keyCodec, final boolean compressed,
+      final boolean keyless, final boolean parentless, final boolean counted) {
     if (keyCodec == null) {
       throw new NullPointerException("KeyCodec may not be null");
     }
+    if (parentless && !keyless) {
+      throw new IllegalArgumentException("Parentless tries must also be keyless");
+    }
     this.codec = keyCodec;
+    this.compressed = compressed;
+    this.keyless = keyless;
+    this.parentless = parentless;
+    this.counted = counted;
+    this.root = newRoot();
   }
 
   /**
@@ -96,42 +290,84 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
    *        into the newly created trie
    */
   public AbstractBinaryTrie(final KeyCodec<K> keyCodec, final Map<K, V> otherMap) {
-    this(keyCodec);
+    this(keyCodec, otherMap, false);
+  }
+
+  /**
+   * Create a {@link AbstractBinaryTrie} using the given {@link KeyCodec},
+   * and the given node layout. The trie will be filled with the keys and
+   * values in the provided map.
+   *
+   * @param keyCodec KeyCodec for analyzing of keys
+   * @param otherMap Map of keys and values, which will be {@link #putAll}
+   *        into the newly created trie
+   * @param compressed true if chains of empty intermediate nodes with a
+   *        single child should be collapsed into a single node
+   */
+  public AbstractBinaryTrie(final KeyCodec<K> keyCodec, final Map<K, V> otherMap,
+      final boolean compressed) {
+    this(keyCodec, compressed);
     this.putAll(otherMap);
   }
 
   /**
    * Copy constructor, creates a shallow copy of this
    * {@link AbstractBinaryTrie} instance.
+   * The copy will use the same node layout (compressed or not, with or
+   * without parent references, counted or not) and policy for keeping keys
+   * as the original.
    *
    * @param otherTrie AbstractBinaryTrie
    */
   public AbstractBinaryTrie(final AbstractBinaryTrie<K, V> otherTrie) {
-    this(otherTrie.codec);
+    this(otherTrie.codec, otherTrie.compressed, otherTrie.keyless, otherTrie.parentless,
+        otherTrie.counted);
     this.buildFromExisting(otherTrie);
   }
 
 
 
+  /**
+   * @return a new empty root Node, of the class of Node used by this trie
+   */
+  protected final Node<K, V> newRoot() {
+    if (compressed) {
+      if (parentless) {
+        return counted ? new CountedCompressedNode<K, V>() : new CompressedNode<K, V>();
+      }
+      if (keyless) {
+        return counted ? new CountedCompressedLinkedNode<K, V>(null)
+            : new CompressedLinkedNode<K, V>(null);
+      }
+      return counted ? new CountedCompressedKeyedNode<K, V>(null)
+          : new CompressedKeyedNode<K, V>(null);
+    }
+    if (parentless) {
+      return counted ? new CountedNode<K, V>() : new Node<K, V>();
+    }
+    if (keyless) {
+      return counted ? new CountedLinkedNode<K, V>(null) : new LinkedNode<K, V>(null);
+    }
+    return counted ? new CountedKeyedNode<K, V>(null) : new KeyedNode<K, V>(null);
+  }
+
+
+
   // Nodes:
 
-  /** Internal representation of a Node Entry */
-  protected static final class Node<K, V> implements Serializable {
+  /**
+   * Internal representation of a Node Entry, which keeps neither its parent
+   * nor its key. Used as is by parentless tries, while keyless tries use
+   * {@link LinkedNode} and all other tries use {@link KeyedNode}
+   * (or their compressed and counted subclasses, in compressed and
+   * counted tries).
+   */
+  protected static class Node<K, V> implements Serializable {
     // Does not implement java.util.Map.Entry so that we do not accidentally
     // return a Node instance from a public method
 
     private static final long serialVersionUID = -1866950138115794051L;
 
-    /**
-     * Do not directly reference <code>privateKey</code> expecting a non-null key.
-     * Instead use {@link AbstractBinaryTrie#resolveKey(Node, AbstractBinaryTrie)}
-     * or {@link AbstractBinaryTrie#resolveNode(Node, AbstractBinaryTrie)} to
-     * first create the key if it does not exist, and return the cached key.
-     *
-     * @return the key (K) if it has been resolved, or null otherwise.
-     */
-    private transient K privateKey = null;
-
     /**
      * the value (V) or null if this node does not have a value
      */
@@ -139,16 +375,11 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
     protected Node<K, V> left = null;
     protected Node<K, V> right = null;
-    protected final Node<K, V> parent; // only root has null parent
 
     /**
-     * Create a new empty Node, with the given parent
-     *
-     * @param parent Node
+     * Create a new empty Node
      */
-    protected Node(final Node<K, V> parent) {
-      this.parent = parent;
-    }
+    protected Node() {}
 
     /**
      * Return the left or right child Node under this Node,
@@ -161,17 +392,112 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     protected final Node<K, V> getOrCreateEmpty(final boolean leftNode) {
       if (leftNode) {
         if (left == null) {
-          left = new Node<K, V>(this);
+          left = newChild();
         }
         return left;
       } else {
         if (right == null) {
-          right = new Node<K, V>(this);
+          right = newChild();
         }
         return right;
       }
     }
 
+    /**
+     * @return a new empty Node of the same class, with this Node as its parent
+     */
+    protected Node<K, V> newChild() {
+      return new Node<K, V>();
+    }
+
+    /**
+     * @return the parent of this Node, or null if this Node is the root or
+     *         does not keep its parent
+     */
+    protected Node<K, V> getParent() {
+      return null;
+    }
+
+    /**
+     * Set the parent of this Node, if this Node keeps its parent
+     *
+     * @param parent the new parent Node
+     */
+    protected void setParent(final Node<K, V> parent) {
+      // Parentless
+    }
+
+    /**
+     * Do not call expecting a non-null key. Instead use
+     * {@link AbstractBinaryTrie#resolveKey(Node, AbstractBinaryTrie)} to
+     * create the key if it has not been cached.
+     *
+     * @return the key (K) if it has been resolved and cached, or null otherwise
+     */
+    protected K cachedKey() {
+      return null;
+    }
+
+    /**
+     * Cache the key of this Node, if this Node keeps its key
+     *
+     * @param key the key, or null to clear it
+     */
+    protected void cacheKey(final K key) {
+      // Keyless
+    }
+
+    /**
+     * @return the number of values in the subtree under and including this
+     *         Node, or -1 if this Node does not keep a count
+     */
+    protected int subtreeCount() {
+      return -1;
+    }
+
+    /**
+     * Set the number of values in the subtree under and including this
+     * Node, if this Node keeps a count
+     *
+     * @param count the number of values
+     */
+    protected void setSubtreeCount(final int count) {
+      // Uncounted
+    }
+
+    /**
+     * @return the number of key elements skipped by this node (path
+     *         compression), in addition to the one element implied by the
+     *         node being a left or right child. Always zero for a Node that
+     *         is not compressed. Never more than {@link AbstractBinaryTrie#MAX_SKIP}.
+     */
+    protected int skip() {
+      return 0;
+    }
+
+    /**
+     * @return the skipped key elements, held in the lowest {@link #skip()}
+     *         bits, with the first skipped element in the highest of those
+     *         bits (0 = left, 1 = right)
+     */
+    protected int bits() {
+      return 0;
+    }
+
+    /**
+     * Set the skipped key elements of this Node, if this Node is compressed
+     *
+     * @param skip the number of skipped key elements
+     * @param bits the skipped key elements, in the form of {@link #bits()}
+     * @throws IllegalStateException if elements are skipped, but this Node
+     *         is not compressed
+     */
+    protected void setSkipped(final int skip, final int bits) {
+      if (skip != 0) {
+        throw new IllegalStateException("Uncompressed nodes can not skip elements");
+      }
+    }
+
     /**
      * @return true if this Entry node has no value and no child nodes
      */
@@ -194,58 +520,466 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     /**
      * @return CodecElements instance consisting of {@code levelsDeep} int
      *         representing how far from the root this Node was found, and
-     *         {@code bits} BitSet representing the elements
+     *         {@code bits} BitSet representing the elements, or null if this
+     *         is the root or does not keep its parent
      */
     protected final CodecElements getCodecElements() {
-      // This will ONLY ever be called if outputting keys,
-      // such as keySet/entrySet/toString
+      // This will ONLY ever be called if outputting keys without a path,
+      // such as from a lone Map.Entry
+
+      if (this.getParent() == null) {
+        return null; // We are the root node, or do not know our parents
+      }
+
+      final BitSet bits = new BitSet();
+      int levelsDeep = 0;
+      Node<K, V> node = this;
+      Node<K, V> parent;
+      while ((parent = node.getParent()) != null) {
+        // Skipped elements are the last elements of this node, so they come first
+        for (int i = 0; i < node.skip(); ++i) {
+          if ((node.bits() >>> i & 1) != 0) {
+            bits.set(levelsDeep);
+          }
+          levelsDeep++;
+        }
+        if (parent.right == node) {
+          bits.set(levelsDeep);
+        }
+        node = parent;
+        levelsDeep++;
+      }
+
+      return new CodecElements(bits, levelsDeep);
+    }
+
+    /**
+     * hashCode should never be called on a Node.
+     * Instead, export the node into a resolved Entry,
+     * or just use the value and resolved key separately.
+     */
+    @Override
+    public final int hashCode() {
+      throw new IllegalStateException("Nodes should not be hashed or compared");
+    }
+
+    /**
+     * equals should never be called on a Node.
+     * Instead, export the node into a resolved Entry,
+     * or just use the value and resolved key separately.
+     */
+    @Override
+    public final boolean equals(final Object obj) {
+      throw new IllegalStateException("Nodes should not be hashed or compared");
+    }
+
+    @Override
+    public final String toString() {
+      final K key = cachedKey();
+      return (key != null ? key : getCodecElements()) + "=" + value;
+    }
+  }
+
+
+  /** Node that keeps a reference to its parent */
+  protected static class LinkedNode<K, V> extends Node<K, V> {
+
+    private static final long serialVersionUID = -3702213398614307052L;
+
+    protected Node<K, V> parent; // only root has null parent
+
+    /**
+     * Create a new empty LinkedNode, with the given parent
+     *
+     * @param parent Node
+     */
+    protected LinkedNode(final Node<K, V> parent) {
+      this.parent = parent;
+    }
+
+    @Override
+    protected Node<K, V> newChild() {
+      return new LinkedNode<K, V>(this);
+    }
+
+    @Override
+    protected final Node<K, V> getParent() {
+      return parent;
+    }
+
+    @Override
+    protected final void setParent(final Node<K, V> parent) {
+      this.parent = parent;
+    }
+  }
+
+
+  /** Node that keeps a reference to its parent, and caches its key once resolved */
+  protected static class KeyedNode<K, V> extends LinkedNode<K, V> {
+
+    private static final long serialVersionUID = 2406914316227455573L;
+
+    /**
+     * the key (K) if it has been resolved, or null otherwise
+     */
+    private transient K privateKey = null;
+
+    /**
+     * Create a new empty KeyedNode, with the given parent
+     *
+     * @param parent Node
+     */
+    protected KeyedNode(final Node<K, V> parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Node<K, V> newChild() {
+      return new KeyedNode<K, V>(this);
+    }
+
+    @Override
+    protected final K cachedKey() {
+      return privateKey;
+    }
+
+    @Override
+    protected final void cacheKey(final K key) {
+      privateKey = key;
+    }
+  }
+
+
+  /** Node without a parent or key, that counts the values in its subtree */
+  protected static final class CountedNode<K, V> extends Node<K, V> {
+
+    private static final long serialVersionUID = 5308712994390781267L;
+
+    protected int count = 0;
+
+    /**
+     * Create a new empty CountedNode
+     */
+    protected CountedNode() {}
+
+    @Override
+    protected Node<K, V> newChild() {
+      return new CountedNode<K, V>();
+    }
+
+    @Override
+    protected int subtreeCount() {
+      return count;
+    }
+
+    @Override
+    protected void setSubtreeCount(final int count) {
+      this.count = count;
+    }
+  }
+
+
+  /** LinkedNode that counts the values in its subtree */
+  protected static final class CountedLinkedNode<K, V> extends LinkedNode<K, V> {
+
+    private static final long serialVersionUID = -1147062413582460389L;
+
+    protected int count = 0;
+
+    /**
+     * Create a new empty CountedLinkedNode, with the given parent
+     *
+     * @param parent Node
+     */
+    protected CountedLinkedNode(final Node<K, V> parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Node<K, V> newChild() {
+      return new CountedLinkedNode<K, V>(this);
+    }
+
+    @Override
+    protected int subtreeCount() {
+      return count;
+    }
+
+    @Override
+    protected void setSubtreeCount(final int count) {
+      this.count = count;
+    }
+  }
+
+
+  /** KeyedNode that counts the values in its subtree */
+  protected static final class CountedKeyedNode<K, V> extends KeyedNode<K, V> {
+
+    private static final long serialVersionUID = 7742915680238410853L;
+
+    protected int count = 0;
+
+    /**
+     * Create a new empty CountedKeyedNode, with the given parent
+     *
+     * @param parent Node
+     */
+    protected CountedKeyedNode(final Node<K, V> parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Node<K, V> newChild() {
+      return new CountedKeyedNode<K, V>(this);
+    }
+
+    @Override
+    protected int subtreeCount() {
+      return count;
+    }
+
+    @Override
+    protected void setSubtreeCount(final int count) {
+      this.count = count;
+    }
+  }
+
+
+
+  /** Node without a parent or key, that skips key elements (path compression) */
+  protected static class CompressedNode<K, V> extends Node<K, V> {
+
+    private static final long serialVersionUID = -4251399417863264583L;
+
+    /**
+     * the number of key elements skipped by this node
+     */
+    protected int skip = 0;
+
+    /**
+     * the skipped key elements (see {@link Node#bits()})
+     */
+    protected int bits = 0;
+
+    /**
+     * Create a new empty CompressedNode
+     */
+    protected CompressedNode() {}
+
+    @Override
+    protected Node<K, V> newChild() {
+      return new CompressedNode<K, V>();
+    }
+
+    @Override
+    protected final int skip() {
+      return skip;
+    }
+
+    @Override
+    protected final int bits() {
+      return bits;
+    }
+
+    @Override
+    protected final void setSkipped(final int skip, final int bits) {
+      this.skip = skip;
+      this.bits = bits;
+    }
+  }
+
+
+  /** LinkedNode that skips key elements (path compression) */
+  protected static class CompressedLinkedNode<K, V> extends LinkedNode<K, V> {
+
+    private static final long serialVersionUID = 6917504422374985136L;
+
+    /**
+     * the number of key elements skipped by this node
+     */
+    protected int skip = 0;
+
+    /**
+     * the skipped key elements (see {@link Node#bits()})
+     */
+    protected int bits = 0;
+
+    /**
+     * Create a new empty CompressedLinkedNode, with the given parent
+     *
+     * @param parent Node
+     */
+    protected CompressedLinkedNode(final Node<K, V> parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Node<K, V> newChild() {
+      return new CompressedLinkedNode<K, V>(this);
+    }
+
+    @Override
+    protected final int skip() {
+      return skip;
+    }
+
+    @Override
+    protected final int bits() {
+      return bits;
+    }
+
+    @Override
+    protected final void setSkipped(final int skip, final int bits) {
+      this.skip = skip;
+      this.bits = bits;
+    }
+  }
+
+
+  /** KeyedNode that skips key elements (path compression) */
+  protected static class CompressedKeyedNode<K, V> extends KeyedNode<K, V> {
+
+    private static final long serialVersionUID = -8126153735905286749L;
+
+    /**
+     * the number of key elements skipped by this node
+     */
+    protected int skip = 0;
+
+    /**
+     * the skipped key elements (see {@link Node#bits()})
+     */
+    protected int bits = 0;
+
+    /**
+     * Create a new empty CompressedKeyedNode, with the given parent
+     *
+     * @param parent Node
+     */
+    protected CompressedKeyedNode(final Node<K, V> parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Node<K, V> newChild() {
+      return new CompressedKeyedNode<K, V>(this);
+    }
+
+    @Override
+    protected final int skip() {
+      return skip;
+    }
+
+    @Override
+    protected final int bits() {
+      return bits;
+    }
+
+    @Override
+    protected final void setSkipped(final int skip, final int bits) {
+      this.skip = skip;
+      this.bits = bits;
+    }
+  }
+
+
+  /** CompressedNode that counts the values in its subtree */
+  protected static final class CountedCompressedNode<K, V> extends CompressedNode<K, V> {
+
+    private static final long serialVersionUID = 3390261728507746625L;
+
+    protected int count = 0;
+
+    /**
+     * Create a new empty CountedCompressedNode
+     */
+    protected CountedCompressedNode() {}
+
+    @Override
+    protected Node<K, V> newChild() {
+      return new CountedCompressedNode<K, V>();
+    }
+
+    @Override
+    protected int subtreeCount() {
+      return count;
+    }
+
+    @Override
+    protected void setSubtreeCount(final int count) {
+      this.count = count;
+    }
+  }
+
+
+  /** CompressedLinkedNode that counts the values in its subtree */
+  protected static final class CountedCompressedLinkedNode<K, V>
+      extends CompressedLinkedNode<K, V> {
+
+    private static final long serialVersionUID = -5573081954316250817L;
+
+    protected int count = 0;
+
+    /**
+     * Create a new empty CountedCompressedLinkedNode, with the given parent
+     *
+     * @param parent Node
+     */
+    protected CountedCompressedLinkedNode(final Node<K, V> parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Node<K, V> newChild() {
+      return new CountedCompressedLinkedNode<K, V>(this);
+    }
+
+    @Override
+    protected int subtreeCount() {
+      return count;
+    }
+
+    @Override
+    protected void setSubtreeCount(final int count) {
+      this.count = count;
+    }
+  }
+
 
-      if (this.parent == null) {
-        return null; // We are the root node
-      }
+  /** CompressedKeyedNode that counts the values in its subtree */
+  protected static final class CountedCompressedKeyedNode<K, V>
+      extends CompressedKeyedNode<K, V> {
 
-      final BitSet bits = new BitSet();
-      int levelsDeep = 0;
-      Node<K, V> node = this;
-      while (node.parent != null) {
-        if (node.parent.right == node) {
-          bits.set(levelsDeep);
-        }
-        node = node.parent;
-        levelsDeep++;
-      }
+    private static final long serialVersionUID = 1683590247716934072L;
 
-      return new CodecElements(bits, levelsDeep);
-    }
+    protected int count = 0;
 
     /**
-     * hashCode should never be called on a Node.
-     * Instead, export the node into a resolved Entry,
-     * or just use the value and resolved key separately.
+     * Create a new empty CountedCompressedKeyedNode, with the given parent
+     *
+     * @param parent Node
      */
+    protected CountedCompressedKeyedNode(final Node<K, V> parent) {
+      super(parent);
+    }
+
     @Override
-    public final int hashCode() {
-      throw new IllegalStateException("Nodes should not be hashed or compared");
+    protected Node<K, V> newChild() {
+      return new CountedCompressedKeyedNode<K, V>(this);
     }
 
-    /**
-     * equals should never be called on a Node.
-     * Instead, export the node into a resolved Entry,
-     * or just use the value and resolved key separately.
-     */
     @Override
-    public final boolean equals(final Object obj) {
-      throw new IllegalStateException("Nodes should not be hashed or compared");
+    protected int subtreeCount() {
+      return count;
     }
 
     @Override
-    public final String toString() {
-      return (privateKey != null ? privateKey : getCodecElements()) + "=" + value;
+    protected void setSubtreeCount(final int count) {
+      this.count = count;
     }
   }
 
 
-
   // Key Resolution/Recreation and Export Methods:
 
   /**
@@ -293,52 +1027,258 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
 
   /**
-   * Ensure a Node's key has been resolved (it is non-null), otherwise recreate
-   * it and cache it, before returning the Key.
+   * Return a Node's cached key, otherwise recreate it (and cache it, unless
+   * the Node does not keep its key) before returning the Key.
    *
    * @param node The Node to be resolved
    * @param trie The Trie this node belongs to
-   * @return non-null Key for a Node
+   * @return non-null Key for a Node with a value
    */
   protected static final <K, V> K resolveKey(final Node<K, V> node,
       final AbstractBinaryTrie<K, V> trie) {
-    final Node<K, V> resolved = resolveNode(node, trie);
-    return resolved == null ? null : resolved.privateKey;
+
+    if (node == null) {
+      return null;
+    }
+
+    // key has already been resolved, or we shouldn't have a key because we don't have a value
+    // (which includes the root node)
+    final K cached = node.cachedKey();
+    if (cached != null || node.value == null) {
+      return cached;
+    }
+
+    final CodecElements elements = node.getCodecElements();
+    if (elements == null) {
+      throw new UnsupportedOperationException(
+          "Nodes without parents can only recreate their key from a path");
+    }
+
+    final KeyCodec<K> codec = trie.codec;
+    final TrieListener listener = trie.listener;
+    final long start = listener == null ? 0L : System.nanoTime();
+    final K key = codec.recreateKey(elements.bits, elements.levelsDeep);
+    if (listener != null) {
+      listener.keyResolved(System.nanoTime() - start);
+    }
+
+    if (key == null) {
+      throw new IllegalStateException("Unable to create non-null key with key-codec: " + codec);
+    }
+    assert getNode(key, trie.root, 0, codec) == node : "Created key must equal original key";
+
+    node.cacheKey(key);
+
+    return key;
   }
 
+
+
   /**
-   * Ensure a Node's key has been resolved (it is non-null), otherwise recreate
-   * it and cache it, before returning the Node.
+   * Return a Node's cached key, otherwise recreate it from the path to the
+   * Node (and cache it, unless the Node does not keep its key) before
+   * returning the Key. Unlike {@link #resolveKey(Node, AbstractBinaryTrie)},
+   * this does not walk back up to the root.
    *
    * @param node The Node to be resolved
    * @param trie The Trie this node belongs to
-   * @return Node with a non-null Key
+   * @param path The path from the root to the Node
+   * @return non-null Key for a Node
    */
-  protected static final <K, V> Node<K, V> resolveNode(final Node<K, V> node,
-      final AbstractBinaryTrie<K, V> trie) {
+  protected static final <K, V> K resolveKey(final Node<K, V> node,
+      final AbstractBinaryTrie<K, V> trie, final KeyPath path) {
 
-    if (node == null || node.parent == null) {
-      return null; // If no parents, then it is the root node
+    if (node == null) {
+      return null;
     }
 
     // key has already been resolved, or we shouldn't have a key because we don't have a value
-    if (node.privateKey != null || node.value == null) {
-      return node;
+    // (which includes the root node)
+    final K cached = node.cachedKey();
+    if (cached != null || node.value == null) {
+      return cached;
     }
 
-    final CodecElements elements = node.getCodecElements();
-
     final KeyCodec<K> codec = trie.codec;
-    final K key = codec.recreateKey(elements.bits, elements.levelsDeep);
+    final TrieListener listener = trie.listener;
+    final long start = listener == null ? 0L : System.nanoTime();
+    final K key = codec.recreateKey(path.elements, path.length);
+    if (listener != null) {
+      listener.keyResolved(System.nanoTime() - start);
+    }
 
     if (key == null) {
       throw new IllegalStateException("Unable to create non-null key with key-codec: " + codec);
     }
     assert getNode(key, trie.root, 0, codec) == node : "Created key must equal original key";
 
-    node.privateKey = key;
+    node.cacheKey(key);
 
-    return node;
+    return key;
+  }
+
+
+  /**
+   * The elements of the path from the root to a Node, which iterators keep
+   * up to date as they move from Node to Node, so that keys can be recreated
+   * in constant time instead of by walking back up to the root.
+   */
+  protected static final class KeyPath {
+
+    /**
+     * the elements of the path in order, 64 per long, with the first
+     * element in the highest bit of the first long (0 = left, 1 = right).
+     * Bits after the length of the path are undefined.
+     */
+    protected long[] elements = new long[1];
+
+    /** the number of elements in the path */
+    protected int length = 0;
+
+    /**
+     * @return a copy of this path, which can then be changed independently
+     */
+    protected final KeyPath copy() {
+      final KeyPath copy = new KeyPath();
+      copy.elements = elements.clone();
+      copy.length = length;
+      return copy;
+    }
+
+    /**
+     * Change this path to be the same as another path
+     *
+     * @param other the path to copy
+     */
+    protected final void set(final KeyPath other) {
+      final int words = (other.length + 63) >>> 6;
+      if (elements.length < words) {
+        elements = new long[other.elements.length];
+      }
+      System.arraycopy(other.elements, 0, elements, 0, words);
+      length = other.length;
+    }
+
+    /**
+     * @param index the index of an element within the path (0 based)
+     * @return true if the element at this index is a right element
+     */
+    protected final boolean isRight(final int index) {
+      return elements[index >>> 6] << (index & 63) < 0;
+    }
+
+    /**
+     * Add a single element to the end of the path
+     *
+     * @param right true if the element is a right element
+     */
+    protected final void add(final boolean right) {
+      final int word = length >>> 6;
+      if (word == elements.length) {
+        elements = Arrays.copyOf(elements, elements.length * 2);
+      }
+      final long bit = 1L << (63 - (length & 63));
+      if (right) {
+        elements[word] |= bit;
+      } else {
+        elements[word] &= ~bit;
+      }
+      ++length;
+    }
+
+    /**
+     * Add the elements of a child Node to the end of the path: the element
+     * implied by it being a left or right child, then its skipped elements
+     *
+     * @param child the child Node being moved down to
+     * @param right true if the child is a right child
+     */
+    protected final void add(final Node<?, ?> child, final boolean right) {
+      add(right);
+      addSkipped(child, 0);
+    }
+
+    /**
+     * Add the skipped elements of a Node to the end of the path
+     *
+     * @param node the compressed Node
+     * @param from the index of the first skipped element to add
+     */
+    protected final void addSkipped(final Node<?, ?> node, final int from) {
+      for (int i = from; i < node.skip(); ++i) {
+        add(!isLeftSkipped(node, i));
+      }
+    }
+
+    /**
+     * Remove the elements of a Node from the end of the path
+     *
+     * @param node the Node being moved up from
+     */
+    protected final void remove(final Node<?, ?> node) {
+      length -= 1 + node.skip();
+    }
+  }
+
+
+  /**
+   * The ancestors of a Node, from the root down to its parent. Traversals
+   * and deletions keep one of these instead of following parent references,
+   * adding each Node as they move down to one of its children. Starts with
+   * enough room for the 32 levels of a CIDR4, and grows as needed.
+   */
+  protected static final class NodeStack<K, V> {
+
+    protected Node<K, V>[] nodes;
+    protected int size = 0;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected NodeStack() {
+      this.nodes = new Node[32];
+    }
+
+    /**
+     * @param node the Node being moved down from, to one of its children
+     */
+    protected final void push(final Node<K, V> node) {
+      if (size == nodes.length) {
+        nodes = Arrays.copyOf(nodes, size * 2);
+      }
+      nodes[size++] = node;
+    }
+
+    /**
+     * @return the parent of the current Node, which is no longer on the stack
+     */
+    protected final Node<K, V> pop() {
+      return nodes[--size];
+    }
+
+    /**
+     * @return the parent of the current Node
+     */
+    protected final Node<K, V> peek() {
+      return nodes[size - 1];
+    }
+
+    /**
+     * Change this stack to hold the ancestors of a Node, by walking down the
+     * path to the Node from the root
+     *
+     * @param root the root Node of the trie
+     * @param node the Node to find the ancestors of
+     * @param path the path from the root to the Node
+     */
+    protected final void seek(final Node<K, V> root, final Node<K, V> node, final KeyPath path) {
+      size = 0;
+      Node<K, V> current = root;
+      int index = 0;
+      while (current != node) {
+        push(current);
+        current = path.isRight(index) ? current.right : current.left;
+        index += 1 + current.skip();
+      }
+    }
   }
 
 
@@ -350,6 +1290,7 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
     private final AbstractBinaryTrie<K, V> trie; // the backing trie
     private final Node<K, V> node;
+    private K key; // null until resolved
 
     /**
      * Creates an entry wrapper representing a mapping of the Node's key to the Node's value.
@@ -357,15 +1298,21 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
      *
      * @param node the node to be wrapped in this Entry
      * @param trie the parent trie
+     * @param key the Node's key if already resolved, or null to resolve it when needed
      */
-    protected TrieEntry(final Node<K, V> node, final AbstractBinaryTrie<K, V> trie) {
+    protected TrieEntry(final Node<K, V> node, final AbstractBinaryTrie<K, V> trie,
+        final K key) {
       this.trie = trie;
       this.node = node;
+      this.key = key;
     }
 
     @Override
     public K getKey() {
-      return resolveKey(node, trie);
+      if (key == null) {
+        key = resolveKey(node, trie);
+      }
+      return key;
     }
 
     @Override
@@ -418,10 +1365,25 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
    */
   protected static final <K, V> Map.Entry<K, V> exportEntry(final Node<K, V> node,
       final AbstractBinaryTrie<K, V> trie) {
+    return exportEntry(node, trie, null);
+  }
+
+  /**
+   * Return a wrapped Node, along with its already resolved key.
+   * Returns null if the node is null or the node's value is null (meaning it
+   * is an empty intermediate node).
+   *
+   * @param node the Node to export
+   * @param trie the Trie this Node is in
+   * @param key the Node's key, or null to resolve it lazily
+   * @return TrieEntry Map.Entry
+   */
+  protected static final <K, V> Map.Entry<K, V> exportEntry(final Node<K, V> node,
+      final AbstractBinaryTrie<K, V> trie, final K key) {
     if (node == null || node.value == null) {
       return null;
     }
-    return new TrieEntry<K, V>(node, trie);
+    return new TrieEntry<K, V>(node, trie, key);
   }
 
 
@@ -449,6 +1411,171 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     return codec;
   }
 
+  /**
+   * Returns statistics about the shape and footprint of this {@link Trie}:
+   * the number of nodes with and without values, the number of nodes at
+   * each depth and with each number of children, how many keys are cached,
+   * and the estimated heap used by the nodes. Useful for capacity planning,
+   * and for choosing between compressed, keyless and frozen tries.
+   *
+   * <p>
+   * Computed with a single traversal of every node, which takes time
+   * proportional to the number of nodes.
+   *
+   * @return TrieStats snapshot of this trie
+   */
+  public TrieStats stats() {
+    final NodeStack<K, V> stack = new NodeStack<K, V>();
+    int[] stackDepths = new int[stack.nodes.length];
+    long[] nodesAtDepth = new long[33];
+    long[] valuesAtDepth = new long[33];
+    final long[] fanOut = new long[3];
+    long nodeCount = 0L;
+    long valueNodeCount = 0L;
+    long cachedKeyCount = 0L;
+    long skippedElements = 0L;
+    long estimatedBytes = 0L;
+    int maxDepth = 0;
+
+    stack.push(root);
+    while (stack.size > 0) {
+      final int depth = stackDepths[stack.size - 1];
+      final Node<K, V> node = stack.pop();
+
+      if (depth >= nodesAtDepth.length) {
+        final int length = Math.max(depth + 1, nodesAtDepth.length * 2);
+        nodesAtDepth = Arrays.copyOf(nodesAtDepth, length);
+        valuesAtDepth = Arrays.copyOf(valuesAtDepth, length);
+      }
+      maxDepth = Math.max(maxDepth, depth);
+      ++nodeCount;
+      ++nodesAtDepth[depth];
+      if (node.value != null) {
+        ++valueNodeCount;
+        ++valuesAtDepth[depth];
+        if (node.cachedKey() != null) {
+          ++cachedKeyCount;
+        }
+      }
+      skippedElements += node.skip();
+      estimatedBytes += estimatedNodeBytes(node);
+
+      int children = 0;
+      if (node.right != null) {
+        ++children;
+        stackDepths = pushChild(stack, stackDepths, node.right, depth);
+      }
+      if (node.left != null) {
+        ++children;
+        stackDepths = pushChild(stack, stackDepths, node.left, depth);
+      }
+      ++fanOut[children];
+    }
+
+    return new TrieStats(nodeCount, valueNodeCount, cachedKeyCount, skippedElements,
+        estimatedBytes, Arrays.copyOf(nodesAtDepth, maxDepth + 1),
+        Arrays.copyOf(valuesAtDepth, maxDepth + 1), fanOut);
+  }
+
+  /**
+   * Push a child Node, and its depth, onto the stack used by {@link #stats()}
+   *
+   * @return the depths array, which is grown if needed
+   */
+  private static <K, V> int[] pushChild(final NodeStack<K, V> stack, int[] depths,
+      final Node<K, V> child, final int parentDepth) {
+    if (stack.size == depths.length) {
+      depths = Arrays.copyOf(depths, depths.length * 2);
+    }
+    depths[stack.size] = parentDepth + 1 + child.skip();
+    stack.push(child);
+    return depths;
+  }
+
+  /**
+   * Hook for subclasses to estimate the heap used by a node, not including
+   * its key and value, assuming a 64-bit JVM with compressed references.
+   *
+   * @param node Node
+   * @return the estimated bytes used by the node
+   */
+  protected int estimatedNodeBytes(final Node<K, V> node) {
+    // 12 byte header, value, left and right references, plus a parent
+    // reference (and a cached key reference), plus any skip and bits ints,
+    // plus any count int, rounded up to 8 bytes
+    int bytes = node instanceof KeyedNode ? 32 : node instanceof LinkedNode ? 28 : 24;
+    if (node instanceof CompressedNode || node instanceof CompressedLinkedNode
+        || node instanceof CompressedKeyedNode) {
+      bytes += 8;
+    }
+    if (node.subtreeCount() >= 0) {
+      bytes += 4;
+    }
+    return (bytes + 7) & ~7;
+  }
+
+  /**
+   * Set a listener to be told about every get, containsKey, longest and
+   * shortest prefix lookup, and each step of the prefix iterators, of this
+   * {@link Trie} (but not of copies of it, or of the batch lookups).
+   * Lookups pay only for a null check while no listener is set.
+   *
+   * <p>
+   * Like the rest of this trie, changing the listener is not thread-safe,
+   * so it must be set before the trie is published to other threads.
+   *
+   * @param listener TrieListener, or null to stop instrumenting lookups
+   */
+  public void setListener(final TrieListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @return the {@link TrieListener} set on this trie, or null if none
+   */
+  public TrieListener getListener() {
+    return listener;
+  }
+
+  /**
+   * Report a lookup to the listener, walking the key a second time to count
+   * the nodes the lookup visited, and the length of the key of the Node found.
+   * A shortest prefix lookup stops at the Node it found, so the walk does too.
+   *
+   * @param listener TrieListener
+   * @param type the kind of lookup
+   * @param key the Key searched for
+   * @param maxDepth the deepest key element depth the lookup could descend to
+   * @param found the Node found by the lookup, or null
+   * @param nanos the time taken by the lookup
+   */
+  protected void reportLookup(final TrieListener listener, final TrieListener.LookupType type,
+      final K key, final int maxDepth, final Node<K, V> found, final long nanos) {
+    int descentDepth = 0;
+    int matchLength = 0;
+    Node<K, V> node = root;
+    int index = 0;
+    descent: while (index < maxDepth) {
+      node = codec.isLeft(key, index++) ? node.left : node.right;
+      if (node == null) {
+        break;
+      }
+      ++descentDepth;
+      for (int i = 0; i < node.skip(); ++i) {
+        if (index >= maxDepth || codec.isLeft(key, index++) != isLeftSkipped(node, i)) {
+          break descent;
+        }
+      }
+      if (node == found) {
+        matchLength = index;
+        if (type == TrieListener.LookupType.SHORTEST_PREFIX_OF) {
+          break;
+        }
+      }
+    }
+    listener.lookup(type, found != null, descentDepth, matchLength, nanos);
+  }
+
 
 
   @Override
@@ -456,6 +1583,7 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     this.root.value = null;
     this.root.left = null;
     this.root.right = null;
+    this.root.setSubtreeCount(0);
     this.size = 0L;
     ++this.modCount;
   }
@@ -497,89 +1625,293 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
     Node<K, V> myNode = this.root;
     Node<K, V> otherNode = otherTrie.root;
+    final NodeStack<K, V> myAncestors = new NodeStack<K, V>();
+    final NodeStack<K, V> otherAncestors = new NodeStack<K, V>();
 
     // Pre-Order tree traversal
     outer: while (otherNode != null) {
 
       if (otherNode.left != null) {
+        otherAncestors.push(otherNode);
+        myAncestors.push(myNode);
         otherNode = otherNode.left;
         myNode = myNode.getOrCreateEmpty(true);
-        myNode.value = otherNode.value;
+        copyNode(otherNode, myNode);
         continue;
       }
 
       if (otherNode.right != null) {
+        otherAncestors.push(otherNode);
+        myAncestors.push(myNode);
         otherNode = otherNode.right;
         myNode = myNode.getOrCreateEmpty(false);
-        myNode.value = otherNode.value;
+        copyNode(otherNode, myNode);
         continue;
       }
 
       // We are a leaf node
-      while (otherNode.parent != null) {
+      while (otherAncestors.size > 0) {
 
-        if (otherNode == otherNode.parent.left && otherNode.parent.right != null) {
-          otherNode = otherNode.parent.right;
-          myNode = myNode.parent.getOrCreateEmpty(false);
-          myNode.value = otherNode.value;
+        final Node<K, V> otherParent = otherAncestors.peek();
+        if (otherNode == otherParent.left && otherParent.right != null) {
+          otherNode = otherParent.right;
+          myNode = myAncestors.peek().getOrCreateEmpty(false);
+          copyNode(otherNode, myNode);
           continue outer;
         }
-        otherNode = otherNode.parent;
-        myNode = myNode.parent;
+        otherNode = otherAncestors.pop();
+        myNode = myAncestors.pop();
+      }
+      break;
+
+    }
+
+    this.size = otherTrie.size;
+    if (counted) {
+      countSubtrees();
+    }
+    ++this.modCount;
+  }
+
+  /**
+   * Copies the value and any skipped (compressed) elements of one Node onto
+   * another Node at the same position in a different trie.
+   *
+   * @param from Node to copy from
+   * @param to Node to copy onto
+   */
+  private static final <K, V> void copyNode(final Node<K, V> from, final Node<K, V> to) {
+    to.value = from.value;
+    to.setSkipped(from.skip(), from.bits());
+  }
+
+
+
+  @Override
+  public V put(final K key, final V value)
+      throws ClassCastException, NullPointerException, IllegalArgumentException {
+
+    if (key == null) {
+      throw new NullPointerException(getClass().getName()
+          + " does not accept null keys: " + key);
+    }
+    if (value == null) {
+      throw new NullPointerException(getClass().getName()
+          + " does not accept null values: " + value);
+    }
+
+    final int stopDepth = codec.length(key);
+
+    if (stopDepth <= 0) {
+      throw new IllegalArgumentException(getClass().getName()
+          + " does not accept keys of length <= 0: " + key);
+    }
+
+    final NodeStack<K, V> ancestors = counted ? new NodeStack<K, V>() : null;
+    return setNodeValue(getOrCreateNode(key, stopDepth, root, 0, ancestors), ancestors, key,
+        value);
+  }
+
+  /**
+   * Return the Node for a given key, creating it and any Nodes above it if
+   * they do not already exist (splitting compressed Nodes as needed).
+   *
+   * @param key the Key
+   * @param stopDepth the length of the key
+   * @param startingNode the node to begin our search underneath (usually root),
+   *        which must be on the path of the key
+   * @param startingIndex the key element index corresponding to the depth of
+   *        the startingNode (usually zero)
+   * @param ancestors null if starting at the root, otherwise the ancestors of
+   *        the startingNode, which will be changed to the ancestors of the
+   *        returned Node
+   * @return the Node at the key's position (with or without a value)
+   */
+  protected Node<K, V> getOrCreateNode(final K key, final int stopDepth,
+      final Node<K, V> startingNode, final int startingIndex, final NodeStack<K, V> ancestors) {
+
+    Node<K, V> subNode = startingNode;
+    Node<K, V> parent = ancestors == null || ancestors.size == 0 ? null : ancestors.peek();
+    int i = startingIndex;
+    if (i == stopDepth) {
+      return subNode;
+    }
+    long word = keyWord(key, i, stopDepth, codec);
+    int wordIndex = i;
+    while (true) {
+      boolean collapsed = false;
+      if (i - wordIndex >= 64) {
+        word = keyWord(key, i, stopDepth, codec);
+        wordIndex = i;
+      }
+      final boolean left = word << (i++ - wordIndex) >= 0L;
+      Node<K, V> child = left ? subNode.left : subNode.right;
+
+      if (child == null) {
+        child = subNode.getOrCreateEmpty(left);
+        if (compressed) {
+          // Hold as many of the remaining elements as possible in this single new node
+          final int skip = Math.min(stopDepth - i, MAX_SKIP);
+          child.setSkipped(skip, keyBits(key, i, skip, codec));
+          i += skip;
+        }
+
+      } else if (child.skip() > 0) {
+        // Match our key against the elements skipped by this node
+        final int limit = Math.min(child.skip(), stopDepth - i);
+        int matched = 0;
+        if (limit > 0) {
+          if (i + limit - wordIndex > 64) {
+            word = keyWord(key, i, stopDepth, codec);
+            wordIndex = i;
+          }
+          final int diff = wordBits(word, i - wordIndex, limit)
+              ^ (child.bits() >>> (child.skip() - limit));
+          matched = diff == 0 ? limit : Integer.numberOfLeadingZeros(diff) - (32 - limit);
+        }
+        if (matched < child.skip()) {
+          // Our key ends or diverges part way through this node, so split it
+          final Node<K, V> lower = child;
+          child = splitNode(lower, matched, subNode);
+          // The lower part may have been an empty link in a chain of nodes,
+          // that can now be collapsed into its own child,
+          // and the same goes for our parent and the new upper part
+          mergeWithChild(lower, child);
+          collapsed = mergeWithChild(subNode, parent);
+        }
+        i += matched;
+      }
+
+      if (!collapsed) {
+        if (ancestors != null) {
+          ancestors.push(subNode);
+        }
+        parent = subNode;
+      }
+      subNode = child;
+      if (i == stopDepth) {
+        return subNode;
       }
-      break;
-
     }
+  }
 
-    this.size = otherTrie.size;
+  /**
+   * Set the value of a Node, updating the size, modification count and any
+   * subtree counts
+   *
+   * @param node the Node at the key's position
+   * @param ancestors the ancestors of the Node (all the way up to the root),
+   *        or null if this trie is not counted
+   * @param key the Key
+   * @param value the new value
+   * @return the previous value of the Node, or null
+   */
+  private V setNodeValue(final Node<K, V> node, final NodeStack<K, V> ancestors, final K key,
+      final V value) {
+    if (node.value == null) {
+      ++this.size;
+      if (counted) {
+        addToSubtreeCounts(node, ancestors, 1);
+      }
+    }
+    if (node.cachedKey() != null) {
+      node.cacheKey(key);
+    }
     ++this.modCount;
+    return node.setValue(value);
   }
 
-
-
   @Override
-  public V put(final K key, final V value)
+  public void putAll(final Map<? extends K, ? extends V> map)
       throws ClassCastException, NullPointerException, IllegalArgumentException {
-
-    if (key == null) {
-      throw new NullPointerException(getClass().getName()
-          + " does not accept null keys: " + key);
+    if (map instanceof SortedMap || map instanceof Trie) {
+      // Neighboring keys are likely to share long prefixes
+      putAllSorted(map.entrySet().iterator());
+      return;
     }
-    if (value == null) {
-      throw new NullPointerException(getClass().getName()
-          + " does not accept null values: " + value);
+    for (final Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+      put(entry.getKey(), entry.getValue());
     }
+  }
 
-    final int stopDepth = codec.length(key);
+  /**
+   * Put all of the entries from the iterator into this trie.
+   *
+   * <p>
+   * Instead of starting every insertion at the root, each insertion starts
+   * from the deepest node shared with the previously inserted key, by
+   * walking back up from the previous node. The entries may be in any order,
+   * but this is fastest when they are sorted in this trie's key order
+   * (the order returned by {@link #keySet}), because neighboring keys then
+   * share the longest prefixes, making building a trie from sorted input
+   * roughly linear in the total number of nodes created.
+   *
+   * @param entries Iterator of key-value entries, ideally sorted
+   * @throws NullPointerException if any key or value is null
+   * @throws IllegalArgumentException if any key has a length of zero
+   */
+  public void putAllSorted(final Iterator<? extends Map.Entry<? extends K, ? extends V>> entries)
+      throws ClassCastException, NullPointerException, IllegalArgumentException {
 
-    if (stopDepth <= 0) {
-      throw new IllegalArgumentException(getClass().getName()
-          + " does not accept keys of length <= 0: " + key);
-    }
+    K lastKey = null;
+    Node<K, V> lastNode = root;
+    int lastDepth = 0;
+    final NodeStack<K, V> ancestors = new NodeStack<K, V>();
 
-    Node<K, V> subNode = root;
-    int i = 0;
-    while (true) {
-      subNode = subNode.getOrCreateEmpty(codec.isLeft(key, i++));
-      if (i == stopDepth) {
-        if (subNode.value == null) {
-          ++this.size;
-        }
-        if (subNode.privateKey != null) {
-          subNode.privateKey = key;
-        }
-        ++this.modCount;
-        return subNode.setValue(value);
+    while (entries.hasNext()) {
+      final Map.Entry<? extends K, ? extends V> entry = entries.next();
+      final K key = entry.getKey();
+      final V value = entry.getValue();
+      if (key == null) {
+        throw new NullPointerException(getClass().getName()
+            + " does not accept null keys: " + key);
+      }
+      if (value == null) {
+        throw new NullPointerException(getClass().getName()
+            + " does not accept null values: " + value);
+      }
+      final int stopDepth = codec.length(key);
+      if (stopDepth <= 0) {
+        throw new IllegalArgumentException(getClass().getName()
+            + " does not accept keys of length <= 0: " + key);
       }
+
+      // Walk up from the last node to the deepest node shared with this key
+      final int common = lastKey == null ? 0
+          : commonPrefixLength(lastKey, key, Math.min(lastDepth, stopDepth));
+      while (lastDepth > common) {
+        lastDepth -= 1 + lastNode.skip();
+        lastNode = ancestors.pop();
+      }
+
+      lastNode = getOrCreateNode(key, stopDepth, lastNode, lastDepth, ancestors);
+      lastDepth = stopDepth;
+      lastKey = key;
+      setNodeValue(lastNode, ancestors, key, value);
     }
   }
 
-  @Override
-  public void putAll(final Map<? extends K, ? extends V> map)
-      throws ClassCastException, NullPointerException, IllegalArgumentException {
-    for (final Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
-      put(entry.getKey(), entry.getValue());
+  /**
+   * Hook for subclasses to count the leading elements two keys have in
+   * common more quickly than comparing them one element at a time.
+   *
+   * @param key1 the first Key
+   * @param key2 the second Key
+   * @param maxLength the maximum number of elements to compare, which is
+   *        no more than the length of either key
+   * @return the number of leading elements (up to maxLength) that are equal
+   */
+  protected int commonPrefixLength(final K key1, final K key2, final int maxLength) {
+    int i = 0;
+    while (i < maxLength) {
+      final int count = Math.min(64, maxLength - i);
+      final long diff = codec.bits(key1, i, count) ^ codec.bits(key2, i, count);
+      if (diff != 0L) {
+        return i + Long.numberOfLeadingZeros(diff) - (64 - count);
+      }
+      i += count;
     }
+    return i;
   }
 
 
@@ -590,44 +1922,311 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       throw new NullPointerException(getClass().getName()
           + " does not accept null keys: " + key);
     }
+    final NodeStack<K, V> ancestors = new NodeStack<K, V>();
     @SuppressWarnings("unchecked")
-    final Node<K, V> p = getNode((K) key);
+    final Node<K, V> p = getNode((K) key, ancestors);
     if (p == null) {
       return null;
     }
 
     final V oldValue = p.value;
-    deleteNode(p);
+    deleteNode(p, ancestors);
     return oldValue;
   }
 
+  /**
+   * Delete a Node, given the path to it, from which its ancestors are found.
+   *
+   * @param node Node to delete
+   * @param path the path from the root to the Node
+   */
+  protected void deleteNode(final Node<K, V> node, final KeyPath path) {
+    final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+    ancestors.seek(root, node, path);
+    deleteNode(node, ancestors);
+  }
+
   /**
    * Delete a Node. If a leaf node, this will also delete any empty
    * intermediate parents of the Node, to maintain the contract that all
    * leaf nodes must have a value.
    *
    * @param node Node to delete
+   * @param ancestors the ancestors of the Node, which are used up
    */
-  protected void deleteNode(Node<K, V> node) {
+  protected void deleteNode(Node<K, V> node, final NodeStack<K, V> ancestors) {
     if (node == null || node.value == null) {
       return;
     }
 
     --this.size;
     ++modCount;
+    if (counted) {
+      addToSubtreeCounts(node, ancestors, -1);
+    }
     node.value = null;
-    node.privateKey = null;
+    node.cacheKey(null);
 
-    while (node.isEmpty() && node.parent != null) {
-      if (node.parent.left == node) {
-        node.parent.left = null;
+    while (node.isEmpty() && ancestors.size > 0) {
+      final Node<K, V> parent = ancestors.pop();
+      if (parent.left == node) {
+        parent.left = null;
       } else {
-        node.parent.right = null;
+        parent.right = null;
+      }
+      node = parent;
+    }
+
+    if (compressed) {
+      // Either the deleted node or the parent of a removed leaf
+      // may now be an empty node with only a single child
+      mergeWithChild(node, ancestors.size > 0 ? ancestors.peek() : null);
+    }
+  }
+
+
+
+  // Subtree Count Methods:
+
+  /**
+   * Add to the subtree count of a Node and of all of its ancestors
+   *
+   * @param node Node that has gained or lost its value
+   * @param ancestors the ancestors of the Node, all the way up to the root
+   * @param delta 1 if the Node has gained a value, or -1 if it has lost it
+   */
+  private static <K, V> void addToSubtreeCounts(final Node<K, V> node,
+      final NodeStack<K, V> ancestors, final int delta) {
+    node.setSubtreeCount(node.subtreeCount() + delta);
+    for (int i = 0; i < ancestors.size; ++i) {
+      final Node<K, V> ancestor = ancestors.nodes[i];
+      ancestor.setSubtreeCount(ancestor.subtreeCount() + delta);
+    }
+  }
+
+  /**
+   * Recount the values in the subtree of every Node, in a single post-order
+   * traversal, after the Nodes have been built without counting them
+   */
+  protected void countSubtrees() {
+    final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+    Node<K, V> node = root;
+    outer: while (true) {
+      // Go down to the first leaf of the subtree
+      while (node.left != null || node.right != null) {
+        ancestors.push(node);
+        node = node.left != null ? node.left : node.right;
+      }
+      // Count each Node once all of the Nodes under it have been counted
+      while (true) {
+        int count = node.value != null ? 1 : 0;
+        if (node.left != null) {
+          count += node.left.subtreeCount();
+        }
+        if (node.right != null) {
+          count += node.right.subtreeCount();
+        }
+        node.setSubtreeCount(count);
+        if (ancestors.size == 0) {
+          return;
+        }
+        final Node<K, V> parent = ancestors.peek();
+        if (node == parent.left && parent.right != null) {
+          node = parent.right;
+          continue outer;
+        }
+        node = ancestors.pop();
       }
-      node = node.parent;
     }
   }
 
+  /**
+   * Count the values in a prefix view with a single descent along the path
+   * of its key, without iterating over the view. The values of a prefix-of
+   * view are all on that path, while the values of a prefixed-by view are
+   * all in the subtree at the end of it, which can only be counted this way
+   * if this trie is counted.
+   *
+   * @param mustBePrefixedBy null or the key that all must be prefixed by
+   * @param mustBePrefixedByInclusive true if the mustBePrefixedBy is inclusive
+   * @param mustBePrefixOf null or the key that all must be prefixes of
+   * @param mustBePrefixOfInclusive true if the mustBePrefixOf is inclusive
+   * @return the number of values in the view, or -1 if they can only be
+   *         counted by iterating over the view
+   */
+  protected long prefixViewSize(final K mustBePrefixedBy, final boolean mustBePrefixedByInclusive,
+      final K mustBePrefixOf, final boolean mustBePrefixOfInclusive) {
+
+    final boolean prefixOf = mustBePrefixOf != null;
+    if (!prefixOf && !counted) {
+      return -1L;
+    }
+    // Use the same depth limits as the prefix iterators
+    final K key = prefixOf ? mustBePrefixOf : mustBePrefixedBy;
+    final int prefixDepth = codec.length(key);
+    final int maxDepth = prefixOf && !mustBePrefixOfInclusive ? prefixDepth - 1 : prefixDepth;
+    final int minDepth = mustBePrefixedBy == null ? 1
+        : (mustBePrefixedByInclusive ? 0 : 1) + codec.length(mustBePrefixedBy);
+
+    long count = 0L;
+    Node<K, V> node = root;
+    int index = 0;
+    while (index < maxDepth) {
+      node = codec.isLeft(key, index++) ? node.left : node.right;
+      if (node == null) {
+        return count;
+      }
+      for (int i = 0; i < node.skip(); ++i) {
+        if (index >= maxDepth) {
+          // Our key ends part way through this node, so the node is below our key
+          return prefixOf ? count : node.subtreeCount();
+        }
+        if (codec.isLeft(key, index++) != isLeftSkipped(node, i)) {
+          return count;
+        }
+      }
+      if (prefixOf && node.value != null && index >= minDepth) {
+        ++count;
+      }
+    }
+    if (prefixOf) {
+      return count;
+    }
+    // The Node at the key, which is only included itself if inclusive
+    return node.subtreeCount() - (node.value != null && index < minDepth ? 1 : 0);
+  }
+
+
+
+  // Path Compression Methods:
+
+  /**
+   * Returns the skipped key elements, starting at {@code index}, packed into
+   * the lowest {@code count} bits of an int, with the element at
+   * {@code index} in the highest of those bits (0 = left, 1 = right).
+   *
+   * @param key the key
+   * @param index the index of the first element (0 based)
+   * @param count the number of elements (at most {@link #MAX_SKIP})
+   * @param codec KeyCodec
+   * @return the elements as bits
+   */
+  protected static final <K> int keyBits(final K key, final int index, final int count,
+      final KeyCodec<K> codec) {
+    return (int) codec.bits(key, index, count);
+  }
+
+  /**
+   * Returns up to 64 key elements, starting at {@code index}, with the element
+   * at {@code index} in the highest bit (0 = left, 1 = right), so that a
+   * descent can read the key a word at a time instead of an element at a time.
+   * Bits at or after {@code stopDepth} are 0.
+   *
+   * @param key the key
+   * @param index the index of the first element (0 based)
+   * @param stopDepth the number of elements of the key that may be read
+   * @param codec KeyCodec
+   * @return the elements as the highest bits of a long
+   */
+  protected static final <K> long keyWord(final K key, final int index, final int stopDepth,
+      final KeyCodec<K> codec) {
+    final int count = Math.min(64, stopDepth - index);
+    return count <= 0 ? 0L : codec.bits(key, index, count) << (64 - count);
+  }
+
+  /**
+   * @param word key elements, as returned by {@link #keyWord}
+   * @param offset the index within the word of the first element
+   * @param count the number of elements (from 1 to {@link #MAX_SKIP})
+   * @return the elements packed into the lowest {@code count} bits of an int,
+   *         in the same form as {@link #keyBits} and a Node's skipped bits
+   */
+  protected static final int wordBits(final long word, final int offset, final int count) {
+    return (int) ((word << offset) >>> (64 - count));
+  }
+
+  /**
+   * @param node Node
+   * @param skipIndex the index within the node's skipped elements (0 based)
+   * @return true if the skipped element at this index is a left element
+   */
+  protected static final boolean isLeftSkipped(final Node<?, ?> node, final int skipIndex) {
+    return (node.bits() >>> (node.skip() - 1 - skipIndex) & 1) == 0;
+  }
+
+  /**
+   * Splits a compressed node into two, by inserting a new empty node in its
+   * place which holds the first {@code keep} skipped elements. The original
+   * node is moved underneath the new node, and keeps the remaining elements
+   * (so that it continues to represent the same key and value).
+   *
+   * @param node Node to split, which must have more than {@code keep}
+   *        skipped elements
+   * @param keep number of skipped elements to keep in the new upper node
+   * @param parent the parent of the Node
+   * @return the new upper node
+   */
+  protected Node<K, V> splitNode(final Node<K, V> node, final int keep,
+      final Node<K, V> parent) {
+    final Node<K, V> upper = parent.newChild();
+    upper.setSubtreeCount(node.subtreeCount());
+    upper.setSkipped(keep, node.bits() >>> (node.skip() - keep));
+
+    if (parent.left == node) {
+      parent.left = upper;
+    } else {
+      parent.right = upper;
+    }
+
+    final boolean lowerLeft = isLeftSkipped(node, keep);
+    final int lowerSkip = node.skip() - keep - 1;
+    node.setSkipped(lowerSkip, node.bits() & ((1 << lowerSkip) - 1));
+    node.setParent(upper);
+    if (lowerLeft) {
+      upper.left = node;
+    } else {
+      upper.right = node;
+    }
+    return upper;
+  }
+
+  /**
+   * If the node is an empty (no value) non-root node with only a single child,
+   * collapse it into its child, as long as the child would not then hold more
+   * than {@link #MAX_SKIP} skipped elements. The child node is kept (so that
+   * it continues to represent the same key and value), while this node is
+   * removed from the trie.
+   *
+   * @param node Node to merge into its only child
+   * @param parent the parent of the Node, or null if the Node is the root
+   * @return true if the Node was merged into its child, and removed
+   */
+  protected boolean mergeWithChild(final Node<K, V> node, final Node<K, V> parent) {
+    if (parent == null || node.value != null
+        || (node.left != null && node.right != null)
+        || (node.left == null && node.right == null)) {
+      return false;
+    }
+    final boolean childLeft = node.left != null;
+    final Node<K, V> child = childLeft ? node.left : node.right;
+    final int totalSkip = node.skip() + 1 + child.skip();
+    if (totalSkip > MAX_SKIP) {
+      return false;
+    }
+
+    child.setSkipped(totalSkip, (node.bits() << (child.skip() + 1))
+        | ((childLeft ? 0 : 1) << child.skip())
+        | child.bits());
+
+    child.setParent(parent);
+    if (parent.left == node) {
+      parent.left = child;
+    } else {
+      parent.right = child;
+    }
+    return true;
+  }
+
 
 
   // Search Methods:
@@ -638,7 +2237,9 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       throw new NullPointerException(getClass().getName()
           + " does not allow null values: " + value);
     }
-    for (Node<K, V> e = firstNode(); e != null; e = successor(e)) {
+    final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+    for (Node<K, V> e = successor(root, 0, null, ancestors); e != null;
+        e = successor(e, 0, null, ancestors)) {
       if (eq(value, e.value)) {
         return true;
       }
@@ -655,7 +2256,8 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       throw new NullPointerException(getClass().getName()
           + " does not allow null keys: " + key);
     }
-    return getNode((K) key) != null;
+    final TrieListener listener = this.listener;
+    return (listener == null ? getNode((K) key) : getNode((K) key, listener)) != null;
   }
 
   @SuppressWarnings("unchecked")
@@ -665,10 +2267,27 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       throw new NullPointerException(getClass().getName()
           + " does not accept null keys: " + key);
     }
-    final Node<K, V> node = getNode((K) key);
+    final TrieListener listener = this.listener;
+    final Node<K, V> node = listener == null ? getNode((K) key) : getNode((K) key, listener);
     return node == null ? null : node.value;
   }
 
+  /**
+   * Return the Node for a given key, or null if not found or the key is null,
+   * and report the lookup to the listener
+   *
+   * @param key the Key searched for
+   * @param listener TrieListener
+   * @return Node if found, or null
+   */
+  protected Node<K, V> getNode(final K key, final TrieListener listener) {
+    final long start = System.nanoTime();
+    final Node<K, V> node = getNode(key);
+    final long nanos = System.nanoTime() - start;
+    reportLookup(listener, TrieListener.LookupType.GET, key, codec.length(key), node, nanos);
+    return node;
+  }
+
   /**
    * Return the Node for a given key, or null if not found or the key is null
    *
@@ -679,6 +2298,65 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     return getNode(key, root, 0, codec);
   }
 
+  /**
+   * Return the Node for a given key, along with its ancestors,
+   * or null if not found or the key is null
+   *
+   * @param key the Key searched for
+   * @param ancestors an empty stack, which will be filled with the ancestors
+   *        of the Node if found (and is undefined if not found)
+   * @return Node if found, or null
+   */
+  protected Node<K, V> getNode(final K key, final NodeStack<K, V> ancestors) {
+
+    if (key == null) {
+      return null;
+    }
+
+    final int stopDepth = codec.length(key);
+
+    if (stopDepth <= 0) {
+      throw new IllegalArgumentException(getClass().getName()
+          + " does not accept keys of length <= 0: " + key);
+    }
+
+    Node<K, V> subNode = root;
+    int index = 0;
+    long word = keyWord(key, index, stopDepth, codec);
+    int wordIndex = index;
+    while (true) {
+      ancestors.push(subNode);
+      if (index - wordIndex >= 64) {
+        word = keyWord(key, index, stopDepth, codec);
+        wordIndex = index;
+      }
+      subNode = word << (index++ - wordIndex) >= 0L ? subNode.left : subNode.right;
+
+      if (subNode == null) {
+        return null;
+      }
+      if (subNode.skip() > 0) {
+        if (index + subNode.skip() > stopDepth) {
+          return null; // Our key ends part way through this node
+        }
+        if (index + subNode.skip() - wordIndex > 64) {
+          word = keyWord(key, index, stopDepth, codec);
+          wordIndex = index;
+        }
+        if (wordBits(word, index - wordIndex, subNode.skip()) != subNode.bits()) {
+          return null;
+        }
+        index += subNode.skip();
+      }
+      if (index == stopDepth) {
+        return subNode.value != null ? subNode : null;
+      }
+      if (index > stopDepth) {
+        return null;
+      }
+    }
+  }
+
   /**
    * Return the Node for a given key, or null if not found or the key is null
    *
@@ -703,10 +2381,16 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
           + " does not accept keys of length <= 0: " + key);
     }
 
-    // Look up a single record
+    // Look up a single record, reading the key up to 64 elements at a time
     Node<K, V> subNode = startingNode;
+    long word = keyWord(key, startingIndex, stopDepth, codec);
+    int wordIndex = startingIndex;
     while (true) {
-      if (codec.isLeft(key, startingIndex++)) {
+      if (startingIndex - wordIndex >= 64) {
+        word = keyWord(key, startingIndex, stopDepth, codec);
+        wordIndex = startingIndex;
+      }
+      if (word << (startingIndex++ - wordIndex) >= 0L) {
         subNode = subNode.left;
       } else {
         subNode = subNode.right;
@@ -715,6 +2399,19 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       if (subNode == null) {
         return null;
       }
+      if (subNode.skip() > 0) {
+        if (startingIndex + subNode.skip() > stopDepth) {
+          return null; // Our key ends part way through this node
+        }
+        if (startingIndex + subNode.skip() - wordIndex > 64) {
+          word = keyWord(key, startingIndex, stopDepth, codec);
+          wordIndex = startingIndex;
+        }
+        if (wordBits(word, startingIndex - wordIndex, subNode.skip()) != subNode.bits()) {
+          return null;
+        }
+        startingIndex += subNode.skip();
+      }
       if (startingIndex == stopDepth && subNode.value != null) {
         return subNode;
       }
@@ -730,36 +2427,34 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
    * @return the first Node in the Trie, or null
    */
   protected Node<K, V> firstNode() {
-    return successor(root);
+    return successor(root, 0, null, new NodeStack<K, V>());
   }
 
 
 
   /**
    * @param node Node to find the successor of (the next node)
+   * @param fence the number of ancestors of the Node to force the search for
+   *        successors to be under (descendants of), or 0 if no limit
+   * @param path null, or the path to the node, which will be changed to
+   *        the path to the successor (undefined if there is no successor)
+   * @param ancestors the ancestors of the node, which will be changed to
+   *        the ancestors of the successor (undefined if there is no successor)
    * @return the successor of the specified Node, or null if no such.
    */
-  protected static <K, V> Node<K, V> successor(final Node<K, V> node) {
-    return successor(node, null);
-  }
-
-  /**
-   * @param node Node to find the successor of (the next node)
-   * @param parentFence Node to force the search for successors to be under
-   *        (descendants of), or null if no limit
-   * @return the successor of the specified Node, or null if no such.
-   */
-  protected static <K, V> Node<K, V> successor(Node<K, V> node, final Node<K, V> parentFence) {
+  protected static <K, V> Node<K, V> successor(Node<K, V> node, final int fence,
+      final KeyPath path, final NodeStack<K, V> ancestors) {
 
     // The fact that nodes do not always have values complicates an otherwise simple
-    // Pre-Order parent linkage (stackless, flag-less) tree traversal
-
-    // We can include the parentFence, but we can not go above it
-    final Node<K, V> limit = parentFence == null ? null : parentFence.parent;
+    // Pre-Order (flag-less) tree traversal, using a stack of ancestors
 
     outer: while (node != null) {
 
       if (node.left != null) {
+        ancestors.push(node);
+        if (path != null) {
+          path.add(node.left, false);
+        }
         if (node.left.value == null) {
           node = node.left;
           continue;
@@ -768,6 +2463,10 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       }
 
       if (node.right != null) {
+        ancestors.push(node);
+        if (path != null) {
+          path.add(node.right, true);
+        }
         if (node.right.value == null) {
           node = node.right;
           continue;
@@ -776,17 +2475,25 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       }
 
       // We are a leaf node
-      while (node.parent != null && node.parent != limit) {
+      // We can include the fence, but we can not go above it
+      while (ancestors.size > fence) {
 
-        if (node == node.parent.left && node.parent.right != null) {
+        if (path != null) {
+          path.remove(node);
+        }
+        final Node<K, V> parent = ancestors.peek();
+        if (node == parent.left && parent.right != null) {
 
-          if (node.parent.right.value == null) {
-            node = node.parent.right;
+          if (path != null) {
+            path.add(parent.right, true);
+          }
+          if (parent.right.value == null) {
+            node = parent.right;
             continue outer;
           }
-          return node.parent.right;
+          return parent.right;
         }
-        node = node.parent;
+        node = ancestors.pop();
       }
       return null;
 
@@ -815,6 +2522,8 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
 
   /**
+   * Only works in tries whose nodes keep their parent (not parentless).
+   *
    * @param node the Node to find the predecessor of (previous)
    * @return the predecessor of the specified Node Entry, or null if no such.
    */
@@ -833,23 +2542,24 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     // The fact that nodes do not always have values complicates an otherwise simple
     // Reverse Post-Order parent linkage (stackless, flag-less) tree traversal
 
-    final Node<K, V> limit = parentFence == null ? null : parentFence.parent;
+    final Node<K, V> limit = parentFence == null ? null : parentFence.getParent();
 
-    while (node != null && node.parent != null && node.parent != limit) {
+    Node<K, V> parent;
+    while (node != null && (parent = node.getParent()) != null && parent != limit) {
 
       // we are on the left, or we have no left sibling, so go up
-      if (node == node.parent.left || node.parent.left == null) {
+      if (node == parent.left || parent.left == null) {
 
-        if (node.parent.value == null) {
-          node = node.parent;
+        if (parent.value == null) {
+          node = parent;
           continue;
         }
-        return node.parent;
+        return parent;
       }
 
       // we are on the right and have a left sibling
       // so explore the left sibling, all the way down to the right-most child
-      node = node.parent.left;
+      node = parent.left;
       while (node.right != null || node.left != null) {
         if (node.right != null) {
           node = node.right;
@@ -873,18 +2583,104 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
   @Override
   public V shortestPrefixOfValue(final K key, final boolean keyInclusive) {
-    final Iterator<V> iter = prefixOfValues(key, keyInclusive).iterator();
-    return iter.hasNext() ? iter.next() : null;
+    final Node<K, V> node = getPrefixOfNode(key, keyInclusive, false);
+    return node == null ? null : node.value;
   }
 
   @Override
   public V longestPrefixOfValue(final K key, final boolean keyInclusive) {
-    final Iterator<V> iter = prefixOfValues(key, keyInclusive).iterator();
-    V value = null;
-    while (iter.hasNext()) {
-      value = iter.next();
+    final Node<K, V> node = getPrefixOfNode(key, keyInclusive, true);
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Return the shortest or longest Node with a value that is a prefix of the
+   * given key, using a single descent that allocates no views or iterators.
+   *
+   * @param key the Key searched for
+   * @param keyInclusive true if a Node for the key itself may be returned
+   * @param longest true to return the deepest matching Node,
+   *        false to return the shallowest matching Node
+   * @return Node if found, or null
+   */
+  protected Node<K, V> getPrefixOfNode(final K key, final boolean keyInclusive,
+      final boolean longest) {
+    if (key == null) {
+      throw new NullPointerException(getClass().getName() + " does not accept null keys: " + key);
+    }
+    final int stopDepth = codec.length(key);
+    if (stopDepth <= 0) {
+      throw new IllegalArgumentException(getClass().getName()
+          + " does not accept keys of length <= 0: " + key);
+    }
+    final int maxDepth = keyInclusive ? stopDepth : stopDepth - 1;
+    final TrieListener listener = this.listener;
+    if (listener == null) {
+      return getPrefixOfNode(key, maxDepth, longest, root, codec);
+    }
+    final long start = System.nanoTime();
+    final Node<K, V> node = getPrefixOfNode(key, maxDepth, longest, root, codec);
+    final long nanos = System.nanoTime() - start;
+    reportLookup(listener, longest ? TrieListener.LookupType.LONGEST_PREFIX_OF
+        : TrieListener.LookupType.SHORTEST_PREFIX_OF, key, maxDepth, node, nanos);
+    return node;
+  }
+
+  /**
+   * Return the shortest or longest Node with a value that is a prefix of the
+   * given key, using a single descent that allocates no views or iterators.
+   *
+   * @param key the Key searched for (must not be null)
+   * @param maxDepth the deepest key element depth a returned Node may be at
+   * @param longest true to return the deepest matching Node,
+   *        false to return the shallowest matching Node
+   * @param root the root Node of the trie
+   * @param codec KeyCodec
+   * @return Node if found, or null
+   */
+  protected static <K, V> Node<K, V> getPrefixOfNode(final K key, final int maxDepth,
+      final boolean longest, final Node<K, V> root, final KeyCodec<K> codec) {
+
+    Node<K, V> found = null;
+    Node<K, V> node = root;
+    int index = 0;
+    long word = keyWord(key, index, maxDepth, codec);
+    int wordIndex = index;
+    while (index < maxDepth) {
+      if (index - wordIndex >= 64) {
+        word = keyWord(key, index, maxDepth, codec);
+        wordIndex = index;
+      }
+      if (word << (index++ - wordIndex) >= 0L) {
+        node = node.left;
+      } else {
+        node = node.right;
+      }
+
+      if (node == null) {
+        return found;
+      }
+      if (node.skip() > 0) {
+        if (index + node.skip() > maxDepth) {
+          return found; // Our key ends part way through this node
+        }
+        if (index + node.skip() - wordIndex > 64) {
+          word = keyWord(key, index, maxDepth, codec);
+          wordIndex = index;
+        }
+        if (wordBits(word, index - wordIndex, node.skip()) != node.bits()) {
+          return found;
+        }
+        index += node.skip();
+      }
+      if (node.value != null) {
+        if (!longest) {
+          return node;
+        }
+        found = node;
+      }
     }
-    return value;
+    return found;
   }
 
   @Override
@@ -976,8 +2772,9 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     }
 
     final int minDepth = Math.min(prefixDepth, keyDepth);
-    for (int i = 0; i < minDepth; ++i) {
-      if (codec.isLeft(prefix, i) != codec.isLeft(key, i)) {
+    for (int i = 0; i < minDepth; i += 64) {
+      final int count = Math.min(64, minDepth - i);
+      if (codec.bits(prefix, i, count) != codec.bits(key, i, count)) {
         return false;
       }
     }
@@ -997,12 +2794,13 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
         final K mustBePrefixedBy, final boolean mustBePrefixedByInclusive,
         final K mustBePrefixOf, final boolean mustBePrefixOfInclusive) {
       super(trie, mustBePrefixedBy, mustBePrefixedByInclusive, mustBePrefixOf,
-          mustBePrefixOfInclusive, false);
+          mustBePrefixOfInclusive, false, true);
     }
 
     @Override
     public final K next() {
-      return resolveKey(nextNode(), trie);
+      nextNode();
+      return lastKey;
     }
   }
 
@@ -1013,7 +2811,7 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
         final K mustBePrefixedBy, final boolean mustBePrefixedByInclusive,
         final K mustBePrefixOf, final boolean mustBePrefixOfInclusive) {
       super(trie, mustBePrefixedBy, mustBePrefixedByInclusive, mustBePrefixOf,
-          mustBePrefixOfInclusive, false);
+          mustBePrefixOfInclusive, false, false);
     }
 
     @Override
@@ -1030,12 +2828,13 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
         final K mustBePrefixedBy, final boolean mustBePrefixedByInclusive,
         final K mustBePrefixOf, final boolean mustBePrefixOfInclusive) {
       super(trie, mustBePrefixedBy, mustBePrefixedByInclusive, mustBePrefixOf,
-          mustBePrefixOfInclusive, false);
+          mustBePrefixOfInclusive, false, true);
     }
 
     @Override
     public final Map.Entry<K, V> next() {
-      return exportEntry(nextNode(), trie);
+      final Node<K, V> node = nextNode();
+      return exportEntry(node, trie, lastKey);
     }
   }
 
@@ -1047,7 +2846,7 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
         final K mustBePrefixedBy, final boolean mustBePrefixedByInclusive,
         final K mustBePrefixOf, final boolean mustBePrefixOfInclusive) {
       super(trie, mustBePrefixedBy, mustBePrefixedByInclusive, mustBePrefixOf,
-          mustBePrefixOfInclusive, false);
+          mustBePrefixOfInclusive, false, false);
     }
 
     @Override
@@ -1077,6 +2876,13 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     protected final int prefixDepth;
     protected final int minDepth;
     protected Node<K, V> upperLimitNode = null;
+    protected int upperLimitDepth = 0; // the length of the path to upperLimitNode
+    protected int upperLimitAncestors = 0; // the number of ancestors of upperLimitNode
+    protected final KeyPath path = new KeyPath(); // the path to next
+    protected final NodeStack<K, V> ancestors = new NodeStack<K, V>(); // the ancestors of next
+    protected final KeyPath lastPath = new KeyPath(); // the path to lastReturned
+    protected final boolean resolveKeys;
+    protected K lastKey; // the resolved key of lastReturned, if keys are resolved
 
     // Sub-Trie range keys
     protected final K mustBePrefixedBy; // head/low
@@ -1099,12 +2905,16 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
      * @param mustBePrefixOf null or the key that all must be prefixes of
      * @param mustBePrefixOfInclusive true if the mustBePrefixOf is inclusive
      * @param descending false if ascending, true if descending
+     * @param resolveKeys true if the keys of returned Nodes will be used,
+     *        so should be resolved from the path before moving on
      */
     protected AbstractPrefixIterator(final AbstractBinaryTrie<K, V> trie,
         final K mustBePrefixedBy, final boolean mustBePrefixedByInclusive,
-        final K mustBePrefixOf, final boolean mustBePrefixOfInclusive, final boolean descending) {
+        final K mustBePrefixOf, final boolean mustBePrefixOfInclusive, final boolean descending,
+        final boolean resolveKeys) {
 
       this.trie = trie;
+      this.resolveKeys = resolveKeys;
       this.expectedModCount = trie.modCount;
 
       this.mustBePrefixedBy = mustBePrefixedBy;
@@ -1129,7 +2939,7 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       }
 
       this.lastReturned = null;
-      this.next = getNextPrefixNode(trie.root); // must always start at root
+      this.next = advance(trie.root); // must always start at root
 
       // If descending, lookup the last node so we can start there
       if (descending) {
@@ -1141,7 +2951,24 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       }
     }
 
-
+
+    /**
+     * @param node Node to find the next successor node of
+     * @return the successor prefix node, or null if none
+     */
+    private Node<K, V> advance(final Node<K, V> node) {
+      final TrieListener listener = trie.listener;
+      if (listener == null) {
+        return getNextPrefixNode(node);
+      }
+      final long start = System.nanoTime();
+      final Node<K, V> found = getNextPrefixNode(node);
+      final long nanos = System.nanoTime() - start;
+      listener.lookup(TrieListener.LookupType.PREFIX_ITERATOR, found != null,
+          found == null ? 0 : ancestors.size, found == null ? 0 : path.length, nanos);
+      return found;
+    }
+
     /**
      * @param node Node to find the next successor node of
      * @return the successor prefix node, or null if none
@@ -1163,19 +2990,48 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
         if (index >= prefixDepth) {
           // Traverse all nodes under the Key (and under upperLimitNode)
-          node = successor(node, upperLimitNode);
+          node = successor(node, upperLimitAncestors, path, ancestors);
           ++index;
 
         } else {
-          // Traverse only the path that matches our Key
-          if (trie.codec.isLeft(prefixKey, index++)) {
-            node = node.left;
-          } else {
-            node = node.right;
+          // Traverse only the path that matches our Key, reading the elements
+          // for the next node and all of its skipped elements at once
+          final long word = keyWord(prefixKey, index, Math.min(index + 1 + MAX_SKIP, prefixDepth),
+              trie.codec);
+          final boolean left = word >= 0L;
+          ++index;
+          ancestors.push(node);
+          node = left ? node.left : node.right;
+          if (node == null) {
+            return null;
+          }
+          path.add(!left);
+          // Match any elements skipped by a compressed node
+          for (int i = 0; i < node.skip(); ++i) {
+            if (index >= prefixDepth) {
+              // Our Key ends part way through this node, so the node is below our Key
+              if (prefixOf) {
+                return null;
+              }
+              index += node.skip() - i;
+              path.addSkipped(node, i);
+              break;
+            }
+            final boolean skippedLeft = isLeftSkipped(node, i);
+            if ((word << (1 + i) >= 0L) != skippedLeft) {
+              return null;
+            }
+            ++index;
+            path.add(!skippedLeft);
+          }
+          if (prefixOf && !mustBePrefixOfInclusive && index == prefixDepth) {
+            return null;
           }
-          if (index == prefixDepth) {
+          if (index >= prefixDepth) {
             // Force any subsequent tree traversal to be under this node (the mustBePrefixedBy Key)
             upperLimitNode = node;
+            upperLimitDepth = path.length;
+            upperLimitAncestors = ancestors.size;
           }
         }
 
@@ -1226,7 +3082,11 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       if (trie.modCount != expectedModCount) {
         throw new ConcurrentModificationException();
       }
-      next = getNextPrefixNode(e);
+      if (resolveKeys) {
+        lastKey = resolveKey(e, trie, path);
+      }
+      lastPath.set(path);
+      next = advance(e);
       lastReturned = e;
       return e;
     }
@@ -1239,7 +3099,11 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       if (trie.modCount != expectedModCount) {
         throw new ConcurrentModificationException();
       }
-      trie.deleteNode(lastReturned);
+      trie.deleteNode(lastReturned, lastPath);
+      if (next != null) {
+        // Ancestors of the next Node may have been removed or merged
+        ancestors.seek(trie.root, next, path);
+      }
       expectedModCount = trie.modCount;
       lastReturned = null;
     }
@@ -1290,15 +3154,31 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
           mustBePrefixOf, mustBePrefixOfInclusive);
     }
 
+    @Override
+    public Spliterator<K> spliterator() {
+      if (mustBePrefixOf != null) {
+        // At most one value per element of the key, so not worth splitting
+        return Spliterators.spliteratorUnknownSize(iterator(), PREFIX_OF_CHARACTERISTICS);
+      }
+      return new KeySpliterator<K, V>(trie, null, null,
+          prefixedBySubtrees(new NodePrefixIterator<K, V>(
+              trie, mustBePrefixedBy, mustBePrefixedByInclusive, null, false)), trie.size(),
+          KEY_CHARACTERISTICS);
+    }
+
     @Override
     public final int size() {
       if (size == -1L || sizeModCount != trie.modCount) {
         sizeModCount = trie.modCount;
-        size = 0L;
-        final Iterator<K> i = iterator();
-        while (i.hasNext()) {
-          ++size;
-          i.next();
+        size = trie.prefixViewSize(mustBePrefixedBy, mustBePrefixedByInclusive, mustBePrefixOf,
+            mustBePrefixOfInclusive);
+        if (size < 0L) {
+          size = 0L;
+          final Iterator<K> i = iterator();
+          while (i.hasNext()) {
+            ++size;
+            i.next();
+          }
         }
       }
       return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
@@ -1350,9 +3230,10 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       if (!inRange((K) key)) {
         return false;
       }
-      final Node<K, V> node = trie.getNode((K) key);
+      final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+      final Node<K, V> node = trie.getNode((K) key, ancestors);
       if (node != null) {
-        trie.deleteNode(node);
+        trie.deleteNode(node, ancestors);
         return true;
       }
       return false;
@@ -1400,15 +3281,31 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
           mustBePrefixOf, mustBePrefixOfInclusive);
     }
 
+    @Override
+    public Spliterator<V> spliterator() {
+      if (mustBePrefixOf != null) {
+        // At most one value per element of the key, so not worth splitting
+        return Spliterators.spliteratorUnknownSize(iterator(),
+            PREFIX_OF_CHARACTERISTICS & ~Spliterator.DISTINCT);
+      }
+      return new ValueSpliterator<K, V>(trie, null, null, prefixedBySubtrees(
+          new NodePrefixIterator<K, V>(trie, mustBePrefixedBy, mustBePrefixedByInclusive, null,
+              false)), trie.size(), VALUE_CHARACTERISTICS);
+    }
+
     @Override
     public final int size() {
       if (size == -1L || sizeModCount != trie.modCount) {
         sizeModCount = trie.modCount;
-        size = 0L;
-        final Iterator<V> i = iterator();
-        while (i.hasNext()) {
-          ++size;
-          i.next();
+        size = trie.prefixViewSize(mustBePrefixedBy, mustBePrefixedByInclusive, mustBePrefixOf,
+            mustBePrefixOfInclusive);
+        if (size < 0L) {
+          size = 0L;
+          final Iterator<V> i = iterator();
+          while (i.hasNext()) {
+            ++size;
+            i.next();
+          }
         }
       }
       return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
@@ -1477,15 +3374,30 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
           mustBePrefixOf, mustBePrefixOfInclusive);
     }
 
+    @Override
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+      if (mustBePrefixOf != null) {
+        // At most one value per element of the key, so not worth splitting
+        return Spliterators.spliteratorUnknownSize(iterator(), PREFIX_OF_CHARACTERISTICS);
+      }
+      return new EntrySpliterator<K, V>(trie, null, null, prefixedBySubtrees(
+          new NodePrefixIterator<K, V>(trie, mustBePrefixedBy, mustBePrefixedByInclusive, null,
+              false)), trie.size(), ENTRY_CHARACTERISTICS);
+    }
+
     @Override
     public final int size() {
       if (size == -1L || sizeModCount != trie.modCount) {
         sizeModCount = trie.modCount;
-        size = 0L;
-        final Iterator<Map.Entry<K, V>> i = iterator();
-        while (i.hasNext()) {
-          ++size;
-          i.next();
+        size = trie.prefixViewSize(mustBePrefixedBy, mustBePrefixedByInclusive, mustBePrefixOf,
+            mustBePrefixOfInclusive);
+        if (size < 0L) {
+          size = 0L;
+          final Iterator<Map.Entry<K, V>> i = iterator();
+          while (i.hasNext()) {
+            ++size;
+            i.next();
+          }
         }
       }
       return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
@@ -1548,9 +3460,10 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       if (!inRange(key)) {
         return false;
       }
-      final Node<K, V> node = trie.getNode(key);
+      final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+      final Node<K, V> node = trie.getNode(key, ancestors);
       if (node != null && eq(node.value, entry.getValue())) {
-        trie.deleteNode(node);
+        trie.deleteNode(node, ancestors);
         return true;
       }
       return false;
@@ -1603,11 +3516,15 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     public final int size() {
       if (size == -1L || sizeModCount != trie.modCount) {
         sizeModCount = trie.modCount;
-        size = 0L;
-        final Iterator<Map.Entry<K, V>> i = entrySet().iterator();
-        while (i.hasNext()) {
-          ++size;
-          i.next();
+        size = trie.prefixViewSize(mustBePrefixedBy, mustBePrefixedByInclusive, mustBePrefixOf,
+            mustBePrefixOfInclusive);
+        if (size < 0L) {
+          size = 0L;
+          final Iterator<Map.Entry<K, V>> i = entrySet().iterator();
+          while (i.hasNext()) {
+            ++size;
+            i.next();
+          }
         }
       }
       return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
@@ -1809,12 +3726,13 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       extends AbstractNodeIterator<K, V, Map.Entry<K, V>> {
 
     protected EntryIterator(final AbstractBinaryTrie<K, V> map) {
-      super(map, map.firstNode());
+      super(map, true);
     }
 
     @Override
     public final Map.Entry<K, V> next() {
-      return exportEntry(nextNode(), m);
+      final Node<K, V> node = nextNode();
+      return exportEntry(node, m, lastKey);
     }
   }
 
@@ -1822,7 +3740,7 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
   protected static final class ValueIterator<K, V> extends AbstractNodeIterator<K, V, V> {
 
     protected ValueIterator(final AbstractBinaryTrie<K, V> map) {
-      super(map, map.firstNode());
+      super(map, false);
     }
 
     @Override
@@ -1842,12 +3760,13 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
   protected static final class KeyIterator<K, V> extends AbstractNodeIterator<K, V, K> {
 
     protected KeyIterator(final AbstractBinaryTrie<K, V> map) {
-      super(map, map.firstNode());
+      super(map, true);
     }
 
     @Override
     public final K next() {
-      return resolveKey(nextNode(), m);
+      nextNode();
+      return lastKey;
     }
   }
 
@@ -1868,17 +3787,26 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     protected Node<K, V> lastReturned;
     protected int expectedModCount;
 
+    protected final KeyPath path = new KeyPath(); // the path to next
+    protected final NodeStack<K, V> ancestors = new NodeStack<K, V>(); // the ancestors of next
+    protected final KeyPath lastPath = new KeyPath(); // the path to lastReturned
+    protected final boolean resolveKeys;
+    protected K lastKey; // the resolved key of lastReturned, if keys are resolved
+
     /**
      * Create a new AbstractEntryIterator
      *
      * @param map the backing trie
-     * @param first the first Node returned by nextNode or prevNode
+     * @param resolveKeys true if the keys of returned Nodes will be used,
+     *        so should be resolved from the path before moving on
      */
-    protected AbstractNodeIterator(final AbstractBinaryTrie<K, V> map, final Node<K, V> first) {
+    protected AbstractNodeIterator(final AbstractBinaryTrie<K, V> map,
+        final boolean resolveKeys) {
       this.m = map;
+      this.resolveKeys = resolveKeys;
       expectedModCount = m.modCount;
       lastReturned = null;
-      next = first;
+      next = successor(m.root, 0, path, ancestors);
     }
 
     @Override
@@ -1897,7 +3825,11 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       if (m.modCount != expectedModCount) {
         throw new ConcurrentModificationException();
       }
-      next = successor(e);
+      if (resolveKeys) {
+        lastKey = resolveKey(e, m, path);
+      }
+      lastPath.set(path);
+      next = successor(e, 0, path, ancestors);
       lastReturned = e;
       return e;
     }
@@ -1910,7 +3842,11 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       if (m.modCount != expectedModCount) {
         throw new ConcurrentModificationException();
       }
-      m.deleteNode(lastReturned);
+      m.deleteNode(lastReturned, lastPath);
+      if (next != null) {
+        // Ancestors of the next Node may have been removed or merged
+        ancestors.seek(m.root, next, path);
+      }
       expectedModCount = m.modCount;
       lastReturned = null;
     }
@@ -1918,6 +3854,410 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
 
 
+  // Map Spliterators:
+
+  /** Spliterator for returning exported Map.Entry views of Nodes in ascending order */
+  protected static final class EntrySpliterator<K, V>
+      extends AbstractNodeSpliterator<K, V, Map.Entry<K, V>> {
+
+    protected EntrySpliterator(final AbstractBinaryTrie<K, V> trie, final Node<K, V> first,
+        final K firstKey, final SubtreeStack<K, V> subtrees, final long estimate,
+        final int characteristics) {
+      super(trie, first, firstKey, subtrees, estimate, characteristics, true);
+    }
+
+    @Override
+    protected final Map.Entry<K, V> export(final Node<K, V> node, final K key) {
+      return exportEntry(node, trie, key);
+    }
+
+    @Override
+    protected final EntrySpliterator<K, V> split(final Node<K, V> first, final K firstKey,
+        final SubtreeStack<K, V> subtrees, final long estimate, final int characteristics) {
+      return new EntrySpliterator<K, V>(trie, first, firstKey, subtrees, estimate, characteristics);
+    }
+  }
+
+  /** Spliterator for returning only values in ascending order */
+  protected static final class ValueSpliterator<K, V> extends AbstractNodeSpliterator<K, V, V> {
+
+    protected ValueSpliterator(final AbstractBinaryTrie<K, V> trie, final Node<K, V> first,
+        final K firstKey, final SubtreeStack<K, V> subtrees, final long estimate,
+        final int characteristics) {
+      super(trie, first, firstKey, subtrees, estimate, characteristics, false);
+    }
+
+    @Override
+    protected final V export(final Node<K, V> node, final K key) {
+      return node.value;
+    }
+
+    @Override
+    protected final ValueSpliterator<K, V> split(final Node<K, V> first, final K firstKey,
+        final SubtreeStack<K, V> subtrees, final long estimate, final int characteristics) {
+      return new ValueSpliterator<K, V>(trie, first, firstKey, subtrees, estimate, characteristics);
+    }
+  }
+
+  /** Spliterator for returning only resolved keys in ascending order */
+  protected static final class KeySpliterator<K, V> extends AbstractNodeSpliterator<K, V, K> {
+
+    protected KeySpliterator(final AbstractBinaryTrie<K, V> trie, final Node<K, V> first,
+        final K firstKey, final SubtreeStack<K, V> subtrees, final long estimate,
+        final int characteristics) {
+      super(trie, first, firstKey, subtrees, estimate, characteristics, true);
+    }
+
+    @Override
+    protected final K export(final Node<K, V> node, final K key) {
+      return key;
+    }
+
+    @Override
+    protected final KeySpliterator<K, V> split(final Node<K, V> first, final K firstKey,
+        final SubtreeStack<K, V> subtrees, final long estimate, final int characteristics) {
+      return new KeySpliterator<K, V>(trie, first, firstKey, subtrees, estimate, characteristics);
+    }
+
+    @Override
+    public final Comparator<? super K> getComparator() {
+      return trie.codec.comparator();
+    }
+  }
+
+
+
+  /**
+   * Base Node Spliterator for extending.
+   *
+   * <p>
+   * Covers a run of whole subtrees (each visited in pre-order, which is the
+   * ascending order of the trie), optionally preceded by a single node that
+   * is returned on its own. Splitting hands the first half of the subtrees
+   * to a new Spliterator, or if there is only one subtree, divides it
+   * between its left and right children, so that each fork-join task ends
+   * up walking its own part of the trie. Nodes are found with a stack
+   * instead of by following parent references.
+   *
+   * @param <K> Key
+   * @param <V> Value
+   * @param <T> Spliterator object type
+   */
+  protected abstract static class AbstractNodeSpliterator<K, V, T> implements Spliterator<T> {
+
+    protected final AbstractBinaryTrie<K, V> trie; // the backing trie
+    protected final int expectedModCount;
+    protected final boolean resolveKeys;
+
+    // Spliterator state
+    protected Node<K, V> first; // returned on its own, before the subtrees
+    protected K firstKey; // the resolved key of first, if keys are resolved
+    protected K lastKey; // the resolved key of the last Node returned, if keys are resolved
+    protected SubtreeStack<K, V> subtrees;
+    protected long estimate;
+    protected int characteristics;
+
+    /**
+     * Create a new AbstractNodeSpliterator
+     *
+     * @param trie the backing trie
+     * @param first null, or a Node with a value to return before the subtrees
+     * @param firstKey the resolved key of {@code first} if keys are resolved,
+     *        otherwise null
+     * @param subtrees the subtrees to return all values of
+     * @param estimate the estimated (or exact if SIZED) number of values
+     * @param characteristics the characteristics of this Spliterator
+     * @param resolveKeys true if the keys of returned Nodes will be used,
+     *        so should be resolved from the path to them
+     */
+    protected AbstractNodeSpliterator(final AbstractBinaryTrie<K, V> trie, final Node<K, V> first,
+        final K firstKey, final SubtreeStack<K, V> subtrees, final long estimate,
+        final int characteristics, final boolean resolveKeys) {
+      this.trie = trie;
+      this.expectedModCount = trie.modCount;
+      this.resolveKeys = resolveKeys;
+      this.first = first;
+      this.firstKey = firstKey;
+      this.subtrees = subtrees;
+      this.estimate = estimate;
+      this.characteristics = characteristics;
+    }
+
+    /**
+     * @param node Node with a value
+     * @param key the resolved key of the Node if keys are resolved, otherwise null
+     * @return the object to return for the Node
+     */
+    protected abstract T export(Node<K, V> node, K key);
+
+    /**
+     * @return a new Spliterator of the same type, with the given state
+     */
+    protected abstract AbstractNodeSpliterator<K, V, T> split(Node<K, V> first, K firstKey,
+        SubtreeStack<K, V> subtrees, long estimate, int characteristics);
+
+    /**
+     * @return the next Node with a value in ascending order, or null if none
+     */
+    protected final Node<K, V> nextNode() {
+      if (trie.modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (first != null) {
+        final Node<K, V> node = first;
+        lastKey = firstKey;
+        first = null;
+        firstKey = null;
+        return node;
+      }
+      final SubtreeStack<K, V> stack = subtrees;
+      while (stack.count > 0) {
+        final Node<K, V> node = stack.pop();
+        final int length = stack.path.length;
+        if (node.right != null) {
+          stack.push(node.right, length, SubtreeStack.RIGHT);
+        }
+        if (node.left != null) {
+          stack.push(node.left, length, SubtreeStack.LEFT);
+        }
+        if (node.value != null) {
+          if (resolveKeys) {
+            lastKey = resolveKey(node, trie, stack.path);
+          }
+          return node;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public final boolean tryAdvance(final Consumer<? super T> action) {
+      if (action == null) {
+        throw new NullPointerException();
+      }
+      final Node<K, V> node = nextNode();
+      if (node == null) {
+        return false;
+      }
+      action.accept(export(node, lastKey));
+      return true;
+    }
+
+    @Override
+    public final void forEachRemaining(final Consumer<? super T> action) {
+      if (action == null) {
+        throw new NullPointerException();
+      }
+      Node<K, V> node;
+      while ((node = nextNode()) != null) {
+        action.accept(export(node, lastKey));
+      }
+    }
+
+    @Override
+    public final Spliterator<T> trySplit() {
+      final SubtreeStack<K, V> stack = subtrees;
+      Node<K, V> prefixFirst = first;
+      K prefixFirstKey = firstKey;
+      SubtreeStack<K, V> prefix = null;
+
+      if (stack.count >= 2) {
+        // Hand over the first half of our subtrees
+        prefix = stack.splitTop(stack.count / 2);
+
+      } else if (first != null) {
+        // Hand over only our first node, if it comes before a single subtree
+        if (stack.count == 0) {
+          return null;
+        }
+
+      } else {
+        // Divide our only subtree between its left and right children
+        if (stack.count == 0) {
+          return null;
+        }
+        Node<K, V> node = stack.pop();
+        while (node.value == null && (node.left == null) != (node.right == null)) {
+          final boolean right = node.left == null;
+          node = right ? node.right : node.left;
+          stack.path.add(node, right);
+        }
+        final int length = stack.path.length;
+        if (node.left == null && node.right == null) {
+          stack.push(node, length, SubtreeStack.WHOLE);
+          return null;
+        }
+        if (node.value != null) {
+          prefixFirst = node;
+          if (resolveKeys) {
+            prefixFirstKey = resolveKey(node, trie, stack.path);
+          }
+        }
+        if (node.left != null && node.right != null) {
+          prefix = stack.splitTop(0);
+          prefix.push(node.left, length, SubtreeStack.LEFT);
+          stack.push(node.right, length, SubtreeStack.RIGHT);
+        } else {
+          final boolean right = node.left == null;
+          stack.push(right ? node.right : node.left, length,
+              right ? SubtreeStack.RIGHT : SubtreeStack.LEFT);
+        }
+      }
+
+      first = null;
+      firstKey = null;
+      characteristics &= ~Spliterator.SIZED;
+      final long half = estimate >>> 1;
+      estimate -= half;
+      return split(prefixFirst, prefixFirstKey, prefix != null ? prefix : stack.splitTop(0), half,
+          characteristics);
+    }
+
+    @Override
+    public final long estimateSize() {
+      return estimate;
+    }
+
+    @Override
+    public final int characteristics() {
+      return characteristics;
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+      throw new IllegalStateException();
+    }
+  }
+
+
+  /**
+   * Stack of subtrees waiting to be walked by a Spliterator, with the first
+   * subtree on top, along with the path to the last Node popped. Each entry
+   * remembers the length of the path to its parent, which is always a
+   * prefix of the current path, so popping a Node only has to cut the path
+   * back and add the Node's own elements.
+   */
+  protected static final class SubtreeStack<K, V> {
+
+    /** The entry is a left child, its path is the parent's path plus its elements */
+    protected static final int LEFT = 0;
+    /** The entry is a right child, its path is the parent's path plus its elements */
+    protected static final int RIGHT = 1;
+    /** The entry's path length already includes the Node's own elements */
+    protected static final int WHOLE = 2;
+
+    protected Node<K, V>[] nodes;
+    protected int[] entries; // (path length << 2) | LEFT, RIGHT or WHOLE
+    protected int count = 0;
+    protected final KeyPath path;
+
+    /**
+     * @param path the path that the path lengths of all entries refer to
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected SubtreeStack(final KeyPath path) {
+      this.path = path;
+      this.nodes = new Node[8];
+      this.entries = new int[8];
+    }
+
+    /**
+     * @param node Node at the root of a subtree, to be walked before all
+     *        subtrees already on the stack
+     * @param length the length of the path to the Node's parent (or to the
+     *        Node itself if WHOLE)
+     * @param side LEFT, RIGHT or WHOLE
+     */
+    protected final void push(final Node<K, V> node, final int length, final int side) {
+      if (count == nodes.length) {
+        nodes = Arrays.copyOf(nodes, count * 2);
+        entries = Arrays.copyOf(entries, count * 2);
+      }
+      nodes[count] = node;
+      entries[count++] = (length << 2) | side;
+    }
+
+    /**
+     * @return the Node at the root of the first subtree, after setting the path to it
+     */
+    protected final Node<K, V> pop() {
+      final Node<K, V> node = nodes[--count];
+      nodes[count] = null;
+      final int entry = entries[count];
+      path.length = entry >>> 2;
+      if ((entry & 3) != WHOLE) {
+        path.add(node, (entry & 3) == RIGHT);
+      }
+      return node;
+    }
+
+    /**
+     * @param size the number of subtrees to move
+     * @return a new stack holding the first subtrees of this stack, which
+     *         are removed from this stack
+     */
+    protected final SubtreeStack<K, V> splitTop(final int size) {
+      final SubtreeStack<K, V> top = new SubtreeStack<K, V>(path.copy());
+      for (int i = count - size; i < count; ++i) {
+        top.push(nodes[i], entries[i] >>> 2, entries[i] & 3);
+        nodes[i] = null;
+      }
+      count -= size;
+      return top;
+    }
+  }
+
+  /**
+   * @param node the root Node of a subtree, or null
+   * @param path the path to the Node
+   * @param includeRoot true if the root Node itself may be returned
+   * @return a new stack holding the subtree (or the root's children if the
+   *         root is not included) ready for an {@link AbstractNodeSpliterator}
+   */
+  protected static final <K, V> SubtreeStack<K, V> subtrees(final Node<K, V> node,
+      final KeyPath path, final boolean includeRoot) {
+    final SubtreeStack<K, V> subtrees = new SubtreeStack<K, V>(path);
+    if (node == null) {
+      return subtrees;
+    }
+    if (includeRoot) {
+      subtrees.push(node, path.length, SubtreeStack.WHOLE);
+    } else {
+      if (node.right != null) {
+        subtrees.push(node.right, path.length, SubtreeStack.RIGHT);
+      }
+      if (node.left != null) {
+        subtrees.push(node.left, path.length, SubtreeStack.LEFT);
+      }
+    }
+    return subtrees;
+  }
+
+  /**
+   * @param iter a new prefix iterator of only Nodes prefixed by a key
+   * @return a new stack holding the subtree of all Nodes the iterator would
+   *         return, ready for an {@link AbstractNodeSpliterator}
+   */
+  protected static final <K, V> SubtreeStack<K, V> prefixedBySubtrees(
+      final AbstractPrefixIterator<K, V, ?> iter) {
+    // The iterator has already found the Node at the key (the upper limit
+    // of its traversal), and the first Node returned is the root if included
+    final KeyPath path = iter.path.copy();
+    path.length = iter.upperLimitDepth;
+    return subtrees(iter.upperLimitNode, path,
+        iter.next != null && iter.next == iter.upperLimitNode);
+  }
+
+  /**
+   * @return Spliterator returning resolved keys in ascending order
+   */
+  protected final Spliterator<K> keySpliterator() {
+    return new KeySpliterator<K, V>(this, null, null, subtrees(root, new KeyPath(), true), size(),
+        KEY_CHARACTERISTICS | Spliterator.SIZED);
+  }
+
+
+
   // Map Views:
 
   @Override
@@ -1947,6 +4287,11 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       return m.keyIterator();
     }
 
+    @Override
+    public final Spliterator<K> spliterator() {
+      return m.keySpliterator();
+    }
+
     @Override
     public final int size() {
       return m.size();
@@ -2001,6 +4346,12 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       return new ValueIterator<K, V>(m);
     }
 
+    @Override
+    public final Spliterator<V> spliterator() {
+      return new ValueSpliterator<K, V>(m, null, null, subtrees(m.root, new KeyPath(), true),
+          m.size(), VALUE_CHARACTERISTICS | Spliterator.SIZED);
+    }
+
     @Override
     public final int size() {
       return m.size();
@@ -2018,9 +4369,10 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
     @Override
     public final boolean remove(final Object o) {
-      for (Node<K, V> e = m.firstNode(); e != null; e = successor(e)) {
-        if (eq(e.value, o)) {
-          m.deleteNode(e);
+      final Iterator<V> iter = new ValueIterator<K, V>(m);
+      while (iter.hasNext()) {
+        if (eq(iter.next(), o)) {
+          iter.remove();
           return true;
         }
       }
@@ -2049,6 +4401,12 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       return new EntryIterator<K, V>(AbstractBinaryTrie.this);
     }
 
+    @Override
+    public final Spliterator<Map.Entry<K, V>> spliterator() {
+      return new EntrySpliterator<K, V>(AbstractBinaryTrie.this, null, null,
+          subtrees(root, new KeyPath(), true), size(), ENTRY_CHARACTERISTICS | Spliterator.SIZED);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public final boolean contains(final Object o) {
@@ -2069,9 +4427,10 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       }
       final Map.Entry<K, V> entry = (Map.Entry<K, V>) o;
       final V value = entry.getValue();
-      final Node<K, V> p = getNode(entry.getKey());
+      final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+      final Node<K, V> p = getNode(entry.getKey(), ancestors);
       if (p != null && eq(p.value, value)) {
-        deleteNode(p);
+        deleteNode(p, ancestors);
         return true;
       }
       return false;
@@ -2096,9 +4455,12 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
   public int hashCode() {
     // To stay compatible with Map interface, we are equal to any map with the same mappings
     int h = 0;
-    for (Node<K, V> node = this.firstNode(); node != null; node = successor(node)) {
+    final KeyPath path = new KeyPath();
+    final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+    for (Node<K, V> node = successor(root, 0, path, ancestors); node != null;
+        node = successor(node, 0, path, ancestors)) {
       final V value = node.value;
-      final K key = resolveKey(node, this);
+      final K key = resolveKey(node, this, path);
       // Map.hashCode compatibility
       h += (key == null ? 0 : key.hashCode()) ^
           (value == null ? 0 : value.hashCode());
@@ -2116,8 +4478,11 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       return true;
     }
 
-    if (o instanceof AbstractBinaryTrie) {
-      // We are comparing against another AbstractBinaryTrie, so we can take shortcuts
+    if (o instanceof AbstractBinaryTrie && !this.compressed
+        && !((AbstractBinaryTrie<K, V>) o).compressed) {
+      // We are comparing against another uncompressed AbstractBinaryTrie,
+      // so we can take shortcuts. (The layout of a compressed trie depends
+      // on the order of insertions and deletions, so it is not comparable.)
       final AbstractBinaryTrie<K, V> t = (AbstractBinaryTrie<K, V>) o;
       if (t.size() != size()) {
         return false;
@@ -2132,9 +4497,12 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       }
       // To stay compatible with Map interface, we are equal to any map with the same mappings
       try {
-        for (Node<K, V> node = this.firstNode(); node != null; node = successor(node)) {
+        final KeyPath path = new KeyPath();
+        final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+        for (Node<K, V> node = successor(root, 0, path, ancestors); node != null;
+            node = successor(node, 0, path, ancestors)) {
           final V value = node.value;
-          final K key = resolveKey(node, this);
+          final K key = resolveKey(node, this, path);
           if (value == null) {
             if (!(m.get(key) == null && m.containsKey(key))) {
               return false;
@@ -2190,6 +4558,10 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       return false;
     }
 
+    if (myNode.skip() != otherNode.skip() || myNode.bits() != otherNode.bits()) {
+      return false;
+    }
+
     if (!eq(myNode.value, otherNode.value)) {
       return false;
     }
@@ -2210,10 +4582,15 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
    */
   protected static final <K, V> boolean compareAllNodes(Node<K, V> myNode, Node<K, V> otherNode) {
 
+    final NodeStack<K, V> myAncestors = new NodeStack<K, V>();
+    final NodeStack<K, V> otherAncestors = new NodeStack<K, V>();
+
     // Pre-Order tree traversal
     outer: while (otherNode != null) {
 
       if (otherNode.left != null) {
+        otherAncestors.push(otherNode);
+        myAncestors.push(myNode);
         otherNode = otherNode.left;
         myNode = myNode.left;
         if (!compareNodeAndExistenceOfChildren(myNode, otherNode)) {
@@ -2223,6 +4600,8 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       }
 
       if (otherNode.right != null) {
+        otherAncestors.push(otherNode);
+        myAncestors.push(myNode);
         otherNode = otherNode.right;
         myNode = myNode.right;
         if (!compareNodeAndExistenceOfChildren(myNode, otherNode)) {
@@ -2232,18 +4611,19 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
       }
 
       // We are a leaf node
-      while (otherNode.parent != null) {
+      while (otherAncestors.size > 0) {
 
-        if (otherNode == otherNode.parent.left && otherNode.parent.right != null) {
-          otherNode = otherNode.parent.right;
-          myNode = myNode.parent.right;
+        final Node<K, V> otherParent = otherAncestors.peek();
+        if (otherNode == otherParent.left && otherParent.right != null) {
+          otherNode = otherParent.right;
+          myNode = myAncestors.peek().right;
           if (!compareNodeAndExistenceOfChildren(myNode, otherNode)) {
             return false;
           }
           continue outer;
         }
-        otherNode = otherNode.parent;
-        myNode = myNode.parent;
+        otherNode = otherAncestors.pop();
+        myNode = myAncestors.pop();
       }
       break;
 
@@ -2264,13 +4644,15 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     final StringBuilder sb = new StringBuilder();
     sb.append('{');
 
-    for (Node<K, V> node = this.firstNode(); node != null;) {
+    final KeyPath path = new KeyPath();
+    final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+    for (Node<K, V> node = successor(root, 0, path, ancestors); node != null;) {
       final V value = node.value;
-      final K key = resolveKey(node, this);
+      final K key = resolveKey(node, this, path);
       sb.append(key == this ? "(this Map)" : key);
       sb.append('=');
       sb.append(value == this ? "(this Map)" : value);
-      if ((node = successor(node)) == null) {
+      if ((node = successor(node, 0, path, ancestors)) == null) {
         break;
       }
       sb.append(',').append(' ');
@@ -2280,11 +4662,29 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
 
 
 
+  /**
+   * Marks the structural serialization format. Written where older versions
+   * wrote the size, which could never be negative.
+   */
+  private static final long STRUCTURAL_FORMAT = -1L;
+
+  // Bits per node in the structural bitstream
+  private static final int FLAG_LEFT = 1;
+  private static final int FLAG_RIGHT = 2;
+  private static final int FLAG_VALUE = 4;
+  private static final int FLAG_BITS = 3;
+
   /**
    * Write out this trie to the output stream.
+   * Keys are not written, because they are implied by the position of
+   * their node.
    * First write the default object,
-   * Second write out size,
-   * Third write out alternating key-value pairs.
+   * Second write out the format marker, size, and number of nodes,
+   * Third write out the structural bitstream (left child, right child and
+   * has-value flags for every node, in pre-order, packed into longs),
+   * Fourth (compressed tries only) write out the skipped elements of every
+   * non-root node, in pre-order,
+   * Fifth write out the values, in pre-order.
    *
    * @param s ObjectOutputStream
    * @throws IOException
@@ -2293,12 +4693,49 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     // Write out the codec and any hidden stuff
     s.defaultWriteObject();
 
-    // Write out size (number of Mappings)
+    s.writeLong(STRUCTURAL_FORMAT);
     s.writeLong(size);
 
-    // If Write out keys and values (alternating)
-    for (Node<K, V> node = this.firstNode(); node != null; node = successor(node)) {
-      s.writeObject(resolveKey(node, this));
+    final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+    long nodeCount = 0;
+    for (Node<K, V> node = root; node != null; node = preOrderSuccessor(node, ancestors)) {
+      ++nodeCount;
+    }
+    s.writeLong(nodeCount);
+
+    // Structural bitstream
+    long word = 0L;
+    int used = 0;
+    for (Node<K, V> node = root; node != null; node = preOrderSuccessor(node, ancestors)) {
+      final long flags = (node.left != null ? FLAG_LEFT : 0)
+          | (node.right != null ? FLAG_RIGHT : 0)
+          | (node.value != null ? FLAG_VALUE : 0);
+      word |= flags << used;
+      used += FLAG_BITS;
+      if (used > Long.SIZE - FLAG_BITS) {
+        s.writeLong(word);
+        word = 0L;
+        used = 0;
+      }
+    }
+    if (used > 0) {
+      s.writeLong(word);
+    }
+
+    // Skipped elements
+    if (compressed) {
+      for (Node<K, V> node = preOrderSuccessor(root, ancestors); node != null;
+          node = preOrderSuccessor(node, ancestors)) {
+        s.writeByte(node.skip());
+        if (node.skip() > 0) {
+          s.writeInt(node.bits());
+        }
+      }
+    }
+
+    // Values
+    for (Node<K, V> node = successor(root, 0, null, ancestors); node != null;
+        node = successor(node, 0, null, ancestors)) {
       s.writeObject(node.value);
     }
   }
@@ -2306,8 +4743,10 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
   /**
    * Read in this trie from the input stream.
    * First read the default object,
-   * Second read in size,
-   * Third, read in and put alternating key-value pairs.
+   * Then read in either the structural format written by
+   * {@link #writeObject}, rebuilding the nodes in a single linear pass
+   * without looking at any keys, or the older format of alternating
+   * key-value pairs, which are put into the trie.
    *
    * @param s ObjectInputStream
    * @throws IOException
@@ -2319,18 +4758,139 @@ public class AbstractBinaryTrie<K, V> implements Trie<K, V>, Serializable, Clone
     // Read in the codec and any hidden stuff
     s.defaultReadObject();
 
-    // Read in size (number of Mappings)
+    this.root = newRoot();
+
+    final long marker = s.readLong();
+    if (marker >= 0L) {
+      // Older format: the marker is the size (number of Mappings),
+      // followed by alternating keys and values
+      for (long i = 0; i < marker; ++i) {
+        final K key = (K) s.readObject();
+        final V value = (V) s.readObject();
+        this.put(key, value);
+      }
+      assert (this.size == marker);
+      return;
+    }
+    if (marker != STRUCTURAL_FORMAT) {
+      throw new StreamCorruptedException(getClass().getName()
+          + " unknown serialization format: " + marker);
+    }
+
     final long originalSize = s.readLong();
+    final long nodeCount = s.readLong();
+    if (originalSize < 0L || nodeCount <= 0L
+        || (nodeCount * FLAG_BITS + Long.SIZE - 1) / Long.SIZE > Integer.MAX_VALUE) {
+      throw new StreamCorruptedException(getClass().getName()
+          + " invalid size or node count: " + originalSize + ", " + nodeCount);
+    }
+
+    // Read the structural bitstream
+    final int nodesPerWord = Long.SIZE / FLAG_BITS;
+    final long[] words = new long[(int) ((nodeCount + nodesPerWord - 1) / nodesPerWord)];
+    for (int i = 0; i < words.length; ++i) {
+      words[i] = s.readLong();
+    }
+
+    // Rebuild the nodes in pre-order
+    final NodeStack<K, V> ancestors = new NodeStack<K, V>();
+    long ordinal = 0;
+    Node<K, V> node = root;
+    while (node != null) {
+      if (ordinal >= nodeCount) {
+        throw new StreamCorruptedException(getClass().getName()
+            + " expected " + nodeCount + " nodes but found more");
+      }
+      final long flags = flags(words, ordinal++, nodesPerWord);
+      if (node == root ? (flags & FLAG_VALUE) != 0 : flags == 0) {
+        // The root can not hold a value, and every other node must have
+        // a value or a child
+        throw new StreamCorruptedException(getClass().getName()
+            + " invalid flags " + flags + " for node " + (ordinal - 1));
+      }
+      if ((flags & FLAG_LEFT) != 0) {
+        node.left = node.newChild();
+      }
+      if ((flags & FLAG_RIGHT) != 0) {
+        node.right = node.newChild();
+      }
+      node = preOrderSuccessor(node, ancestors);
+    }
+    if (ordinal != nodeCount) {
+      throw new StreamCorruptedException(getClass().getName()
+          + " expected " + nodeCount + " nodes but found " + ordinal);
+    }
+
+    // Read the skipped elements
+    if (compressed) {
+      for (node = preOrderSuccessor(root, ancestors); node != null;
+          node = preOrderSuccessor(node, ancestors)) {
+        final int skip = s.readUnsignedByte();
+        if (skip > MAX_SKIP) {
+          throw new StreamCorruptedException(getClass().getName()
+              + " invalid number of skipped elements: " + skip);
+        }
+        node.setSkipped(skip, skip > 0 ? s.readInt() : 0);
+      }
+    }
 
-    // Read in keys and values (alternating)
-    this.root = new Node<K, V>(null);
-    for (int i = 0; i < originalSize; ++i) {
-      final K key = (K) s.readObject();
-      final V value = (V) s.readObject();
-      this.put(key, value);
+    // Read the values
+    ordinal = 0;
+    for (node = root; node != null; node = preOrderSuccessor(node, ancestors)) {
+      if ((flags(words, ordinal++, nodesPerWord) & FLAG_VALUE) != 0) {
+        node.value = (V) s.readObject();
+        if (node.value == null) {
+          throw new StreamCorruptedException(getClass().getName()
+              + " does not accept null values");
+        }
+        ++this.size;
+      }
     }
-    assert (this.size == originalSize);
+    if (this.size != originalSize) {
+      throw new StreamCorruptedException(getClass().getName()
+          + " expected " + originalSize + " values but found " + this.size);
+    }
+    if (counted) {
+      countSubtrees();
+    }
+  }
+
+  /**
+   * @param words the structural bitstream
+   * @param ordinal the pre-order position of the node
+   * @param nodesPerWord the number of nodes packed into each long
+   * @return the flags of the node
+   */
+  private static long flags(final long[] words, final long ordinal, final int nodesPerWord) {
+    return words[(int) (ordinal / nodesPerWord)]
+        >>> ((ordinal % nodesPerWord) * FLAG_BITS) & ((1 << FLAG_BITS) - 1);
   }
 
+  /**
+   * @param node Node
+   * @param ancestors the ancestors of the Node, which will be changed to the
+   *        ancestors of the next Node (and will be empty if there is none)
+   * @return the next Node in pre-order (with or without a value),
+   *         or null if there is none
+   */
+  private static <K, V> Node<K, V> preOrderSuccessor(Node<K, V> node,
+      final NodeStack<K, V> ancestors) {
+    if (node.left != null) {
+      ancestors.push(node);
+      return node.left;
+    }
+    if (node.right != null) {
+      ancestors.push(node);
+      return node.right;
+    }
+    while (ancestors.size > 0) {
+      final Node<K, V> parent = ancestors.peek();
+      if (node == parent.left && parent.right != null) {
+        return parent.right;
+      }
+      node = ancestors.pop();
+    }
+    return null;
+  }
 
 }
@@ -0,0 +1,529 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.github.veqryn.net.Cidr4;
+
+/**
+ * Base class for immutable {@link Trie}'s of {@link Cidr4} keys, that have
+ * been compiled from a {@link Cidr4Trie} into a flat node layout.
+ *
+ * <p>
+ * Nodes are numbered in pre-order (each node followed by its left subtree,
+ * then its right subtree), starting with the root as node 0, and only nodes
+ * that hold a value or where two CIDRs diverge are kept. Each node has a
+ * left and right child node, an optional value, and the full prefix bits
+ * and length of the path leading to it, so checking a child against a key
+ * takes a single masked compare. Because of the pre-order layout, all nodes
+ * under a node form a contiguous range, which is used for prefixed-by
+ * lookups. Subclasses decide how the nodes are stored.
+ *
+ * <p>
+ * All read methods of {@link Trie} are supported, returning values in the
+ * same order as a {@link Cidr4Trie}. Keys are recreated when returned.
+ * Every method that would modify the trie throws an
+ * {@link UnsupportedOperationException}.
+ *
+ * @author Chris Duncan
+ *
+ * @param <V> Value
+ */
+public abstract class AbstractFlatCidr4Trie<V> extends AbstractMap<Cidr4, V>
+    implements Trie<Cidr4, V> {
+
+  protected static final int NONE = Cidr4NodeCompiler.NONE;
+
+  private transient EntrySet entrySet = null;
+
+
+
+  // Node Accessor Methods:
+
+  /**
+   * @return the number of nodes, with or without values, including the root
+   */
+  protected abstract int nodeCount();
+
+  /**
+   * @param node the node index
+   * @return the left child node index, or NONE
+   */
+  protected abstract int left(int node);
+
+  /**
+   * @param node the node index
+   * @return the right child node index, or NONE
+   */
+  protected abstract int right(int node);
+
+  /**
+   * @param node the node index
+   * @return the binary address bits of the path to the node
+   */
+  protected abstract int prefix(int node);
+
+  /**
+   * @param node the node index
+   * @return the number of bits in the path to the node
+   */
+  protected abstract int length(int node);
+
+  /**
+   * @param node the node index
+   * @return true if the node has a value
+   */
+  protected abstract boolean hasValue(int node);
+
+  /**
+   * @param node the node index, of a node that has a value
+   * @return the value of the node
+   */
+  protected abstract V nodeValue(int node);
+
+
+
+  // Lookup Methods:
+
+  /** Node accessors for the shared lookups of {@link Cidr4Descent} */
+  private final Cidr4Descent.Nodes nodes = new Cidr4Descent.Nodes() {
+    @Override
+    public int left(final int node) {
+      return AbstractFlatCidr4Trie.this.left(node);
+    }
+
+    @Override
+    public int right(final int node) {
+      return AbstractFlatCidr4Trie.this.right(node);
+    }
+
+    @Override
+    public int prefix(final int node) {
+      return AbstractFlatCidr4Trie.this.prefix(node);
+    }
+
+    @Override
+    public int length(final int node) {
+      return AbstractFlatCidr4Trie.this.length(node);
+    }
+
+    @Override
+    public boolean hasValue(final int node) {
+      return AbstractFlatCidr4Trie.this.hasValue(node);
+    }
+  };
+
+  /**
+   * @see Cidr4Descent#getPrefixOfNode
+   */
+  protected final int getPrefixOfNode(final int address, final int maxDepth,
+      final boolean longest) {
+    return Cidr4Descent.getPrefixOfNode(nodes, address, maxDepth, longest);
+  }
+
+  /**
+   * @see Cidr4Descent#getNode
+   */
+  protected final int getNode(final int address, final int maskBits) {
+    return Cidr4Descent.getNode(nodes, address, maskBits);
+  }
+
+  /**
+   * @see Cidr4Descent#getPrefixedByNode
+   */
+  protected final int getPrefixedByNode(final int address, final int maskBits) {
+    return Cidr4Descent.getPrefixedByNode(nodes, address, maskBits);
+  }
+
+  /**
+   * @param node a node
+   * @return the last node, in pre-order, of the subtree under the node
+   */
+  protected final int lastNode(int node) {
+    while (true) {
+      if (right(node) != NONE) {
+        node = right(node);
+      } else if (left(node) != NONE) {
+        node = left(node);
+      } else {
+        return node;
+      }
+    }
+  }
+
+  private Cidr4 checkKey(final Object key) {
+    if (key == null) {
+      throw new NullPointerException(getClass().getName() + " does not accept null keys: " + key);
+    }
+    final Cidr4 cidr = (Cidr4) key;
+    if (cidr.getMaskBits() <= 0) {
+      throw new IllegalArgumentException(getClass().getName()
+          + " does not accept keys of length <= 0: " + key);
+    }
+    return cidr;
+  }
+
+  private V value(final int node) {
+    return node == NONE ? null : nodeValue(node);
+  }
+
+  private Cidr4 key(final int node) {
+    return new Cidr4(prefix(node), length(node));
+  }
+
+
+
+  // Primitive IPv4 Lookup Methods:
+
+  /**
+   * Returns the value of the longest (most specific) CIDR in this trie that
+   * contains the given IPv4 address.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value of the longest CIDR containing the address,
+   *         or null if there is none
+   * @see Cidr4Trie#longestPrefixOfValue(int)
+   */
+  public V longestPrefixOfValue(final int address) {
+    return value(getPrefixOfNode(address, 32, true));
+  }
+
+  /**
+   * Returns the value of the shortest (widest) CIDR in this trie that
+   * contains the given IPv4 address.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value of the shortest CIDR containing the address,
+   *         or null if there is none
+   * @see Cidr4Trie#shortestPrefixOfValue(int)
+   */
+  public V shortestPrefixOfValue(final int address) {
+    return value(getPrefixOfNode(address, 32, false));
+  }
+
+  /**
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return true if the address is inside of at least one CIDR in this trie
+   * @see Cidr4Trie#containsPrefixOf(int)
+   */
+  public boolean containsPrefixOf(final int address) {
+    return getPrefixOfNode(address, 32, false) != NONE;
+  }
+
+  /**
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the value of the CIDR, or null if it is not in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   * @see Cidr4Trie#get(int, int)
+   */
+  public V get(final int address, final int maskBits) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    return value(getNode(address, maskBits));
+  }
+
+  /**
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return true if the CIDR is in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   * @see Cidr4Trie#containsKey(int, int)
+   */
+  public boolean containsKey(final int address, final int maskBits) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    return getNode(address, maskBits) != NONE;
+  }
+
+
+
+  // Trie Methods:
+
+  @Override
+  public V shortestPrefixOfValue(final Cidr4 key, final boolean keyInclusive) {
+    final Cidr4 cidr = checkKey(key);
+    return value(getPrefixOfNode(cidr.getLowBinaryInteger(true),
+        keyInclusive ? cidr.getMaskBits() : cidr.getMaskBits() - 1, false));
+  }
+
+  @Override
+  public V longestPrefixOfValue(final Cidr4 key, final boolean keyInclusive) {
+    final Cidr4 cidr = checkKey(key);
+    return value(getPrefixOfNode(cidr.getLowBinaryInteger(true),
+        keyInclusive ? cidr.getMaskBits() : cidr.getMaskBits() - 1, true));
+  }
+
+  @Override
+  public Collection<V> prefixOfValues(final Cidr4 key, final boolean keyInclusive) {
+    final List<Integer> nodes = prefixOfNodes(key, keyInclusive);
+    final List<V> prefixValues = new ArrayList<V>(nodes.size());
+    for (final int node : nodes) {
+      prefixValues.add(value(node));
+    }
+    return Collections.unmodifiableList(prefixValues);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Returns a {@link FrozenCidr4Trie} holding a copy of only the matching
+   * nodes, built directly from them in O(k) for k matches.
+   */
+  @Override
+  public Trie<Cidr4, V> prefixOfMap(final Cidr4 key, final boolean keyInclusive) {
+    final List<Integer> nodes = prefixOfNodes(key, keyInclusive);
+    final int count = nodes.size() + 1;
+    final int[] left = new int[count];
+    final int[] right = new int[count];
+    final int[] valueIndex = new int[count];
+    final int[] prefix = new int[count];
+    final byte[] length = new byte[count];
+    final Object[] values = new Object[nodes.size()];
+    Arrays.fill(left, NONE);
+    Arrays.fill(right, NONE);
+    valueIndex[0] = NONE;
+
+    // The prefixes form a chain under a new root, each the child of the last
+    for (int i = 1; i < count; ++i) {
+      final int node = nodes.get(i - 1);
+      prefix[i] = prefix(node);
+      length[i] = (byte) length(node);
+      valueIndex[i] = i - 1;
+      values[i - 1] = nodeValue(node);
+      if ((prefix[i] & (1 << (31 - length[i - 1]))) == 0) {
+        left[i - 1] = i;
+      } else {
+        right[i - 1] = i;
+      }
+    }
+    return new FrozenCidr4Trie<V>(left, right, valueIndex, prefix, length, values);
+  }
+
+  /**
+   * @return the nodes with values that are prefixes of the key, in order
+   */
+  private List<Integer> prefixOfNodes(final Cidr4 key, final boolean keyInclusive) {
+    final Cidr4 cidr = checkKey(key);
+    final int address = cidr.getLowBinaryInteger(true);
+    final int maxDepth = keyInclusive ? cidr.getMaskBits() : cidr.getMaskBits() - 1;
+
+    final List<Integer> found = new ArrayList<Integer>();
+    int node = 0;
+    while (length(node) < maxDepth) {
+      node = Cidr4Descent.step(nodes, node, address);
+      if (node == NONE || length(node) > maxDepth
+          || !Cidr4Descent.matches(address, prefix(node), length(node))) {
+        break;
+      }
+      if (hasValue(node)) {
+        found.add(node);
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public Collection<V> prefixedByValues(final Cidr4 key, final boolean keyInclusive) {
+    final int[] range = prefixedByRange(key, keyInclusive);
+    final List<V> prefixedValues = new ArrayList<V>();
+    for (int node = range[0]; node < range[1]; ++node) {
+      if (hasValue(node)) {
+        prefixedValues.add(value(node));
+      }
+    }
+    return Collections.unmodifiableList(prefixedValues);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Returns a {@link FrozenCidr4Trie} holding a copy of only the subtree of
+   * matching nodes, built directly from them in O(k) for k nodes.
+   */
+  @Override
+  public Trie<Cidr4, V> prefixedByMap(final Cidr4 key, final boolean keyInclusive) {
+    final Cidr4 cidr = checkKey(key);
+    final int top = getPrefixedByNode(cidr.getLowBinaryInteger(true), cidr.getMaskBits());
+    final int last = top == NONE ? NONE : lastNode(top);
+    // The subtree is copied as is, under a new root unless it is the root
+    final int offset = top == NONE ? 0 : length(top) == 0 ? top : top - 1;
+    final int count = top == NONE ? 1 : last + 1 - offset;
+    final int[] left = new int[count];
+    final int[] right = new int[count];
+    final int[] valueIndex = new int[count];
+    final int[] prefix = new int[count];
+    final byte[] length = new byte[count];
+    final Object[] values = new Object[count];
+    Arrays.fill(left, NONE);
+    Arrays.fill(right, NONE);
+    valueIndex[0] = NONE;
+    if (top == NONE) {
+      return new FrozenCidr4Trie<V>(left, right, valueIndex, prefix, length, new Object[0]);
+    }
+    if (offset != top) {
+      if ((prefix(top) & Integer.MIN_VALUE) == 0) {
+        left[0] = 1;
+      } else {
+        right[0] = 1;
+      }
+    }
+
+    final boolean excludeTop = !keyInclusive && length(top) == cidr.getMaskBits();
+    int size = 0;
+    for (int node = top; node <= last; ++node) {
+      final int i = node - offset;
+      left[i] = left(node) == NONE ? NONE : left(node) - offset;
+      right[i] = right(node) == NONE ? NONE : right(node) - offset;
+      prefix[i] = prefix(node);
+      length[i] = (byte) length(node);
+      if (hasValue(node) && !(excludeTop && node == top)) {
+        valueIndex[i] = size;
+        values[size++] = nodeValue(node);
+      } else {
+        valueIndex[i] = NONE;
+      }
+    }
+    return new FrozenCidr4Trie<V>(left, right, valueIndex, prefix, length,
+        Arrays.copyOf(values, size));
+  }
+
+  /**
+   * @return the range of nodes [from, to) that are prefixed by the key,
+   *         which are contiguous because the nodes are held in pre-order
+   */
+  private int[] prefixedByRange(final Cidr4 key, final boolean keyInclusive) {
+    final Cidr4 cidr = checkKey(key);
+    final int node = getPrefixedByNode(cidr.getLowBinaryInteger(true), cidr.getMaskBits());
+    if (node == NONE) {
+      return new int[] {0, 0};
+    }
+    final int from = !keyInclusive && length(node) == cidr.getMaskBits() ? node + 1 : node;
+    return new int[] {from, lastNode(node) + 1};
+  }
+
+
+
+  // Map Methods:
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    final Cidr4 cidr = checkKey(key);
+    return getNode(cidr.getLowBinaryInteger(true), cidr.getMaskBits()) != NONE;
+  }
+
+  @Override
+  public V get(final Object key) {
+    final Cidr4 cidr = checkKey(key);
+    return value(getNode(cidr.getLowBinaryInteger(true), cidr.getMaskBits()));
+  }
+
+  @Override
+  public boolean containsValue(final Object value) {
+    if (value == null) {
+      throw new NullPointerException(getClass().getName()
+          + " does not allow null values: " + value);
+    }
+    for (int node = 0; node < nodeCount(); ++node) {
+      if (hasValue(node) && value.equals(nodeValue(node))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public V put(final Cidr4 key, final V value) {
+    throw new UnsupportedOperationException(getClass().getName() + " is immutable");
+  }
+
+  @Override
+  public void putAll(final Map<? extends Cidr4, ? extends V> map) {
+    throw new UnsupportedOperationException(getClass().getName() + " is immutable");
+  }
+
+  @Override
+  public V remove(final Object key) {
+    throw new UnsupportedOperationException(getClass().getName() + " is immutable");
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException(getClass().getName() + " is immutable");
+  }
+
+  @Override
+  public Set<Map.Entry<Cidr4, V>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+
+  /** Read-only view of the entries, in pre-order (the same order as Cidr4Trie) */
+  private final class EntrySet extends AbstractSet<Map.Entry<Cidr4, V>> {
+
+    @Override
+    public Iterator<Map.Entry<Cidr4, V>> iterator() {
+      return new Iterator<Map.Entry<Cidr4, V>>() {
+
+        private int next = nextValued(0);
+
+        private int nextValued(int node) {
+          while (node < nodeCount() && !hasValue(node)) {
+            ++node;
+          }
+          return node;
+        }
+
+        @Override
+        public boolean hasNext() {
+          return next < nodeCount();
+        }
+
+        @Override
+        public Map.Entry<Cidr4, V> next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          final int node = next;
+          next = nextValued(node + 1);
+          return new AbstractMap.SimpleImmutableEntry<Cidr4, V>(key(node), value(node));
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException(AbstractFlatCidr4Trie.this.getClass().getName()
+              + " is immutable");
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return AbstractFlatCidr4Trie.this.size();
+    }
+  }
+
+}
@@ -0,0 +1,566 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.Ip4;
+
+/**
+ * Base class for mutable tries of {@link Cidr4} keys with primitive values,
+ * such as {@link Cidr4IntTrie} and {@link Cidr4LongTrie}.
+ *
+ * <p>
+ * Nodes are held in flat parallel primitive arrays instead of as objects,
+ * and only nodes that hold a value or where two CIDRs diverge are kept.
+ * Each node is an index into the arrays, holding its left and right child
+ * indexes, and the full prefix bits and length of the path leading to it,
+ * so checking a child against a key takes a single masked compare.
+ * Whether a node has a value is kept in a bitmap, so that every primitive
+ * value (including 0) can be stored. The root is node 0, and the nodes of
+ * removed CIDRs are reused by later puts. Subclasses hold the values, in
+ * an array indexed by node.
+ *
+ * <p>
+ * Iteration is in the same order as a {@link Cidr4Trie} (each CIDR is
+ * followed by the CIDRs it contains).
+ * These tries are not thread-safe.
+ *
+ * @author Chris Duncan
+ */
+public abstract class AbstractPrimitiveCidr4Trie implements Serializable {
+
+  private static final long serialVersionUID = 5725931626513316045L;
+
+  protected static final int NONE = Cidr4Descent.NONE;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  // Parallel node arrays, indexed by node (the root is node 0)
+  protected int[] left; // left child node, or NONE (or the next free node)
+  protected int[] right; // right child node, or NONE
+  protected int[] prefix; // binary address bits of the path to the node
+  protected byte[] length; // number of bits in the path to the node
+  protected long[] present; // bitmap of the nodes that have a value
+
+  protected int nodes; // number of node slots used, including free ones
+  protected int free = NONE; // first free node, linked through left[]
+  protected int size;
+
+  /** Node accessors for the shared lookups of {@link Cidr4Descent} */
+  private transient Cidr4Descent.Nodes nodeArrays = new NodeArrays();
+
+
+
+  /**
+   * Create an empty trie.
+   */
+  protected AbstractPrimitiveCidr4Trie() {
+    init(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Create a copy of another trie (the subclass copies the values).
+   *
+   * @param otherTrie the trie to copy the nodes from
+   */
+  protected AbstractPrimitiveCidr4Trie(final AbstractPrimitiveCidr4Trie otherTrie) {
+    this.left = otherTrie.left.clone();
+    this.right = otherTrie.right.clone();
+    this.prefix = otherTrie.prefix.clone();
+    this.length = otherTrie.length.clone();
+    this.present = otherTrie.present.clone();
+    this.nodes = otherTrie.nodes;
+    this.free = otherTrie.free;
+    this.size = otherTrie.size;
+  }
+
+  private void init(final int capacity) {
+    this.left = new int[capacity];
+    this.right = new int[capacity];
+    this.prefix = new int[capacity];
+    this.length = new byte[capacity];
+    this.present = new long[(capacity + 63) >>> 6];
+    initValues(capacity);
+    // The root
+    left[0] = NONE;
+    right[0] = NONE;
+    this.nodes = 1;
+    this.free = NONE;
+    this.size = 0;
+  }
+
+  private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.nodeArrays = new NodeArrays();
+  }
+
+  /**
+   * Replace the values array with a new, empty one.
+   *
+   * @param capacity the number of nodes the array must hold
+   */
+  protected abstract void initValues(int capacity);
+
+  /**
+   * Grow the values array, keeping its existing values.
+   *
+   * @param capacity the number of nodes the array must hold
+   */
+  protected abstract void growValues(int capacity);
+
+  /**
+   * @param node the node index, of a node that has a value
+   * @return the value of the node, widened to a long
+   */
+  protected abstract long valueBits(int node);
+
+  /**
+   * @param node the node index, of a node that has a value
+   * @return the value of the node, as a String
+   */
+  protected abstract String valueString(int node);
+
+
+
+  // Node Methods:
+
+  private final class NodeArrays implements Cidr4Descent.Nodes {
+    @Override
+    public int left(final int node) {
+      return left[node];
+    }
+
+    @Override
+    public int right(final int node) {
+      return right[node];
+    }
+
+    @Override
+    public int prefix(final int node) {
+      return prefix[node];
+    }
+
+    @Override
+    public int length(final int node) {
+      return length[node];
+    }
+
+    @Override
+    public boolean hasValue(final int node) {
+      return AbstractPrimitiveCidr4Trie.this.hasValue(node);
+    }
+  }
+
+  /**
+   * @param node the node index
+   * @return true if the node has a value
+   */
+  protected final boolean hasValue(final int node) {
+    return (present[node >>> 6] & (1L << node)) != 0L;
+  }
+
+  /**
+   * Mark a node as having a value, updating the size
+   *
+   * @param node the node index
+   * @return true if the node did not have a value before
+   */
+  protected final boolean setPresent(final int node) {
+    if (hasValue(node)) {
+      return false;
+    }
+    present[node >>> 6] |= 1L << node;
+    ++size;
+    return true;
+  }
+
+  private void setChild(final int parent, final boolean leftSide, final int child) {
+    if (leftSide) {
+      left[parent] = child;
+    } else {
+      right[parent] = child;
+    }
+  }
+
+  /**
+   * @return a new node without children or a value, for the path given
+   */
+  private int newNode(final int address, final int bits) {
+    final int node;
+    if (free != NONE) {
+      node = free;
+      free = left[node];
+    } else {
+      if (nodes == left.length) {
+        final int capacity = left.length + (left.length >>> 1);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        prefix = Arrays.copyOf(prefix, capacity);
+        length = Arrays.copyOf(length, capacity);
+        present = Arrays.copyOf(present, (capacity + 63) >>> 6);
+        growValues(capacity);
+      }
+      node = nodes++;
+    }
+    left[node] = NONE;
+    right[node] = NONE;
+    prefix[node] = address & Cidr4Descent.mask(bits);
+    length[node] = (byte) bits;
+    return node;
+  }
+
+  private void freeNode(final int node) {
+    present[node >>> 6] &= ~(1L << node);
+    right[node] = NONE;
+    left[node] = free;
+    free = node;
+  }
+
+  /**
+   * @param address binary IPv4 address
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the node for the CIDR, which is created if needed (and which
+   *         has no value if it was created)
+   */
+  protected final int getOrCreateNode(final int address, final int maskBits) {
+    int node = 0;
+    while (true) {
+      final boolean leftSide = Cidr4Descent.isLeft(address, length[node]);
+      final int child = leftSide ? left[node] : right[node];
+      if (child == NONE) {
+        final int added = newNode(address, maskBits);
+        setChild(node, leftSide, added);
+        return added;
+      }
+
+      final int childLength = length[child];
+      final int common = Math.min(Math.min(childLength, maskBits),
+          Integer.numberOfLeadingZeros(address ^ prefix[child]));
+      if (common == childLength) {
+        if (childLength == maskBits) {
+          return child;
+        }
+        node = child; // The child is a prefix of our CIDR
+        continue;
+      }
+
+      // Our CIDR ends or diverges part way along the path to the child
+      final int added = newNode(address, maskBits);
+      if (common == maskBits) {
+        // Our CIDR is a prefix of the child
+        setChild(added, Cidr4Descent.isLeft(prefix[child], maskBits), child);
+        setChild(node, leftSide, added);
+      } else {
+        final int branch = newNode(address, common);
+        setChild(branch, Cidr4Descent.isLeft(prefix[child], common), child);
+        setChild(branch, Cidr4Descent.isLeft(address, common), added);
+        setChild(node, leftSide, branch);
+      }
+      return added;
+    }
+  }
+
+  /**
+   * @see Cidr4Descent#getNode
+   */
+  protected final int getNode(final int address, final int maskBits) {
+    return Cidr4Descent.getNode(nodeArrays, address, maskBits);
+  }
+
+  /**
+   * @see Cidr4Descent#getPrefixOfNode
+   */
+  protected final int getPrefixOfNode(final int address, final int maxDepth,
+      final boolean longest) {
+    return Cidr4Descent.getPrefixOfNode(nodeArrays, address, maxDepth, longest);
+  }
+
+  /**
+   * Remove the value of the CIDR's node, then remove the node and its
+   * parent if they are no longer needed to hold a value or join two branches.
+   *
+   * @param address binary IPv4 address
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the node that had the value (which may have been freed, but
+   *         keeps its value until reused), or NONE if the CIDR had no value
+   */
+  protected final int removeNode(final int address, final int maskBits) {
+    int grandparent = NONE;
+    int parent = NONE;
+    int node = 0;
+    while (length[node] < maskBits) {
+      grandparent = parent;
+      parent = node;
+      node = Cidr4Descent.step(nodeArrays, node, address);
+      if (node == NONE || length[node] > maskBits
+          || !Cidr4Descent.matches(address, prefix[node], length[node])) {
+        return NONE;
+      }
+    }
+    if (!hasValue(node)) {
+      return NONE;
+    }
+    present[node >>> 6] &= ~(1L << node);
+    --size;
+
+    if (left[node] != NONE && right[node] != NONE) {
+      return node; // Still joins two branches
+    }
+    final int onlyChild = left[node] != NONE ? left[node] : right[node];
+    replaceChild(parent, node, onlyChild);
+    freeNode(node);
+
+    if (onlyChild == NONE && parent != 0 && !hasValue(parent)) {
+      // The parent only joined two branches, and now has one
+      final int sibling = left[parent] != NONE ? left[parent] : right[parent];
+      replaceChild(grandparent, parent, sibling);
+      freeNode(parent);
+    }
+    return node;
+  }
+
+  private void replaceChild(final int parent, final int oldChild, final int newChild) {
+    if (left[parent] == oldChild) {
+      left[parent] = newChild;
+    } else {
+      right[parent] = newChild;
+    }
+  }
+
+
+
+  // Iteration Methods:
+
+  /**
+   * Callback for the nodes visited by the iteration methods
+   */
+  protected interface NodeVisitor {
+
+    /**
+     * @param node the node index, of a node that has a value
+     */
+    void visit(int node);
+  }
+
+  /**
+   * Visit each node with a value under the given node (inclusive), in the
+   * same order as a {@link Cidr4Trie}
+   *
+   * @param from the node to start at
+   * @param visitor NodeVisitor
+   */
+  protected final void visitSubtree(final int from, final NodeVisitor visitor) {
+    // Each level down adds at most one pending right child, and there are at most 33 levels
+    final int[] pending = new int[33];
+    int top = 0;
+    int node = from;
+    while (true) {
+      if (hasValue(node)) {
+        visitor.visit(node);
+      }
+      if (left[node] != NONE) {
+        if (right[node] != NONE) {
+          pending[top++] = right[node];
+        }
+        node = left[node];
+      } else if (right[node] != NONE) {
+        node = right[node];
+      } else if (top > 0) {
+        node = pending[--top];
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Visit each node with a value that is a prefix of the address,
+   * from the shortest to the longest
+   *
+   * @param address binary IPv4 address
+   * @param maxDepth the deepest bit depth a visited node may be at
+   * @param visitor NodeVisitor
+   */
+  protected final void visitPrefixOf(final int address, final int maxDepth,
+      final NodeVisitor visitor) {
+    int node = 0;
+    while (length[node] < maxDepth) {
+      node = Cidr4Descent.step(nodeArrays, node, address);
+      if (node == NONE || length[node] > maxDepth
+          || !Cidr4Descent.matches(address, prefix[node], length[node])) {
+        return;
+      }
+      if (hasValue(node)) {
+        visitor.visit(node);
+      }
+    }
+  }
+
+  /**
+   * @see Cidr4Descent#getPrefixedByNode
+   */
+  protected final int getPrefixedByNode(final int address, final int maskBits) {
+    return Cidr4Descent.getPrefixedByNode(nodeArrays, address, maskBits);
+  }
+
+
+
+  // Argument Checks:
+
+  protected final Cidr4 checkKey(final Cidr4 key) {
+    if (key == null) {
+      throw new NullPointerException(getClass().getName() + " does not accept null keys: " + key);
+    }
+    if (key.getMaskBits() <= 0) {
+      throw new IllegalArgumentException(getClass().getName()
+          + " does not accept keys of length <= 0: " + key);
+    }
+    return key;
+  }
+
+
+
+  // Collection Methods:
+
+  /**
+   * @return the number of CIDRs in this trie
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return true if this trie contains no CIDRs
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Removes all of the CIDRs from this trie, and releases the node arrays.
+   */
+  public void clear() {
+    init(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Returns true if this trie contains the CIDR made from the given IPv4
+   * address and mask bits.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return true if the CIDR is in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public boolean containsKey(final int address, final int maskBits) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    return getNode(address, maskBits) != NONE;
+  }
+
+  /**
+   * @param key Cidr4
+   * @return true if the CIDR is in this trie
+   */
+  public boolean containsKey(final Cidr4 key) {
+    checkKey(key);
+    return getNode(key.getLowBinaryInteger(true), key.getMaskBits()) != NONE;
+  }
+
+  /**
+   * Returns true if any CIDR in this trie contains the given IPv4 address.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return true if the address is inside of at least one CIDR in this trie
+   */
+  public boolean containsPrefixOf(final int address) {
+    return getPrefixOfNode(address, 32, false) != NONE;
+  }
+
+  /**
+   * @param ip Ip4
+   * @return true if the address is inside of at least one CIDR in this trie
+   */
+  public boolean containsPrefixOf(final Ip4 ip) {
+    return containsPrefixOf(ip.getBinaryInteger());
+  }
+
+  /**
+   * Trims the node arrays down to the nodes in use.
+   * Free nodes (from removed CIDRs) are kept.
+   */
+  public void trimToSize() {
+    left = Arrays.copyOf(left, nodes);
+    right = Arrays.copyOf(right, nodes);
+    prefix = Arrays.copyOf(prefix, nodes);
+    length = Arrays.copyOf(length, nodes);
+    present = Arrays.copyOf(present, (nodes + 63) >>> 6);
+    growValues(nodes);
+  }
+
+
+
+  // Object Methods:
+
+  @Override
+  public int hashCode() {
+    final int[] hash = new int[1];
+    visitSubtree(0, new NodeVisitor() {
+      @Override
+      public void visit(final int node) {
+        final long value = valueBits(node);
+        hash[0] += (prefix[node] ^ length[node]) ^ (int) (value ^ (value >>> 32));
+      }
+    });
+    return hash[0];
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    final AbstractPrimitiveCidr4Trie other = (AbstractPrimitiveCidr4Trie) obj;
+    if (size != other.size) {
+      return false;
+    }
+    final boolean[] equal = new boolean[] {true};
+    visitSubtree(0, new NodeVisitor() {
+      @Override
+      public void visit(final int node) {
+        if (equal[0]) {
+          final int otherNode = other.getNode(prefix[node], length[node]);
+          equal[0] = otherNode != NONE && other.valueBits(otherNode) == valueBits(node);
+        }
+      }
+    });
+    return equal[0];
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("{");
+    visitSubtree(0, new NodeVisitor() {
+      @Override
+      public void visit(final int node) {
+        if (sb.length() > 1) {
+          sb.append(", ");
+        }
+        sb.append(new Cidr4(prefix[node], length[node])).append('=').append(valueString(node));
+      }
+    });
+    return sb.append('}').toString();
+  }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+/**
+ * Lookups shared by the tries of {@link com.github.veqryn.net.Cidr4} keys
+ * that only keep nodes that hold a value or where two CIDRs diverge, and
+ * where each node holds the full prefix bits and length of the path leading
+ * to it, so checking a node against a key takes a single masked compare.
+ *
+ * <p>
+ * Addresses are binary IPv4 addresses, where Integer.MIN_VALUE = 128.0.0.0.
+ * Descending from a node goes to its left child if the address bit
+ * following the node's path is 0, and to its right child otherwise.
+ *
+ * @author Chris Duncan
+ */
+final class Cidr4Descent {
+
+  static final int NONE = -1;
+
+  private Cidr4Descent() {}
+
+
+
+  /**
+   * Read access to nodes that are numbered by an int index, where the root
+   * is node 0, with a length of 0 and no value
+   */
+  interface Nodes {
+
+    /**
+     * @param node the node index
+     * @return the left child node index, or NONE
+     */
+    int left(int node);
+
+    /**
+     * @param node the node index
+     * @return the right child node index, or NONE
+     */
+    int right(int node);
+
+    /**
+     * @param node the node index
+     * @return the binary address bits of the path to the node
+     */
+    int prefix(int node);
+
+    /**
+     * @param node the node index
+     * @return the number of bits in the path to the node
+     */
+    int length(int node);
+
+    /**
+     * @param node the node index
+     * @return true if the node has a value
+     */
+    boolean hasValue(int node);
+  }
+
+  /**
+   * A node that is an object, where null is no node
+   *
+   * @param <N> the type of the node itself
+   */
+  interface PathNode<N extends PathNode<N>> {
+
+    /**
+     * @return the left child node, or null
+     */
+    N left();
+
+    /**
+     * @return the right child node, or null
+     */
+    N right();
+
+    /**
+     * @return the binary address bits of the path to the node
+     */
+    int prefix();
+
+    /**
+     * @return the number of bits in the path to the node
+     */
+    int length();
+
+    /**
+     * @return true if the node has a value
+     */
+    boolean hasValue();
+  }
+
+
+
+  /**
+   * @param bits the number of leading bits to keep, from 0 to 32
+   * @return the netmask of the leading bits
+   */
+  static int mask(final int bits) {
+    return bits == 0 ? 0 : -1 << (32 - bits);
+  }
+
+  /**
+   * @param bits the number of leading bits to compare, from 0 to 32
+   * @return true if the leading bits of the address and the prefix are equal
+   */
+  static boolean matches(final int address, final int prefix, final int bits) {
+    return ((address ^ prefix) & mask(bits)) == 0;
+  }
+
+  /**
+   * @param index the bit index, from 0 to 31
+   * @return true if the bit of the address at the index is 0 (left)
+   */
+  static boolean isLeft(final int address, final int index) {
+    return (address & (1 << (31 - index))) == 0;
+  }
+
+  static void checkMaskBits(final Class<?> clazz, final int maskBits) {
+    if (maskBits <= 0 || maskBits > 32) {
+      throw new IllegalArgumentException(clazz.getName()
+          + " does not accept mask bits outside of 1 to 32: " + maskBits);
+    }
+  }
+
+  /**
+   * @param node the parent node
+   * @return the left or right child of the node, depending on the address
+   *         bit following the parent node's prefix, or NONE
+   */
+  static int step(final Nodes nodes, final int node, final int address) {
+    return isLeft(address, nodes.length(node)) ? nodes.left(node) : nodes.right(node);
+  }
+
+  /**
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the node with a value for the exact CIDR, or NONE
+   */
+  static int getNode(final Nodes nodes, final int address, final int maskBits) {
+    int node = 0;
+    int length = 0;
+    while (length < maskBits) {
+      node = step(nodes, node, address);
+      if (node == NONE) {
+        return NONE;
+      }
+      length = nodes.length(node);
+      if (length > maskBits || !matches(address, nodes.prefix(node), length)) {
+        return NONE;
+      }
+    }
+    return nodes.hasValue(node) ? node : NONE;
+  }
+
+  /**
+   * @param maxDepth the deepest bit depth a returned node may be at
+   * @param longest true to return the deepest matching node,
+   *        false to return the shallowest matching node
+   * @return the shortest or longest node with a value, that is a prefix of
+   *         the address (up to maxDepth), or NONE
+   */
+  static int getPrefixOfNode(final Nodes nodes, final int address, final int maxDepth,
+      final boolean longest) {
+    int found = NONE;
+    int node = 0;
+    int length = 0;
+    while (length < maxDepth) {
+      node = step(nodes, node, address);
+      if (node == NONE) {
+        break;
+      }
+      length = nodes.length(node);
+      if (length > maxDepth || !matches(address, nodes.prefix(node), length)) {
+        break;
+      }
+      if (nodes.hasValue(node)) {
+        if (!longest) {
+          return node;
+        }
+        found = node;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the highest node whose path starts with the CIDR, or NONE
+   */
+  static int getPrefixedByNode(final Nodes nodes, final int address, final int maskBits) {
+    int node = 0;
+    int length = 0;
+    while (length < maskBits) {
+      node = step(nodes, node, address);
+      if (node == NONE) {
+        return NONE;
+      }
+      length = nodes.length(node);
+      if (!matches(address, nodes.prefix(node), Math.min(length, maskBits))) {
+        return NONE;
+      }
+    }
+    return node;
+  }
+
+
+
+  // Object Node Lookups, the same as the index-based ones above:
+
+  static <N extends PathNode<N>> N step(final N node, final int address) {
+    return isLeft(address, node.length()) ? node.left() : node.right();
+  }
+
+  static <N extends PathNode<N>> N getNode(final N root, final int address,
+      final int maskBits) {
+    N node = root;
+    while (node.length() < maskBits) {
+      node = step(node, address);
+      if (node == null || node.length() > maskBits
+          || !matches(address, node.prefix(), node.length())) {
+        return null;
+      }
+    }
+    return node.hasValue() ? node : null;
+  }
+
+  static <N extends PathNode<N>> N getPrefixOfNode(final N root, final int address,
+      final int maxDepth, final boolean longest) {
+    N found = null;
+    N node = root;
+    while (node.length() < maxDepth) {
+      node = step(node, address);
+      if (node == null || node.length() > maxDepth
+          || !matches(address, node.prefix(), node.length())) {
+        break;
+      }
+      if (node.hasValue()) {
+        if (!longest) {
+          return node;
+        }
+        found = node;
+      }
+    }
+    return found;
+  }
+
+  static <N extends PathNode<N>> N getPrefixedByNode(final N root, final int address,
+      final int maskBits) {
+    N node = root;
+    while (node.length() < maskBits) {
+      node = step(node, address);
+      if (node == null || !matches(address, node.prefix(), Math.min(node.length(), maskBits))) {
+        return null;
+      }
+    }
+    return node;
+  }
+
+}
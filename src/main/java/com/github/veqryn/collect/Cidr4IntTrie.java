@@ -0,0 +1,304 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.util.Arrays;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.Ip4;
+
+/**
+ * Mutable trie of {@link Cidr4} keys with primitive <code>int</code> values,
+ * for large maps of CIDRs to small ids, such as ASN numbers or country ids.
+ *
+ * <p>
+ * A {@link Cidr4Trie}&lt;Integer&gt; holds a Node object and an Integer
+ * object for each CIDR. This trie holds its nodes and values in flat
+ * primitive arrays (see {@link AbstractPrimitiveCidr4Trie}), so it holds
+ * no objects per CIDR at all, and lookups never allocate. Any int can be
+ * stored as a value: lookups that find nothing return the trie's
+ * <code>missingValue</code> (0 unless given), and
+ * {@link #containsKey(int, int)} or {@link #containsPrefixOf(int)} tell
+ * a stored <code>missingValue</code> apart from no value.
+ *
+ * <pre>
+ * // Example usage:
+ * Cidr4IntTrie asns = new Cidr4IntTrie(-1);
+ * asns.put(new Cidr4("8.8.8.0/24"), 15169);
+ * int asn = asns.longestPrefixOfInt(new Ip4("8.8.8.8").getBinaryInteger());
+ * asns.forEach((address, maskBits, value) -&gt; ...);
+ * </pre>
+ *
+ * @author Chris Duncan
+ */
+public final class Cidr4IntTrie extends AbstractPrimitiveCidr4Trie {
+
+  private static final long serialVersionUID = -4103596312470839287L;
+
+  private final int missingValue;
+
+  private int[] values;
+
+
+
+  /**
+   * Create an empty {@link Cidr4IntTrie}, that returns 0 from lookups that
+   * find nothing.
+   */
+  public Cidr4IntTrie() {
+    this(0);
+  }
+
+  /**
+   * Create an empty {@link Cidr4IntTrie}.
+   *
+   * @param missingValue the value returned by lookups that find nothing
+   */
+  public Cidr4IntTrie(final int missingValue) {
+    super();
+    this.missingValue = missingValue;
+  }
+
+  /**
+   * Copy constructor, creates a copy of this {@link Cidr4IntTrie} instance.
+   *
+   * @param otherTrie Cidr4IntTrie
+   */
+  public Cidr4IntTrie(final Cidr4IntTrie otherTrie) {
+    super(otherTrie);
+    this.missingValue = otherTrie.missingValue;
+    this.values = otherTrie.values.clone();
+  }
+
+
+
+  /**
+   * Callback for the CIDRs and values visited by the forEach methods
+   */
+  @FunctionalInterface
+  public interface IntEntryConsumer {
+
+    /**
+     * @param address binary IPv4 address of the CIDR, with the bits after
+     *        the mask bits set to 0
+     * @param maskBits the number of mask bits of the CIDR
+     * @param value the value of the CIDR
+     */
+    void accept(int address, int maskBits, int value);
+  }
+
+
+
+  @Override
+  protected void initValues(final int capacity) {
+    values = new int[capacity];
+  }
+
+  @Override
+  protected void growValues(final int capacity) {
+    values = Arrays.copyOf(values, capacity);
+  }
+
+  @Override
+  protected long valueBits(final int node) {
+    return values[node];
+  }
+
+  @Override
+  protected String valueString(final int node) {
+    return Integer.toString(values[node]);
+  }
+
+  /**
+   * @return the value returned by lookups that find nothing
+   */
+  public int getMissingValue() {
+    return missingValue;
+  }
+
+
+
+  // Primitive IPv4 Methods:
+
+  /**
+   * Associates the value with the CIDR made from the given IPv4 address and
+   * mask bits.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @param value the value
+   * @return the previous value of the CIDR, or the missing value if none
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public int put(final int address, final int maskBits, final int value) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    final int node = getOrCreateNode(address, maskBits);
+    final int previous = setPresent(node) ? missingValue : values[node];
+    values[node] = value;
+    return previous;
+  }
+
+  /**
+   * Returns the value of the CIDR made from the given IPv4 address and mask
+   * bits.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the value of the CIDR, or the missing value if it is not in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public int getInt(final int address, final int maskBits) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    final int node = getNode(address, maskBits);
+    return node == NONE ? missingValue : values[node];
+  }
+
+  /**
+   * Removes the CIDR made from the given IPv4 address and mask bits.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the previous value of the CIDR, or the missing value if none
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public int remove(final int address, final int maskBits) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    final int node = removeNode(address, maskBits);
+    return node == NONE ? missingValue : values[node];
+  }
+
+  /**
+   * Returns the value of the longest (most specific) CIDR in this trie that
+   * contains the given IPv4 address.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value of the longest CIDR containing the address,
+   *         or the missing value if there is none
+   */
+  public int longestPrefixOfInt(final int address) {
+    final int node = getPrefixOfNode(address, 32, true);
+    return node == NONE ? missingValue : values[node];
+  }
+
+  /**
+   * Returns the value of the shortest (widest) CIDR in this trie that
+   * contains the given IPv4 address.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value of the shortest CIDR containing the address,
+   *         or the missing value if there is none
+   */
+  public int shortestPrefixOfInt(final int address) {
+    final int node = getPrefixOfNode(address, 32, false);
+    return node == NONE ? missingValue : values[node];
+  }
+
+  /**
+   * Calls the action with each CIDR in this trie, and its value, in the same
+   * order as a {@link Cidr4Trie}. The trie must not be changed by the action.
+   *
+   * @param action IntEntryConsumer
+   */
+  public void forEach(final IntEntryConsumer action) {
+    visitSubtree(0, visitor(action));
+  }
+
+  /**
+   * Calls the action with each CIDR in this trie that contains the given
+   * IPv4 address, and its value, from the shortest to the longest CIDR.
+   * The trie must not be changed by the action.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @param action IntEntryConsumer
+   */
+  public void forEachPrefixOf(final int address, final IntEntryConsumer action) {
+    visitPrefixOf(address, 32, visitor(action));
+  }
+
+  /**
+   * Calls the action with each CIDR in this trie that is inside of (or equal
+   * to) the CIDR made from the given IPv4 address and mask bits, and its
+   * value, in the same order as a {@link Cidr4Trie}.
+   * The trie must not be changed by the action.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @param action IntEntryConsumer
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public void forEachPrefixedBy(final int address, final int maskBits,
+      final IntEntryConsumer action) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    final int node = getPrefixedByNode(address, maskBits);
+    if (node != NONE) {
+      visitSubtree(node, visitor(action));
+    }
+  }
+
+  private NodeVisitor visitor(final IntEntryConsumer action) {
+    return new NodeVisitor() {
+      @Override
+      public void visit(final int node) {
+        action.accept(prefix[node], length[node], values[node]);
+      }
+    };
+  }
+
+
+
+  // Object IPv4 Methods:
+
+  /**
+   * @param key Cidr4
+   * @param value the value
+   * @return the previous value of the CIDR, or the missing value if none
+   */
+  public int put(final Cidr4 key, final int value) {
+    checkKey(key);
+    return put(key.getLowBinaryInteger(true), key.getMaskBits(), value);
+  }
+
+  /**
+   * @param key Cidr4
+   * @return the value of the CIDR, or the missing value if it is not in this trie
+   */
+  public int getInt(final Cidr4 key) {
+    checkKey(key);
+    return getInt(key.getLowBinaryInteger(true), key.getMaskBits());
+  }
+
+  /**
+   * @param key Cidr4
+   * @return the previous value of the CIDR, or the missing value if none
+   */
+  public int remove(final Cidr4 key) {
+    checkKey(key);
+    return remove(key.getLowBinaryInteger(true), key.getMaskBits());
+  }
+
+  /**
+   * @param ip Ip4
+   * @return the value of the longest CIDR containing the address,
+   *         or the missing value if there is none
+   */
+  public int longestPrefixOfInt(final Ip4 ip) {
+    return longestPrefixOfInt(ip.getBinaryInteger());
+  }
+
+  /**
+   * @param ip Ip4
+   * @return the value of the shortest CIDR containing the address,
+   *         or the missing value if there is none
+   */
+  public int shortestPrefixOfInt(final Ip4 ip) {
+    return shortestPrefixOfInt(ip.getBinaryInteger());
+  }
+
+}
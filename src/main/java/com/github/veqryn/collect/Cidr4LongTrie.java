@@ -0,0 +1,305 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.util.Arrays;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.Ip4;
+
+/**
+ * Mutable trie of {@link Cidr4} keys with primitive <code>long</code> values,
+ * for large maps of CIDRs to ids or counters that do not fit in an int.
+ * The same as {@link Cidr4IntTrie}, but with long values.
+ *
+ * <p>
+ * A {@link Cidr4Trie}&lt;Long&gt; holds a Node object and a Long
+ * object for each CIDR. This trie holds its nodes and values in flat
+ * primitive arrays (see {@link AbstractPrimitiveCidr4Trie}), so it holds
+ * no objects per CIDR at all, and lookups never allocate. Any long can be
+ * stored as a value: lookups that find nothing return the trie's
+ * <code>missingValue</code> (0 unless given), and
+ * {@link #containsKey(int, int)} or {@link #containsPrefixOf(int)} tell
+ * a stored <code>missingValue</code> apart from no value.
+ *
+ * <pre>
+ * // Example usage:
+ * Cidr4LongTrie counters = new Cidr4LongTrie();
+ * counters.put(new Cidr4("8.8.8.0/24"), 1L &lt;&lt; 40);
+ * long counter = counters.longestPrefixOfLong(new Ip4("8.8.8.8").getBinaryInteger());
+ * counters.forEach((address, maskBits, value) -&gt; ...);
+ * </pre>
+ *
+ * @author Chris Duncan
+ */
+public final class Cidr4LongTrie extends AbstractPrimitiveCidr4Trie {
+
+  private static final long serialVersionUID = 7418820649351826702L;
+
+  private final long missingValue;
+
+  private long[] values;
+
+
+
+  /**
+   * Create an empty {@link Cidr4LongTrie}, that returns 0 from lookups that
+   * find nothing.
+   */
+  public Cidr4LongTrie() {
+    this(0);
+  }
+
+  /**
+   * Create an empty {@link Cidr4LongTrie}.
+   *
+   * @param missingValue the value returned by lookups that find nothing
+   */
+  public Cidr4LongTrie(final long missingValue) {
+    super();
+    this.missingValue = missingValue;
+  }
+
+  /**
+   * Copy constructor, creates a copy of this {@link Cidr4LongTrie} instance.
+   *
+   * @param otherTrie Cidr4LongTrie
+   */
+  public Cidr4LongTrie(final Cidr4LongTrie otherTrie) {
+    super(otherTrie);
+    this.missingValue = otherTrie.missingValue;
+    this.values = otherTrie.values.clone();
+  }
+
+
+
+  /**
+   * Callback for the CIDRs and values visited by the forEach methods
+   */
+  @FunctionalInterface
+  public interface LongEntryConsumer {
+
+    /**
+     * @param address binary IPv4 address of the CIDR, with the bits after
+     *        the mask bits set to 0
+     * @param maskBits the number of mask bits of the CIDR
+     * @param value the value of the CIDR
+     */
+    void accept(int address, int maskBits, long value);
+  }
+
+
+
+  @Override
+  protected void initValues(final int capacity) {
+    values = new long[capacity];
+  }
+
+  @Override
+  protected void growValues(final int capacity) {
+    values = Arrays.copyOf(values, capacity);
+  }
+
+  @Override
+  protected long valueBits(final int node) {
+    return values[node];
+  }
+
+  @Override
+  protected String valueString(final int node) {
+    return Long.toString(values[node]);
+  }
+
+  /**
+   * @return the value returned by lookups that find nothing
+   */
+  public long getMissingValue() {
+    return missingValue;
+  }
+
+
+
+  // Primitive IPv4 Methods:
+
+  /**
+   * Associates the value with the CIDR made from the given IPv4 address and
+   * mask bits.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @param value the value
+   * @return the previous value of the CIDR, or the missing value if none
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public long put(final int address, final int maskBits, final long value) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    final int node = getOrCreateNode(address, maskBits);
+    final long previous = setPresent(node) ? missingValue : values[node];
+    values[node] = value;
+    return previous;
+  }
+
+  /**
+   * Returns the value of the CIDR made from the given IPv4 address and mask
+   * bits.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the value of the CIDR, or the missing value if it is not in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public long getLong(final int address, final int maskBits) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    final int node = getNode(address, maskBits);
+    return node == NONE ? missingValue : values[node];
+  }
+
+  /**
+   * Removes the CIDR made from the given IPv4 address and mask bits.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the previous value of the CIDR, or the missing value if none
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public long remove(final int address, final int maskBits) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    final int node = removeNode(address, maskBits);
+    return node == NONE ? missingValue : values[node];
+  }
+
+  /**
+   * Returns the value of the longest (most specific) CIDR in this trie that
+   * contains the given IPv4 address.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value of the longest CIDR containing the address,
+   *         or the missing value if there is none
+   */
+  public long longestPrefixOfLong(final int address) {
+    final int node = getPrefixOfNode(address, 32, true);
+    return node == NONE ? missingValue : values[node];
+  }
+
+  /**
+   * Returns the value of the shortest (widest) CIDR in this trie that
+   * contains the given IPv4 address.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value of the shortest CIDR containing the address,
+   *         or the missing value if there is none
+   */
+  public long shortestPrefixOfLong(final int address) {
+    final int node = getPrefixOfNode(address, 32, false);
+    return node == NONE ? missingValue : values[node];
+  }
+
+  /**
+   * Calls the action with each CIDR in this trie, and its value, in the same
+   * order as a {@link Cidr4Trie}. The trie must not be changed by the action.
+   *
+   * @param action LongEntryConsumer
+   */
+  public void forEach(final LongEntryConsumer action) {
+    visitSubtree(0, visitor(action));
+  }
+
+  /**
+   * Calls the action with each CIDR in this trie that contains the given
+   * IPv4 address, and its value, from the shortest to the longest CIDR.
+   * The trie must not be changed by the action.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @param action LongEntryConsumer
+   */
+  public void forEachPrefixOf(final int address, final LongEntryConsumer action) {
+    visitPrefixOf(address, 32, visitor(action));
+  }
+
+  /**
+   * Calls the action with each CIDR in this trie that is inside of (or equal
+   * to) the CIDR made from the given IPv4 address and mask bits, and its
+   * value, in the same order as a {@link Cidr4Trie}.
+   * The trie must not be changed by the action.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @param action LongEntryConsumer
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public void forEachPrefixedBy(final int address, final int maskBits,
+      final LongEntryConsumer action) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    final int node = getPrefixedByNode(address, maskBits);
+    if (node != NONE) {
+      visitSubtree(node, visitor(action));
+    }
+  }
+
+  private NodeVisitor visitor(final LongEntryConsumer action) {
+    return new NodeVisitor() {
+      @Override
+      public void visit(final int node) {
+        action.accept(prefix[node], length[node], values[node]);
+      }
+    };
+  }
+
+
+
+  // Object IPv4 Methods:
+
+  /**
+   * @param key Cidr4
+   * @param value the value
+   * @return the previous value of the CIDR, or the missing value if none
+   */
+  public long put(final Cidr4 key, final long value) {
+    checkKey(key);
+    return put(key.getLowBinaryInteger(true), key.getMaskBits(), value);
+  }
+
+  /**
+   * @param key Cidr4
+   * @return the value of the CIDR, or the missing value if it is not in this trie
+   */
+  public long getLong(final Cidr4 key) {
+    checkKey(key);
+    return getLong(key.getLowBinaryInteger(true), key.getMaskBits());
+  }
+
+  /**
+   * @param key Cidr4
+   * @return the previous value of the CIDR, or the missing value if none
+   */
+  public long remove(final Cidr4 key) {
+    checkKey(key);
+    return remove(key.getLowBinaryInteger(true), key.getMaskBits());
+  }
+
+  /**
+   * @param ip Ip4
+   * @return the value of the longest CIDR containing the address,
+   *         or the missing value if there is none
+   */
+  public long longestPrefixOfLong(final Ip4 ip) {
+    return longestPrefixOfLong(ip.getBinaryInteger());
+  }
+
+  /**
+   * @param ip Ip4
+   * @return the value of the shortest CIDR containing the address,
+   *         or the missing value if there is none
+   */
+  public long shortestPrefixOfLong(final Ip4 ip) {
+    return shortestPrefixOfLong(ip.getBinaryInteger());
+  }
+
+}
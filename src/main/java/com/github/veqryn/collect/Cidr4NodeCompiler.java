@@ -0,0 +1,125 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import com.github.veqryn.collect.AbstractBinaryTrie.Node;
+import com.github.veqryn.net.Cidr4;
+
+/**
+ * Compiles the Node graph of a {@link Cidr4Trie} into a flat pre-order
+ * layout, where each node is numbered in pre-order (each node followed by
+ * its left subtree, then its right subtree), and only nodes that hold a
+ * value or where two CIDRs diverge are kept. Subclasses decide where the
+ * compiled nodes are stored.
+ *
+ * @author Chris Duncan
+ *
+ * @param <V> Value
+ */
+abstract class Cidr4NodeCompiler<V> {
+
+  static final int NONE = Cidr4Descent.NONE;
+
+  protected int nodes = 0;
+  protected int numValues = 0;
+
+  /**
+   * Store a compiled node. Nodes are added in pre-order.
+   *
+   * @param index the index of the node
+   * @param bits the binary address bits of the path to the node
+   * @param depth the number of bits in the path to the node
+   * @param value the value of the node, or null if it has none
+   */
+  protected abstract void addNode(int index, int bits, int depth, V value);
+
+  /**
+   * Store the children of a compiled node, once its subtrees have been added.
+   *
+   * @param index the index of the node
+   * @param left the index of the left child node, or NONE
+   * @param right the index of the right child node, or NONE
+   */
+  protected abstract void setChildren(int index, int left, int right);
+
+  /**
+   * Compile the trie under (and including) the given root node
+   *
+   * @param root the root Node of a Cidr4Trie
+   */
+  final void compile(final Node<Cidr4, V> root) {
+    compile(root, 0, 0);
+  }
+
+  /**
+   * Add a node (and all nodes under it) in pre-order,
+   * skipping over empty nodes that have only a single child
+   *
+   * @param node the source Node
+   * @param bits the prefix bits of the path to the source Node
+   * @param depth the number of bits in the path to the source Node
+   * @return the index of the added node
+   */
+  private int compile(Node<Cidr4, V> node, int bits, int depth) {
+    if (depth > 0) {
+      while (node.value == null && (node.left == null) != (node.right == null)) {
+        final Node<Cidr4, V> child = node.left != null ? node.left : node.right;
+        bits = childBits(node, child, bits, depth);
+        depth = childDepth(child, depth);
+        node = child;
+      }
+    }
+
+    final int index = nodes++;
+    if (node.value != null) {
+      ++numValues;
+    }
+    addNode(index, bits, depth, node.value);
+    final int left = node.left == null ? NONE
+        : compile(node.left, childBits(node, node.left, bits, depth),
+            childDepth(node.left, depth));
+    final int right = node.right == null ? NONE
+        : compile(node.right, childBits(node, node.right, bits, depth),
+            childDepth(node.right, depth));
+    setChildren(index, left, right);
+    return index;
+  }
+
+  private static int childBits(final Node<Cidr4, ?> parent, final Node<Cidr4, ?> child,
+      int bits, int depth) {
+    if (parent.right == child) {
+      bits |= 1 << (31 - depth);
+    }
+    ++depth;
+    for (int i = 0; i < child.skip(); ++i, ++depth) {
+      if (!AbstractBinaryTrie.isLeftSkipped(child, i)) {
+        bits |= 1 << (31 - depth);
+      }
+    }
+    return bits;
+  }
+
+  private static int childDepth(final Node<Cidr4, ?> child, final int depth) {
+    return depth + 1 + child.skip();
+  }
+
+  /**
+   * @param root the root Node of a Cidr4Trie
+   * @return the number of nodes the trie compiles into
+   */
+  static <V> int countNodes(final Node<Cidr4, V> root) {
+    final Cidr4NodeCompiler<V> counter = new Cidr4NodeCompiler<V>() {
+      @Override
+      protected void addNode(final int index, final int bits, final int depth, final V value) {}
+
+      @Override
+      protected void setChildren(final int index, final int left, final int right) {}
+    };
+    counter.compile(root);
+    return counter.nodes;
+  }
+
+}
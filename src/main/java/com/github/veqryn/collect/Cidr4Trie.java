@@ -6,11 +6,14 @@
 package com.github.veqryn.collect;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
 
 import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.Ip4;
 
 /**
  * Implementation of a CIDR Trie, which can be used for routing IP's from
@@ -50,6 +53,12 @@ import com.github.veqryn.net.Cidr4;
  * It also implements the {@link Trie} and {@link java.util.Map} interfaces.
  *
  * <p>
+ * A path-compressed Cidr4Trie (<code>new Cidr4Trie&lt;V&gt;(true)</code>)
+ * only creates nodes where a CIDR's value lives or where two CIDRs diverge,
+ * so that any CIDR of up to /32 needs at most a single new node (instead of
+ * one node per bit), and lookups dereference far fewer nodes.
+ *
+ * <p>
  * This implementation returns values in the order of their CIDR keys
  * (an example order would be: 6.6.0.0/16, 6.6.0.0/24, 6.6.0.0/32,
  * 6.6.0.1/32, 6.6.0.4/30, 6.7.0.0/16, 6.7.0.0/32)
@@ -114,6 +123,65 @@ public final class Cidr4Trie<V> extends AbstractBinaryTrie<Cidr4, V> {
     super(new Cidr4Codec());
   }
 
+  /**
+   * Create an empty {@link Cidr4Trie}, with the given node layout.
+   *
+   * @param compressed true if the trie should use path compression,
+   *        where chains of empty intermediate nodes with a single child are
+   *        collapsed into a single node, greatly reducing the number of nodes
+   */
+  public Cidr4Trie(final boolean compressed) {
+    super(new Cidr4Codec(), compressed);
+  }
+
+  /**
+   * Create an empty {@link Cidr4Trie}, with the given node layout and policy
+   * for keeping keys.
+   *
+   * @param compressed true if the trie should use path compression
+   * @param keyless true if the trie should never cache keys on its nodes,
+   *        and use nodes without a field for them, recreating keys from
+   *        their path every time they are returned. This saves memory at
+   *        the cost of creating more short-lived keys.
+   */
+  public Cidr4Trie(final boolean compressed, final boolean keyless) {
+    super(new Cidr4Codec(), compressed, keyless);
+  }
+
+  /**
+   * Create an empty {@link Cidr4Trie}, with the given node layout, policy
+   * for keeping keys, and with or without parent references in its nodes.
+   *
+   * @param compressed true if the trie should use path compression
+   * @param keyless true if the trie should never cache keys on its nodes
+   * @param parentless true if the nodes of the trie should not keep a
+   *        reference to their parent, making each node smaller. Requires
+   *        {@code keyless} to also be true.
+   * @throws IllegalArgumentException if parentless but not keyless
+   */
+  public Cidr4Trie(final boolean compressed, final boolean keyless, final boolean parentless) {
+    super(new Cidr4Codec(), compressed, keyless, parentless);
+  }
+
+  /**
+   * Create an empty {@link Cidr4Trie}, with the given node layout, policy
+   * for keeping keys, with or without parent references in its nodes, and
+   * with or without a count of the CIDRs under each node.
+   *
+   * @param compressed true if the trie should use path compression
+   * @param keyless true if the trie should never cache keys on its nodes
+   * @param parentless true if the nodes of the trie should not keep a
+   *        reference to their parent. Requires {@code keyless} to also be true.
+   * @param counted true if each node should keep the number of CIDRs under
+   *        it, so that the size of a prefixed-by view (such as the number of
+   *        routes under a /8) is found without iterating over the view
+   * @throws IllegalArgumentException if parentless but not keyless
+   */
+  public Cidr4Trie(final boolean compressed, final boolean keyless, final boolean parentless,
+      final boolean counted) {
+    super(new Cidr4Codec(), compressed, keyless, parentless, counted);
+  }
+
   /**
    * Create a {@link Cidr4Trie}.
    * The trie will be filled with the CIDRs and values in the provided map.
@@ -125,6 +193,18 @@ public final class Cidr4Trie<V> extends AbstractBinaryTrie<Cidr4, V> {
     super(new Cidr4Codec(), otherMap);
   }
 
+  /**
+   * Create a {@link Cidr4Trie}, with the given node layout.
+   * The trie will be filled with the CIDRs and values in the provided map.
+   *
+   * @param otherMap Map of CIDRs and values, which will be {@link #putAll}
+   *        into the newly created trie
+   * @param compressed true if the trie should use path compression
+   */
+  public Cidr4Trie(final Map<Cidr4, V> otherMap, final boolean compressed) {
+    super(new Cidr4Codec(), otherMap, compressed);
+  }
+
   /**
    * Copy constructor, creates a shallow copy of this
    * {@link Cidr4Trie} instance.
@@ -138,6 +218,326 @@ public final class Cidr4Trie<V> extends AbstractBinaryTrie<Cidr4, V> {
 
 
 
+  /**
+   * Create a {@link Cidr4Trie} from entries that are sorted in {@link Cidr4}
+   * natural order (such as a sorted feed or file), building each CIDR's
+   * nodes from the point it shares with the previous CIDR instead of
+   * starting at the root. Entries that are not sorted are still inserted
+   * correctly, just more slowly. Use {@link #freeze()} on the result if an
+   * immutable {@link FrozenCidr4Trie} is wanted.
+   *
+   * @param sortedEntries Iterator of CIDRs and values, sorted by CIDR
+   * @param compressed true if the trie should use path compression
+   * @return Cidr4Trie containing all of the entries
+   * @see AbstractBinaryTrie#putAllSorted(Iterator)
+   */
+  public static <V> Cidr4Trie<V> buildSorted(
+      final Iterator<? extends Map.Entry<? extends Cidr4, ? extends V>> sortedEntries,
+      final boolean compressed) {
+    final Cidr4Trie<V> trie = new Cidr4Trie<V>(compressed);
+    trie.putAllSorted(sortedEntries);
+    return trie;
+  }
+
+  @Override
+  protected int commonPrefixLength(final Cidr4 key1, final Cidr4 key2, final int maxLength) {
+    return Math.min(maxLength, Integer.numberOfLeadingZeros(
+        key1.getLowBinaryInteger(true) ^ key2.getLowBinaryInteger(true)));
+  }
+
+
+
+  /**
+   * Compile a snapshot of this trie into an immutable {@link FrozenCidr4Trie},
+   * which holds its nodes in flat primitive arrays, using much less memory
+   * and giving faster lookups. Later changes to this trie are not reflected
+   * in the frozen trie.
+   *
+   * @return FrozenCidr4Trie containing the CIDRs and values in this trie
+   */
+  public FrozenCidr4Trie<V> freeze() {
+    return new FrozenCidr4Trie<V>(this);
+  }
+
+
+
+  // Primitive IPv4 Lookup Methods:
+
+  /**
+   * Returns the value of the longest (most specific) CIDR in this trie that
+   * contains the given IPv4 address, without creating an {@link Ip4} or
+   * {@link Cidr4} for it. Equivalent to
+   * <code>longestPrefixOfValue(new Cidr4(address, 32), true)</code>.
+   *
+   * @param address binary IPv4 address, as found in a packet header,
+   *        where Integer.MIN_VALUE = 128.0.0.0
+   *        and 0 = 0.0.0.0
+   *        and -1 = 255.255.255.255
+   * @return the value of the longest CIDR containing the address,
+   *         or null if there is none
+   */
+  public V longestPrefixOfValue(final int address) {
+    if (listener != null) {
+      // Instrumented lookups go through the Cidr4 path, which reports them
+      return longestPrefixOfValue(new Cidr4(address, 32), true);
+    }
+    final Node<Cidr4, V> node = getPrefixOfNode(address, 32, true);
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Looks up the value of the longest (most specific) CIDR containing each
+   * of a batch of IPv4 addresses, writing them into the values array.
+   * Gives the same results as calling {@link #longestPrefixOfValue(int)} on
+   * each address, but is much faster for large batches: the addresses are
+   * visited in sorted order, so each descent only has to resume from where
+   * it diverges from the previous address, instead of from the root, and
+   * the nodes near the top of the trie are only read once per batch.
+   *
+   * @param addresses binary IPv4 addresses, where Integer.MIN_VALUE = 128.0.0.0
+   * @param offset index of the first address to look up
+   * @param length number of addresses to look up
+   * @param values array to write the value of the longest CIDR containing
+   *        each address to (or null if there is none), in the same order
+   *        as the addresses
+   * @param valuesOffset index in the values array for the first address
+   * @return the number of addresses that are inside of at least one CIDR
+   * @throws IndexOutOfBoundsException if either range is outside of its array
+   */
+  public int longestPrefixOfValues(final int[] addresses, final int offset, final int length,
+      final V[] values, final int valuesOffset) {
+    if (offset < 0 || length < 0 || offset > addresses.length - length
+        || valuesOffset < 0 || valuesOffset > values.length - length) {
+      throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length
+          + ", valuesOffset: " + valuesOffset);
+    }
+
+    // Sort by unsigned address (flipping the sign bit), keeping the position
+    final long[] sorted = new long[length];
+    for (int i = 0; i < length; ++i) {
+      sorted[i] = ((long) (addresses[offset + i] ^ Integer.MIN_VALUE) << 32) | i;
+    }
+    Arrays.sort(sorted);
+
+    // The path taken by the previous address: each node, the bit index
+    // following it, and the deepest node with a value down to it
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    final Node<Cidr4, V>[] pathNodes = new Node[33];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    final Node<Cidr4, V>[] pathFound = new Node[33];
+    final int[] pathIndex = new int[33];
+    pathNodes[0] = root;
+    int top = 0;
+
+    int matched = 0;
+    int previous = 0;
+    Node<Cidr4, V> found = null;
+    for (int i = 0; i < length; ++i) {
+      final int address = (int) (sorted[i] >>> 32) ^ Integer.MIN_VALUE;
+      final int position = valuesOffset + (int) sorted[i];
+
+      if (i == 0 || address != previous) {
+        // Back up to the deepest node that is still a prefix of this address
+        final int common = i == 0 ? 0 : Integer.numberOfLeadingZeros(address ^ previous);
+        while (pathIndex[top] > common) {
+          --top;
+        }
+        Node<Cidr4, V> node = pathNodes[top];
+        int index = pathIndex[top];
+        found = pathFound[top];
+        while (index < 32) {
+          node = step(node, address, index++);
+          if (node == null) {
+            break;
+          }
+          if (node.skip() > 0) {
+            if (index + node.skip() > 32 || !matchesSkipped(node, address, index)) {
+              break;
+            }
+            index += node.skip();
+          }
+          if (node.value != null) {
+            found = node;
+          }
+          ++top;
+          pathNodes[top] = node;
+          pathIndex[top] = index;
+          pathFound[top] = found;
+        }
+        previous = address;
+      }
+
+      if (found == null) {
+        values[position] = null;
+      } else {
+        values[position] = found.value;
+        ++matched;
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * Returns the value of the shortest (widest) CIDR in this trie that
+   * contains the given IPv4 address, without creating an {@link Ip4} or
+   * {@link Cidr4} for it. Equivalent to
+   * <code>shortestPrefixOfValue(new Cidr4(address, 32), true)</code>.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value of the shortest CIDR containing the address,
+   *         or null if there is none
+   */
+  public V shortestPrefixOfValue(final int address) {
+    if (listener != null) {
+      return shortestPrefixOfValue(new Cidr4(address, 32), true);
+    }
+    final Node<Cidr4, V> node = getPrefixOfNode(address, 32, false);
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Returns true if any CIDR in this trie contains the given IPv4 address.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return true if the address is inside of at least one CIDR in this trie
+   */
+  public boolean containsPrefixOf(final int address) {
+    if (listener != null) {
+      return getPrefixOfNode(new Cidr4(address, 32), true, false) != null;
+    }
+    return getPrefixOfNode(address, 32, false) != null;
+  }
+
+  /**
+   * Returns the value of the CIDR made from the given IPv4 address and mask
+   * bits, without creating a {@link Cidr4} for it. Equivalent to
+   * <code>get(new Cidr4(address, maskBits))</code>.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the value of the CIDR, or null if it is not in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public V get(final int address, final int maskBits) {
+    if (listener != null) {
+      return get(new Cidr4(address, maskBits));
+    }
+    final Node<Cidr4, V> node = getNode(address, maskBits);
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Returns true if this trie contains the CIDR made from the given IPv4
+   * address and mask bits. Equivalent to
+   * <code>containsKey(new Cidr4(address, maskBits))</code>.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return true if the CIDR is in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public boolean containsKey(final int address, final int maskBits) {
+    if (listener != null) {
+      return containsKey(new Cidr4(address, maskBits));
+    }
+    return getNode(address, maskBits) != null;
+  }
+
+  /**
+   * Return the Node for the CIDR made from the given IPv4 address and mask
+   * bits, or null if not found
+   *
+   * @param address binary IPv4 address
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return Node if found, or null
+   */
+  protected Node<Cidr4, V> getNode(final int address, final int maskBits) {
+    if (maskBits <= 0 || maskBits > 32) {
+      throw new IllegalArgumentException(getClass().getName()
+          + " does not accept mask bits outside of 1 to 32: " + maskBits);
+    }
+
+    Node<Cidr4, V> node = root;
+    int index = 0;
+    while (index < maskBits) {
+      node = step(node, address, index++);
+      if (node == null) {
+        return null;
+      }
+      if (node.skip() > 0) {
+        if (index + node.skip() > maskBits || !matchesSkipped(node, address, index)) {
+          return null;
+        }
+        index += node.skip();
+      }
+    }
+    return node.value == null ? null : node;
+  }
+
+  /**
+   * Return the shortest or longest Node with a value that is a prefix of the
+   * given IPv4 address, without allocating anything
+   *
+   * @param address binary IPv4 address
+   * @param maxDepth the deepest bit depth a returned Node may be at
+   * @param longest true to return the deepest matching Node,
+   *        false to return the shallowest matching Node
+   * @return Node if found, or null
+   */
+  protected Node<Cidr4, V> getPrefixOfNode(final int address, final int maxDepth,
+      final boolean longest) {
+
+    Node<Cidr4, V> found = null;
+    Node<Cidr4, V> node = root;
+    int index = 0;
+    while (index < maxDepth) {
+      node = step(node, address, index++);
+      if (node == null) {
+        return found;
+      }
+      if (node.skip() > 0) {
+        if (index + node.skip() > maxDepth || !matchesSkipped(node, address, index)) {
+          return found;
+        }
+        index += node.skip();
+      }
+      if (node.value != null) {
+        if (!longest) {
+          return node;
+        }
+        found = node;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @param node the parent Node
+   * @param address binary IPv4 address
+   * @param index the bit index (from the most significant bit) to branch on
+   * @return the left or right child of the node, depending on the address bit
+   */
+  private static <V> Node<Cidr4, V> step(final Node<Cidr4, V> node, final int address,
+      final int index) {
+    return (address & (1 << (31 - index))) == 0 ? node.left : node.right;
+  }
+
+  /**
+   * @param node a path-compressed Node with skipped bits
+   * @param address binary IPv4 address
+   * @param index the bit index (from the most significant bit) of the first
+   *        skipped bit, which must leave room for all of the skipped bits
+   * @return true if all of the bits skipped by the node match the address
+   */
+  private static boolean matchesSkipped(final Node<Cidr4, ?> node, final int address,
+      final int index) {
+    return ((address >>> (32 - index - node.skip())) & ((1 << node.skip()) - 1)) == node.bits();
+  }
+
+
+
   /**
    * Implementation of {@link KeyCodec} for use with Cidr IPv4 ranges.
    * Specifically for use with {@link AbstractBinaryTrie}, because each bit,
@@ -160,6 +560,15 @@ public final class Cidr4Trie<V> extends AbstractBinaryTrie<Cidr4, V> {
       return (cidr.getLowBinaryInteger(true) & (1 << (31 - index))) == 0;
     }
 
+    @Override
+    public final long bits(final Cidr4 cidr, final int fromIndex, final int count) {
+      if (count == 0) {
+        return 0L;
+      }
+      // Move the address into the upper half of a long, then shift the wanted bits down
+      return (((long) cidr.getLowBinaryInteger(true) << 32) << fromIndex) >>> (64 - count);
+    }
+
     @Override
     public final Cidr4 recreateKey(final BitSet bits, final int numElements) {
 
@@ -179,6 +588,12 @@ public final class Cidr4Trie<V> extends AbstractBinaryTrie<Cidr4, V> {
       return new Cidr4(binary, numElements);
     }
 
+    @Override
+    public final Cidr4 recreateKey(final long[] elements, final int numElements) {
+      // The first 32 elements are the binary address, and the host bits are masked off
+      return new Cidr4((int) (elements[0] >>> 32), numElements);
+    }
+
     @Override
     public final Comparator<Cidr4> comparator() {
       // Cidr4 is naturally comparable consistent with KeyCodec
@@ -0,0 +1,427 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.io.Serializable;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.github.veqryn.net.Cidr6;
+import com.github.veqryn.net.Ip6;
+
+/**
+ * Implementation of a CIDR Trie for IPv6 ranges, which can be used for
+ * routing IP's from a routing/forwarding table, and other forms of prefix
+ * matching. This is the IPv6 counterpart of {@link Cidr4Trie}, using
+ * {@link Cidr6} as its key, and offers the same {@link Trie} and
+ * {@link java.util.Map} methods.
+ *
+ * <p>
+ * An IPv6 CIDR can be up to 128 bits long, so a Cidr6Trie always uses path
+ * compression: nodes are only created where a CIDR's value lives or where
+ * two CIDRs diverge (plus one for every {@link AbstractBinaryTrie#MAX_SKIP}
+ * bits in between), instead of one node for every bit.
+ *
+ * <p>
+ * For routing, {@link #longestPrefixOfValue(long, long)} finds the value of
+ * the most specific CIDR containing an address given as two primitive longs,
+ * such as those read from a packet header, without creating an {@link Ip6}
+ * or {@link Cidr6} for it.
+ *
+ * <p>
+ * This implementation returns values in the order of their CIDR keys
+ * (an example order would be: 2001:db8::/32, 2001:db8::/48, 2001:db8::1/128,
+ * 2001:db8:1::/48)
+ *
+ * <pre>
+ * // Example usage:
+ * Trie&lt;Cidr6, String&gt; trie = new Cidr6Trie&lt;String&gt;();
+ *
+ * trie.put(new Cidr6("2001:db8::/32"), "documentation");
+ * trie.put(new Cidr6("2001:db8:1::/48"), "site 1");
+ *
+ * // "site 1"
+ * String narrowestValue = trie.longestPrefixOfValue(new Cidr6("2001:db8:1::1", true), true);
+ *
+ * // "documentation"
+ * String fromLongs = ((Cidr6Trie&lt;String&gt;) trie).longestPrefixOfValue(
+ *     0x20010db8ffff0000L, 1L);
+ * </pre>
+ *
+ * @author Chris Duncan
+ *
+ * @param <V> Value
+ */
+public final class Cidr6Trie<V> extends AbstractBinaryTrie<Cidr6, V> {
+
+  private static final long serialVersionUID = 1762399284129380523L;
+
+
+
+  /**
+   * Create an empty {@link Cidr6Trie}.
+   */
+  public Cidr6Trie() {
+    super(new Cidr6Codec(), true);
+  }
+
+  /**
+   * Create an empty {@link Cidr6Trie}, with the given policy for keeping
+   * keys, and with or without parent references in its nodes.
+   *
+   * @param keyless true if the trie should never cache keys on its nodes
+   * @param parentless true if the nodes of the trie should not keep a
+   *        reference to their parent, making each node smaller. Requires
+   *        {@code keyless} to also be true.
+   * @throws IllegalArgumentException if parentless but not keyless
+   */
+  public Cidr6Trie(final boolean keyless, final boolean parentless) {
+    super(new Cidr6Codec(), true, keyless, parentless);
+  }
+
+  /**
+   * Create an empty {@link Cidr6Trie}, with the given policy for keeping
+   * keys, with or without parent references in its nodes, and with or
+   * without a count of the CIDRs under each node.
+   *
+   * @param keyless true if the trie should never cache keys on its nodes
+   * @param parentless true if the nodes of the trie should not keep a
+   *        reference to their parent. Requires {@code keyless} to also be true.
+   * @param counted true if each node should keep the number of CIDRs under
+   *        it, so that the size of a prefixed-by view is found without
+   *        iterating over the view
+   * @throws IllegalArgumentException if parentless but not keyless
+   */
+  public Cidr6Trie(final boolean keyless, final boolean parentless, final boolean counted) {
+    super(new Cidr6Codec(), true, keyless, parentless, counted);
+  }
+
+  /**
+   * Create a {@link Cidr6Trie}.
+   * The trie will be filled with the CIDRs and values in the provided map.
+   *
+   * @param otherMap Map of CIDRs and values, which will be {@link #putAll}
+   *        into the newly created trie
+   */
+  public Cidr6Trie(final Map<Cidr6, V> otherMap) {
+    super(new Cidr6Codec(), otherMap, true);
+  }
+
+  /**
+   * Copy constructor, creates a shallow copy of this
+   * {@link Cidr6Trie} instance.
+   * (The keys and values themselves are not copied.)
+   *
+   * @param otherTrie Cidr6Trie
+   */
+  public Cidr6Trie(final Cidr6Trie<V> otherTrie) {
+    super(otherTrie);
+  }
+
+
+
+  /**
+   * Create a {@link Cidr6Trie} from entries that are sorted in {@link Cidr6}
+   * natural order (such as a sorted feed or file), building each CIDR's
+   * nodes from the point it shares with the previous CIDR instead of
+   * starting at the root. Entries that are not sorted are still inserted
+   * correctly, just more slowly.
+   *
+   * @param sortedEntries Iterator of CIDRs and values, sorted by CIDR
+   * @return Cidr6Trie containing all of the entries
+   * @see AbstractBinaryTrie#putAllSorted(Iterator)
+   */
+  public static <V> Cidr6Trie<V> buildSorted(
+      final Iterator<? extends Map.Entry<? extends Cidr6, ? extends V>> sortedEntries) {
+    final Cidr6Trie<V> trie = new Cidr6Trie<V>();
+    trie.putAllSorted(sortedEntries);
+    return trie;
+  }
+
+  @Override
+  protected int commonPrefixLength(final Cidr6 key1, final Cidr6 key2, final int maxLength) {
+    final long upperDiff = key1.getUpperLong() ^ key2.getUpperLong();
+    final int common = upperDiff != 0L ? Long.numberOfLeadingZeros(upperDiff)
+        : 64 + Long.numberOfLeadingZeros(key1.getLowerLong() ^ key2.getLowerLong());
+    return Math.min(maxLength, common);
+  }
+
+
+
+  // Primitive IPv6 Lookup Methods:
+
+  /**
+   * Returns the value of the longest (most specific) CIDR in this trie that
+   * contains the given IPv6 address, without creating an {@link Ip6} or
+   * {@link Cidr6} for it. Equivalent to
+   * <code>longestPrefixOfValue(new Cidr6(upper, lower, 128), true)</code>.
+   *
+   * @param upper the upper (most significant) 64 bits of the address
+   * @param lower the lower (least significant) 64 bits of the address
+   * @return the value of the longest CIDR containing the address,
+   *         or null if there is none
+   */
+  public V longestPrefixOfValue(final long upper, final long lower) {
+    if (listener != null) {
+      // Instrumented lookups go through the Cidr6 path, which reports them
+      return longestPrefixOfValue(new Cidr6(upper, lower, 128), true);
+    }
+    final Node<Cidr6, V> node = getPrefixOfNode(upper, lower, 128, true);
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Returns the value of the shortest (widest) CIDR in this trie that
+   * contains the given IPv6 address, without creating an {@link Ip6} or
+   * {@link Cidr6} for it. Equivalent to
+   * <code>shortestPrefixOfValue(new Cidr6(upper, lower, 128), true)</code>.
+   *
+   * @param upper the upper (most significant) 64 bits of the address
+   * @param lower the lower (least significant) 64 bits of the address
+   * @return the value of the shortest CIDR containing the address,
+   *         or null if there is none
+   */
+  public V shortestPrefixOfValue(final long upper, final long lower) {
+    if (listener != null) {
+      return shortestPrefixOfValue(new Cidr6(upper, lower, 128), true);
+    }
+    final Node<Cidr6, V> node = getPrefixOfNode(upper, lower, 128, false);
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Returns true if any CIDR in this trie contains the given IPv6 address.
+   *
+   * @param upper the upper (most significant) 64 bits of the address
+   * @param lower the lower (least significant) 64 bits of the address
+   * @return true if the address is inside of at least one CIDR in this trie
+   */
+  public boolean containsPrefixOf(final long upper, final long lower) {
+    if (listener != null) {
+      return getPrefixOfNode(new Cidr6(upper, lower, 128), true, false) != null;
+    }
+    return getPrefixOfNode(upper, lower, 128, false) != null;
+  }
+
+  /**
+   * Returns the value of the CIDR made from the given IPv6 address and mask
+   * bits, without creating a {@link Cidr6} for it. Equivalent to
+   * <code>get(new Cidr6(upper, lower, maskBits))</code>.
+   *
+   * @param upper the upper (most significant) 64 bits of the address
+   * @param lower the lower (least significant) 64 bits of the address
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 128
+   * @return the value of the CIDR, or null if it is not in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 128
+   */
+  public V get(final long upper, final long lower, final int maskBits) {
+    if (listener != null) {
+      return get(new Cidr6(upper, lower, maskBits));
+    }
+    final Node<Cidr6, V> node = getNode(upper, lower, maskBits);
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Returns true if this trie contains the CIDR made from the given IPv6
+   * address and mask bits. Equivalent to
+   * <code>containsKey(new Cidr6(upper, lower, maskBits))</code>.
+   *
+   * @param upper the upper (most significant) 64 bits of the address
+   * @param lower the lower (least significant) 64 bits of the address
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 128
+   * @return true if the CIDR is in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 128
+   */
+  public boolean containsKey(final long upper, final long lower, final int maskBits) {
+    if (listener != null) {
+      return containsKey(new Cidr6(upper, lower, maskBits));
+    }
+    return getNode(upper, lower, maskBits) != null;
+  }
+
+  /**
+   * Return the Node for the CIDR made from the given IPv6 address and mask
+   * bits, or null if not found
+   *
+   * @param upper the upper 64 bits of the address
+   * @param lower the lower 64 bits of the address
+   * @param maskBits the number of mask bits, from 1 to 128
+   * @return Node if found, or null
+   */
+  protected Node<Cidr6, V> getNode(final long upper, final long lower, final int maskBits) {
+    if (maskBits <= 0 || maskBits > 128) {
+      throw new IllegalArgumentException(getClass().getName()
+          + " does not accept mask bits outside of 1 to 128: " + maskBits);
+    }
+
+    Node<Cidr6, V> node = root;
+    int index = 0;
+    while (index < maskBits) {
+      node = step(node, upper, lower, index++);
+      if (node == null) {
+        return null;
+      }
+      if (node.skip() > 0) {
+        if (index + node.skip() > maskBits || !matchesSkipped(node, upper, lower, index)) {
+          return null;
+        }
+        index += node.skip();
+      }
+    }
+    return node.value == null ? null : node;
+  }
+
+  /**
+   * Return the shortest or longest Node with a value that is a prefix of the
+   * given IPv6 address, without allocating anything
+   *
+   * @param upper the upper 64 bits of the address
+   * @param lower the lower 64 bits of the address
+   * @param maxDepth the deepest bit depth a returned Node may be at
+   * @param longest true to return the deepest matching Node,
+   *        false to return the shallowest matching Node
+   * @return Node if found, or null
+   */
+  protected Node<Cidr6, V> getPrefixOfNode(final long upper, final long lower,
+      final int maxDepth, final boolean longest) {
+
+    Node<Cidr6, V> found = null;
+    Node<Cidr6, V> node = root;
+    int index = 0;
+    while (index < maxDepth) {
+      node = step(node, upper, lower, index++);
+      if (node == null) {
+        return found;
+      }
+      if (node.skip() > 0) {
+        if (index + node.skip() > maxDepth || !matchesSkipped(node, upper, lower, index)) {
+          return found;
+        }
+        index += node.skip();
+      }
+      if (node.value != null) {
+        if (!longest) {
+          return node;
+        }
+        found = node;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @param node the parent Node
+   * @param upper the upper 64 bits of the address
+   * @param lower the lower 64 bits of the address
+   * @param index the bit index (from the most significant bit) to branch on
+   * @return the left or right child of the node, depending on the address bit
+   */
+  private static <V> Node<Cidr6, V> step(final Node<Cidr6, V> node, final long upper,
+      final long lower, final int index) {
+    final long word = index < 64 ? upper << index : lower << (index - 64);
+    return word < 0L ? node.right : node.left;
+  }
+
+  /**
+   * @param node a path-compressed Node with skipped bits
+   * @param upper the upper 64 bits of the address
+   * @param lower the lower 64 bits of the address
+   * @param index the bit index (from the most significant bit) of the first
+   *        skipped bit, which must leave room for all of the skipped bits
+   * @return true if all of the bits skipped by the node match the address
+   */
+  private static boolean matchesSkipped(final Node<Cidr6, ?> node, final long upper,
+      final long lower, final int index) {
+    // The 64 bits of the address starting at index, then the skipped bits at the top of them
+    final long word;
+    if (index == 0) {
+      word = upper;
+    } else if (index < 64) {
+      word = (upper << index) | (lower >>> (64 - index));
+    } else {
+      word = lower << (index - 64);
+    }
+    return (int) (word >>> (64 - node.skip())) == node.bits();
+  }
+
+
+
+  /**
+   * Implementation of {@link KeyCodec} for use with Cidr IPv6 ranges.
+   * Specifically for use with {@link AbstractBinaryTrie}, because each bit,
+   * starting from the left, determines which node it is (left or right), and
+   * the number of leading bits (bits in our netmask) is the length.
+   */
+  public static final class Cidr6Codec implements KeyCodec<Cidr6>, Serializable {
+
+    private static final long serialVersionUID = -2016283616410532357L;
+
+    @Override
+    public final int length(final Cidr6 cidr) {
+      // Leading number of most significant bits is our length
+      return cidr.getMaskBits();
+    }
+
+    @Override
+    public final boolean isLeft(final Cidr6 cidr, final int index) {
+      // Index of a cidr/ip is left-based bit, in the upper then the lower long
+      return (index < 64 ? cidr.getUpperLong() << index
+          : cidr.getLowerLong() << (index - 64)) >= 0L;
+    }
+
+    @Override
+    public final long bits(final Cidr6 cidr, final int fromIndex, final int count) {
+      if (count == 0) {
+        return 0L;
+      }
+      // Line up the 64 bits starting at fromIndex, which may span both longs
+      final long word;
+      if (fromIndex == 0) {
+        word = cidr.getUpperLong();
+      } else if (fromIndex < 64) {
+        word = (cidr.getUpperLong() << fromIndex) | (cidr.getLowerLong() >>> (64 - fromIndex));
+      } else {
+        word = cidr.getLowerLong() << (fromIndex - 64);
+      }
+      return word >>> (64 - count);
+    }
+
+    @Override
+    public final Cidr6 recreateKey(final BitSet bits, final int numElements) {
+      long upper = 0L;
+      long lower = 0L;
+      for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+        // The bit at (numElements - 1) is the first element of the key
+        final int index = numElements - 1 - i;
+        if (index < 64) {
+          upper |= 1L << (63 - index);
+        } else {
+          lower |= 1L << (127 - index);
+        }
+      }
+      return new Cidr6(upper, lower, numElements);
+    }
+
+    @Override
+    public final Cidr6 recreateKey(final long[] elements, final int numElements) {
+      // The first 128 elements are the binary address, and the host bits are masked off
+      return new Cidr6(elements[0], numElements > 64 ? elements[1] : 0L, numElements);
+    }
+
+    @Override
+    public final Comparator<Cidr6> comparator() {
+      // Cidr6 is naturally comparable consistent with KeyCodec
+      return null;
+    }
+
+  }
+
+}
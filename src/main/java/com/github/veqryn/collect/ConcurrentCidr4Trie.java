@@ -0,0 +1,912 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.veqryn.net.Cidr4;
+
+/**
+ * Thread-safe {@link Trie} of {@link Cidr4} keys, where readers never lock
+ * or block.
+ *
+ * <p>
+ * The trie is made of immutable, path-compressed nodes (only nodes where a
+ * CIDR's value lives or where two CIDRs diverge exist, and each node holds
+ * the full prefix bits and length of the path leading to it). A write never
+ * modifies an existing node: it copies the nodes on the path from the root
+ * down to the changed node (at most 33 nodes), and then publishes the new
+ * root with a single compare-and-set, retrying if another writer got there
+ * first. Readers take the current root once, and then work on an immutable
+ * snapshot, so lookups such as {@link #get}, {@link #longestPrefixOfValue}
+ * and {@link #prefixOfValues} never lock, never retry, and scale with the
+ * number of reading threads.
+ *
+ * <p>
+ * Each single put or remove is atomic. Bulk operations such as
+ * {@link #putAll} are not atomic as a whole.
+ *
+ * <p>
+ * Iterators are snapshots of the trie at the time they were created: they
+ * never throw a {@link java.util.ConcurrentModificationException}, and do
+ * not reflect any later changes. Removing through an iterator, or setting
+ * the value of an entry, writes through to this trie.
+ *
+ * <p>
+ * The collections and maps returned by the prefix methods are views backed
+ * by this trie, as in every other {@link Trie}: each of their methods reads
+ * the current root, so they reflect all changes to this trie, and their
+ * puts and removes write through to this trie (each with its own
+ * compare-and-set). Puts of keys outside of the view's range are rejected
+ * with an {@link IllegalArgumentException}. Clearing a view removes its
+ * entries one at a time, so is not atomic as a whole.
+ *
+ * <p>
+ * Values are returned in the same order as a {@link Cidr4Trie}.
+ *
+ * <pre>
+ * // Example usage:
+ * ConcurrentCidr4Trie&lt;String&gt; routes = new ConcurrentCidr4Trie&lt;String&gt;();
+ * routes.put(myCIDR1, "A"); // from any thread
+ *
+ * // from any number of threads, without locking
+ * String route = routes.longestPrefixOfValue(myIP1.getBinaryInteger());
+ * </pre>
+ *
+ * @author Chris Duncan
+ *
+ * @param <V> Value
+ */
+public class ConcurrentCidr4Trie<V> extends AbstractMap<Cidr4, V>
+    implements Trie<Cidr4, V>, Serializable {
+
+  private static final long serialVersionUID = 6130843389021763125L;
+
+  /** The root node, which is never null, never has a value, and has a length of 0 */
+  private final AtomicReference<Node<V>> root;
+
+  private transient EntrySet entrySet = null;
+
+
+
+  /**
+   * Create an empty {@link ConcurrentCidr4Trie}
+   */
+  public ConcurrentCidr4Trie() {
+    this.root = new AtomicReference<Node<V>>(new Node<V>(0, 0, null, null, null));
+  }
+
+  /**
+   * Create a {@link ConcurrentCidr4Trie} containing the CIDRs and values of
+   * the given map
+   *
+   * @param otherMap Map of Cidr4 keys and values
+   */
+  public ConcurrentCidr4Trie(final Map<Cidr4, ? extends V> otherMap) {
+    this();
+    this.putAll(otherMap);
+  }
+
+
+
+  /**
+   * Immutable path-compressed node. The size is the number of values in the
+   * subtree under (and including) this node.
+   *
+   * @param <V> Value
+   */
+  protected static final class Node<V>
+      implements Cidr4Descent.PathNode<Node<V>>, Serializable {
+
+    private static final long serialVersionUID = -3893154218823466713L;
+
+    protected final int prefix; // binary address bits of the path to the node
+    protected final int length; // number of bits in the path to the node
+    protected final V value; // null if the node has no value
+    protected final Node<V> left;
+    protected final Node<V> right;
+    protected final int size;
+
+    protected Node(final int prefix, final int length, final V value,
+        final Node<V> left, final Node<V> right) {
+      this.prefix = prefix & Cidr4Descent.mask(length);
+      this.length = length;
+      this.value = value;
+      this.left = left;
+      this.right = right;
+      this.size = (value == null ? 0 : 1) + (left == null ? 0 : left.size)
+          + (right == null ? 0 : right.size);
+    }
+
+    @Override
+    public Node<V> left() {
+      return left;
+    }
+
+    @Override
+    public Node<V> right() {
+      return right;
+    }
+
+    @Override
+    public int prefix() {
+      return prefix;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public boolean hasValue() {
+      return value != null;
+    }
+
+    /**
+     * @return a copy of this node, with the child on the given side replaced
+     */
+    private Node<V> withChild(final boolean leftSide, final Node<V> child) {
+      return leftSide ? node(prefix, length, value, child, right)
+          : node(prefix, length, value, left, child);
+    }
+
+    @Override
+    public String toString() {
+      return new Cidr4(prefix, length) + "=" + value;
+    }
+  }
+
+  /**
+   * Creates a node, collapsing it into its only child (or null) if it is not
+   * the root, has no value, and has fewer than two children.
+   */
+  private static <V> Node<V> node(final int prefix, final int length, final V value,
+      final Node<V> left, final Node<V> right) {
+    if (length > 0 && value == null && (left == null || right == null)) {
+      return left == null ? right : left;
+    }
+    return new Node<V>(prefix, length, value, left, right);
+  }
+
+
+
+  // Persistent Write Methods:
+
+  /**
+   * @param node a node that is a prefix of the CIDR, and shorter than it
+   * @param address binary IPv4 address of the CIDR
+   * @param maskBits the number of mask bits of the CIDR
+   * @param value the new value
+   * @return a copy of the node, with the value set for the CIDR
+   */
+  private static <V> Node<V> insert(final Node<V> node, final int address, final int maskBits,
+      final V value) {
+
+    final boolean leftSide = Cidr4Descent.isLeft(address, node.length);
+    final Node<V> child = leftSide ? node.left : node.right;
+
+    if (child == null) {
+      return node.withChild(leftSide, new Node<V>(address, maskBits, value, null, null));
+    }
+
+    final int common = Math.min(Integer.numberOfLeadingZeros(address ^ child.prefix),
+        Math.min(child.length, maskBits));
+
+    if (common == child.length) {
+      if (child.length == maskBits) {
+        // Replace the value of an existing node
+        return node.withChild(leftSide,
+            new Node<V>(child.prefix, child.length, value, child.left, child.right));
+      }
+      // The child is a prefix of the CIDR, so keep going down
+      return node.withChild(leftSide, insert(child, address, maskBits, value));
+    }
+
+    if (common == maskBits) {
+      // The CIDR is a prefix of the child, so goes in between
+      final boolean childLeft = Cidr4Descent.isLeft(child.prefix, maskBits);
+      return node.withChild(leftSide, new Node<V>(address, maskBits, value,
+          childLeft ? child : null, childLeft ? null : child));
+    }
+
+    // The CIDR and the child diverge, so a valueless node goes in between
+    final Node<V> leaf = new Node<V>(address, maskBits, value, null, null);
+    final boolean childLeft = Cidr4Descent.isLeft(child.prefix, common);
+    return node.withChild(leftSide, new Node<V>(address, common, null,
+        childLeft ? child : leaf, childLeft ? leaf : child));
+  }
+
+  /**
+   * @param node a node that is a prefix of the CIDR, and shorter than it
+   * @param address binary IPv4 address of the CIDR
+   * @param maskBits the number of mask bits of the CIDR
+   * @return a copy of the node, without the CIDR,
+   *         or the same node if the CIDR was not found
+   */
+  private static <V> Node<V> delete(final Node<V> node, final int address, final int maskBits) {
+
+    final boolean leftSide = Cidr4Descent.isLeft(address, node.length);
+    final Node<V> child = leftSide ? node.left : node.right;
+
+    if (child == null || child.length > maskBits
+        || !Cidr4Descent.matches(address, child.prefix, child.length)) {
+      return node;
+    }
+
+    final Node<V> newChild;
+    if (child.length == maskBits) {
+      if (child.value == null) {
+        return node;
+      }
+      newChild = node(child.prefix, child.length, null, child.left, child.right);
+    } else {
+      newChild = delete(child, address, maskBits);
+      if (newChild == child) {
+        return node;
+      }
+    }
+    return node.withChild(leftSide, newChild);
+  }
+
+  /**
+   * Compare-and-set the root, and if successful return true
+   */
+  private boolean publish(final Node<V> expected, final Node<V> updated) {
+    return root.compareAndSet(expected, updated);
+  }
+
+
+
+  // Lookup Methods:
+
+  /**
+   * @param root the root of a snapshot
+   * @see Cidr4Descent#getPrefixOfNode(Cidr4Descent.PathNode, int, int, boolean)
+   */
+  protected static <V> Node<V> getPrefixOfNode(final Node<V> root, final int address,
+      final int maxDepth, final boolean longest) {
+    return Cidr4Descent.getPrefixOfNode(root, address, maxDepth, longest);
+  }
+
+  /**
+   * @param root the root of a snapshot
+   * @see Cidr4Descent#getNode(Cidr4Descent.PathNode, int, int)
+   */
+  protected static <V> Node<V> getNode(final Node<V> root, final int address,
+      final int maskBits) {
+    return Cidr4Descent.getNode(root, address, maskBits);
+  }
+
+  /**
+   * @param root the root of a snapshot
+   * @see Cidr4Descent#getPrefixedByNode(Cidr4Descent.PathNode, int, int)
+   */
+  protected static <V> Node<V> getPrefixedByNode(final Node<V> root, final int address,
+      final int maskBits) {
+    return Cidr4Descent.getPrefixedByNode(root, address, maskBits);
+  }
+
+  private Cidr4 checkKey(final Object key) {
+    if (key == null) {
+      throw new NullPointerException(getClass().getName() + " does not accept null keys: " + key);
+    }
+    final Cidr4 cidr = (Cidr4) key;
+    if (cidr.getMaskBits() <= 0) {
+      throw new IllegalArgumentException(getClass().getName()
+          + " does not accept keys of length <= 0: " + key);
+    }
+    return cidr;
+  }
+
+  private static <V> V value(final Node<V> node) {
+    return node == null ? null : node.value;
+  }
+
+  private static Cidr4 key(final Node<?> node) {
+    return new Cidr4(node.prefix, node.length);
+  }
+
+
+
+  // Primitive IPv4 Lookup Methods:
+
+  /**
+   * Returns the value of the longest (most specific) CIDR in this trie that
+   * contains the given IPv4 address.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value of the longest CIDR containing the address,
+   *         or null if there is none
+   * @see Cidr4Trie#longestPrefixOfValue(int)
+   */
+  public V longestPrefixOfValue(final int address) {
+    return value(getPrefixOfNode(root.get(), address, 32, true));
+  }
+
+  /**
+   * Returns the value of the shortest (widest) CIDR in this trie that
+   * contains the given IPv4 address.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value of the shortest CIDR containing the address,
+   *         or null if there is none
+   * @see Cidr4Trie#shortestPrefixOfValue(int)
+   */
+  public V shortestPrefixOfValue(final int address) {
+    return value(getPrefixOfNode(root.get(), address, 32, false));
+  }
+
+  /**
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return true if the address is inside of at least one CIDR in this trie
+   * @see Cidr4Trie#containsPrefixOf(int)
+   */
+  public boolean containsPrefixOf(final int address) {
+    return getPrefixOfNode(root.get(), address, 32, false) != null;
+  }
+
+  /**
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the value of the CIDR, or null if it is not in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   * @see Cidr4Trie#get(int, int)
+   */
+  public V get(final int address, final int maskBits) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    return value(getNode(root.get(), address, maskBits));
+  }
+
+  /**
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return true if the CIDR is in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   * @see Cidr4Trie#containsKey(int, int)
+   */
+  public boolean containsKey(final int address, final int maskBits) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    return getNode(root.get(), address, maskBits) != null;
+  }
+
+
+
+  // Trie Methods:
+
+  @Override
+  public V shortestPrefixOfValue(final Cidr4 key, final boolean keyInclusive) {
+    final Cidr4 cidr = checkKey(key);
+    return value(getPrefixOfNode(root.get(), cidr.getLowBinaryInteger(true),
+        keyInclusive ? cidr.getMaskBits() : cidr.getMaskBits() - 1, false));
+  }
+
+  @Override
+  public V longestPrefixOfValue(final Cidr4 key, final boolean keyInclusive) {
+    final Cidr4 cidr = checkKey(key);
+    return value(getPrefixOfNode(root.get(), cidr.getLowBinaryInteger(true),
+        keyInclusive ? cidr.getMaskBits() : cidr.getMaskBits() - 1, true));
+  }
+
+  @Override
+  public Collection<V> prefixOfValues(final Cidr4 key, final boolean keyInclusive) {
+    return prefixOfMap(key, keyInclusive).values();
+  }
+
+  @Override
+  public Trie<Cidr4, V> prefixOfMap(final Cidr4 key, final boolean keyInclusive) {
+    return new PrefixMap(null, false, checkKey(key), keyInclusive);
+  }
+
+  @Override
+  public Collection<V> prefixedByValues(final Cidr4 key, final boolean keyInclusive) {
+    return prefixedByMap(key, keyInclusive).values();
+  }
+
+  @Override
+  public Trie<Cidr4, V> prefixedByMap(final Cidr4 key, final boolean keyInclusive) {
+    return new PrefixMap(checkKey(key), keyInclusive, null, false);
+  }
+
+  /**
+   * View of the CIDRs of a {@link ConcurrentCidr4Trie} that are prefixes
+   * of a key, and/or are prefixed by a key. Each method reads the current
+   * root of the backing trie, and writes go through the backing trie.
+   */
+  private final class PrefixMap extends AbstractMap<Cidr4, V>
+      implements Trie<Cidr4, V>, Serializable {
+
+    private static final long serialVersionUID = -2716004838627511946L;
+
+    private final Cidr4 mustBePrefixedBy; // null or the key that all must be prefixed by
+    private final boolean mustBePrefixedByInclusive;
+    private final Cidr4 mustBePrefixOf; // null or the key that all must be prefixes of
+    private final boolean mustBePrefixOfInclusive;
+
+    private transient Set<Map.Entry<Cidr4, V>> entrySet = null;
+
+    private PrefixMap(final Cidr4 mustBePrefixedBy, final boolean mustBePrefixedByInclusive,
+        final Cidr4 mustBePrefixOf, final boolean mustBePrefixOfInclusive) {
+      this.mustBePrefixedBy = mustBePrefixedBy;
+      this.mustBePrefixedByInclusive = mustBePrefixedByInclusive;
+      this.mustBePrefixOf = mustBePrefixOf;
+      this.mustBePrefixOfInclusive = mustBePrefixOfInclusive;
+    }
+
+    /**
+     * @param address binary IPv4 address of the CIDR
+     * @param maskBits the number of mask bits of the CIDR
+     * @param forceInclusive true if the CIDR may be equal to the view's keys
+     * @return true if the CIDR is in range for this view
+     */
+    private boolean inRange(final int address, final int maskBits,
+        final boolean forceInclusive) {
+      if (mustBePrefixOf != null) {
+        final int ofBits = mustBePrefixOf.getMaskBits();
+        if ((mustBePrefixOfInclusive || forceInclusive ? maskBits > ofBits : maskBits >= ofBits)
+            || !Cidr4Descent.matches(mustBePrefixOf.getLowBinaryInteger(true), address, maskBits)) {
+          return false;
+        }
+      }
+      if (mustBePrefixedBy != null) {
+        final int byBits = mustBePrefixedBy.getMaskBits();
+        if ((mustBePrefixedByInclusive || forceInclusive ? maskBits < byBits
+            : maskBits <= byBits)
+            || !Cidr4Descent.matches(address, mustBePrefixedBy.getLowBinaryInteger(true), byBits)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean inRange(final Cidr4 cidr, final boolean forceInclusive) {
+      return inRange(cidr.getLowBinaryInteger(true), cidr.getMaskBits(), forceInclusive);
+    }
+
+    private Cidr4 checkKeyInRange(final Object key, final boolean forceInclusive) {
+      final Cidr4 cidr = checkKey(key);
+      if (!inRange(cidr, forceInclusive)) {
+        throw new IllegalArgumentException("key out of range: " + key);
+      }
+      return cidr;
+    }
+
+    /**
+     * @return an iterator over the nodes with values in this view, in the
+     *         current snapshot of the backing trie
+     */
+    private Iterator<Node<V>> nodes() {
+      final Node<V> snapshot = root.get();
+      final Iterator<Node<V>> candidates;
+      if (mustBePrefixOf != null) {
+        // At most one node per bit of the key, all on its path
+        final int address = mustBePrefixOf.getLowBinaryInteger(true);
+        final int maxDepth = mustBePrefixOfInclusive ? mustBePrefixOf.getMaskBits()
+            : mustBePrefixOf.getMaskBits() - 1;
+        final List<Node<V>> path = new ArrayList<Node<V>>();
+        Node<V> node = snapshot;
+        while (node.length < maxDepth) {
+          node = Cidr4Descent.step(node, address);
+          if (node == null || node.length > maxDepth
+              || !Cidr4Descent.matches(address, node.prefix, node.length)) {
+            break;
+          }
+          if (node.value != null) {
+            path.add(node);
+          }
+        }
+        candidates = path.iterator();
+      } else {
+        candidates = new NodeIterator<V>(getPrefixedByNode(snapshot,
+            mustBePrefixedBy.getLowBinaryInteger(true), mustBePrefixedBy.getMaskBits()));
+      }
+      return new Iterator<Node<V>>() {
+
+        private Node<V> next = advance();
+
+        private Node<V> advance() {
+          while (candidates.hasNext()) {
+            final Node<V> node = candidates.next();
+            if (inRange(node.prefix, node.length, false)) {
+              return node;
+            }
+          }
+          return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+          return next != null;
+        }
+
+        @Override
+        public Node<V> next() {
+          if (next == null) {
+            throw new NoSuchElementException();
+          }
+          final Node<V> node = next;
+          next = advance();
+          return node;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      if (mustBePrefixOf == null) {
+        // Every value in the subtree, except the key itself if not inclusive
+        final int maskBits = mustBePrefixedBy.getMaskBits();
+        final Node<V> node = getPrefixedByNode(root.get(),
+            mustBePrefixedBy.getLowBinaryInteger(true), maskBits);
+        if (node == null) {
+          return 0;
+        }
+        return node.size - (!mustBePrefixedByInclusive && node.length == maskBits
+            && node.value != null ? 1 : 0);
+      }
+      int size = 0;
+      for (final Iterator<Node<V>> iter = nodes(); iter.hasNext(); iter.next()) {
+        ++size;
+      }
+      return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return !nodes().hasNext();
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+      final Cidr4 cidr = checkKey(key);
+      return inRange(cidr, false) && ConcurrentCidr4Trie.this.containsKey(cidr);
+    }
+
+    @Override
+    public V get(final Object key) {
+      final Cidr4 cidr = checkKey(key);
+      return inRange(cidr, false) ? ConcurrentCidr4Trie.this.get(cidr) : null;
+    }
+
+    @Override
+    public V put(final Cidr4 key, final V value) {
+      return ConcurrentCidr4Trie.this.put(checkKeyInRange(key, false), value);
+    }
+
+    @Override
+    public V remove(final Object key) {
+      final Cidr4 cidr = checkKey(key);
+      return inRange(cidr, false) ? ConcurrentCidr4Trie.this.remove(cidr) : null;
+    }
+
+    /**
+     * Removes each CIDR in this view from the backing trie. Each CIDR is
+     * removed atomically, but not all of them at once.
+     */
+    @Override
+    public void clear() {
+      for (final Iterator<Node<V>> iter = nodes(); iter.hasNext();) {
+        ConcurrentCidr4Trie.this.remove(key(iter.next()));
+      }
+    }
+
+    @Override
+    public Set<Map.Entry<Cidr4, V>> entrySet() {
+      if (entrySet == null) {
+        entrySet = new AbstractSet<Map.Entry<Cidr4, V>>() {
+
+          @Override
+          public Iterator<Map.Entry<Cidr4, V>> iterator() {
+            return entryIterator(nodes());
+          }
+
+          @Override
+          public int size() {
+            return PrefixMap.this.size();
+          }
+
+          @Override
+          public boolean isEmpty() {
+            return PrefixMap.this.isEmpty();
+          }
+
+          @Override
+          public void clear() {
+            PrefixMap.this.clear();
+          }
+        };
+      }
+      return entrySet;
+    }
+
+    @Override
+    public V shortestPrefixOfValue(final Cidr4 key, final boolean keyInclusive) {
+      final Iterator<V> iter = prefixOfValues(key, keyInclusive).iterator();
+      return iter.hasNext() ? iter.next() : null;
+    }
+
+    @Override
+    public V longestPrefixOfValue(final Cidr4 key, final boolean keyInclusive) {
+      final Iterator<V> iter = prefixOfValues(key, keyInclusive).iterator();
+      V value = null;
+      while (iter.hasNext()) {
+        value = iter.next();
+      }
+      return value;
+    }
+
+    @Override
+    public Collection<V> prefixOfValues(final Cidr4 key, final boolean keyInclusive) {
+      return prefixOfMap(key, keyInclusive).values();
+    }
+
+    @Override
+    public Trie<Cidr4, V> prefixOfMap(final Cidr4 key, final boolean keyInclusive) {
+      // Pass along the current mustBePrefixedBy
+      return new PrefixMap(mustBePrefixedBy, mustBePrefixedByInclusive,
+          checkKeyInRange(key, !keyInclusive), keyInclusive);
+    }
+
+    @Override
+    public Collection<V> prefixedByValues(final Cidr4 key, final boolean keyInclusive) {
+      return prefixedByMap(key, keyInclusive).values();
+    }
+
+    @Override
+    public Trie<Cidr4, V> prefixedByMap(final Cidr4 key, final boolean keyInclusive) {
+      // Pass along the current mustBePrefixOf
+      return new PrefixMap(checkKeyInRange(key, !keyInclusive), keyInclusive, mustBePrefixOf,
+          mustBePrefixOfInclusive);
+    }
+  }
+
+
+
+  // Map Methods:
+
+  @Override
+  public int size() {
+    return root.get().size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    final Cidr4 cidr = checkKey(key);
+    return getNode(root.get(), cidr.getLowBinaryInteger(true), cidr.getMaskBits()) != null;
+  }
+
+  @Override
+  public V get(final Object key) {
+    final Cidr4 cidr = checkKey(key);
+    return value(getNode(root.get(), cidr.getLowBinaryInteger(true), cidr.getMaskBits()));
+  }
+
+  @Override
+  public boolean containsValue(final Object value) {
+    if (value == null) {
+      throw new NullPointerException(getClass().getName()
+          + " does not allow null values: " + value);
+    }
+    final Iterator<Node<V>> iter = new NodeIterator<V>(root.get());
+    while (iter.hasNext()) {
+      if (value.equals(iter.next().value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public V put(final Cidr4 key, final V value) {
+    final Cidr4 cidr = checkKey(key);
+    if (value == null) {
+      throw new NullPointerException(getClass().getName()
+          + " does not accept null values: " + value);
+    }
+    final int address = cidr.getLowBinaryInteger(true);
+    final int maskBits = cidr.getMaskBits();
+    while (true) {
+      final Node<V> current = root.get();
+      final V oldValue = value(getNode(current, address, maskBits));
+      if (publish(current, insert(current, address, maskBits, value))) {
+        return oldValue;
+      }
+    }
+  }
+
+  /**
+   * Copies all of the mappings from the specified map to this trie.
+   * Each mapping is put atomically, but the mappings are not put atomically
+   * as a whole, so readers may see some of them before the rest.
+   */
+  @Override
+  public void putAll(final Map<? extends Cidr4, ? extends V> map) {
+    for (final Map.Entry<? extends Cidr4, ? extends V> entry : map.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public V remove(final Object key) {
+    final Cidr4 cidr = checkKey(key);
+    final int address = cidr.getLowBinaryInteger(true);
+    final int maskBits = cidr.getMaskBits();
+    while (true) {
+      final Node<V> current = root.get();
+      final Node<V> updated = delete(current, address, maskBits);
+      if (updated == current) {
+        return null;
+      }
+      if (publish(current, updated)) {
+        return value(getNode(current, address, maskBits));
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    root.set(new Node<V>(0, 0, null, null, null));
+  }
+
+  @Override
+  public Set<Map.Entry<Cidr4, V>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+
+  /** View of the entries, each iterator being a snapshot in pre-order */
+  private final class EntrySet extends AbstractSet<Map.Entry<Cidr4, V>> {
+
+    @Override
+    public Iterator<Map.Entry<Cidr4, V>> iterator() {
+      return entryIterator(new NodeIterator<V>(root.get()));
+    }
+
+    @Override
+    public int size() {
+      return ConcurrentCidr4Trie.this.size();
+    }
+
+    @Override
+    public void clear() {
+      ConcurrentCidr4Trie.this.clear();
+    }
+  }
+
+  /**
+   * @param nodes iterator over nodes with values, of a snapshot
+   * @return an iterator of entries, whose remove and setValue write through
+   *         to this trie
+   */
+  private Iterator<Map.Entry<Cidr4, V>> entryIterator(final Iterator<Node<V>> nodes) {
+    return new Iterator<Map.Entry<Cidr4, V>>() {
+
+      private Cidr4 lastKey = null;
+
+      @Override
+      public boolean hasNext() {
+        return nodes.hasNext();
+      }
+
+      @Override
+      public Map.Entry<Cidr4, V> next() {
+        final Node<V> node = nodes.next();
+        lastKey = key(node);
+        return new WriteThroughEntry(lastKey, node.value);
+      }
+
+      @Override
+      public void remove() {
+        if (lastKey == null) {
+          throw new IllegalStateException();
+        }
+        ConcurrentCidr4Trie.this.remove(lastKey);
+        lastKey = null;
+      }
+    };
+  }
+
+  /** Entry whose setValue also puts the new value into the trie */
+  private final class WriteThroughEntry extends AbstractMap.SimpleEntry<Cidr4, V> {
+
+    private static final long serialVersionUID = 3407235287467312591L;
+
+    private WriteThroughEntry(final Cidr4 key, final V value) {
+      super(key, value);
+    }
+
+    @Override
+    public V setValue(final V value) {
+      final V old = ConcurrentCidr4Trie.this.put(getKey(), value);
+      super.setValue(value);
+      return old;
+    }
+  }
+
+  /**
+   * Iterates over the nodes with values under (and including) a snapshot
+   * root node in pre-order. Nodes have no parent references, so a stack of
+   * pending right children is kept instead.
+   */
+  private static final class NodeIterator<V> implements Iterator<Node<V>> {
+
+    private final Deque<Node<V>> stack = new ArrayDeque<Node<V>>();
+    private Node<V> next;
+
+    private NodeIterator(final Node<V> subtree) {
+      this.next = subtree;
+      advance();
+    }
+
+    /** Move next to the next node with a value, starting at next itself */
+    private void advance() {
+      while (next != null && next.value == null) {
+        next = successor(next);
+      }
+    }
+
+    private Node<V> successor(final Node<V> node) {
+      if (node.left != null) {
+        if (node.right != null) {
+          stack.push(node.right);
+        }
+        return node.left;
+      }
+      if (node.right != null) {
+        return node.right;
+      }
+      return stack.poll();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Node<V> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      final Node<V> node = next;
+      next = successor(node);
+      advance();
+      return node;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
@@ -0,0 +1,461 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.Cidr6;
+import com.github.veqryn.net.Ip4;
+import com.github.veqryn.net.Ip6;
+
+/**
+ * A pair of CIDR Tries, a {@link Cidr4Trie} for IPv4 ranges and a
+ * {@link Cidr6Trie} for IPv6 ranges, behind a single set of methods that
+ * send each CIDR or address to the right one. This is meant for services
+ * that receive a mix of IPv4 and IPv6 traffic, such as log enrichment.
+ *
+ * <p>
+ * IPv4-mapped IPv6 addresses and CIDRs (those inside of ::ffff:0:0/96,
+ * such as ::ffff:192.168.1.104) are normalized to IPv4: they are stored in
+ * and looked up from the Cidr4Trie, so that IPv4 traffic that shows up in
+ * IPv6 form still matches the IPv4 routes. Looking up a mapped address
+ * given as primitive longs or bytes does not create any objects. IPv6 CIDRs
+ * of /96 or wider, which contain all of the mapped addresses, stay in the
+ * Cidr6Trie, and are only used for a mapped address when no IPv4 CIDR
+ * contains it (or when looking for the shortest match).
+ *
+ * <pre>
+ * // Example usage:
+ * DualStackCidrTrie&lt;String&gt; trie = new DualStackCidrTrie&lt;String&gt;();
+ * trie.put(new Cidr4("192.168.0.0/16"), "private");
+ * trie.put(new Cidr6("2001:db8::/32"), "documentation");
+ *
+ * // "private"
+ * String fromIp4 = trie.longestPrefixOfValue(new Ip4("192.168.1.104"));
+ * String fromMapped = trie.longestPrefixOfValue(new Ip6("::ffff:192.168.1.104"));
+ *
+ * // "documentation"
+ * String fromIp6 = trie.longestPrefixOfValue(new Ip6("2001:db8::1"));
+ * </pre>
+ *
+ * <p>
+ * The two tries can be reached with {@link #getCidr4Trie()} and
+ * {@link #getCidr6Trie()} for any other {@link Trie} methods, but CIDRs put
+ * directly into the Cidr6Trie are not normalized.
+ *
+ * @author Chris Duncan
+ *
+ * @param <V> Value
+ */
+public class DualStackCidrTrie<V> implements Serializable {
+
+  private static final long serialVersionUID = 8405932263301553521L;
+
+  /** The upper 32 bits of the lower long of an IPv4-mapped IPv6 address */
+  private static final long MAPPED_PREFIX = 0xFFFFL;
+
+  /** The number of leading bits shared by all IPv4-mapped IPv6 addresses */
+  private static final int MAPPED_BITS = 96;
+
+  /** ::ffff:0:0/96, which contains all IPv4-mapped IPv6 addresses */
+  private static final Cidr6 MAPPED = new Cidr6(0L, MAPPED_PREFIX << 32, MAPPED_BITS);
+
+  protected final Cidr4Trie<V> cidr4Trie;
+  protected final Cidr6Trie<V> cidr6Trie;
+
+
+
+  /**
+   * Create an empty {@link DualStackCidrTrie}, with a path-compressed
+   * {@link Cidr4Trie} and a {@link Cidr6Trie}.
+   */
+  public DualStackCidrTrie() {
+    this(new Cidr4Trie<V>(true), new Cidr6Trie<V>());
+  }
+
+  /**
+   * Create a {@link DualStackCidrTrie} in front of existing tries, which are
+   * used directly rather than copied. Any IPv4-mapped CIDRs of more than
+   * /96 already in the Cidr6Trie will not be found by lookups of IPv4-mapped
+   * addresses.
+   *
+   * @param cidr4Trie the Cidr4Trie to hold IPv4 and IPv4-mapped IPv6 ranges
+   * @param cidr6Trie the Cidr6Trie to hold all other IPv6 ranges
+   */
+  public DualStackCidrTrie(final Cidr4Trie<V> cidr4Trie, final Cidr6Trie<V> cidr6Trie) {
+    if (cidr4Trie == null || cidr6Trie == null) {
+      throw new NullPointerException("Cidr4Trie and Cidr6Trie may not be null");
+    }
+    this.cidr4Trie = cidr4Trie;
+    this.cidr6Trie = cidr6Trie;
+  }
+
+
+
+  /**
+   * @return the Cidr4Trie holding IPv4 and IPv4-mapped IPv6 ranges
+   */
+  public Cidr4Trie<V> getCidr4Trie() {
+    return cidr4Trie;
+  }
+
+  /**
+   * @return the Cidr6Trie holding all other IPv6 ranges
+   */
+  public Cidr6Trie<V> getCidr6Trie() {
+    return cidr6Trie;
+  }
+
+  /**
+   * @return the number of CIDRs in both tries
+   */
+  public int size() {
+    return cidr4Trie.size() + cidr6Trie.size();
+  }
+
+  /**
+   * @return true if neither trie holds any CIDRs
+   */
+  public boolean isEmpty() {
+    return cidr4Trie.isEmpty() && cidr6Trie.isEmpty();
+  }
+
+  /**
+   * Removes all CIDRs from both tries
+   */
+  public void clear() {
+    cidr4Trie.clear();
+    cidr6Trie.clear();
+  }
+
+
+
+  // IPv4-mapped IPv6 Normalization:
+
+  /**
+   * @param upper the upper 64 bits of an IPv6 address
+   * @param lower the lower 64 bits of an IPv6 address
+   * @return true if the address is an IPv4-mapped address (::ffff:0:0/96)
+   */
+  protected static boolean isMapped(final long upper, final long lower) {
+    return upper == 0L && (lower >>> 32) == MAPPED_PREFIX;
+  }
+
+  /**
+   * @param cidr Cidr6
+   * @return true if the CIDR is narrower than, and inside of, ::ffff:0:0/96,
+   *         so can be held as a Cidr4
+   */
+  protected static boolean isMapped(final Cidr6 cidr) {
+    return cidr.getMaskBits() > MAPPED_BITS && isMapped(cidr.getUpperLong(), cidr.getLowerLong());
+  }
+
+  /**
+   * @param cidr an IPv4-mapped Cidr6, narrower than /96
+   * @return the Cidr4 the Cidr6 is mapped from
+   */
+  protected static Cidr4 toCidr4(final Cidr6 cidr) {
+    return new Cidr4((int) cidr.getLowerLong(), cidr.getMaskBits() - MAPPED_BITS);
+  }
+
+
+
+  // Map Methods:
+
+  /**
+   * @param cidr Cidr4
+   * @param value the value to associate with the CIDR
+   * @return the previous value associated with the CIDR, or null if none
+   */
+  public V put(final Cidr4 cidr, final V value) {
+    return cidr4Trie.put(cidr, value);
+  }
+
+  /**
+   * @param cidr Cidr6, which is put into the Cidr4Trie if IPv4-mapped
+   * @param value the value to associate with the CIDR
+   * @return the previous value associated with the CIDR, or null if none
+   */
+  public V put(final Cidr6 cidr, final V value) {
+    return isMapped(cidr) ? cidr4Trie.put(toCidr4(cidr), value) : cidr6Trie.put(cidr, value);
+  }
+
+  /**
+   * @param cidr Cidr4
+   * @return the value associated with the CIDR, or null if none
+   */
+  public V get(final Cidr4 cidr) {
+    return cidr4Trie.get(cidr);
+  }
+
+  /**
+   * @param cidr Cidr6, which is looked up in the Cidr4Trie if IPv4-mapped
+   * @return the value associated with the CIDR, or null if none
+   */
+  public V get(final Cidr6 cidr) {
+    return isMapped(cidr) ? cidr4Trie.get(toCidr4(cidr)) : cidr6Trie.get(cidr);
+  }
+
+  /**
+   * @param cidr Cidr4
+   * @return true if a value is associated with the CIDR
+   */
+  public boolean containsKey(final Cidr4 cidr) {
+    return cidr4Trie.containsKey(cidr);
+  }
+
+  /**
+   * @param cidr Cidr6, which is looked up in the Cidr4Trie if IPv4-mapped
+   * @return true if a value is associated with the CIDR
+   */
+  public boolean containsKey(final Cidr6 cidr) {
+    return isMapped(cidr) ? cidr4Trie.containsKey(toCidr4(cidr)) : cidr6Trie.containsKey(cidr);
+  }
+
+  /**
+   * @param cidr Cidr4
+   * @return the value that was associated with the CIDR, or null if none
+   */
+  public V remove(final Cidr4 cidr) {
+    return cidr4Trie.remove(cidr);
+  }
+
+  /**
+   * @param cidr Cidr6, which is removed from the Cidr4Trie if IPv4-mapped
+   * @return the value that was associated with the CIDR, or null if none
+   */
+  public V remove(final Cidr6 cidr) {
+    return isMapped(cidr) ? cidr4Trie.remove(toCidr4(cidr)) : cidr6Trie.remove(cidr);
+  }
+
+
+
+  // Longest and Shortest Prefix Methods:
+
+  /**
+   * @param cidr Cidr4
+   * @param keyInclusive true if the CIDR itself may be the match
+   * @return the value of the longest CIDR that is a prefix of the given
+   *         CIDR, or null if there is none
+   * @see Trie#longestPrefixOfValue
+   */
+  public V longestPrefixOfValue(final Cidr4 cidr, final boolean keyInclusive) {
+    return cidr4Trie.longestPrefixOfValue(cidr, keyInclusive);
+  }
+
+  /**
+   * @param cidr Cidr6, which is looked up in the Cidr4Trie if IPv4-mapped
+   * @param keyInclusive true if the CIDR itself may be the match
+   * @return the value of the longest CIDR that is a prefix of the given
+   *         CIDR, or null if there is none
+   * @see Trie#longestPrefixOfValue
+   */
+  public V longestPrefixOfValue(final Cidr6 cidr, final boolean keyInclusive) {
+    if (!isMapped(cidr)) {
+      return cidr6Trie.longestPrefixOfValue(cidr, keyInclusive);
+    }
+    final V value = cidr4Trie.longestPrefixOfValue(toCidr4(cidr), keyInclusive);
+    return value != null ? value : cidr6Trie.longestPrefixOfValue(MAPPED, true);
+  }
+
+  /**
+   * @param address Ip4
+   * @return the value of the longest CIDR containing the address,
+   *         or null if there is none
+   */
+  public V longestPrefixOfValue(final Ip4 address) {
+    return cidr4Trie.longestPrefixOfValue(address.getBinaryInteger());
+  }
+
+  /**
+   * @param address Ip6, which is looked up in the Cidr4Trie if IPv4-mapped
+   * @return the value of the longest CIDR containing the address,
+   *         or null if there is none
+   */
+  public V longestPrefixOfValue(final Ip6 address) {
+    return longestPrefixOfValue(address.getUpperLong(), address.getLowerLong());
+  }
+
+  /**
+   * Returns the value of the longest (most specific) CIDR containing the
+   * given IPv4 address, without creating any objects.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value of the longest CIDR containing the address,
+   *         or null if there is none
+   * @see Cidr4Trie#longestPrefixOfValue(int)
+   */
+  public V longestPrefixOfValue(final int address) {
+    return cidr4Trie.longestPrefixOfValue(address);
+  }
+
+  /**
+   * Returns the value of the longest (most specific) CIDR containing the
+   * given IPv6 address, without creating any objects. IPv4-mapped addresses
+   * are looked up in the Cidr4Trie.
+   *
+   * @param upper the upper (most significant) 64 bits of the address
+   * @param lower the lower (least significant) 64 bits of the address
+   * @return the value of the longest CIDR containing the address,
+   *         or null if there is none
+   * @see Cidr6Trie#longestPrefixOfValue(long, long)
+   */
+  public V longestPrefixOfValue(final long upper, final long lower) {
+    if (isMapped(upper, lower)) {
+      final V value = cidr4Trie.longestPrefixOfValue((int) lower);
+      if (value != null) {
+        return value;
+      }
+    }
+    return cidr6Trie.longestPrefixOfValue(upper, lower);
+  }
+
+  /**
+   * Returns the value of the longest (most specific) CIDR containing the
+   * given address, as found in a packet header or returned by
+   * {@link java.net.InetAddress#getAddress()}, without creating any objects.
+   *
+   * @param address 4 bytes of an IPv4 address, or 16 bytes of an IPv6
+   *        address, in network byte order (most significant byte first)
+   * @return the value of the longest CIDR containing the address,
+   *         or null if there is none
+   * @throws IllegalArgumentException if the address is not 4 or 16 bytes
+   */
+  public V longestPrefixOfValue(final byte[] address) {
+    if (address.length == 4) {
+      return cidr4Trie.longestPrefixOfValue((int) toLong(address, 0, 4));
+    }
+    if (address.length == 16) {
+      return longestPrefixOfValue(toLong(address, 0, 8), toLong(address, 8, 8));
+    }
+    throw new IllegalArgumentException(getClass().getName()
+        + " does not accept addresses that are not 4 or 16 bytes long: " + address.length);
+  }
+
+  /**
+   * @return the bytes as a big-endian long
+   */
+  private static long toLong(final byte[] bytes, final int offset, final int length) {
+    long value = 0L;
+    for (int i = offset; i < offset + length; ++i) {
+      value = (value << 8) | (bytes[i] & 0xFF);
+    }
+    return value;
+  }
+
+  /**
+   * @param cidr Cidr4
+   * @param keyInclusive true if the CIDR itself may be the match
+   * @return the value of the shortest CIDR that is a prefix of the given
+   *         CIDR, or null if there is none
+   * @see Trie#shortestPrefixOfValue
+   */
+  public V shortestPrefixOfValue(final Cidr4 cidr, final boolean keyInclusive) {
+    return cidr4Trie.shortestPrefixOfValue(cidr, keyInclusive);
+  }
+
+  /**
+   * @param cidr Cidr6, which is looked up in the Cidr4Trie if IPv4-mapped
+   * @param keyInclusive true if the CIDR itself may be the match
+   * @return the value of the shortest CIDR that is a prefix of the given
+   *         CIDR, or null if there is none
+   * @see Trie#shortestPrefixOfValue
+   */
+  public V shortestPrefixOfValue(final Cidr6 cidr, final boolean keyInclusive) {
+    if (!isMapped(cidr)) {
+      return cidr6Trie.shortestPrefixOfValue(cidr, keyInclusive);
+    }
+    final V value = cidr6Trie.shortestPrefixOfValue(MAPPED, true);
+    return value != null ? value : cidr4Trie.shortestPrefixOfValue(toCidr4(cidr), keyInclusive);
+  }
+
+
+
+  // Prefix Of Methods:
+
+  /**
+   * @param cidr Cidr4
+   * @param keyInclusive true if the CIDR itself may be included
+   * @return a view of the values of all CIDRs that are prefixes of the given
+   *         CIDR, from the shortest to the longest
+   * @see Trie#prefixOfValues
+   */
+  public Collection<V> prefixOfValues(final Cidr4 cidr, final boolean keyInclusive) {
+    return cidr4Trie.prefixOfValues(cidr, keyInclusive);
+  }
+
+  /**
+   * Returns the values of all CIDRs that are prefixes of the given CIDR,
+   * from the shortest to the longest. For an IPv4-mapped CIDR these come
+   * from both tries: the IPv6 CIDRs containing ::ffff:0:0/96, followed by
+   * the IPv4 CIDRs. Unlike the other prefix methods, this returns a copy
+   * of the values for an IPv4-mapped CIDR, rather than a view.
+   *
+   * @param cidr Cidr6
+   * @param keyInclusive true if the CIDR itself may be included
+   * @return the values of all CIDRs that are prefixes of the given CIDR
+   * @see Trie#prefixOfValues
+   */
+  public Collection<V> prefixOfValues(final Cidr6 cidr, final boolean keyInclusive) {
+    if (!isMapped(cidr)) {
+      return cidr6Trie.prefixOfValues(cidr, keyInclusive);
+    }
+    final List<V> values = new ArrayList<V>(cidr6Trie.prefixOfValues(MAPPED, true));
+    values.addAll(cidr4Trie.prefixOfValues(toCidr4(cidr), keyInclusive));
+    return values;
+  }
+
+  /**
+   * @param address Ip4
+   * @return a view of the values of all CIDRs containing the address,
+   *         from the shortest to the longest
+   */
+  public Collection<V> prefixOfValues(final Ip4 address) {
+    return prefixOfValues(address.getCidr(), true);
+  }
+
+  /**
+   * @param address Ip6, which is looked up in both tries if IPv4-mapped
+   * @return the values of all CIDRs containing the address,
+   *         from the shortest to the longest
+   * @see #prefixOfValues(Cidr6, boolean)
+   */
+  public Collection<V> prefixOfValues(final Ip6 address) {
+    return prefixOfValues(address.getCidr(), true);
+  }
+
+
+
+  @Override
+  public int hashCode() {
+    return 31 * cidr4Trie.hashCode() + cidr6Trie.hashCode();
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (getClass() != obj.getClass()) {
+      return false;
+    }
+    final DualStackCidrTrie<?> other = (DualStackCidrTrie<?>) obj;
+    return cidr4Trie.equals(other.cidr4Trie) && cidr6Trie.equals(other.cidr6Trie);
+  }
+
+  @Override
+  public String toString() {
+    return "{ipv4=" + cidr4Trie + ", ipv6=" + cidr6Trie + '}';
+  }
+
+}
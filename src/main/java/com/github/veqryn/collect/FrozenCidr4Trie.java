@@ -0,0 +1,193 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.github.veqryn.net.Cidr4;
+
+/**
+ * Immutable {@link Trie} of {@link Cidr4} keys, compiled from a
+ * {@link Cidr4Trie} into flat parallel primitive arrays.
+ *
+ * <p>
+ * Nodes are laid out in pre-order (each node followed by its left subtree,
+ * then its right subtree), and only nodes that hold a value or where two
+ * CIDRs diverge are kept. Each node is an index into the arrays, holding its
+ * left and right child indexes, the index of its value, and the full
+ * prefix bits and length of the path leading to it. There are no node
+ * objects, object headers, parent pointers or key instances, so a frozen
+ * trie uses several times less heap than the {@link Cidr4Trie} it was built
+ * from, and lookups walk a handful of array slots instead of chasing
+ * pointers.
+ *
+ * <p>
+ * All read methods of {@link Trie} are supported (see
+ * {@link AbstractFlatCidr4Trie}), and every method that would modify the
+ * trie throws an {@link UnsupportedOperationException}.
+ *
+ * <pre>
+ * // Example usage:
+ * Cidr4Trie&lt;String&gt; trie = new Cidr4Trie&lt;String&gt;();
+ * trie.put(myCIDR1, "A");
+ * trie.put(myCIDR2, "B");
+ *
+ * Trie&lt;Cidr4, String&gt; frozen = trie.freeze();
+ * String narrowestValue = frozen.longestPrefixOfValue(myIP1.getCidr(), true);
+ * </pre>
+ *
+ * @author Chris Duncan
+ *
+ * @param <V> Value
+ */
+public final class FrozenCidr4Trie<V> extends AbstractFlatCidr4Trie<V> implements Serializable {
+
+  private static final long serialVersionUID = -2457183440418829671L;
+
+  // Parallel node arrays, indexed by node (the root is node 0)
+  private final int[] left; // left child node, or NONE
+  private final int[] right; // right child node, or NONE
+  private final int[] valueIndex; // index into values, or NONE
+  private final int[] prefix; // binary address bits of the path to the node
+  private final byte[] length; // number of bits in the path to the node
+
+  private final Object[] values;
+
+
+
+  /**
+   * Create a {@link FrozenCidr4Trie} containing a snapshot of the CIDRs and
+   * values in the given trie. Later changes to the given trie are not
+   * reflected in this one.
+   *
+   * @param trie Cidr4Trie to copy the CIDRs and values from
+   * @see Cidr4Trie#freeze()
+   */
+  public FrozenCidr4Trie(final Cidr4Trie<V> trie) {
+    final Compiler<V> compiler = new Compiler<V>(trie.size());
+    compiler.compile(trie.root);
+
+    this.left = Arrays.copyOf(compiler.left, compiler.nodes);
+    this.right = Arrays.copyOf(compiler.right, compiler.nodes);
+    this.valueIndex = Arrays.copyOf(compiler.valueIndex, compiler.nodes);
+    this.prefix = Arrays.copyOf(compiler.prefix, compiler.nodes);
+    this.length = Arrays.copyOf(compiler.length, compiler.nodes);
+    this.values = Arrays.copyOf(compiler.values, compiler.numValues);
+  }
+
+  /**
+   * Create a {@link FrozenCidr4Trie} from already compiled parallel node
+   * arrays, which are used as is (not copied).
+   *
+   * @param left left child node of each node, or NONE
+   * @param right right child node of each node, or NONE
+   * @param valueIndex index into values of each node, or NONE
+   * @param prefix binary address bits of the path to each node
+   * @param length number of bits in the path to each node
+   * @param values the values
+   */
+  FrozenCidr4Trie(final int[] left, final int[] right, final int[] valueIndex,
+      final int[] prefix, final byte[] length, final Object[] values) {
+    this.left = left;
+    this.right = right;
+    this.valueIndex = valueIndex;
+    this.prefix = prefix;
+    this.length = length;
+    this.values = values;
+  }
+
+
+
+  /**
+   * Compiles the Node graph of a trie into parallel arrays,
+   * used only while constructing a {@link FrozenCidr4Trie}
+   */
+  private static final class Compiler<V> extends Cidr4NodeCompiler<V> {
+
+    private final int[] left;
+    private final int[] right;
+    private final int[] valueIndex;
+    private final int[] prefix;
+    private final byte[] length;
+    private final Object[] values;
+
+    private Compiler(final int size) {
+      // A trie with N values has at most N-1 branching nodes that have no value
+      final int capacity = 2 * size + 1;
+      this.left = new int[capacity];
+      this.right = new int[capacity];
+      this.valueIndex = new int[capacity];
+      this.prefix = new int[capacity];
+      this.length = new byte[capacity];
+      this.values = new Object[size];
+    }
+
+    @Override
+    protected void addNode(final int index, final int bits, final int depth, final V value) {
+      prefix[index] = bits;
+      length[index] = (byte) depth;
+      if (value != null) {
+        valueIndex[index] = numValues - 1;
+        values[numValues - 1] = value;
+      } else {
+        valueIndex[index] = NONE;
+      }
+    }
+
+    @Override
+    protected void setChildren(final int index, final int leftNode, final int rightNode) {
+      left[index] = leftNode;
+      right[index] = rightNode;
+    }
+  }
+
+
+
+  // Node Accessor Methods:
+
+  @Override
+  protected int nodeCount() {
+    return left.length;
+  }
+
+  @Override
+  protected int left(final int node) {
+    return left[node];
+  }
+
+  @Override
+  protected int right(final int node) {
+    return right[node];
+  }
+
+  @Override
+  protected int prefix(final int node) {
+    return prefix[node];
+  }
+
+  @Override
+  protected int length(final int node) {
+    return length[node];
+  }
+
+  @Override
+  protected boolean hasValue(final int node) {
+    return valueIndex[node] != NONE;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  protected V nodeValue(final int node) {
+    return (V) values[valueIndex[node]];
+  }
+
+  @Override
+  public int size() {
+    return values.length;
+  }
+
+}
@@ -51,6 +51,33 @@ public interface KeyCodec<K> extends Serializable {
    */
   boolean isLeft(K key, int index);
 
+  /**
+   * Returns up to 64 elements of the key, starting at the given index,
+   * packed into the lowest <code>count</code> bits of a long, with the
+   * element at <code>fromIndex</code> in the highest of those bits
+   * (0 = left, 1 = right), and all higher bits 0.
+   * {@link AbstractBinaryTrie} uses this to descend through the Trie a word
+   * at a time, instead of calling {@link #isLeft(Object, int)} per element.
+   *
+   * <p>
+   * The default implementation calls {@link #isLeft(Object, int)} once for
+   * each element. Codecs for keys that are already held as bits (such as IP
+   * addresses) should override this to extract all the elements at once.
+   *
+   * @param key the key
+   * @param fromIndex the index of the first element (0 based)
+   * @param count the number of elements, from 0 to 64, where
+   *        <code>fromIndex + count</code> is no more than the length of the key
+   * @return the elements as bits
+   */
+  default long bits(final K key, final int fromIndex, final int count) {
+    long bits = 0L;
+    for (int i = fromIndex, stop = fromIndex + count; i < stop; ++i) {
+      bits = (bits << 1) | (isLeft(key, i) ? 0L : 1L);
+    }
+    return bits;
+  }
+
   /**
    * Recreates a key based on the position of the node in the Trie.
    * The position is given as the length of the key (int), and each element
@@ -75,6 +102,36 @@ public interface KeyCodec<K> extends Serializable {
    */
   K recreateKey(BitSet bits, int numElements);
 
+  /**
+   * Recreates a key from the elements of the path to its node in the Trie,
+   * in the order they were walked. Iterators keep this path up to date as
+   * they move through the Trie, so this is called instead of
+   * {@link #recreateKey(BitSet, int)} when keys are returned by iterators.
+   *
+   * <p>
+   * The default implementation reverses the elements into a BitSet and
+   * calls {@link #recreateKey(BitSet, int)}. Codecs for keys that can be
+   * built straight from bits (such as IP addresses) should override this
+   * to avoid the extra work and allocation.
+   *
+   * @param elements the elements of this key, 64 per long, where the
+   *        highest bit of <code>elements[0]</code> is the first element of
+   *        this key (index 0), and each lower bit is the next element in this
+   *        key (0 = left, 1 = right). Bits after <code>numElements</code>
+   *        are undefined, and the array must not be modified or kept.
+   * @param numElements the number of elements in this key
+   * @return A new key equal to the one originally put in
+   */
+  default K recreateKey(final long[] elements, final int numElements) {
+    final BitSet bits = new BitSet(numElements);
+    for (int i = 0; i < numElements; ++i) {
+      if ((elements[i >>> 6] << (i & 63)) < 0) {
+        bits.set(numElements - 1 - i);
+      }
+    }
+    return recreateKey(bits, numElements);
+  }
+
   /**
    * Returns a comparator consistent with the <code>isLeft</code> and
    * <code>length</code> methods, or <code>null</code> if the key
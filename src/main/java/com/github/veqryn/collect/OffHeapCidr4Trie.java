@@ -0,0 +1,387 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import com.github.veqryn.net.Cidr4;
+
+/**
+ * Immutable {@link Trie} of {@link Cidr4} keys and long value handles, with
+ * its nodes stored off the Java heap, either in direct {@link ByteBuffer}'s
+ * or in a memory-mapped file.
+ *
+ * <p>
+ * Tables with hundreds of millions of CIDRs are expensive to keep as Node
+ * objects, because the garbage collector has to trace every one of them.
+ * This trie compiles a {@link Cidr4Trie} into fixed-width binary nodes
+ * (see {@link AbstractFlatCidr4Trie} for the layout), which are invisible to
+ * the collector. A trie written to a file with {@link #write} can later be
+ * loaded with {@link #map}, which maps the file into memory instead of
+ * parsing it into objects, only reading it once to check the child indexes
+ * of every node.
+ *
+ * <p>
+ * Values are long handles, such as an index or an offset into a separate
+ * value region, and must not be negative. The primitive lookup methods
+ * return {@link #NO_VALUE} when there is no match.
+ *
+ * <p>
+ * Each node takes {@value #NODE_BYTES} bytes, big-endian:
+ *
+ * <pre>
+ * int  left child node (-1 if none)
+ * int  right child node (-1 if none)
+ * int  binary address bits of the path to the node
+ * byte number of bits in the path to the node
+ * byte 1 if the node has a value, otherwise 0
+ * 2 bytes padding
+ * long value handle
+ * </pre>
+ *
+ * <p>
+ * A file starts with a {@value #HEADER_BYTES} byte header (magic, version,
+ * number of nodes, number of values), followed by the nodes in pre-order.
+ *
+ * <pre>
+ * // Example usage:
+ * Cidr4Trie&lt;Long&gt; trie = new Cidr4Trie&lt;Long&gt;();
+ * trie.put(myCIDR1, 0L);
+ * trie.put(myCIDR2, 1L);
+ * OffHeapCidr4Trie.write(trie, file);
+ *
+ * OffHeapCidr4Trie mapped = OffHeapCidr4Trie.map(file);
+ * long handle = mapped.longestPrefixOfHandle(myIP1.getBinaryInteger());
+ * </pre>
+ *
+ * @author Chris Duncan
+ */
+public final class OffHeapCidr4Trie extends AbstractFlatCidr4Trie<Long> {
+
+  /** Returned by the primitive lookup methods when there is no match */
+  public static final long NO_VALUE = -1L;
+
+  /** Size of each node, in bytes */
+  public static final int NODE_BYTES = 24;
+
+  /** Size of the file header, in bytes */
+  public static final int HEADER_BYTES = 16;
+
+  private static final int MAGIC = 0x43345452; // "C4TR"
+  private static final int VERSION = 1;
+
+  // Field offsets within a node
+  private static final int LEFT = 0;
+  private static final int RIGHT = 4;
+  private static final int PREFIX = 8;
+  private static final int LENGTH = 12;
+  private static final int FLAGS = 13;
+  private static final int VALUE = 16;
+
+  // Nodes are split over multiple buffers, because a buffer can not exceed 2GB
+  private static final int SEGMENT_BITS = 22; // 4M nodes (96MB) per buffer
+  private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+  private final ByteBuffer[] segments;
+  private final int nodeCount;
+  private final int size;
+
+
+
+  private OffHeapCidr4Trie(final ByteBuffer[] segments, final int nodeCount, final int size) {
+    this.segments = segments;
+    this.nodeCount = nodeCount;
+    this.size = size;
+  }
+
+  /**
+   * Compile the given trie into direct (off-heap) {@link ByteBuffer}'s.
+   * Later changes to the given trie are not reflected in this one.
+   *
+   * @param trie Cidr4Trie of value handles, which must not be negative
+   * @return OffHeapCidr4Trie
+   * @throws IllegalArgumentException if any value handle is negative
+   */
+  public static OffHeapCidr4Trie allocate(final Cidr4Trie<Long> trie) {
+    checkHandles(trie);
+    final int nodeCount = Cidr4NodeCompiler.countNodes(trie.root);
+    final ByteBuffer[] segments = new ByteBuffer[segmentCount(nodeCount)];
+    for (int i = 0; i < segments.length; ++i) {
+      segments[i] = ByteBuffer.allocateDirect(segmentNodes(nodeCount, i) * NODE_BYTES);
+    }
+    new Compiler(segments).compile(trie.root);
+    return new OffHeapCidr4Trie(segments, nodeCount, trie.size());
+  }
+
+  /**
+   * Compile the given trie and write it to a file, replacing the file if it
+   * already exists. The file can be loaded with {@link #map}. The value
+   * handles are checked before the file is opened, and the header is written
+   * after the nodes, so a failed write never leaves behind a file that
+   * {@link #map} accepts.
+   *
+   * @param trie Cidr4Trie of value handles, which must not be negative
+   * @param file the File to write to
+   * @throws IOException if the file could not be written
+   * @throws IllegalArgumentException if any value handle is negative
+   */
+  public static void write(final Cidr4Trie<Long> trie, final File file) throws IOException {
+    checkHandles(trie);
+    final int nodeCount = Cidr4NodeCompiler.countNodes(trie.root);
+    final long fileBytes = HEADER_BYTES + (long) nodeCount * NODE_BYTES;
+
+    try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(fileBytes);
+      final FileChannel channel = raf.getChannel();
+
+      // Clear any old header until the nodes have been written
+      final MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_BYTES);
+      header.putInt(0, 0);
+      header.force();
+
+      final MappedByteBuffer[] segments = mapSegments(channel, MapMode.READ_WRITE, nodeCount);
+      new Compiler(segments).compile(trie.root);
+      for (final MappedByteBuffer segment : segments) {
+        segment.force();
+      }
+
+      header.putInt(4, VERSION);
+      header.putInt(8, nodeCount);
+      header.putInt(12, trie.size());
+      header.putInt(0, MAGIC);
+      header.force();
+    }
+  }
+
+  /**
+   * @param trie Cidr4Trie of value handles
+   * @throws IllegalArgumentException if any value handle is negative
+   */
+  private static void checkHandles(final Cidr4Trie<Long> trie) {
+    for (final Long value : trie.values()) {
+      if (value < 0L) {
+        throw new IllegalArgumentException(OffHeapCidr4Trie.class.getName()
+            + " does not accept negative value handles: " + value);
+      }
+    }
+  }
+
+  /**
+   * Map a file written by {@link #write} into memory, read-only.
+   * The file is read once up front, to check that the child indexes of every
+   * node are within the file, so that a corrupt file fails here instead of
+   * part way through a lookup. The file must not be modified while it is
+   * mapped.
+   *
+   * @param file the File to map
+   * @return OffHeapCidr4Trie backed by the file
+   * @throws IOException if the file could not be mapped, or is not a valid
+   *         trie file
+   */
+  public static OffHeapCidr4Trie map(final File file) throws IOException {
+    try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      final FileChannel channel = raf.getChannel();
+      if (channel.size() < HEADER_BYTES) {
+        throw new IOException(OffHeapCidr4Trie.class.getName() + " file is too short: " + file);
+      }
+
+      final MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_BYTES);
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+        throw new IOException(OffHeapCidr4Trie.class.getName()
+            + " file has an unknown format or version: " + file);
+      }
+      final int nodeCount = header.getInt(8);
+      final int size = header.getInt(12);
+      if (nodeCount <= 0 || size < 0
+          || channel.size() != HEADER_BYTES + (long) nodeCount * NODE_BYTES) {
+        throw new IOException(OffHeapCidr4Trie.class.getName()
+            + " file has the wrong length: " + file);
+      }
+
+      // Mappings remain valid after the channel is closed
+      final OffHeapCidr4Trie trie = new OffHeapCidr4Trie(
+          mapSegments(channel, MapMode.READ_ONLY, nodeCount), nodeCount, size);
+      for (int node = 0; node < nodeCount; ++node) {
+        if (!isChild(node, trie.left(node), nodeCount)
+            || !isChild(node, trie.right(node), nodeCount)) {
+          throw new IOException(OffHeapCidr4Trie.class.getName()
+              + " file has an invalid child of node " + node + ": " + file);
+        }
+      }
+      return trie;
+    }
+  }
+
+  /**
+   * @return true if the child is NONE, or comes after its parent in pre-order
+   *         and is within the node count
+   */
+  private static boolean isChild(final int parent, final int child, final int nodeCount) {
+    return child == NONE || (child > parent && child < nodeCount);
+  }
+
+  private static MappedByteBuffer[] mapSegments(final FileChannel channel, final MapMode mode,
+      final int nodeCount) throws IOException {
+    final MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount(nodeCount)];
+    for (int i = 0; i < segments.length; ++i) {
+      final long position = HEADER_BYTES + ((long) i << SEGMENT_BITS) * NODE_BYTES;
+      segments[i] = channel.map(mode, position, (long) segmentNodes(nodeCount, i) * NODE_BYTES);
+    }
+    return segments;
+  }
+
+  private static int segmentCount(final int nodeCount) {
+    return ((nodeCount - 1) >>> SEGMENT_BITS) + 1;
+  }
+
+  private static int segmentNodes(final int nodeCount, final int segment) {
+    return Math.min(nodeCount - (segment << SEGMENT_BITS), 1 << SEGMENT_BITS);
+  }
+
+
+
+  /**
+   * Writes compiled nodes into buffers
+   */
+  private static final class Compiler extends Cidr4NodeCompiler<Long> {
+
+    private final ByteBuffer[] segments;
+
+    private Compiler(final ByteBuffer[] segments) {
+      this.segments = segments;
+    }
+
+    @Override
+    protected void addNode(final int index, final int bits, final int depth, final Long value) {
+      final ByteBuffer segment = segments[index >>> SEGMENT_BITS];
+      final int offset = (index & SEGMENT_MASK) * NODE_BYTES;
+      segment.putInt(offset + PREFIX, bits);
+      segment.put(offset + LENGTH, (byte) depth);
+      if (value != null) {
+        segment.put(offset + FLAGS, (byte) 1);
+        segment.putLong(offset + VALUE, value);
+      } else {
+        segment.put(offset + FLAGS, (byte) 0);
+        segment.putLong(offset + VALUE, NO_VALUE);
+      }
+    }
+
+    @Override
+    protected void setChildren(final int index, final int left, final int right) {
+      final ByteBuffer segment = segments[index >>> SEGMENT_BITS];
+      final int offset = (index & SEGMENT_MASK) * NODE_BYTES;
+      segment.putInt(offset + LEFT, left);
+      segment.putInt(offset + RIGHT, right);
+    }
+  }
+
+
+
+  // Node Accessor Methods:
+
+  private ByteBuffer segment(final int node) {
+    return segments[node >>> SEGMENT_BITS];
+  }
+
+  private static int offset(final int node) {
+    return (node & SEGMENT_MASK) * NODE_BYTES;
+  }
+
+  @Override
+  protected int nodeCount() {
+    return nodeCount;
+  }
+
+  @Override
+  protected int left(final int node) {
+    return segment(node).getInt(offset(node) + LEFT);
+  }
+
+  @Override
+  protected int right(final int node) {
+    return segment(node).getInt(offset(node) + RIGHT);
+  }
+
+  @Override
+  protected int prefix(final int node) {
+    return segment(node).getInt(offset(node) + PREFIX);
+  }
+
+  @Override
+  protected int length(final int node) {
+    return segment(node).get(offset(node) + LENGTH);
+  }
+
+  @Override
+  protected boolean hasValue(final int node) {
+    return segment(node).get(offset(node) + FLAGS) != 0;
+  }
+
+  @Override
+  protected Long nodeValue(final int node) {
+    return handle(node);
+  }
+
+  private long handle(final int node) {
+    return node == NONE ? NO_VALUE : segment(node).getLong(offset(node) + VALUE);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+
+
+  // Primitive Handle Lookup Methods:
+
+  /**
+   * Returns the value handle of the longest (most specific) CIDR in this
+   * trie that contains the given IPv4 address, without boxing it.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value handle of the longest CIDR containing the address,
+   *         or {@link #NO_VALUE} if there is none
+   */
+  public long longestPrefixOfHandle(final int address) {
+    return handle(getPrefixOfNode(address, 32, true));
+  }
+
+  /**
+   * Returns the value handle of the shortest (widest) CIDR in this trie that
+   * contains the given IPv4 address, without boxing it.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   * @return the value handle of the shortest CIDR containing the address,
+   *         or {@link #NO_VALUE} if there is none
+   */
+  public long shortestPrefixOfHandle(final int address) {
+    return handle(getPrefixOfNode(address, 32, false));
+  }
+
+  /**
+   * Returns the value handle of the CIDR made from the given IPv4 address
+   * and mask bits, without boxing it.
+   *
+   * @param address binary IPv4 address, where Integer.MIN_VALUE = 128.0.0.0
+   *        (any bits after the mask bits are ignored)
+   * @param maskBits the number of mask bits, from 1 to 32
+   * @return the value handle of the CIDR, or {@link #NO_VALUE} if it is
+   *         not in this trie
+   * @throws IllegalArgumentException if maskBits is outside of 1 to 32
+   */
+  public long getHandle(final int address, final int maskBits) {
+    Cidr4Descent.checkMaskBits(getClass(), maskBits);
+    return handle(getNode(address, maskBits));
+  }
+
+}
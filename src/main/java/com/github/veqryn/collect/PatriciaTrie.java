@@ -35,6 +35,11 @@ import java.util.Map;
  * Guava test suites for String Maps
  * (we can not use this test on the Cidr Trie).
  *
+ * <p>
+ * A path-compressed PatriciaTrie (<code>new PatriciaTrie&lt;V&gt;(true)</code>)
+ * collapses chains of single-child nodes, so that each node may represent up
+ * to two characters of a key instead of a single bit.
+ *
  * @author Chris Duncan
  *
  * @param <V> Value
@@ -51,6 +56,65 @@ public final class PatriciaTrie<V> extends AbstractBinaryTrie<String, V> {
     super(new PatriciaCodec());
   }
 
+  /**
+   * Create an empty {@link PatriciaTrie}, with the given node layout.
+   *
+   * @param compressed true if the trie should use path compression,
+   *        where chains of empty intermediate nodes with a single child are
+   *        collapsed into a single node, greatly reducing the number of nodes
+   */
+  public PatriciaTrie(final boolean compressed) {
+    super(new PatriciaCodec(), compressed);
+  }
+
+  /**
+   * Create an empty {@link PatriciaTrie}, with the given node layout and policy
+   * for keeping keys.
+   *
+   * @param compressed true if the trie should use path compression
+   * @param keyless true if the trie should never cache keys on its nodes,
+   *        and use nodes without a field for them, recreating keys from
+   *        their path every time they are returned. This saves memory at
+   *        the cost of creating more short-lived keys.
+   */
+  public PatriciaTrie(final boolean compressed, final boolean keyless) {
+    super(new PatriciaCodec(), compressed, keyless);
+  }
+
+  /**
+   * Create an empty {@link PatriciaTrie}, with the given node layout, policy
+   * for keeping keys, and with or without parent references in its nodes.
+   *
+   * @param compressed true if the trie should use path compression
+   * @param keyless true if the trie should never cache keys on its nodes
+   * @param parentless true if the nodes of the trie should not keep a
+   *        reference to their parent, making each node smaller. Requires
+   *        {@code keyless} to also be true.
+   * @throws IllegalArgumentException if parentless but not keyless
+   */
+  public PatriciaTrie(final boolean compressed, final boolean keyless, final boolean parentless) {
+    super(new PatriciaCodec(), compressed, keyless, parentless);
+  }
+
+  /**
+   * Create an empty {@link PatriciaTrie}, with the given node layout, policy
+   * for keeping keys, with or without parent references in its nodes, and
+   * with or without a count of the Strings under each node.
+   *
+   * @param compressed true if the trie should use path compression
+   * @param keyless true if the trie should never cache keys on its nodes
+   * @param parentless true if the nodes of the trie should not keep a
+   *        reference to their parent. Requires {@code keyless} to also be true.
+   * @param counted true if each node should keep the number of Strings
+   *        under it, so that the size of a prefixed-by view is found without
+   *        iterating over the view
+   * @throws IllegalArgumentException if parentless but not keyless
+   */
+  public PatriciaTrie(final boolean compressed, final boolean keyless, final boolean parentless,
+      final boolean counted) {
+    super(new PatriciaCodec(), compressed, keyless, parentless, counted);
+  }
+
   /**
    * Create a {@link PatriciaTrie}.
    * The trie will be filled with the keys and values in the provided map.
@@ -62,6 +126,18 @@ public final class PatriciaTrie<V> extends AbstractBinaryTrie<String, V> {
     super(new PatriciaCodec(), otherMap);
   }
 
+  /**
+   * Create a {@link PatriciaTrie}, with the given node layout.
+   * The trie will be filled with the keys and values in the provided map.
+   *
+   * @param otherMap Map of strings and values, which will be {@link #putAll}
+   *        into the newly created trie
+   * @param compressed true if the trie should use path compression
+   */
+  public PatriciaTrie(final Map<String, V> otherMap, final boolean compressed) {
+    super(new PatriciaCodec(), otherMap, compressed);
+  }
+
   /**
    * Copy constructor, creates a shallow copy of this
    * {@link PatriciaTrie} instance.
@@ -81,6 +157,11 @@ public final class PatriciaTrie<V> extends AbstractBinaryTrie<String, V> {
    * because it decodes strings by each bit, instead of each
    * character, as the backing trie is binary in nature.
    * Can handle international characters.
+   *
+   * <p>
+   * Each char of a key is 16 elements, in the same order as the bits of its
+   * {@link #CHARSET} encoding, but is read straight from the String with
+   * {@link String#charAt(int)} instead of encoding the String every time.
    */
   public static final class PatriciaCodec extends AbstractKeyCodec<String>
       implements KeyCodec<String>, Serializable {
@@ -97,20 +178,54 @@ public final class PatriciaTrie<V> extends AbstractBinaryTrie<String, V> {
 
     @Override
     public final boolean isLeft(final String key, final int index) {
-      final byte[] bytes = key.getBytes(CHARSET);
-      // Get the index of the array for the byte with this bit
-      final int bitIndex = index / 8;
-      // Position of this bit in a byte
-      final int bitPosition = index % 8 + 1;
-      if (bitIndex >= bytes.length) {
+      // Each char is 16 bits, the same as its UTF-16BE encoding, most significant bit first
+      final int charIndex = index >>> 4;
+      if (charIndex >= key.length()) {
         return true;
       }
-      return (bytes[bitIndex] >> (8 - bitPosition) & 1) == 0;
+      return (key.charAt(charIndex) & (0x8000 >>> (index & 15))) == 0;
+    }
+
+    @Override
+    public final long bits(final String key, final int fromIndex, final int count) {
+      // Take as many bits as are wanted from each char in turn (at most 5 chars for 64 bits)
+      long bits = 0L;
+      int index = fromIndex;
+      int remaining = count;
+      while (remaining > 0) {
+        final int charIndex = index >>> 4;
+        final int offset = index & 15;
+        final int taken = Math.min(CHARSET_BIT_LENGTH - offset, remaining);
+        final int c = charIndex < key.length() ? key.charAt(charIndex) : 0;
+        final int shift = CHARSET_BIT_LENGTH - offset - taken;
+        bits = (bits << taken) | ((c >>> shift) & ((1 << taken) - 1));
+        index += taken;
+        remaining -= taken;
+      }
+      return bits;
     }
 
     @Override
     public final String recreateKey(final BitSet bits, final int numElements) {
-      return new String(toByteArray(bits, numElements), CHARSET);
+      final char[] chars = new char[numElements / CHARSET_BIT_LENGTH];
+      for (int i = bits.nextSetBit(0); i >= 0 && i < numElements; i = bits.nextSetBit(i + 1)) {
+        // The bit at (numElements - 1) is the first element of the key
+        final int element = numElements - 1 - i;
+        if (element >>> 4 < chars.length) {
+          chars[element >>> 4] |= 0x8000 >>> (element & 15);
+        }
+      }
+      return new String(chars);
+    }
+
+    @Override
+    public final String recreateKey(final long[] elements, final int numElements) {
+      // Four chars per long, the first in the highest 16 bits
+      final char[] chars = new char[numElements / CHARSET_BIT_LENGTH];
+      for (int i = 0; i < chars.length; ++i) {
+        chars[i] = (char) (elements[i >>> 2] >>> (48 - ((i & 3) << 4)));
+      }
+      return new String(chars);
     }
 
   }
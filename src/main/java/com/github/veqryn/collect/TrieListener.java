@@ -0,0 +1,61 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+/**
+ * Listener for instrumenting the lookups of an {@link AbstractBinaryTrie},
+ * set with {@link AbstractBinaryTrie#setListener(TrieListener)}.
+ *
+ * <p>
+ * While no listener is set, lookups only pay for a single null check.
+ * While a listener is set, each lookup is timed, and then walked a second
+ * time (outside of the timed part) to count the nodes it visited, so
+ * instrumented lookups are slower. The listener is called on the thread
+ * doing the lookup, and must be thread-safe if the trie is read by more
+ * than one thread. {@link TrieMetrics} is a ready made listener that
+ * collects counters and histograms, and can be registered with JMX.
+ *
+ * @author Chris Duncan
+ */
+public interface TrieListener {
+
+  /** The kinds of lookup that are reported */
+  enum LookupType {
+    /** {@code get} and {@code containsKey} */
+    GET,
+    /** {@code longestPrefixOfValue} */
+    LONGEST_PREFIX_OF,
+    /** {@code shortestPrefixOfValue} */
+    SHORTEST_PREFIX_OF,
+    /** each step of a prefix-of or prefixed-by iterator */
+    PREFIX_ITERATOR
+  }
+
+  /**
+   * Called after each lookup.
+   *
+   * @param type the kind of lookup
+   * @param hit true if a node with a value was found (for prefix iterators,
+   *        false for the final step that finds no more nodes)
+   * @param descentDepth the number of nodes visited below the root
+   * @param matchLength the length, in key elements, of the key of the node
+   *        found, or 0 if none was found
+   * @param nanos the time taken by the lookup, in nanoseconds
+   */
+  default void lookup(final LookupType type, final boolean hit, final int descentDepth,
+      final int matchLength, final long nanos) {
+  }
+
+  /**
+   * Called after a key has been recreated from the position of its node
+   * (keys that are already cached on their node are not reported).
+   *
+   * @param nanos the time taken to recreate the key, in nanoseconds
+   */
+  default void keyResolved(final long nanos) {
+  }
+
+}
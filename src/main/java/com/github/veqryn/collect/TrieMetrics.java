@@ -0,0 +1,186 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe {@link TrieListener} that collects lookup counters, hit and
+ * miss counts, descent depth and match length histograms, and the time
+ * spent in lookups and recreating keys. Implements {@link TrieMetricsMBean},
+ * so it can be registered with JMX to be read from a monitoring console.
+ * Every counter is a {@link LongAdder}, so that lookups on many threads do
+ * not contend on the same cache lines.
+ *
+ * <p>
+ * Hits and misses only count point lookups (get, containsKey, longest and
+ * shortest prefix), not the steps of prefix iterators, which are counted
+ * and timed as lookups of their own kind.
+ *
+ * <pre>
+ * // Example usage:
+ * TrieMetrics metrics = new TrieMetrics();
+ * cidr4Trie.setListener(metrics);
+ * ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+ *     new ObjectName("com.github.veqryn.collect:type=TrieMetrics,name=enrichment"));
+ * </pre>
+ *
+ * @author Chris Duncan
+ */
+public final class TrieMetrics implements TrieListener, TrieMetricsMBean {
+
+  /** The number of histogram buckets, enough for every IPv6 prefix length */
+  private static final int HISTOGRAM_BUCKETS = 129;
+
+  private final LongAdder[] lookups = newAdders(TrieListener.LookupType.values().length);
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder lookupNanos = new LongAdder();
+  private final LongAdder[] descentDepths = newAdders(HISTOGRAM_BUCKETS);
+  private final LongAdder[] matchLengths = newAdders(HISTOGRAM_BUCKETS);
+  private final LongAdder keyResolutions = new LongAdder();
+  private final LongAdder keyResolutionNanos = new LongAdder();
+
+
+
+  @Override
+  public void lookup(final LookupType type, final boolean hit, final int descentDepth,
+      final int matchLength, final long nanos) {
+    lookups[type.ordinal()].increment();
+    if (hit) {
+      if (type != LookupType.PREFIX_ITERATOR) {
+        hits.increment();
+      }
+      matchLengths[Math.min(matchLength, HISTOGRAM_BUCKETS - 1)].increment();
+    }
+    descentDepths[Math.min(descentDepth, HISTOGRAM_BUCKETS - 1)].increment();
+    lookupNanos.add(nanos);
+  }
+
+  @Override
+  public void keyResolved(final long nanos) {
+    keyResolutions.increment();
+    keyResolutionNanos.add(nanos);
+  }
+
+
+
+  @Override
+  public long getLookupCount() {
+    long count = 0L;
+    for (final LongAdder lookup : lookups) {
+      count += lookup.sum();
+    }
+    return count;
+  }
+
+  @Override
+  public long[] getLookupCounts() {
+    return toArray(lookups);
+  }
+
+  /**
+   * @param type the kind of lookup
+   * @return the number of lookups of that kind
+   */
+  public long getLookupCount(final LookupType type) {
+    return lookups[type.ordinal()].sum();
+  }
+
+  @Override
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMissCount() {
+    return getPointLookupCount() - getHitCount();
+  }
+
+  @Override
+  public double getHitRatio() {
+    final long count = getPointLookupCount();
+    return count == 0L ? 0.0 : (double) getHitCount() / count;
+  }
+
+  /**
+   * @return the number of lookups, not counting the steps of prefix iterators
+   */
+  private long getPointLookupCount() {
+    return getLookupCount() - getLookupCount(LookupType.PREFIX_ITERATOR);
+  }
+
+  @Override
+  public long getLookupNanos() {
+    return lookupNanos.sum();
+  }
+
+  @Override
+  public double getAverageLookupNanos() {
+    final long count = getLookupCount();
+    return count == 0L ? 0.0 : (double) getLookupNanos() / count;
+  }
+
+  @Override
+  public long[] getDescentDepthHistogram() {
+    return toArray(descentDepths);
+  }
+
+  @Override
+  public long[] getMatchLengthHistogram() {
+    return toArray(matchLengths);
+  }
+
+  @Override
+  public long getKeyResolutionCount() {
+    return keyResolutions.sum();
+  }
+
+  @Override
+  public long getKeyResolutionNanos() {
+    return keyResolutionNanos.sum();
+  }
+
+  @Override
+  public void reset() {
+    for (final LongAdder lookup : lookups) {
+      lookup.reset();
+    }
+    for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+      descentDepths[i].reset();
+      matchLengths[i].reset();
+    }
+    hits.reset();
+    lookupNanos.reset();
+    keyResolutions.reset();
+    keyResolutionNanos.reset();
+  }
+
+  private static LongAdder[] newAdders(final int length) {
+    final LongAdder[] adders = new LongAdder[length];
+    for (int i = 0; i < length; ++i) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+
+  private static long[] toArray(final LongAdder[] counts) {
+    final long[] array = new long[counts.length];
+    for (int i = 0; i < array.length; ++i) {
+      array[i] = counts[i].sum();
+    }
+    return array;
+  }
+
+
+
+  @Override
+  public String toString() {
+    return "TrieMetrics [lookups=" + getLookupCount() + ", hits=" + getHitCount()
+        + ", averageLookupNanos=" + getAverageLookupNanos()
+        + ", keyResolutions=" + getKeyResolutionCount() + "]";
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+/**
+ * JMX management interface of {@link TrieMetrics}.
+ *
+ * @author Chris Duncan
+ */
+public interface TrieMetricsMBean {
+
+  /**
+   * @return the number of lookups of all kinds
+   */
+  long getLookupCount();
+
+  /**
+   * @return the number of lookups of each kind, indexed by
+   *         {@link TrieListener.LookupType#ordinal()}
+   */
+  long[] getLookupCounts();
+
+  /**
+   * @return the number of lookups that found a node with a value,
+   *         not counting the steps of prefix iterators
+   */
+  long getHitCount();
+
+  /**
+   * @return the number of lookups that did not find a node with a value,
+   *         not counting the steps of prefix iterators
+   */
+  long getMissCount();
+
+  /**
+   * @return the fraction (from 0 to 1) of lookups that found a node with a
+   *         value, not counting the steps of prefix iterators,
+   *         or 0 if there have been none
+   */
+  double getHitRatio();
+
+  /**
+   * @return the total time spent in lookups, in nanoseconds
+   */
+  long getLookupNanos();
+
+  /**
+   * @return the average time of a lookup, in nanoseconds,
+   *         or 0 if there have been none
+   */
+  double getAverageLookupNanos();
+
+  /**
+   * @return the number of lookups that visited each number of nodes below
+   *         the root (the last bucket also counts all deeper lookups)
+   */
+  long[] getDescentDepthHistogram();
+
+  /**
+   * @return the number of lookups that found a key of each length, in key
+   *         elements (the last bucket also counts all longer keys)
+   */
+  long[] getMatchLengthHistogram();
+
+  /**
+   * @return the number of keys recreated from the position of their node
+   */
+  long getKeyResolutionCount();
+
+  /**
+   * @return the total time spent recreating keys, in nanoseconds
+   */
+  long getKeyResolutionNanos();
+
+  /**
+   * Set all counters and histograms back to 0.
+   */
+  void reset();
+
+}
@@ -0,0 +1,166 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the shape and footprint of an
+ * {@link AbstractBinaryTrie}, as returned by {@link AbstractBinaryTrie#stats()}.
+ *
+ * <p>
+ * Counts every node in the trie, including the root and the empty
+ * pass-through nodes that only lead to other nodes, which
+ * {@link AbstractBinaryTrie#size()} does not count. Depths are in key
+ * elements (bits), measured to the end of each node's path, so a
+ * compressed node that skips elements is counted at the depth of its last
+ * skipped element.
+ *
+ * @author Chris Duncan
+ */
+public final class TrieStats implements Serializable {
+
+  private static final long serialVersionUID = -8730284473641618032L;
+
+  private final long nodeCount;
+  private final long valueNodeCount;
+  private final long cachedKeyCount;
+  private final long skippedElements;
+  private final long estimatedBytes;
+  private final long[] nodesAtDepth;
+  private final long[] valuesAtDepth;
+  private final long[] fanOut;
+
+
+
+  /**
+   * Create a {@link TrieStats}, taking ownership of the arrays.
+   *
+   * @param nodeCount the number of nodes, including the root
+   * @param valueNodeCount the number of nodes with a value
+   * @param cachedKeyCount the number of nodes with a value and a cached key
+   * @param skippedElements the total number of key elements skipped by
+   *        compressed nodes
+   * @param estimatedBytes the estimated heap used by the nodes
+   * @param nodesAtDepth the number of nodes at each depth, up to the deepest
+   * @param valuesAtDepth the number of nodes with a value at each depth,
+   *        the same length as nodesAtDepth
+   * @param fanOut the number of nodes with 0, 1 and 2 children
+   */
+  protected TrieStats(final long nodeCount, final long valueNodeCount,
+      final long cachedKeyCount, final long skippedElements, final long estimatedBytes,
+      final long[] nodesAtDepth, final long[] valuesAtDepth, final long[] fanOut) {
+    this.nodeCount = nodeCount;
+    this.valueNodeCount = valueNodeCount;
+    this.cachedKeyCount = cachedKeyCount;
+    this.skippedElements = skippedElements;
+    this.estimatedBytes = estimatedBytes;
+    this.nodesAtDepth = nodesAtDepth;
+    this.valuesAtDepth = valuesAtDepth;
+    this.fanOut = fanOut;
+  }
+
+
+
+  /**
+   * @return the number of nodes, with or without values, including the root
+   */
+  public long getNodeCount() {
+    return nodeCount;
+  }
+
+  /**
+   * @return the number of nodes with a value (the same as the trie's size)
+   */
+  public long getValueNodeCount() {
+    return valueNodeCount;
+  }
+
+  /**
+   * @return the number of nodes without a value, including the root,
+   *         that only lead to other nodes
+   */
+  public long getEmptyNodeCount() {
+    return nodeCount - valueNodeCount;
+  }
+
+  /**
+   * @return the number of nodes with a value that have their key cached
+   */
+  public long getCachedKeyCount() {
+    return cachedKeyCount;
+  }
+
+  /**
+   * @return the fraction (from 0 to 1) of nodes with a value that have their
+   *         key cached, or 0 if there are none (always 0 for keyless tries)
+   */
+  public double getKeyCacheFill() {
+    return valueNodeCount == 0 ? 0.0 : (double) cachedKeyCount / valueNodeCount;
+  }
+
+  /**
+   * @return the total number of key elements skipped by compressed nodes
+   *         (always 0 for uncompressed tries)
+   */
+  public long getSkippedElements() {
+    return skippedElements;
+  }
+
+  /**
+   * Returns the estimated heap used by the nodes of the trie, assuming a
+   * 64-bit JVM with compressed references (the default for heaps under
+   * 32 GB). Does not include the keys and values themselves.
+   *
+   * @return the estimated bytes retained by the nodes
+   */
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  /**
+   * @return the depth of the deepest node, in key elements
+   */
+  public int getMaxDepth() {
+    return nodesAtDepth.length - 1;
+  }
+
+  /**
+   * @return the number of nodes, with or without values, at each depth
+   *         (indexed by depth, from 0 to {@link #getMaxDepth()})
+   */
+  public long[] getNodesAtDepth() {
+    return nodesAtDepth.clone();
+  }
+
+  /**
+   * @return the number of nodes with values (the number of keys) at each
+   *         depth (indexed by depth, from 0 to {@link #getMaxDepth()})
+   */
+  public long[] getValuesAtDepth() {
+    return valuesAtDepth.clone();
+  }
+
+  /**
+   * @return the number of nodes with 0, 1 and 2 children (indexed by the
+   *         number of children)
+   */
+  public long[] getFanOut() {
+    return fanOut.clone();
+  }
+
+
+
+  @Override
+  public String toString() {
+    return "TrieStats [nodes=" + nodeCount + ", valueNodes=" + valueNodeCount
+        + ", emptyNodes=" + getEmptyNodeCount() + ", cachedKeys=" + cachedKeyCount
+        + ", skippedElements=" + skippedElements + ", estimatedBytes=" + estimatedBytes
+        + ", maxDepth=" + getMaxDepth() + ", fanOut=" + Arrays.toString(fanOut) + "]";
+  }
+
+}
@@ -83,19 +83,7 @@ public final class Cidr4 implements Comparable<Cidr4>, Serializable {
    *         m = 1-3 decimal digits in range 1-32
    */
   public Cidr4(final String cidrNotation) {
-    final Matcher matcher = cidrPattern.matcher(cidrNotation);
-
-    if (matcher.matches()) {
-      final int address = toInteger(matchAddress(matcher), true);
-      final int netmask = getNetMask(rangeCheck(Integer.parseInt(matcher.group(5)), 0, NBITS));
-
-      final int network = getLowestBinaryWithNetmask(address, netmask);
-      this.low = network ^ Integer.MIN_VALUE;
-      this.high = getHighestBinaryWithNetmask(network, netmask) ^ Integer.MIN_VALUE;
-
-    } else {
-      throw new IllegalArgumentException("Could not parse [" + cidrNotation + "]");
-    }
+    this(cidrNotation, false);
   }
 
   /**
@@ -111,8 +99,41 @@ public final class Cidr4 implements Comparable<Cidr4>, Serializable {
    *         (if acceptAddressWithoutRange then n.n.n.n is also accepted)
    */
   public Cidr4(final String cidrNotation, final boolean acceptAddressWithoutRange) {
-    this((acceptAddressWithoutRange && !cidrNotation.contains("/"))
-        ? cidrNotation + "/32" : cidrNotation);
+    this(parse(cidrNotation, acceptAddressWithoutRange));
+  }
+
+  /**
+   * Constructor that takes a parsed address and mask bits
+   *
+   * @param parsed the result of {@link #parse(String, boolean)}
+   */
+  private Cidr4(final long parsed) {
+    final int netmask = getNetMask(Ip4Parser.maskBits(parsed));
+    final int network = getLowestBinaryWithNetmask(Ip4Parser.address(parsed), netmask);
+    this.low = network ^ Integer.MIN_VALUE;
+    this.high = getHighestBinaryWithNetmask(network, netmask) ^ Integer.MIN_VALUE;
+  }
+
+  /**
+   * @return the mask bits in the upper 32 bits and the binary address in the lower 32 bits
+   */
+  private static long parse(final String cidrNotation, final boolean acceptAddressWithoutRange) {
+    final long parsed = Ip4Parser.parse(cidrNotation, 0, cidrNotation.length(),
+        acceptAddressWithoutRange ? Ip4Parser.CIDR_OR_IP : Ip4Parser.CIDR);
+    if (parsed != Ip4Parser.INVALID) {
+      return parsed;
+    }
+
+    // Only invalid CIDRs get this far, to throw the same exceptions as always
+    final String slashNotation = (acceptAddressWithoutRange && !cidrNotation.contains("/"))
+        ? cidrNotation + "/32" : cidrNotation;
+    final Matcher matcher = cidrPattern.matcher(slashNotation);
+    if (matcher.matches()) {
+      final int address = toInteger(matchAddress(matcher), true);
+      final int maskBits = rangeCheck(Integer.parseInt(matcher.group(5)), 0, NBITS);
+      return ((long) maskBits << 32) | (address & 0xFFFFFFFFL);
+    }
+    throw new IllegalArgumentException("Could not parse [" + slashNotation + "]");
   }
 
   /**
@@ -0,0 +1,367 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.net;
+
+import static com.github.veqryn.net.Ips.rangeCheck;
+
+import java.io.Serializable;
+
+/**
+ * Light weight immutable CIDR IPv6 type, which implements hashCode, equals,
+ * Comparable, and Serializable. The network address is held in two
+ * primitive longs, alongside the number of mask bits.
+ *
+ * <pre>
+ * // Example usage:
+ * // Various ways to construct:
+ * Cidr6 myCIDR1 = new Cidr6("2001:db8::/32");
+ * // 2001:db8::1/128 (true = append /128 if missing)
+ * Cidr6 myCIDR2 = new Cidr6("2001:db8::1", true);
+ * Cidr6 myCIDR3 = new Cidr6(0x20010db8ffff0000L, 0L, 48); // 2001:db8:ffff::/48
+ * Cidr6 myCIDR4 = new Cidr6(myCIDR1); // 2001:db8::/32
+ * Cidr6 myCIDR5 = new Cidr6(myIP1); // 2001:db8::ff00:42:8329/128
+ * Cidr6 myCIDR6 = new Cidr6(myIP2, myIP3); // 2001:db8::ff00:42:8320/123
+ *
+ * System.out.println(myCIDR1.equals(myCIDR4)); // true
+ *
+ * // [2001:db8::/32, 2001:db8::1/128, 2001:db8:ffff::/48]
+ * SortedSet&lt;Cidr6&gt; sorted = new TreeSet&lt;Cidr6&gt;(
+ *     Arrays.asList(myCIDR1, myCIDR2, myCIDR3, myCIDR4));
+ *
+ * // 2001:db8:ffff::/48 creates a range of
+ * // "[2001:db8:ffff::--2001:db8:ffff:ffff:ffff:ffff:ffff:ffff]"
+ * System.out.println(myCIDR3.getAddressRange());
+ *
+ * System.out.println(myCIDR1.getMaskBits()); // 32
+ *
+ * System.out.println(myCIDR1.isInRange(myIP1)); // true
+ * System.out.println(myCIDR1.isInRange(myCIDR3)); // true
+ * </pre>
+ *
+ * @author Chris Duncan
+ */
+public final class Cidr6 implements Comparable<Cidr6>, Serializable {
+
+  private static final long serialVersionUID = 3361794633520549286L;
+
+  /** The number of bits in an IPv6 address */
+  protected static final int NBITS = 128;
+
+  private final long upper;
+  private final long lower;
+  private final int maskBits;
+
+  /**
+   * Constructor that takes a CIDR-notation string, e.g. "2001:db8::/32"
+   *
+   * @param cidrNotation A CIDR-notation string, e.g. "2001:db8::/32"
+   * @throws IllegalArgumentException if the parameter is invalid,
+   *         i.e. is not an IPv6 address followed by a slash and 1-3 decimal
+   *         digits in range 1-128
+   */
+  public Cidr6(final String cidrNotation) {
+    this(cidrNotation, false);
+  }
+
+  /**
+   * Constructor that takes a CIDR-notation string, e.g. "2001:db8::/32"
+   * Or an IPv6 address, e.g. "2001:db8::1"
+   *
+   * @param cidrNotation A CIDR-notation string, e.g. "2001:db8::/32"
+   *        ("2001:db8::1" accepted as if it was /128, if acceptAddressWithoutRange true)
+   * @param acceptAddressWithoutRange true if an address without a range
+   *        should be accepted
+   * @throws IllegalArgumentException if the parameter is invalid,
+   *         i.e. is not an IPv6 address followed by a slash and 1-3 decimal
+   *         digits in range 1-128
+   *         (if acceptAddressWithoutRange then an address alone is also accepted)
+   */
+  public Cidr6(final String cidrNotation, final boolean acceptAddressWithoutRange) {
+    final long[] address = new long[2];
+    final int slash = cidrNotation.lastIndexOf('/');
+    final int end = slash < 0 ? cidrNotation.length() : slash;
+    final int bits = slash < 0
+        ? (acceptAddressWithoutRange ? NBITS : -1)
+        : parseMaskBits(cidrNotation, slash + 1);
+    if (bits < 0 || !Ip6.parse(cidrNotation, 0, end, address)) {
+      throw new IllegalArgumentException("Could not parse [" + cidrNotation + "]");
+    }
+    this.maskBits = bits;
+    this.upper = address[0] & getNetMask(bits);
+    this.lower = address[1] & getNetMask(bits - 64);
+  }
+
+  /**
+   * @return the mask bits, or -1 if they are not 1-3 decimal digits from 1 to 128
+   */
+  private static int parseMaskBits(final String cidrNotation, final int start) {
+    final int digits = cidrNotation.length() - start;
+    if (digits < 1 || digits > 3) {
+      return -1;
+    }
+    int bits = 0;
+    for (int i = start; i < cidrNotation.length(); ++i) {
+      final char c = cidrNotation.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      bits = bits * 10 + (c - '0');
+    }
+    return bits > 0 && bits <= NBITS ? bits : -1;
+  }
+
+  /**
+   * Constructor that takes the address as two binary longs and the
+   * number of mask bits for the cidr range
+   *
+   * @param upper the upper (most significant) 64 bits of the address,
+   *        where 0 = 0:: and -1 = ffff:ffff:ffff:ffff::
+   * @param lower the lower (least significant) 64 bits of the address,
+   *        where 0 = ::0 and -1 = ::ffff:ffff:ffff:ffff
+   * @param maskBits e.g. 128 (any bits of the address after these are ignored)
+   */
+  public Cidr6(final long upper, final long lower, final int maskBits) {
+    this.maskBits = rangeCheck(maskBits, 0, NBITS);
+    this.upper = upper & getNetMask(maskBits);
+    this.lower = lower & getNetMask(maskBits - 64);
+  }
+
+  /**
+   * Constructor that makes a copy of the provided Cidr
+   *
+   * @param cidr Cidr
+   */
+  public Cidr6(final Cidr6 cidr) {
+    this.upper = cidr.upper;
+    this.lower = cidr.lower;
+    this.maskBits = cidr.maskBits;
+  }
+
+  /**
+   * Constructor that takes a single Ip value for a CIDR with range /128
+   *
+   * @param address Ip of the single address this CIDR represents
+   */
+  public Cidr6(final Ip6 address) {
+    this.upper = address.getUpperLong();
+    this.lower = address.getLowerLong();
+    this.maskBits = NBITS;
+  }
+
+  /**
+   * Constructor that takes the low and high Ip values of the CIDR range.
+   * If they are not the lowest and highest addresses of a single CIDR, the
+   * smallest CIDR containing them both is created.
+   *
+   * @param lowIp Low Ip of CIDR range
+   * @param highIp High Ip of CIDR range
+   * @throws IllegalArgumentException if lowIp is higher than highIp
+   */
+  public Cidr6(final Ip6 lowIp, final Ip6 highIp) {
+    if (lowIp.compareTo(highIp) > 0) {
+      throw new IllegalArgumentException("Low IP value must be <= High IP value");
+    }
+    this.maskBits = commonPrefixLength(lowIp.getUpperLong(), lowIp.getLowerLong(),
+        highIp.getUpperLong(), highIp.getLowerLong());
+    this.upper = lowIp.getUpperLong() & getNetMask(maskBits);
+    this.lower = lowIp.getLowerLong() & getNetMask(maskBits - 64);
+  }
+
+
+
+  /**
+   * @param bits the number of leading bits of a 64 bit word that are in the
+   *        netmask (may be less than 0 or more than 64)
+   * @return the netmask for that word
+   */
+  private static long getNetMask(final int bits) {
+    if (bits <= 0) {
+      return 0L;
+    }
+    return bits >= 64 ? -1L : -1L << (64 - bits);
+  }
+
+  /**
+   * @return the number of leading bits (from 0 to 128) two addresses have in common
+   */
+  private static int commonPrefixLength(final long upper1, final long lower1,
+      final long upper2, final long lower2) {
+    final long upperDiff = upper1 ^ upper2;
+    if (upperDiff != 0L) {
+      return Long.numberOfLeadingZeros(upperDiff);
+    }
+    return 64 + Long.numberOfLeadingZeros(lower1 ^ lower2);
+  }
+
+  /**
+   * @return String with the high to low addresses, e.g. [2001:db8::--2001:db8::ff]
+   */
+  public final String getAddressRange() {
+    final StringBuilder buf = new StringBuilder();
+    buf.append('[').append(getLowAddress()).append("--")
+        .append(getHighAddress()).append(']');
+    return buf.toString();
+  }
+
+  /**
+   * @return the upper (most significant) 64 bits of the network (lowest)
+   *         address of the CIDR range, as a binary long
+   */
+  public final long getUpperLong() {
+    return upper;
+  }
+
+  /**
+   * @return the lower (least significant) 64 bits of the network (lowest)
+   *         address of the CIDR range, as a binary long
+   */
+  public final long getLowerLong() {
+    return lower;
+  }
+
+  /**
+   * @return the Lowest IP address in the CIDR range, in canonical format
+   */
+  public final String getLowAddress() {
+    return Ip6.format(upper, lower);
+  }
+
+  /**
+   * @return a Ip equal to the lowest IP value in the CIDR range
+   */
+  public final Ip6 getLowIp() {
+    return new Ip6(upper, lower);
+  }
+
+  /**
+   * @return the Highest IP address in the CIDR range, in canonical format
+   */
+  public final String getHighAddress() {
+    return Ip6.format(upper | ~getNetMask(maskBits), lower | ~getNetMask(maskBits - 64));
+  }
+
+  /**
+   * @return a Ip equal to the highest IP value in the CIDR range
+   */
+  public final Ip6 getHighIp() {
+    return new Ip6(upper | ~getNetMask(maskBits), lower | ~getNetMask(maskBits - 64));
+  }
+
+  /**
+   * @param maskBits the maximum number of bits in the netmask (e.g. 128 - 1)
+   * @return A new Cidr representing the lowest cidr that has
+   *         no more than this many maskBits and contains our cidr range
+   *         e.g. 2001:db8:ffff::/48 -&gt; mask 32 -&gt; 2001:db8::/32
+   */
+  public final Cidr6 getLowestContainingCidr(final int maskBits) {
+    return new Cidr6(upper, lower, Math.min(this.maskBits, rangeCheck(maskBits, 0, NBITS)));
+  }
+
+  /**
+   * Get the number of mask bits for the Cidr range
+   *
+   * @return mask bit count (e.g. "2001:db8::/32" would return 32)
+   */
+  public final int getMaskBits() {
+    return maskBits;
+  }
+
+  /**
+   * @return CIDR string (e.g. "2001:db8::/32")
+   */
+  public final String getCidrSignature() {
+    return getLowAddress() + '/' + maskBits;
+  }
+
+  /**
+   * Check if the parameter <code>address</code> is within
+   * the range of our CIDR, inclusive
+   *
+   * @param address Ip
+   * @return true if the passed address is contained within of our range
+   */
+  public final boolean isInRange(final Ip6 address) {
+    return isInRange(address.getUpperLong(), address.getLowerLong());
+  }
+
+  /**
+   * Check if the parameter <code>address</code> is within
+   * the range of our CIDR, inclusive
+   *
+   * @param upper the upper 64 bits of the address, as a binary long
+   * @param lower the lower 64 bits of the address, as a binary long
+   * @return true if the passed address is contained within of our range
+   */
+  public final boolean isInRange(final long upper, final long lower) {
+    return ((upper ^ this.upper) & getNetMask(maskBits)) == 0L
+        && ((lower ^ this.lower) & getNetMask(maskBits - 64)) == 0L;
+  }
+
+  /**
+   * Check if the parameter <code>cidr</code> is within
+   * the range of our CIDR, inclusive
+   *
+   * @param cidr Cidr
+   * @return true if the passed cidr is equal to or contained within of our range
+   */
+  public final boolean isInRange(final Cidr6 cidr) {
+    return cidr.maskBits >= this.maskBits && isInRange(cidr.upper, cidr.lower);
+  }
+
+  @Override
+  public final int hashCode() {
+    return (31 * Long.hashCode(upper) + Long.hashCode(lower)) * 31 + maskBits;
+  }
+
+  @Override
+  public final boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (getClass() != obj.getClass()) {
+      return false;
+    }
+    final Cidr6 other = (Cidr6) obj;
+    if (upper != other.upper) {
+      return false;
+    }
+    if (lower != other.lower) {
+      return false;
+    }
+    if (maskBits != other.maskBits) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Given a cidr range, sort from lowest to highest starting IP,
+   * then from widest (fewest mask bits) to narrowest (most mask bits).
+   * This format is important to be able to generate subsets and submaps
+   * from a NavigableSet or NavigableMap.
+   */
+  @Override
+  public final int compareTo(final Cidr6 other) {
+    final int upperDiff = Long.compareUnsigned(this.upper, other.upper);
+    if (upperDiff != 0) {
+      return upperDiff;
+    }
+    final int lowerDiff = Long.compareUnsigned(this.lower, other.lower);
+    if (lowerDiff != 0) {
+      return lowerDiff;
+    }
+    return Integer.compare(this.maskBits, other.maskBits); // widest first
+  }
+
+  @Override
+  public final String toString() {
+    return this.getCidrSignature();
+  }
+
+}
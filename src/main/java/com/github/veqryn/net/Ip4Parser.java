@@ -0,0 +1,763 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.net;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Single-pass parser for IPv4 addresses in dotted decimal notation
+ * (e.g. "192.168.0.1") and CIDRs in slash notation (e.g. "192.168.0.0/16").
+ *
+ * <p>
+ * Unlike {@link Ip4#Ip4(String)} and {@link Cidr4#Cidr4(String)} before it,
+ * this does not use a regular expression, and creates no objects while
+ * parsing: addresses are returned as binary integers. Besides Strings, a
+ * range of any {@link CharSequence}, char array or (ASCII) byte array can
+ * be parsed in place, such as a field inside of a log line buffer.
+ *
+ * <p>
+ * For bulk parsing, such as enriching a memory-mapped log file against a
+ * {@link com.github.veqryn.collect.Cidr4Trie}, the tryParse methods return
+ * {@link #INVALID} instead of throwing an exception, the scan methods pass
+ * every delimiter-separated field of a byte array or {@link ByteBuffer} to a
+ * {@link FieldHandler}, and {@link #parseIp4Batch} fills an int array with
+ * the next batch of addresses. None of these create any objects.
+ *
+ * <p>
+ * The accepted format is the same as the {@link Ip4} and {@link Cidr4}
+ * constructors: four groups of 1 to 3 decimal digits from 0 to 255 separated
+ * by dots, followed for a CIDR by a slash and 1 to 3 decimal digits from
+ * 1 to 32. Nothing else, including whitespace, may be in the parsed range.
+ *
+ * <pre>
+ * // Example usage:
+ * int address = Ip4Parser.parseIp4("192.168.1.104"); // -1062731416
+ * int inPlace = Ip4Parser.parseIp4(logLine, start, end);
+ * Cidr4 cidr = Ip4Parser.parseCidr4(bytes, offset, length);
+ * String route = cidr4Trie.longestPrefixOfValue(address);
+ * </pre>
+ *
+ * @author Chris Duncan
+ */
+public final class Ip4Parser {
+
+  /**
+   * Returned by the tryParse methods when the input is not valid.
+   * Valid results have the mask bits in the upper 32 bits and the binary
+   * address in the lower 32 bits, so are never negative.
+   */
+  public static final long INVALID = -1L;
+
+  // What the internal parse methods accept after the address
+  static final int IP = 0; // nothing
+  static final int CIDR = 1; // a slash and mask bits
+  static final int CIDR_OR_IP = 2; // optionally a slash and mask bits, else /32
+
+  private Ip4Parser() {}
+
+
+
+  // IPv4 Address Methods:
+
+  /**
+   * @param address A dot-delimited IPv4 address, e.g. "192.168.0.1"
+   * @return binary integer of the address, where Integer.MIN_VALUE = 128.0.0.0
+   * @throws IllegalArgumentException if the address is not valid
+   */
+  public static int parseIp4(final CharSequence address) {
+    return parseIp4(address, 0, address.length());
+  }
+
+  /**
+   * @param chars characters containing a dot-delimited IPv4 address
+   * @param start index of the first character of the address
+   * @param end index after the last character of the address
+   * @return binary integer of the address, where Integer.MIN_VALUE = 128.0.0.0
+   * @throws IllegalArgumentException if the address is not valid
+   * @throws IndexOutOfBoundsException if the range is outside of the chars
+   */
+  public static int parseIp4(final CharSequence chars, final int start, final int end) {
+    checkRange(chars.length(), start, end);
+    return address(check(parse(chars, start, end, IP), chars, start, end));
+  }
+
+  /**
+   * @param chars characters containing a dot-delimited IPv4 address
+   * @param offset index of the first character of the address
+   * @param length number of characters in the address
+   * @return binary integer of the address, where Integer.MIN_VALUE = 128.0.0.0
+   * @throws IllegalArgumentException if the address is not valid
+   * @throws IndexOutOfBoundsException if the range is outside of the chars
+   */
+  public static int parseIp4(final char[] chars, final int offset, final int length) {
+    checkRange(chars.length, offset, offset + length);
+    return address(check(parse(chars, offset, offset + length, IP),
+        new String(chars, offset, length)));
+  }
+
+  /**
+   * @param bytes ASCII (or UTF-8, ISO-8859-1, etc) bytes containing a
+   *        dot-delimited IPv4 address
+   * @param offset index of the first byte of the address
+   * @param length number of bytes in the address
+   * @return binary integer of the address, where Integer.MIN_VALUE = 128.0.0.0
+   * @throws IllegalArgumentException if the address is not valid
+   * @throws IndexOutOfBoundsException if the range is outside of the bytes
+   */
+  public static int parseIp4(final byte[] bytes, final int offset, final int length) {
+    checkRange(bytes.length, offset, offset + length);
+    return address(check(parse(bytes, offset, offset + length, IP), bytes, offset, length));
+  }
+
+
+
+  // CIDR Methods:
+
+  /**
+   * @param cidrNotation A CIDR-notation string, e.g. "192.168.0.1/16"
+   * @return Cidr4
+   * @throws IllegalArgumentException if the CIDR is not valid
+   */
+  public static Cidr4 parseCidr4(final CharSequence cidrNotation) {
+    return parseCidr4(cidrNotation, 0, cidrNotation.length());
+  }
+
+  /**
+   * @param chars characters containing a CIDR, e.g. "192.168.0.1/16"
+   * @param start index of the first character of the CIDR
+   * @param end index after the last character of the CIDR
+   * @return Cidr4
+   * @throws IllegalArgumentException if the CIDR is not valid
+   * @throws IndexOutOfBoundsException if the range is outside of the chars
+   */
+  public static Cidr4 parseCidr4(final CharSequence chars, final int start, final int end) {
+    checkRange(chars.length(), start, end);
+    return cidr(check(parse(chars, start, end, CIDR), chars, start, end));
+  }
+
+  /**
+   * @param chars characters containing a CIDR, e.g. "192.168.0.1/16"
+   * @param offset index of the first character of the CIDR
+   * @param length number of characters in the CIDR
+   * @return Cidr4
+   * @throws IllegalArgumentException if the CIDR is not valid
+   * @throws IndexOutOfBoundsException if the range is outside of the chars
+   */
+  public static Cidr4 parseCidr4(final char[] chars, final int offset, final int length) {
+    checkRange(chars.length, offset, offset + length);
+    return cidr(check(parse(chars, offset, offset + length, CIDR),
+        new String(chars, offset, length)));
+  }
+
+  /**
+   * @param bytes ASCII (or UTF-8, ISO-8859-1, etc) bytes containing a CIDR,
+   *        e.g. "192.168.0.1/16"
+   * @param offset index of the first byte of the CIDR
+   * @param length number of bytes in the CIDR
+   * @return Cidr4
+   * @throws IllegalArgumentException if the CIDR is not valid
+   * @throws IndexOutOfBoundsException if the range is outside of the bytes
+   */
+  public static Cidr4 parseCidr4(final byte[] bytes, final int offset, final int length) {
+    checkRange(bytes.length, offset, offset + length);
+    return cidr(check(parse(bytes, offset, offset + length, CIDR), bytes, offset, length));
+  }
+
+
+
+  // Non-throwing Methods:
+
+  /**
+   * @param parsed a valid (not negative) result of one of the tryParse methods
+   * @return the binary integer address, where Integer.MIN_VALUE = 128.0.0.0
+   */
+  public static int address(final long parsed) {
+    return (int) parsed;
+  }
+
+  /**
+   * @param parsed a valid (not negative) result of one of the tryParse methods
+   * @return the number of mask bits, from 1 to 32 (always 32 for an address)
+   */
+  public static int maskBits(final long parsed) {
+    return (int) (parsed >>> 32);
+  }
+
+  /**
+   * Parses a dot-delimited IPv4 address, without throwing an exception if it
+   * is not valid.
+   *
+   * @param chars characters containing a dot-delimited IPv4 address
+   * @param start index of the first character of the address
+   * @param end index after the last character of the address
+   * @return {@link #INVALID} if the address is not valid, otherwise a value
+   *         holding the binary address (see {@link #address(long)})
+   * @throws IndexOutOfBoundsException if the range is outside of the chars
+   */
+  public static long tryParseIp4(final CharSequence chars, final int start, final int end) {
+    checkRange(chars.length(), start, end);
+    return parse(chars, start, end, IP);
+  }
+
+  /**
+   * Parses a dot-delimited IPv4 address, without throwing an exception if it
+   * is not valid.
+   *
+   * @param chars characters containing a dot-delimited IPv4 address
+   * @param offset index of the first character of the address
+   * @param length number of characters in the address
+   * @return {@link #INVALID} if the address is not valid, otherwise a value
+   *         holding the binary address (see {@link #address(long)})
+   * @throws IndexOutOfBoundsException if the range is outside of the chars
+   */
+  public static long tryParseIp4(final char[] chars, final int offset, final int length) {
+    checkRange(chars.length, offset, offset + length);
+    return parse(chars, offset, offset + length, IP);
+  }
+
+  /**
+   * Parses a dot-delimited IPv4 address, without throwing an exception if it
+   * is not valid.
+   *
+   * @param bytes ASCII bytes containing a dot-delimited IPv4 address
+   * @param offset index of the first byte of the address
+   * @param length number of bytes in the address
+   * @return {@link #INVALID} if the address is not valid, otherwise a value
+   *         holding the binary address (see {@link #address(long)})
+   * @throws IndexOutOfBoundsException if the range is outside of the bytes
+   */
+  public static long tryParseIp4(final byte[] bytes, final int offset, final int length) {
+    checkRange(bytes.length, offset, offset + length);
+    return parse(bytes, offset, offset + length, IP);
+  }
+
+  /**
+   * Parses a dot-delimited IPv4 address, without throwing an exception if it
+   * is not valid, and without changing the position of the buffer.
+   *
+   * @param buffer ASCII bytes containing a dot-delimited IPv4 address
+   * @param index absolute index of the first byte of the address
+   * @param length number of bytes in the address
+   * @return {@link #INVALID} if the address is not valid, otherwise a value
+   *         holding the binary address (see {@link #address(long)})
+   * @throws IndexOutOfBoundsException if the range is outside of the limit
+   */
+  public static long tryParseIp4(final ByteBuffer buffer, final int index, final int length) {
+    checkRange(buffer.limit(), index, index + length);
+    return parse(buffer, index, index + length, IP);
+  }
+
+  /**
+   * Parses a CIDR in slash notation, or a dot-delimited IPv4 address as a /32
+   * CIDR, without throwing an exception if it is not valid.
+   *
+   * @param chars characters containing a CIDR or IPv4 address
+   * @param start index of the first character of the CIDR
+   * @param end index after the last character of the CIDR
+   * @return {@link #INVALID} if the CIDR is not valid, otherwise a value
+   *         holding the binary address (see {@link #address(long)})
+   *         and mask bits (see {@link #maskBits(long)})
+   * @throws IndexOutOfBoundsException if the range is outside of the chars
+   */
+  public static long tryParseCidr4(final CharSequence chars, final int start, final int end) {
+    checkRange(chars.length(), start, end);
+    return parse(chars, start, end, CIDR_OR_IP);
+  }
+
+  /**
+   * Parses a CIDR in slash notation, or a dot-delimited IPv4 address as a /32
+   * CIDR, without throwing an exception if it is not valid.
+   *
+   * @param chars characters containing a CIDR or IPv4 address
+   * @param offset index of the first character of the CIDR
+   * @param length number of characters in the CIDR
+   * @return {@link #INVALID} if the CIDR is not valid, otherwise a value
+   *         holding the binary address (see {@link #address(long)})
+   *         and mask bits (see {@link #maskBits(long)})
+   * @throws IndexOutOfBoundsException if the range is outside of the chars
+   */
+  public static long tryParseCidr4(final char[] chars, final int offset, final int length) {
+    checkRange(chars.length, offset, offset + length);
+    return parse(chars, offset, offset + length, CIDR_OR_IP);
+  }
+
+  /**
+   * Parses a CIDR in slash notation, or a dot-delimited IPv4 address as a /32
+   * CIDR, without throwing an exception if it is not valid.
+   *
+   * @param bytes ASCII bytes containing a CIDR or IPv4 address
+   * @param offset index of the first byte of the CIDR
+   * @param length number of bytes in the CIDR
+   * @return {@link #INVALID} if the CIDR is not valid, otherwise a value
+   *         holding the binary address (see {@link #address(long)})
+   *         and mask bits (see {@link #maskBits(long)})
+   * @throws IndexOutOfBoundsException if the range is outside of the bytes
+   */
+  public static long tryParseCidr4(final byte[] bytes, final int offset, final int length) {
+    checkRange(bytes.length, offset, offset + length);
+    return parse(bytes, offset, offset + length, CIDR_OR_IP);
+  }
+
+  /**
+   * Parses a CIDR in slash notation, or a dot-delimited IPv4 address as a /32
+   * CIDR, without throwing an exception if it is not valid, and without
+   * changing the position of the buffer.
+   *
+   * @param buffer ASCII bytes containing a CIDR or IPv4 address
+   * @param index absolute index of the first byte of the CIDR
+   * @param length number of bytes in the CIDR
+   * @return {@link #INVALID} if the CIDR is not valid, otherwise a value
+   *         holding the binary address (see {@link #address(long)})
+   *         and mask bits (see {@link #maskBits(long)})
+   * @throws IndexOutOfBoundsException if the range is outside of the limit
+   */
+  public static long tryParseCidr4(final ByteBuffer buffer, final int index, final int length) {
+    checkRange(buffer.limit(), index, index + length);
+    return parse(buffer, index, index + length, CIDR_OR_IP);
+  }
+
+
+
+  // Bulk Methods:
+
+  /**
+   * Receives each field found by the scan methods, in order.
+   */
+  public interface FieldHandler {
+
+    /**
+     * Called for each valid field.
+     *
+     * @param address binary integer address, where Integer.MIN_VALUE = 128.0.0.0
+     * @param maskBits number of mask bits, from 1 to 32 (always 32 for an address)
+     * @param start index of the first byte of the field
+     * @param end index after the last byte of the field
+     */
+    void field(int address, int maskBits, int start, int end);
+
+    /**
+     * Called for each field that is not a valid address (or CIDR),
+     * including empty fields.
+     *
+     * @param start index of the first byte of the field
+     * @param end index after the last byte of the field
+     */
+    void invalidField(int start, int end);
+  }
+
+  /**
+   * Scans delimiter-separated fields from a range of ASCII bytes, parsing
+   * each one as an IPv4 address (or CIDR), and passing it to the handler.
+   * No objects are created, and invalid fields are passed to the handler
+   * instead of throwing an exception.
+   *
+   * @param bytes ASCII bytes, such as a line or block of a log file
+   * @param offset index of the first byte of the first field
+   * @param length number of bytes to scan (the last field ends here, or at
+   *        a delimiter in the last byte)
+   * @param delimiter byte separating the fields, e.g. ',' or '\n'
+   * @param cidrs false to accept only addresses, true to also accept CIDRs
+   * @param handler receives each field
+   * @return the number of fields found
+   * @throws IndexOutOfBoundsException if the range is outside of the bytes
+   */
+  public static int scan(final byte[] bytes, final int offset, final int length,
+      final byte delimiter, final boolean cidrs, final FieldHandler handler) {
+    checkRange(bytes.length, offset, offset + length);
+    final int mode = cidrs ? CIDR_OR_IP : IP;
+    final int end = offset + length;
+    int fields = 0;
+    for (int start = offset; start < end; ++fields) {
+      final int fieldEnd = indexOf(bytes, start, end, delimiter);
+      final long parsed = parse(bytes, start, fieldEnd, mode);
+      if (parsed == INVALID) {
+        handler.invalidField(start, fieldEnd);
+      } else {
+        handler.field(address(parsed), maskBits(parsed), start, fieldEnd);
+      }
+      start = fieldEnd + 1;
+    }
+    return fields;
+  }
+
+  /**
+   * Scans delimiter-separated fields from the position to the limit of a
+   * buffer of ASCII bytes, parsing each one as an IPv4 address (or CIDR),
+   * and passing it to the handler. No objects are created, and invalid
+   * fields are passed to the handler instead of throwing an exception.
+   * The last field ends at the limit, or at a delimiter just before the
+   * limit. Afterwards the position of the buffer is at its limit.
+   *
+   * @param buffer ASCII bytes, such as a memory-mapped log file
+   * @param delimiter byte separating the fields, e.g. ',' or '\n'
+   * @param cidrs false to accept only addresses, true to also accept CIDRs
+   * @param handler receives each field, with absolute buffer indexes
+   * @return the number of fields found
+   */
+  public static int scan(final ByteBuffer buffer, final byte delimiter, final boolean cidrs,
+      final FieldHandler handler) {
+    final int mode = cidrs ? CIDR_OR_IP : IP;
+    final int end = buffer.limit();
+    int fields = 0;
+    for (int start = buffer.position(); start < end; ++fields) {
+      final int fieldEnd = indexOf(buffer, start, end, delimiter);
+      final long parsed = parse(buffer, start, fieldEnd, mode);
+      if (parsed == INVALID) {
+        handler.invalidField(start, fieldEnd);
+      } else {
+        handler.field(address(parsed), maskBits(parsed), start, fieldEnd);
+      }
+      start = fieldEnd + 1;
+    }
+    buffer.position(end);
+    return fields;
+  }
+
+  /**
+   * Parses the next batch of delimiter-separated IPv4 address fields from
+   * the position of a buffer of ASCII bytes, into an array of binary
+   * addresses. No objects are created, and invalid fields are recorded
+   * instead of throwing an exception.
+   *
+   * <p>
+   * Up to <code>addresses.length</code> fields are parsed, and the position
+   * of the buffer is moved past the last field parsed (and its delimiter),
+   * so that calling again parses the next batch. The last field in the
+   * buffer ends at its limit, or at a delimiter just before its limit.
+   *
+   * <pre>
+   * // Example usage:
+   * int count;
+   * while ((count = Ip4Parser.parseIp4Batch(mapped, (byte) '\n', batch, invalid)) &gt; 0) {
+   *   for (int i = 0; i &lt; count; ++i) {
+   *     if (!invalid.get(i)) {
+   *       String route = cidr4Trie.longestPrefixOfValue(batch[i]);
+   *     }
+   *   }
+   * }
+   * </pre>
+   *
+   * @param buffer ASCII bytes, such as a memory-mapped log file
+   * @param delimiter byte separating the fields, e.g. ',' or '\n'
+   * @param addresses receives the binary address of each field, where
+   *        Integer.MIN_VALUE = 128.0.0.0 (0 for invalid fields)
+   * @param invalid if not null, is cleared and then receives the batch index
+   *        of each field that is not a valid address
+   * @return the number of fields parsed into the batch, or 0 if the buffer
+   *         has no bytes remaining
+   */
+  public static int parseIp4Batch(final ByteBuffer buffer, final byte delimiter,
+      final int[] addresses, final BitSet invalid) {
+    if (invalid != null) {
+      invalid.clear();
+    }
+    final int end = buffer.limit();
+    int start = buffer.position();
+    int count = 0;
+    while (count < addresses.length && start < end) {
+      final int fieldEnd = indexOf(buffer, start, end, delimiter);
+      final long parsed = parse(buffer, start, fieldEnd, IP);
+      if (parsed == INVALID) {
+        addresses[count] = 0;
+        if (invalid != null) {
+          invalid.set(count);
+        }
+      } else {
+        addresses[count] = address(parsed);
+      }
+      ++count;
+      start = fieldEnd + 1;
+    }
+    buffer.position(Math.min(start, end));
+    return count;
+  }
+
+
+
+  // Internal Methods:
+
+  private static int indexOf(final byte[] bytes, int index, final int end, final byte value) {
+    while (index < end && bytes[index] != value) {
+      ++index;
+    }
+    return index;
+  }
+
+  private static int indexOf(final ByteBuffer buffer, int index, final int end,
+      final byte value) {
+    while (index < end && buffer.get(index) != value) {
+      ++index;
+    }
+    return index;
+  }
+
+  private static Cidr4 cidr(final long parsed) {
+    return new Cidr4(address(parsed), maskBits(parsed));
+  }
+
+  private static long pack(final int address, final int maskBits) {
+    return ((long) maskBits << 32) | (address & 0xFFFFFFFFL);
+  }
+
+  private static void checkRange(final int arrayLength, final int start, final int end) {
+    if (start < 0 || end > arrayLength || start > end) {
+      throw new IndexOutOfBoundsException(
+          "Range [" + start + ", " + end + ") out of bounds for length " + arrayLength);
+    }
+  }
+
+  private static long check(final long parsed, final CharSequence chars,
+      final int start, final int end) {
+    if (parsed == INVALID) {
+      throw new IllegalArgumentException(
+          "Could not parse [" + chars.subSequence(start, end) + "]");
+    }
+    return parsed;
+  }
+
+  private static long check(final long parsed, final String input) {
+    if (parsed == INVALID) {
+      throw new IllegalArgumentException("Could not parse [" + input + "]");
+    }
+    return parsed;
+  }
+
+  private static long check(final long parsed, final byte[] bytes,
+      final int offset, final int length) {
+    if (parsed == INVALID) {
+      final char[] chars = new char[length];
+      for (int i = 0; i < length; ++i) {
+        chars[i] = (char) (bytes[offset + i] & 0xFF);
+      }
+      throw new IllegalArgumentException("Could not parse [" + new String(chars) + "]");
+    }
+    return parsed;
+  }
+
+  /**
+   * Parses the mask bits that follow the address, if any
+   *
+   * @param address the parsed binary address
+   * @param after the value of the character following the address, never
+   *        negative (bytes are read unsigned), or -1 if the address runs to
+   *        the end
+   * @param maskBits the parsed mask bits, or -1 if they were invalid
+   * @param mode IP, CIDR or CIDR_OR_IP
+   */
+  private static long finish(final int address, final int after, final int maskBits,
+      final int mode) {
+    if (after < 0) {
+      return mode == CIDR ? INVALID : pack(address, 32);
+    }
+    if (after != '/' || mode == IP || maskBits < 1 || maskBits > 32) {
+      return INVALID;
+    }
+    return pack(address, maskBits);
+  }
+
+  /**
+   * Parses an IPv4 address or CIDR from a range of characters
+   *
+   * @param mode IP, CIDR or CIDR_OR_IP
+   * @return the mask bits in the upper 32 bits and the binary address in the
+   *         lower 32 bits, or INVALID
+   */
+  static long parse(final CharSequence chars, final int start, final int end, final int mode) {
+    int address = 0;
+    int octet = 0;
+    int digits = 0;
+    int dots = 0;
+    int i = start;
+    for (; i < end; ++i) {
+      final int c = chars.charAt(i) - '0';
+      if (c >= 0 && c <= 9) {
+        if (++digits > 3) {
+          return INVALID;
+        }
+        octet = octet * 10 + c;
+      } else if (c == '.' - '0' && dots < 3 && digits > 0 && octet <= 255) {
+        address = (address << 8) | octet;
+        octet = 0;
+        digits = 0;
+        ++dots;
+      } else {
+        break;
+      }
+    }
+    if (dots < 3 || digits == 0 || octet > 255) {
+      return INVALID;
+    }
+    address = (address << 8) | octet;
+    if (i == end) {
+      return finish(address, -1, 0, mode);
+    }
+    final int slash = chars.charAt(i);
+    int maskBits = 0;
+    digits = 0;
+    while (++i < end) {
+      final int c = chars.charAt(i) - '0';
+      if (c < 0 || c > 9 || ++digits > 3) {
+        return INVALID;
+      }
+      maskBits = maskBits * 10 + c;
+    }
+    return finish(address, slash, digits == 0 ? -1 : maskBits, mode);
+  }
+
+  /**
+   * Parses an IPv4 address or CIDR from a range of characters
+   *
+   * @param mode IP, CIDR or CIDR_OR_IP
+   * @return the mask bits in the upper 32 bits and the binary address in the
+   *         lower 32 bits, or INVALID
+   */
+  static long parse(final char[] chars, final int start, final int end, final int mode) {
+    int address = 0;
+    int octet = 0;
+    int digits = 0;
+    int dots = 0;
+    int i = start;
+    for (; i < end; ++i) {
+      final int c = chars[i] - '0';
+      if (c >= 0 && c <= 9) {
+        if (++digits > 3) {
+          return INVALID;
+        }
+        octet = octet * 10 + c;
+      } else if (c == '.' - '0' && dots < 3 && digits > 0 && octet <= 255) {
+        address = (address << 8) | octet;
+        octet = 0;
+        digits = 0;
+        ++dots;
+      } else {
+        break;
+      }
+    }
+    if (dots < 3 || digits == 0 || octet > 255) {
+      return INVALID;
+    }
+    address = (address << 8) | octet;
+    if (i == end) {
+      return finish(address, -1, 0, mode);
+    }
+    final int slash = chars[i];
+    int maskBits = 0;
+    digits = 0;
+    while (++i < end) {
+      final int c = chars[i] - '0';
+      if (c < 0 || c > 9 || ++digits > 3) {
+        return INVALID;
+      }
+      maskBits = maskBits * 10 + c;
+    }
+    return finish(address, slash, digits == 0 ? -1 : maskBits, mode);
+  }
+
+  /**
+   * Parses an IPv4 address or CIDR from a range of ASCII bytes
+   *
+   * @param mode IP, CIDR or CIDR_OR_IP
+   * @return the mask bits in the upper 32 bits and the binary address in the
+   *         lower 32 bits, or INVALID
+   */
+  static long parse(final byte[] bytes, final int start, final int end, final int mode) {
+    int address = 0;
+    int octet = 0;
+    int digits = 0;
+    int dots = 0;
+    int i = start;
+    for (; i < end; ++i) {
+      final int c = (bytes[i] & 0xFF) - '0';
+      if (c >= 0 && c <= 9) {
+        if (++digits > 3) {
+          return INVALID;
+        }
+        octet = octet * 10 + c;
+      } else if (c == '.' - '0' && dots < 3 && digits > 0 && octet <= 255) {
+        address = (address << 8) | octet;
+        octet = 0;
+        digits = 0;
+        ++dots;
+      } else {
+        break;
+      }
+    }
+    if (dots < 3 || digits == 0 || octet > 255) {
+      return INVALID;
+    }
+    address = (address << 8) | octet;
+    if (i == end) {
+      return finish(address, -1, 0, mode);
+    }
+    final int slash = bytes[i] & 0xFF;
+    int maskBits = 0;
+    digits = 0;
+    while (++i < end) {
+      final int c = (bytes[i] & 0xFF) - '0';
+      if (c < 0 || c > 9 || ++digits > 3) {
+        return INVALID;
+      }
+      maskBits = maskBits * 10 + c;
+    }
+    return finish(address, slash, digits == 0 ? -1 : maskBits, mode);
+  }
+
+  /**
+   * Parses an IPv4 address or CIDR from a range of ASCII bytes in a buffer,
+   * using absolute indexes
+   *
+   * @param mode IP, CIDR or CIDR_OR_IP
+   * @return the mask bits in the upper 32 bits and the binary address in the
+   *         lower 32 bits, or INVALID
+   */
+  static long parse(final ByteBuffer buffer, final int start, final int end, final int mode) {
+    if (buffer.hasArray()) {
+      final int arrayOffset = buffer.arrayOffset();
+      return parse(buffer.array(), arrayOffset + start, arrayOffset + end, mode);
+    }
+    int address = 0;
+    int octet = 0;
+    int digits = 0;
+    int dots = 0;
+    int i = start;
+    for (; i < end; ++i) {
+      final int c = (buffer.get(i) & 0xFF) - '0';
+      if (c >= 0 && c <= 9) {
+        if (++digits > 3) {
+          return INVALID;
+        }
+        octet = octet * 10 + c;
+      } else if (c == '.' - '0' && dots < 3 && digits > 0 && octet <= 255) {
+        address = (address << 8) | octet;
+        octet = 0;
+        digits = 0;
+        ++dots;
+      } else {
+        break;
+      }
+    }
+    if (dots < 3 || digits == 0 || octet > 255) {
+      return INVALID;
+    }
+    address = (address << 8) | octet;
+    if (i == end) {
+      return finish(address, -1, 0, mode);
+    }
+    final int slash = buffer.get(i) & 0xFF;
+    int maskBits = 0;
+    digits = 0;
+    while (++i < end) {
+      final int c = (buffer.get(i) & 0xFF) - '0';
+      if (c < 0 || c > 9 || ++digits > 3) {
+        return INVALID;
+      }
+      maskBits = maskBits * 10 + c;
+    }
+    return finish(address, slash, digits == 0 ? -1 : maskBits, mode);
+  }
+
+}
@@ -0,0 +1,381 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.net;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Light weight immutable IPv6 type,
+ * which implements hashCode, equals, Comparable, and Serializable.
+ * The 128 bit address is held in two primitive longs.
+ *
+ * <pre>
+ * // Example usage:
+ * // Various ways to construct:
+ * Ip6 myIP1 = new Ip6("2001:db8::ff00:42:8329");
+ * Ip6 myIP2 = new Ip6("2001:0db8:0000:0000:0000:ff00:0042:8328");
+ * Ip6 myIP3 = new Ip6(0x20010db800000000L, 0x0000ff0000428330L);
+ * Ip6 myIP4 = new Ip6(myIP1);
+ *
+ * System.out.println(myIP1.equals(myIP2)); // false
+ *
+ * // [2001:db8::ff00:42:8328, 2001:db8::ff00:42:8329, 2001:db8::ff00:42:8330]
+ * System.out.println(new TreeSet&lt;Ip6&gt;(Arrays.asList(myIP1, myIP2, myIP3, myIP4)));
+ *
+ * System.out.println(myIP2.getAddress()); // "2001:db8::ff00:42:8328"
+ *
+ * Cidr6 orFewerMaskBits = myIP1.getLowestContainingCidr(64); // 2001:db8::/64
+ *
+ * Cidr6 slash128Cidr = myIP1.getCidr(); // 2001:db8::ff00:42:8329/128
+ *
+ * InetAddress inetAddress = myIP1.getInetAddress();
+ * </pre>
+ *
+ * @author Chris Duncan
+ */
+public final class Ip6 implements Comparable<Ip6>, Serializable {
+
+  private static final long serialVersionUID = -4311069473398284458L;
+
+  private final long upper;
+  private final long lower;
+
+  /**
+   * Constructor that takes a IPv6 string, e.g. "2001:db8::1"
+   *
+   * @param ipAddress A IPv6 string, e.g. "2001:db8::1"
+   * @throws IllegalArgumentException if the parameter is invalid,
+   *         i.e. is not eight groups of 1-4 hex digits separated by colons,
+   *         with at most one run of groups shortened to "::", and with
+   *         optionally the last two groups written as a dotted IPv4 address
+   */
+  public Ip6(final String ipAddress) {
+    final long[] address = new long[2];
+    if (!parse(ipAddress, 0, ipAddress.length(), address)) {
+      throw new IllegalArgumentException("Could not parse [" + ipAddress + "]");
+    }
+    upper = address[0];
+    lower = address[1];
+  }
+
+  /**
+   * Constructor that duplicates another Ip
+   *
+   * @param ip Ip
+   */
+  public Ip6(final Ip6 ip) {
+    upper = ip.upper;
+    lower = ip.lower;
+  }
+
+  /**
+   * Constructor that takes the address as two binary longs
+   *
+   * @param upper the upper (most significant) 64 bits of the address,
+   *        where 0 = 0:: and -1 = ffff:ffff:ffff:ffff::
+   * @param lower the lower (least significant) 64 bits of the address,
+   *        where 0 = ::0 and -1 = ::ffff:ffff:ffff:ffff
+   */
+  public Ip6(final long upper, final long lower) {
+    this.upper = upper;
+    this.lower = lower;
+  }
+
+
+
+  /**
+   * @return a binary long equal to the upper (most significant) 64 bits of
+   *         the address, where 0 = 0:: and -1 = ffff:ffff:ffff:ffff::
+   */
+  public final long getUpperLong() {
+    return upper;
+  }
+
+  /**
+   * @return a binary long equal to the lower (least significant) 64 bits of
+   *         the address, where 0 = ::0 and -1 = ::ffff:ffff:ffff:ffff
+   */
+  public final long getLowerLong() {
+    return lower;
+  }
+
+  /**
+   * @return the address in the canonical format of RFC 5952,
+   *         e.g. "2001:db8::1"
+   */
+  public final String getAddress() {
+    return format(upper, lower);
+  }
+
+  /**
+   * @return the address as a Cidr with /128 range
+   */
+  public final Cidr6 getCidr() {
+    return new Cidr6(this);
+  }
+
+  /**
+   * @param maskBits the maximum number of bits in the netmask (e.g. 128 - 1)
+   * @return A new Cidr representing the lowest cidr that has
+   *         no more than this many maskBits and contains our address
+   *         e.g. 2001:db8::1 -&gt; mask 32 -&gt; 2001:db8::/32
+   */
+  public final Cidr6 getLowestContainingCidr(final int maskBits) {
+    return new Cidr6(upper, lower, maskBits);
+  }
+
+  /**
+   * This method uses InetAddress.getByAddress, and so does not block.
+   *
+   * @return java.net.InetAddress representing this IPv6 address
+   * @throws UnknownHostException if not host found
+   */
+  public final InetAddress getInetAddress() throws UnknownHostException {
+    final byte[] bytes = new byte[16];
+    for (int i = 0; i < 8; ++i) {
+      bytes[i] = (byte) (upper >>> (56 - 8 * i));
+      bytes[i + 8] = (byte) (lower >>> (56 - 8 * i));
+    }
+    return InetAddress.getByAddress(bytes);
+  }
+
+  @Override
+  public final int hashCode() {
+    return 31 * Long.hashCode(upper) + Long.hashCode(lower);
+  }
+
+  @Override
+  public final boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (getClass() != obj.getClass()) {
+      return false;
+    }
+    final Ip6 other = (Ip6) obj;
+    if (upper != other.upper) {
+      return false;
+    }
+    if (lower != other.lower) {
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public final int compareTo(final Ip6 other) {
+    final int upperDiff = Long.compareUnsigned(this.upper, other.upper);
+    if (upperDiff != 0) {
+      return upperDiff;
+    }
+    return Long.compareUnsigned(this.lower, other.lower);
+  }
+
+  @Override
+  public final String toString() {
+    return getAddress();
+  }
+
+
+
+  /**
+   * Parse an IPv6 address from part of a String, without creating any
+   * objects.
+   *
+   * @param chars the characters to parse
+   * @param start index of the first character of the address
+   * @param end index after the last character of the address
+   * @param address array to write the upper and lower 64 bits of the
+   *        address to, at index 0 and 1
+   * @return true if the address was valid, false if not (in which case the
+   *         address array may have been changed)
+   */
+  static boolean parse(final CharSequence chars, final int start, final int end,
+      final long[] address) {
+
+    int i = start;
+    int groups = 0; // number of groups read
+    int gap = -1; // the group the "::" is in front of, if any
+    address[0] = 0L;
+    address[1] = 0L;
+
+    if (end - start >= 2 && chars.charAt(start) == ':') {
+      if (chars.charAt(start + 1) != ':') {
+        return false;
+      }
+      gap = 0;
+      i += 2;
+    }
+
+    while (i < end) {
+      final int groupStart = i;
+      int value = 0;
+      while (i < end && i - groupStart < 5) {
+        final int digit = hexDigit(chars.charAt(i));
+        if (digit < 0) {
+          break;
+        }
+        value = (value << 4) | digit;
+        ++i;
+      }
+
+      if (i < end && chars.charAt(i) == '.') {
+        // The last 32 bits written as a dotted IPv4 address
+        if (groups > 6) {
+          return false;
+        }
+        final long parsed = Ip4Parser.parse(chars, groupStart, end, Ip4Parser.IP);
+        if (parsed == Ip4Parser.INVALID) {
+          return false;
+        }
+        final int ip4 = Ip4Parser.address(parsed);
+        groups = addGroup(address, groups, ip4 >>> 16);
+        groups = addGroup(address, groups, ip4 & 0xFFFF);
+        break;
+      }
+
+      final int digits = i - groupStart;
+      if (digits == 0 || digits > 4 || groups == 8) {
+        return false;
+      }
+      groups = addGroup(address, groups, value);
+
+      if (i == end) {
+        break;
+      }
+      if (chars.charAt(i++) != ':' || i == end) {
+        return false;
+      }
+      if (chars.charAt(i) == ':') {
+        if (gap >= 0) {
+          return false;
+        }
+        gap = groups;
+        ++i;
+      }
+    }
+
+    if (gap < 0) {
+      return groups == 8;
+    }
+    if (groups > 7) {
+      return false;
+    }
+    // Move the groups after the "::" to the end, leaving zeros in between
+    shiftLeft(address, 16 * (8 - groups), 16 * (groups - gap));
+    return true;
+  }
+
+  /**
+   * @param c a character
+   * @return the value of the ASCII hex digit (0-9, a-f or A-F), or -1 if it
+   *         is not one (unlike Character.digit, which accepts other scripts)
+   */
+  private static int hexDigit(final char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+
+  /**
+   * Shift the 128 bit address left by a number of bits, leaving its lowest
+   * bits where they are
+   *
+   * @param address the upper and lower 64 bits of the address
+   * @param distance the number of bits to shift left by (0 to 128)
+   * @param keep the number of lowest bits to keep in place (0 to 128)
+   */
+  private static void shiftLeft(final long[] address, final int distance, final int keep) {
+    final long keptUpper = keep > 64 ? address[0] & (-1L >>> (128 - keep)) : 0L;
+    final long keptLower = keep >= 64 ? address[1] : address[1] & ~(-1L << keep);
+    final long movedUpper = address[0] ^ keptUpper;
+    final long movedLower = address[1] ^ keptLower;
+    final long shiftedUpper;
+    final long shiftedLower;
+    if (distance == 0) {
+      shiftedUpper = movedUpper;
+      shiftedLower = movedLower;
+    } else if (distance < 64) {
+      shiftedUpper = (movedUpper << distance) | (movedLower >>> (64 - distance));
+      shiftedLower = movedLower << distance;
+    } else if (distance < 128) {
+      shiftedUpper = movedLower << (distance - 64);
+      shiftedLower = 0L;
+    } else {
+      shiftedUpper = 0L;
+      shiftedLower = 0L;
+    }
+    address[0] = shiftedUpper | keptUpper;
+    address[1] = shiftedLower | keptLower;
+  }
+
+  /**
+   * @return the number of groups after adding this one to the lowest 16 bits
+   */
+  private static int addGroup(final long[] address, final int groups, final int value) {
+    address[0] = (address[0] << 16) | (address[1] >>> 48);
+    address[1] = (address[1] << 16) | value;
+    return groups + 1;
+  }
+
+  /**
+   * Format an IPv6 address in the canonical format of RFC 5952: lower case
+   * hex groups without leading zeros, with the longest run of two or more
+   * zero groups (the first, if tied) shortened to "::".
+   *
+   * @param upper the upper 64 bits of the address
+   * @param lower the lower 64 bits of the address
+   * @return the formatted address, e.g. "2001:db8::1"
+   */
+  static String format(final long upper, final long lower) {
+    final int[] groups = new int[8];
+    for (int i = 0; i < 4; ++i) {
+      groups[i] = (int) (upper >>> (48 - 16 * i)) & 0xFFFF;
+      groups[i + 4] = (int) (lower >>> (48 - 16 * i)) & 0xFFFF;
+    }
+
+    int gapStart = -1;
+    int gapLength = 1;
+    for (int i = 0; i < 8; ++i) {
+      int j = i;
+      while (j < 8 && groups[j] == 0) {
+        ++j;
+      }
+      if (j - i > gapLength) {
+        gapStart = i;
+        gapLength = j - i;
+      }
+      i = j;
+    }
+
+    final StringBuilder buf = new StringBuilder(39);
+    for (int i = 0; i < 8; ++i) {
+      if (i == gapStart) {
+        buf.append("::");
+        i += gapLength - 1;
+      } else {
+        if (i > 0 && i != gapStart + gapLength) {
+          buf.append(':');
+        }
+        buf.append(Integer.toHexString(groups[i]));
+      }
+    }
+    return buf.toString();
+  }
+
+}
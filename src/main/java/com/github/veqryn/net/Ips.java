@@ -33,6 +33,12 @@ final class Ips {
    * @return 32-bit integer value of this address
    */
   protected static final int toInteger(final String address, final boolean binary) {
+    final long parsed = Ip4Parser.parse(address, 0, address.length(), Ip4Parser.IP);
+    if (parsed != Ip4Parser.INVALID) {
+      final int binaryAddress = Ip4Parser.address(parsed);
+      return binary ? binaryAddress : binaryAddress ^ Integer.MIN_VALUE;
+    }
+    // Only invalid addresses get this far, to throw the same exceptions as always
     final Matcher matcher = addressPattern.matcher(address);
     if (matcher.matches()) {
       return toInteger(matchAddress(matcher), binary);
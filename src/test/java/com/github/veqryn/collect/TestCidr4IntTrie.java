@@ -0,0 +1,185 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.Ip4;
+import com.github.veqryn.util.TestingUtil;
+
+/**
+ * Tests for the Cidr4IntTrie class
+ *
+ * @author Chris Duncan
+ */
+public class TestCidr4IntTrie {
+
+  @Test
+  public void testSimple() {
+    final Cidr4IntTrie trie = new Cidr4IntTrie(-1);
+    assertTrue(trie.isEmpty());
+    assertEquals(-1, trie.getMissingValue());
+    assertEquals(-1, trie.put(new Cidr4("10.0.0.0/8"), 8));
+    assertEquals(-1, trie.put(new Cidr4("10.1.0.0/16"), 16));
+    assertEquals(-1, trie.put(new Cidr4("10.1.2.3/32"), 0));
+    assertEquals(-1, trie.put(new Cidr4("10.2.0.0/16"), 160));
+    assertEquals(160, trie.put(new Cidr4("10.2.0.0/16"), -1));
+    assertEquals(4, trie.size());
+
+    assertEquals(16, trie.getInt(new Cidr4("10.1.0.0/16")));
+    assertEquals(-1, trie.getInt(new Cidr4("10.1.0.0/17")));
+    assertEquals(0, trie.longestPrefixOfInt(new Ip4("10.1.2.3")));
+    assertEquals(16, trie.longestPrefixOfInt(new Ip4("10.1.2.4")));
+    assertEquals(8, trie.shortestPrefixOfInt(new Ip4("10.1.2.3")));
+    assertEquals(-1, trie.longestPrefixOfInt(new Ip4("11.0.0.1")));
+
+    // The missing value can be stored, and told apart from no value
+    assertEquals(-1, trie.longestPrefixOfInt(new Ip4("10.2.0.1")));
+    assertTrue(trie.containsKey(new Cidr4("10.2.0.0/16")));
+    assertTrue(trie.containsPrefixOf(new Ip4("10.2.0.1")));
+    assertFalse(trie.containsPrefixOf(new Ip4("11.0.0.1")));
+
+    assertEquals("{10.0.0.0/8=8, 10.1.0.0/16=16, 10.1.2.3/32=0, 10.2.0.0/16=-1}",
+        trie.toString());
+
+    final List<String> visited = new ArrayList<>();
+    trie.forEachPrefixOf(new Ip4("10.1.2.3").getBinaryInteger(),
+        (address, maskBits, value) -> visited.add(new Cidr4(address, maskBits) + "=" + value));
+    assertEquals("[10.0.0.0/8=8, 10.1.0.0/16=16, 10.1.2.3/32=0]", visited.toString());
+    visited.clear();
+    trie.forEachPrefixedBy(new Ip4("10.1.255.255").getBinaryInteger(), 16,
+        (address, maskBits, value) -> visited.add(new Cidr4(address, maskBits) + "=" + value));
+    assertEquals("[10.1.0.0/16=16, 10.1.2.3/32=0]", visited.toString());
+
+    assertEquals(16, trie.remove(new Cidr4("10.1.0.0/16")));
+    assertEquals(-1, trie.remove(new Cidr4("10.1.0.0/16")));
+    assertEquals(8, trie.longestPrefixOfInt(new Ip4("10.1.2.4")));
+    assertEquals(3, trie.size());
+
+    try {
+      trie.put(0, 0, 1);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+    try {
+      trie.getInt(0, 33);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+    try {
+      trie.put(null, 1);
+      fail("Expected a NullPointerException");
+    } catch (final NullPointerException e) {
+    }
+
+    trie.clear();
+    assertTrue(trie.isEmpty());
+    assertEquals("{}", trie.toString());
+  }
+
+  @Test
+  public void testAgainstCidr4Trie() throws ClassNotFoundException, IOException {
+    final Random random = new Random(42);
+    final Cidr4Trie<Integer> expected = new Cidr4Trie<>(true);
+    final Cidr4IntTrie trie = new Cidr4IntTrie();
+    for (int i = 0; i < 20000; ++i) {
+      final Cidr4 cidr = randomCidr(random);
+      final int value = random.nextInt();
+      final Integer previous = expected.put(cidr, value);
+      assertEquals(previous == null ? 0 : previous, trie.put(cidr, value));
+      if (i % 3 == 0) {
+        final Cidr4 removed = randomCidr(random);
+        final Integer removedValue = expected.remove(removed);
+        assertEquals(removedValue == null ? 0 : removedValue, trie.remove(removed));
+      }
+    }
+    assertEquals(expected.size(), trie.size());
+
+    // Same entries, in the same order
+    final List<Entry<Cidr4, Integer>> entries = new ArrayList<>();
+    trie.forEach((address, maskBits, value) -> entries.add(
+        new SimpleEntry<>(new Cidr4(address, maskBits), value)));
+    assertEquals(new ArrayList<>(expected.entrySet()), entries);
+    assertEquals(expected.toString(), trie.toString());
+
+    final List<Cidr4> keys = new ArrayList<>(expected.keySet());
+    for (int i = 0; i < 20000; ++i) {
+      final int address = i % 2 == 0 ? random.nextInt()
+          : keys.get(i % keys.size()).getLowBinaryInteger(true);
+      final Cidr4 cidr = new Cidr4(address, 32);
+      final Integer longest = expected.longestPrefixOfValue(cidr, true);
+      final Integer shortest = expected.shortestPrefixOfValue(cidr, true);
+      assertEquals(longest == null ? 0 : longest, trie.longestPrefixOfInt(address));
+      assertEquals(shortest == null ? 0 : shortest, trie.shortestPrefixOfInt(address));
+      assertEquals(longest != null, trie.containsPrefixOf(address));
+
+      final int maskBits = 1 + random.nextInt(32);
+      final Integer value = expected.get(new Cidr4(address, maskBits));
+      assertEquals(value == null ? 0 : value, trie.getInt(address, maskBits));
+      assertEquals(value != null, trie.containsKey(address, maskBits));
+
+      final List<Integer> prefixes = new ArrayList<>();
+      trie.forEachPrefixOf(address, (a, m, v) -> prefixes.add(v));
+      assertEquals(new ArrayList<>(expected.prefixOfValues(cidr, true)), prefixes);
+
+      final List<Integer> prefixed = new ArrayList<>();
+      trie.forEachPrefixedBy(address, maskBits, (a, m, v) -> prefixed.add(v));
+      final Cidr4 prefix = new Cidr4(address, maskBits);
+      assertEquals(new ArrayList<>(expected.prefixedByValues(prefix, true)), prefixed);
+    }
+
+    final Cidr4IntTrie copy = new Cidr4IntTrie(trie);
+    assertEquals(trie, copy);
+    assertEquals(trie.hashCode(), copy.hashCode());
+    assertEquals(trie, TestingUtil.unpickle(TestingUtil.pickle(trie), Cidr4IntTrie.class));
+    copy.put(new Cidr4("1.2.3.4/32"), 5);
+    assertNotEquals(trie, copy);
+    copy.trimToSize();
+    assertEquals(5, copy.getInt(new Cidr4("1.2.3.4/32")));
+
+    // Removing everything leaves only the root, and reuses the free nodes
+    for (final Cidr4 cidr : keys) {
+      trie.remove(cidr);
+    }
+    assertTrue(trie.isEmpty());
+    assertEquals(trie.nodes - 1, countFree(trie));
+    final int nodes = trie.nodes;
+    for (final Entry<Cidr4, Integer> entry : expected.entrySet()) {
+      trie.put(entry.getKey(), entry.getValue());
+    }
+    assertEquals(expected.toString(), trie.toString());
+    assertEquals(nodes, trie.nodes);
+  }
+
+  private static int countFree(final AbstractPrimitiveCidr4Trie trie) {
+    int free = 0;
+    for (int node = trie.free; node != AbstractPrimitiveCidr4Trie.NONE; node = trie.left[node]) {
+      ++free;
+    }
+    return free;
+  }
+
+  private static Cidr4 randomCidr(final Random random) {
+    // Mostly from a few shared prefixes, so that the trie branches deep down
+    final int address = random.nextBoolean() ? 0x0A000000 | random.nextInt(0x10000)
+        : random.nextInt();
+    return new Cidr4(address, 8 + random.nextInt(25));
+  }
+}
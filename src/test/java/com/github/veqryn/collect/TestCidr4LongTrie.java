@@ -0,0 +1,81 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.Ip4;
+import com.github.veqryn.util.TestingUtil;
+
+/**
+ * Tests for the Cidr4LongTrie class
+ *
+ * @author Chris Duncan
+ */
+public class TestCidr4LongTrie {
+
+  @Test
+  public void testSimple() {
+    final Cidr4LongTrie trie = new Cidr4LongTrie();
+    assertEquals(0L, trie.put(new Cidr4("192.168.0.0/16"), 1L << 40));
+    assertEquals(0L, trie.put(new Cidr4("192.168.1.0/24"), Long.MIN_VALUE));
+    assertEquals(1L << 40, trie.put(new Cidr4("192.168.0.0/16"), -1L));
+    assertEquals(2, trie.size());
+
+    assertEquals(Long.MIN_VALUE, trie.longestPrefixOfLong(new Ip4("192.168.1.1")));
+    assertEquals(-1L, trie.shortestPrefixOfLong(new Ip4("192.168.1.1")));
+    assertEquals(-1L, trie.getLong(new Cidr4("192.168.0.0/16")));
+    assertEquals(0L, trie.longestPrefixOfLong(new Ip4("10.0.0.1")));
+    assertFalse(trie.containsPrefixOf(new Ip4("10.0.0.1")));
+    assertEquals("{192.168.0.0/16=-1, 192.168.1.0/24=-9223372036854775808}", trie.toString());
+
+    final List<Long> values = new ArrayList<>();
+    trie.forEach((address, maskBits, value) -> values.add(value));
+    assertEquals("[-1, -9223372036854775808]", values.toString());
+
+    assertEquals(Long.MIN_VALUE, trie.remove(new Cidr4("192.168.1.0/24")));
+    assertEquals(-1L, trie.longestPrefixOfLong(new Ip4("192.168.1.1")));
+    assertTrue(trie.containsKey(new Cidr4("192.168.0.0/16")));
+  }
+
+  @Test
+  public void testAgainstCidr4Trie() throws ClassNotFoundException, IOException {
+    final Random random = new Random(42);
+    final Cidr4Trie<Long> expected = new Cidr4Trie<>(true);
+    final Cidr4LongTrie trie = new Cidr4LongTrie(-1L);
+    for (int i = 0; i < 10000; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+      final long value = random.nextLong();
+      final Long previous = expected.put(cidr, value);
+      assertEquals(previous == null ? -1L : previous, trie.put(cidr, value));
+      if (i % 3 == 0) {
+        final Long removed = expected.remove(cidr);
+        assertEquals(removed == null ? -1L : removed, trie.remove(cidr));
+      }
+    }
+    assertEquals(expected.size(), trie.size());
+    assertEquals(expected.toString(), trie.toString());
+
+    for (int i = 0; i < 10000; ++i) {
+      final int address = random.nextInt();
+      final Long longest = expected.longestPrefixOfValue(new Cidr4(address, 32), true);
+      assertEquals(longest == null ? -1L : longest, trie.longestPrefixOfLong(address));
+    }
+
+    assertEquals(trie, new Cidr4LongTrie(trie));
+    assertEquals(trie, TestingUtil.unpickle(TestingUtil.pickle(trie), Cidr4LongTrie.class));
+  }
+}
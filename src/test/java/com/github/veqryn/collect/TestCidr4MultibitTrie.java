@@ -0,0 +1,112 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.Ip4;
+import com.github.veqryn.net.TestUtil;
+
+/**
+ * Tests for the Cidr4MultibitTrie class
+ *
+ * @author Chris Duncan
+ */
+public class TestCidr4MultibitTrie {
+
+  private static final int[][] STRIDES = new int[][] {
+      {16, 8, 8},
+      {8, 8, 8, 8},
+      {20, 12},
+      {4, 4, 4, 4, 4, 4, 4, 4},
+      {1, 7, 5, 3, 8, 8},
+  };
+
+
+  @Test
+  public void testSimple() {
+
+    final Cidr4Trie<String> trie = new Cidr4Trie<>();
+    trie.put(new Cidr4("192.168.0.0/16"), "16");
+    trie.put(new Cidr4("192.168.20.16/28"), "28");
+    trie.put(new Cidr4("192.168.20.19/32"), "32");
+    trie.put(new Cidr4("10.0.0.0/7"), "7");
+
+    final Cidr4MultibitTrie<String> lookup = new Cidr4MultibitTrie<>(trie);
+    assertEquals(4, lookup.size());
+    assertFalse(lookup.isEmpty());
+    assertArrayEquals(new int[] {16, 8, 8}, lookup.getStrides());
+
+    assertEquals("28", lookup.longestPrefixOfValue(new Ip4("192.168.20.17")));
+    assertEquals("32", lookup.longestPrefixOfValue(new Ip4("192.168.20.19")));
+    assertEquals("16", lookup.longestPrefixOfValue(new Ip4("192.168.20.32")));
+    assertEquals("16", lookup.longestPrefixOfValue(new Ip4("192.168.255.255")));
+    assertEquals("7", lookup.longestPrefixOfValue(new Ip4("11.255.0.1")));
+    assertEquals(null, lookup.longestPrefixOfValue(new Ip4("12.0.0.0")));
+    assertTrue(lookup.containsPrefixOf(new Ip4("10.1.2.3").getBinaryInteger()));
+    assertFalse(lookup.containsPrefixOf(new Ip4("192.169.0.0").getBinaryInteger()));
+
+    final Cidr4MultibitTrie<String> empty = new Cidr4MultibitTrie<>(new Cidr4Trie<String>());
+    assertTrue(empty.isEmpty());
+    assertEquals(null, empty.longestPrefixOfValue(0));
+  }
+
+
+  @Test
+  public void testMatchesCidr4Trie() {
+
+    final Cidr4Trie<String> trie = new Cidr4Trie<>();
+    for (final Object[] cidr : TestUtil.cidrs) {
+      trie.put(new Cidr4((String) cidr[9]), (String) cidr[9]);
+    }
+    final Random random = new Random(7);
+    for (int i = 0; i < 2000; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+      trie.put(cidr, cidr.toString());
+    }
+
+    for (final int[] strides : STRIDES) {
+      final Cidr4MultibitTrie<String> lookup = new Cidr4MultibitTrie<>(trie, strides);
+      assertEquals(trie.size(), lookup.size());
+
+      for (final Object[] cidr : TestUtil.cidrs) {
+        final Cidr4 key = new Cidr4((String) cidr[9]);
+        for (final int address : new int[] {key.getLowBinaryInteger(true),
+            key.getHighBinaryInteger(true), key.getHighBinaryInteger(true) + 1}) {
+          assertEquals(trie.longestPrefixOfValue(address), lookup.longestPrefixOfValue(address));
+        }
+      }
+      for (int i = 0; i < 20000; ++i) {
+        final int address = random.nextInt();
+        assertEquals(trie.longestPrefixOfValue(address), lookup.longestPrefixOfValue(address));
+      }
+    }
+  }
+
+
+  @Test
+  public void testInvalidStrides() {
+
+    final Cidr4Trie<String> trie = new Cidr4Trie<>();
+    for (final int[] strides : new int[][] {{}, {16, 8}, {16, 8, 8, 1}, {8, 0, 24}, {32}}) {
+      try {
+        new Cidr4MultibitTrie<>(trie, strides);
+        fail("Expected an IllegalArgumentException");
+      } catch (final IllegalArgumentException e) {
+      }
+    }
+  }
+
+}
@@ -12,20 +12,32 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.Random;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
 import com.github.veqryn.collect.AbstractBinaryTrie.Node;
+import com.github.veqryn.collect.Cidr4Trie.Cidr4Codec;
 import com.github.veqryn.net.Cidr4;
 import com.github.veqryn.net.TestUtil;
 import com.github.veqryn.util.TestingUtil;
@@ -465,6 +477,62 @@ public class TestCidr4Trie {
   }
 
 
+  @Test
+  public void testCorruptSerialization() throws ClassNotFoundException, IOException {
+
+    // An empty trie is written as the format marker, size 0, 1 node, and 1 flags word
+    final byte[] empty = TestingUtil.pickle(new Cidr4Trie<String>());
+    final ByteBuffer header = ByteBuffer.allocate(24).putLong(-1L).putLong(0L).putLong(1L);
+    final int offset = indexOf(empty, header.array());
+    assertTrue(offset > 0);
+
+    long chain = 0L;
+    for (int i = 0; i < 21; ++i) {
+      chain |= 1L << (3 * i); // every node packed in the word has a left child
+    }
+    final long[][] corrupt = new long[][] {
+        {1L, chain}, // more nodes than the node count, and than the flags words hold
+        {1L, 1L}, // a child beyond the node count
+        {2L, 1L}, // a non-root leaf without a value
+        {1L, 4L}, // a root with a value
+        {2L, 0L}, // fewer nodes than the node count
+    };
+    for (final long[] nodeCountAndWord : corrupt) {
+      final byte[] bytes = empty.clone();
+      ByteBuffer.wrap(bytes, offset + 16, 16).putLong(nodeCountAndWord[0])
+          .putLong(nodeCountAndWord[1]);
+      try {
+        TestingUtil.unpickle(bytes, Cidr4Trie.class);
+        fail("Expected a StreamCorruptedException: " + Arrays.toString(nodeCountAndWord));
+      } catch (final StreamCorruptedException e) {
+      }
+    }
+
+    // A node count with more flags words than were written
+    final byte[] truncated = empty.clone();
+    ByteBuffer.wrap(truncated, offset + 16, 8).putLong(22L);
+    try {
+      TestingUtil.unpickle(truncated, Cidr4Trie.class);
+      fail("Expected an IOException");
+    } catch (final IOException e) {
+    }
+
+    assertEquals(new Cidr4Trie<String>(), TestingUtil.unpickle(empty, Cidr4Trie.class));
+  }
+
+  private static int indexOf(final byte[] bytes, final byte[] pattern) {
+    outer: for (int i = 0; i <= bytes.length - pattern.length; ++i) {
+      for (int j = 0; j < pattern.length; ++j) {
+        if (bytes[i + j] != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+
   @Test
   public void testClone() {
 
@@ -502,6 +570,860 @@ public class TestCidr4Trie {
   }
 
 
+  @Test
+  public void testCompressed() {
+
+    final NavigableMap<Cidr4, String> testMap = getTestCidrs();
+    final Cidr4Trie<String> uncompressed = new Cidr4Trie<>(testMap);
+    final Cidr4Trie<String> compressed = new Cidr4Trie<>(testMap, true);
+
+    assertEquals(testMap, compressed);
+    assertEquals(uncompressed, compressed);
+    assertEquals(compressed, uncompressed);
+    assertEquals(uncompressed.hashCode(), compressed.hashCode());
+    assertTrue(countNodes(compressed.root) < countNodes(uncompressed.root));
+
+    assertEquals(new ArrayList<>(uncompressed.keySet()), new ArrayList<>(compressed.keySet()));
+    assertEquals(new ArrayList<>(uncompressed.values()), new ArrayList<>(compressed.values()));
+
+    for (final Object[] cidrArray : TestUtil.cidrs) {
+      final Cidr4 cidr = new Cidr4((String) cidrArray[9]);
+      for (final boolean inclusive : new boolean[] {true, false}) {
+        assertEquals(uncompressed.longestPrefixOfValue(cidr, inclusive),
+            compressed.longestPrefixOfValue(cidr, inclusive));
+        assertEquals(uncompressed.shortestPrefixOfValue(cidr, inclusive),
+            compressed.shortestPrefixOfValue(cidr, inclusive));
+        assertArrayEquals(uncompressed.prefixOfValues(cidr, inclusive).toArray(),
+            compressed.prefixOfValues(cidr, inclusive).toArray());
+        assertArrayEquals(uncompressed.prefixedByValues(cidr, inclusive).toArray(),
+            compressed.prefixedByValues(cidr, inclusive).toArray());
+        assertEquals(uncompressed.prefixedByMap(cidr, inclusive),
+            compressed.prefixedByMap(cidr, inclusive));
+      }
+      // Search keys that end part way through a compressed node
+      final Cidr4 wider = cidr.getLowestContainingCidr(Math.max(1, cidr.getMaskBits() - 3));
+      assertEquals(uncompressed.get(wider), compressed.get(wider));
+      assertArrayEquals(uncompressed.prefixedByValues(wider, false).toArray(),
+          compressed.prefixedByValues(wider, false).toArray());
+    }
+
+    // Copies keep the compressed layout
+    final Cidr4Trie<String> copy = new Cidr4Trie<>(compressed);
+    assertEquals(compressed, copy);
+    assertEquals(countNodes(compressed.root), countNodes(copy.root));
+
+    // Removing everything (including through iterators) must leave only the root
+    final Iterator<Cidr4> iter = compressed.keySet().iterator();
+    int i = 0;
+    while (iter.hasNext()) {
+      final Cidr4 cidr = iter.next();
+      if (i++ % 2 == 0) {
+        iter.remove();
+        uncompressed.remove(cidr);
+        assertEquals(uncompressed, compressed);
+      }
+    }
+    for (final Cidr4 cidr : new ArrayList<>(compressed.keySet())) {
+      assertEquals(uncompressed.remove(cidr), compressed.remove(cidr));
+      assertEquals(uncompressed, compressed);
+    }
+    assertTrue(compressed.isEmpty());
+    assertEquals(1, countNodes(compressed.root));
+  }
+
+
+  @Test
+  public void testCompressedNodeLayout() {
+
+    final Cidr4Trie<String> trie = new Cidr4Trie<>(true);
+    final Cidr4 cidr1 = new Cidr4("192.168.1.104/32");
+    final Cidr4 cidr2 = new Cidr4("192.168.1.96/28");
+    final Cidr4 cidr3 = new Cidr4("192.168.0.0/24");
+
+    // A single CIDR is a single node under the root
+    trie.put(cidr1, "1");
+    assertEquals(2, countNodes(trie.root));
+
+    // A prefix of an existing CIDR splits its node
+    trie.put(cidr2, "2");
+    assertEquals(3, countNodes(trie.root));
+
+    // A diverging CIDR adds a branching node and a node for itself
+    trie.put(cidr3, "3");
+    assertEquals(5, countNodes(trie.root));
+    assertEquals("1", trie.get(cidr1));
+    assertEquals("2", trie.longestPrefixOfValue(new Cidr4("192.168.1.97/32"), true));
+    assertEquals(null, trie.longestPrefixOfValue(new Cidr4("192.168.2.0/32"), true));
+
+    // Removing the diverging CIDR merges the branching node back together
+    assertEquals("3", trie.remove(cidr3));
+    assertEquals(3, countNodes(trie.root));
+    assertEquals("2", trie.remove(cidr2));
+    assertEquals(2, countNodes(trie.root));
+    assertEquals(cidr1, trie.keySet().iterator().next());
+  }
+
+
+  @Test
+  public void testPrefixOfValueDescent() {
+
+    final NavigableMap<Cidr4, String> testMap = getTestCidrs();
+    for (final boolean compressed : new boolean[] {false, true}) {
+      final Cidr4Trie<String> trie = new Cidr4Trie<>(testMap, compressed);
+
+      for (final Object[] cidrArray : TestUtil.cidrs) {
+        final Cidr4 cidr = new Cidr4((String) cidrArray[9]);
+        final Cidr4 wider = cidr.getLowestContainingCidr(Math.max(1, cidr.getMaskBits() - 3));
+        for (final Cidr4 key : new Cidr4[] {cidr, wider}) {
+          for (final boolean inclusive : new boolean[] {true, false}) {
+            // The single descent must agree with walking the prefix iterator
+            final List<String> prefixes = new ArrayList<>(trie.prefixOfValues(key, inclusive));
+            assertEquals(prefixes.isEmpty() ? null : prefixes.get(prefixes.size() - 1),
+                trie.longestPrefixOfValue(key, inclusive));
+            assertEquals(prefixes.isEmpty() ? null : prefixes.get(0),
+                trie.shortestPrefixOfValue(key, inclusive));
+          }
+        }
+      }
+    }
+  }
+
+
+  @Test
+  public void testPrimitiveLookups() {
+
+    final NavigableMap<Cidr4, String> testMap = getTestCidrs();
+    for (final boolean compressed : new boolean[] {false, true}) {
+      final Cidr4Trie<String> trie = new Cidr4Trie<>(testMap, compressed);
+
+      for (final Object[] cidrArray : TestUtil.cidrs) {
+        final Cidr4 cidr = new Cidr4((String) cidrArray[9]);
+        final int address = cidr.getLowBinaryInteger(true);
+        final int maskBits = cidr.getMaskBits();
+        final Cidr4 ip = new Cidr4(address, 32);
+
+        assertEquals(trie.get(cidr), trie.get(address, maskBits));
+        assertEquals(trie.containsKey(cidr), trie.containsKey(address, maskBits));
+        // Bits after the mask are ignored
+        final int hostBits = maskBits == 32 ? 0 : -1 >>> maskBits;
+        assertEquals(trie.get(cidr), trie.get(address | hostBits, maskBits));
+
+        assertEquals(trie.longestPrefixOfValue(ip, true), trie.longestPrefixOfValue(address));
+        assertEquals(trie.shortestPrefixOfValue(ip, true), trie.shortestPrefixOfValue(address));
+        assertEquals(trie.longestPrefixOfValue(ip, true) != null,
+            trie.containsPrefixOf(address));
+      }
+    }
+
+    final Cidr4Trie<String> trie = new Cidr4Trie<>(true);
+    trie.put(new Cidr4("192.168.0.0/16"), "16");
+    trie.put(new Cidr4("192.168.1.96/28"), "28");
+    final int address = new Cidr4("192.168.1.97/32").getLowBinaryInteger(true);
+    assertEquals("28", trie.longestPrefixOfValue(address));
+    assertEquals("16", trie.shortestPrefixOfValue(address));
+    assertEquals("16", trie.get(address, 16));
+    assertEquals(null, trie.get(address, 24));
+    assertTrue(trie.containsPrefixOf(address));
+    assertFalse(trie.containsPrefixOf(new Cidr4("192.169.0.0/32").getLowBinaryInteger(true)));
+
+    try {
+      trie.get(address, 0);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+  }
+
+
+  @Test
+  public void testLongestPrefixOfValues() {
+
+    final NavigableMap<Cidr4, String> testMap = getTestCidrs();
+    final Random random = new Random(17);
+    for (int i = 0; i < 2000; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextInt(), 8 + random.nextInt(25));
+      testMap.put(cidr, cidr.toString());
+    }
+
+    // Addresses inside and near the CIDRs, unsorted, with duplicates
+    final int[] addresses = new int[10000];
+    final Cidr4[] keys = testMap.keySet().toArray(new Cidr4[0]);
+    for (int i = 0; i < addresses.length; ++i) {
+      final int low = keys[random.nextInt(keys.length)].getLowBinaryInteger(true);
+      addresses[i] = i % 7 == 0 ? random.nextInt() : low + random.nextInt(512) - 256;
+    }
+    addresses[1] = addresses[0];
+    addresses[2] = 0;
+    addresses[3] = -1;
+
+    for (final boolean compressed : new boolean[] {false, true}) {
+      final Cidr4Trie<String> trie = new Cidr4Trie<>(testMap, compressed);
+
+      final String[] values = new String[addresses.length];
+      int matched = 0;
+      for (int i = 0; i < addresses.length; ++i) {
+        values[i] = trie.longestPrefixOfValue(addresses[i]);
+        matched += values[i] == null ? 0 : 1;
+      }
+
+      final String[] batch = new String[addresses.length];
+      assertEquals(matched, trie.longestPrefixOfValues(addresses, 0, addresses.length, batch, 0));
+      assertArrayEquals(values, batch);
+
+      // Sub-ranges write only their own part of the values array
+      final String[] part = new String[110];
+      Arrays.fill(part, "untouched");
+      trie.longestPrefixOfValues(addresses, 500, 100, part, 5);
+      for (int i = 0; i < part.length; ++i) {
+        assertEquals(i < 5 || i >= 105 ? "untouched" : values[495 + i], part[i]);
+      }
+      assertEquals(0, trie.longestPrefixOfValues(addresses, 0, 0, part, part.length));
+    }
+
+    final Cidr4Trie<String> trie = new Cidr4Trie<>();
+    try {
+      trie.longestPrefixOfValues(addresses, 1, addresses.length, new String[addresses.length], 0);
+      fail("Expected an IndexOutOfBoundsException");
+    } catch (final IndexOutOfBoundsException e) {
+    }
+    try {
+      trie.longestPrefixOfValues(addresses, 0, 10, new String[10], 1);
+      fail("Expected an IndexOutOfBoundsException");
+    } catch (final IndexOutOfBoundsException e) {
+    }
+  }
+
+
+  @Test
+  public void testSpliterator() {
+
+    final NavigableMap<Cidr4, String> testMap = getTestCidrs();
+    final Random random = new Random(19);
+    for (int i = 0; i < 5000; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+      testMap.put(cidr, cidr.toString());
+    }
+
+    for (final boolean compressed : new boolean[] {false, true}) {
+      final Cidr4Trie<String> trie = new Cidr4Trie<>(testMap, compressed);
+
+      final Spliterator<Cidr4> keys = trie.keySet().spliterator();
+      assertTrue(keys.hasCharacteristics(Spliterator.SIZED | Spliterator.ORDERED
+          | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL));
+      assertEquals(trie.size(), keys.getExactSizeIfKnown());
+      assertEquals(trie.codec.comparator(), keys.getComparator());
+      // Sizes are only estimated once split
+      assertFalse(keys.trySplit().hasCharacteristics(Spliterator.SIZED));
+      assertFalse(keys.hasCharacteristics(Spliterator.SIZED));
+      assertTrue(trie.values().spliterator().hasCharacteristics(
+          Spliterator.SIZED | Spliterator.ORDERED | Spliterator.NONNULL));
+      assertTrue(trie.entrySet().spliterator().hasCharacteristics(
+          Spliterator.SIZED | Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL));
+
+      // Splitting recursively must cover every value once, in order
+      assertEquals(new ArrayList<>(trie.keySet()), splitAll(trie.keySet().spliterator()));
+      assertEquals(new ArrayList<>(trie.values()), splitAll(trie.values().spliterator()));
+      assertEquals(new ArrayList<>(trie.entrySet()), splitAll(trie.entrySet().spliterator()));
+
+      // Parallel streams
+      assertEquals(new ArrayList<>(trie.keySet()),
+          trie.keySet().parallelStream().collect(Collectors.toList()));
+      assertEquals(new ArrayList<>(trie.values()),
+          trie.values().parallelStream().collect(Collectors.toList()));
+      assertEquals(testMap, trie.entrySet().parallelStream()
+          .collect(Collectors.toMap(Entry::getKey, Entry::getValue)));
+
+      // Prefix views
+      for (final Object[] cidrArray : TestUtil.cidrs) {
+        final Cidr4 cidr = new Cidr4((String) cidrArray[9]);
+        final Cidr4 wider = cidr.getLowestContainingCidr(Math.max(1, cidr.getMaskBits() - 8));
+        for (final boolean inclusive : new boolean[] {true, false}) {
+          final Trie<Cidr4, String> prefixedBy = trie.prefixedByMap(wider, inclusive);
+          assertEquals(new ArrayList<>(prefixedBy.keySet()),
+              splitAll(prefixedBy.keySet().spliterator()));
+          assertEquals(new ArrayList<>(trie.prefixedByValues(wider, inclusive)),
+              splitAll(trie.prefixedByValues(wider, inclusive).spliterator()));
+          assertEquals(new ArrayList<>(prefixedBy.entrySet()),
+              prefixedBy.entrySet().parallelStream().collect(Collectors.toList()));
+
+          final Trie<Cidr4, String> prefixOf = trie.prefixOfMap(cidr, inclusive);
+          assertEquals(new ArrayList<>(prefixOf.keySet()),
+              prefixOf.keySet().parallelStream().collect(Collectors.toList()));
+          assertEquals(new ArrayList<>(trie.prefixOfValues(cidr, inclusive)),
+              splitAll(trie.prefixOfValues(cidr, inclusive).spliterator()));
+        }
+      }
+    }
+
+    final Cidr4Trie<String> trie = new Cidr4Trie<>();
+    assertEquals(null, trie.keySet().spliterator().trySplit());
+    assertEquals(0, trie.values().spliterator().getExactSizeIfKnown());
+    trie.put(new Cidr4("10.0.0.0/8"), "8");
+    final Spliterator<String> values = trie.values().spliterator();
+    trie.put(new Cidr4("10.0.0.0/16"), "16");
+    try {
+      values.tryAdvance(value -> {
+      });
+      fail("Expected a ConcurrentModificationException");
+    } catch (final ConcurrentModificationException e) {
+    }
+  }
+
+  /**
+   * @param spliterator the Spliterator to split as far as possible
+   * @return all values of the Spliterator and everything split from it, in order
+   */
+  private static <T> List<T> splitAll(final Spliterator<T> spliterator) {
+    final List<T> list = new ArrayList<>();
+    final Spliterator<T> prefix = spliterator.trySplit();
+    if (prefix != null) {
+      list.addAll(splitAll(prefix));
+      list.addAll(splitAll(spliterator));
+    } else {
+      spliterator.forEachRemaining(list::add);
+    }
+    return list;
+  }
+
+
+  @Test
+  public void testRecreateKeyFromPath() {
+
+    final Cidr4Codec codec = new Cidr4Codec();
+    // Only implements the BitSet method, so uses the default path method
+    final KeyCodec<Cidr4> bitSetCodec = new KeyCodec<Cidr4>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public int length(final Cidr4 key) {
+        return codec.length(key);
+      }
+
+      @Override
+      public boolean isLeft(final Cidr4 key, final int index) {
+        return codec.isLeft(key, index);
+      }
+
+      @Override
+      public Cidr4 recreateKey(final BitSet bits, final int numElements) {
+        return codec.recreateKey(bits, numElements);
+      }
+
+      @Override
+      public Comparator<? super Cidr4> comparator() {
+        return codec.comparator();
+      }
+    };
+
+    final Random random = new Random(23);
+    for (int i = 0; i < 1000; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+      // Elements after the key are undefined
+      final long[] elements = new long[] {((long) cidr.getLowBinaryInteger(true) << 32)
+          | (random.nextLong() & (-1L >>> cidr.getMaskBits()))};
+      assertEquals(cidr, codec.recreateKey(elements, cidr.getMaskBits()));
+      assertEquals(cidr, bitSetCodec.recreateKey(elements, cidr.getMaskBits()));
+    }
+  }
+
+
+  @Test
+  public void testCodecBits() {
+
+    final Cidr4Codec codec = new Cidr4Codec();
+    // Only implements isLeft, so uses the default element at a time bits method
+    final KeyCodec<Cidr4> isLeftCodec = new KeyCodec<Cidr4>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public int length(final Cidr4 key) {
+        return codec.length(key);
+      }
+
+      @Override
+      public boolean isLeft(final Cidr4 key, final int index) {
+        return codec.isLeft(key, index);
+      }
+
+      @Override
+      public Cidr4 recreateKey(final BitSet bits, final int numElements) {
+        return codec.recreateKey(bits, numElements);
+      }
+
+      @Override
+      public Comparator<? super Cidr4> comparator() {
+        return codec.comparator();
+      }
+    };
+
+    final Random random = new Random(31);
+    for (int i = 0; i < 1000; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+      final int fromIndex = random.nextInt(cidr.getMaskBits() + 1);
+      final int count = random.nextInt(cidr.getMaskBits() - fromIndex + 1);
+      assertEquals(isLeftCodec.bits(cidr, fromIndex, count), codec.bits(cidr, fromIndex, count));
+    }
+
+    // A trie using the default bits method must agree with one using the codec's own
+    final NavigableMap<Cidr4, String> testMap = getTestCidrs();
+    final Cidr4Trie<String> trie = new Cidr4Trie<>(testMap, true);
+    final AbstractBinaryTrie<Cidr4, String> isLeftTrie =
+        new AbstractBinaryTrie<>(isLeftCodec, testMap, true);
+    assertEquals(trie, isLeftTrie);
+    for (int i = 0; i < 1000; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+      assertEquals(trie.longestPrefixOfValue(cidr, true),
+          isLeftTrie.longestPrefixOfValue(cidr, true));
+      assertEquals(new ArrayList<>(trie.prefixOfValues(cidr, true)),
+          new ArrayList<>(isLeftTrie.prefixOfValues(cidr, true)));
+      assertEquals(new ArrayList<>(trie.prefixedByValues(cidr, true)),
+          new ArrayList<>(isLeftTrie.prefixedByValues(cidr, true)));
+    }
+  }
+
+
+  @Test
+  public void testStats() {
+
+    final Cidr4Trie<String> uncompressed = new Cidr4Trie<>();
+    final Cidr4Trie<String> compressed = new Cidr4Trie<>(true);
+    final Cidr4Trie<String> parentless = new Cidr4Trie<>(true, true, true);
+    for (final Cidr4Trie<String> trie : Arrays.asList(uncompressed, compressed, parentless)) {
+      trie.put(new Cidr4("10.0.0.0/8"), "8");
+      trie.put(new Cidr4("10.0.0.0/9"), "9");
+    }
+
+    // Root, then a chain of one node per bit
+    final TrieStats stats = uncompressed.stats();
+    assertEquals(10, stats.getNodeCount());
+    assertEquals(2, stats.getValueNodeCount());
+    assertEquals(8, stats.getEmptyNodeCount());
+    assertEquals(9, stats.getMaxDepth());
+    assertArrayEquals(new long[] {1, 1, 1, 1, 1, 1, 1, 1, 1, 1}, stats.getNodesAtDepth());
+    assertArrayEquals(new long[] {0, 0, 0, 0, 0, 0, 0, 0, 1, 1}, stats.getValuesAtDepth());
+    assertArrayEquals(new long[] {1, 9, 0}, stats.getFanOut());
+    assertEquals(0, stats.getSkippedElements());
+    assertEquals(10 * 32, stats.getEstimatedBytes());
+
+    // Root, then a node skipping 7 bits to the /8, then the /9
+    final TrieStats compressedStats = compressed.stats();
+    assertEquals(3, compressedStats.getNodeCount());
+    assertEquals(1, compressedStats.getEmptyNodeCount());
+    assertEquals(7, compressedStats.getSkippedElements());
+    assertEquals(9, compressedStats.getMaxDepth());
+    assertEquals(1, compressedStats.getNodesAtDepth()[8]);
+    assertArrayEquals(new long[] {1, 2, 0}, compressedStats.getFanOut());
+    // Compressed nodes hold the skip and bits ints, that other nodes do not
+    assertEquals(3 * 40, compressedStats.getEstimatedBytes());
+
+    final TrieStats parentlessStats = parentless.stats();
+    assertEquals(3, parentlessStats.getNodeCount());
+    assertEquals(3 * 32, parentlessStats.getEstimatedBytes());
+    assertEquals(0, parentlessStats.getCachedKeyCount());
+    assertEquals(0.0, parentlessStats.getKeyCacheFill(), 0.0);
+
+    // Keys are cached once they have been resolved
+    for (final Cidr4 cidr : uncompressed.keySet()) {
+      assertTrue(cidr.getMaskBits() > 0);
+    }
+    assertEquals(2, uncompressed.stats().getCachedKeyCount());
+    assertEquals(1.0, uncompressed.stats().getKeyCacheFill(), 0.0);
+
+    final Random random = new Random(37);
+    final Cidr4Trie<String> trie = new Cidr4Trie<>(true);
+    for (int i = 0; i < 10000; ++i) {
+      trie.put(new Cidr4(random.nextInt(), 1 + random.nextInt(32)), "");
+    }
+    final TrieStats randomStats = trie.stats();
+    assertEquals(trie.size(), randomStats.getValueNodeCount());
+    assertEquals(randomStats.getNodeCount(), sum(randomStats.getNodesAtDepth()));
+    assertEquals(randomStats.getValueNodeCount(), sum(randomStats.getValuesAtDepth()));
+    assertEquals(randomStats.getNodeCount(), sum(randomStats.getFanOut()));
+    // Every node but the root is the child of one other node
+    assertEquals(randomStats.getNodeCount() - 1,
+        randomStats.getFanOut()[1] + 2 * randomStats.getFanOut()[2]);
+    final TrieStats uncompressedStats = new Cidr4Trie<>(trie, false).stats();
+    assertEquals(randomStats.getValueNodeCount(), uncompressedStats.getValueNodeCount());
+    assertEquals(0, uncompressedStats.getSkippedElements());
+    assertTrue(uncompressedStats.getNodeCount() > 3 * randomStats.getNodeCount());
+
+    assertEquals(1, new Cidr4Trie<String>().stats().getNodeCount());
+  }
+
+  private static long sum(final long[] counts) {
+    long sum = 0;
+    for (final long count : counts) {
+      sum += count;
+    }
+    return sum;
+  }
+
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testKeyless() throws ClassNotFoundException, IOException {
+
+    final NavigableMap<Cidr4, String> testMap = getTestCidrs();
+    final Random random = new Random(29);
+    for (int i = 0; i < 5000; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+      testMap.put(cidr, cidr.toString());
+    }
+
+    for (final boolean compressed : new boolean[] {false, true}) {
+      final Cidr4Trie<String> keyed = new Cidr4Trie<>(compressed, false);
+      final Cidr4Trie<String> keyless = new Cidr4Trie<>(compressed, true);
+      keyed.putAll(testMap);
+      keyless.putAll(testMap);
+
+      assertFalse(keyed.keyless);
+      assertTrue(keyless.keyless);
+      assertTrue(keyed.root instanceof AbstractBinaryTrie.KeyedNode);
+      assertFalse(hasKeyedNode(keyless.root));
+
+      assertEquals(testMap, keyless);
+      assertEquals(keyless, testMap);
+      assertEquals(testMap.hashCode(), keyless.hashCode());
+      assertEquals(testMap.toString(), keyless.toString());
+      assertEquals(new ArrayList<>(testMap.keySet()), new ArrayList<>(keyless.keySet()));
+      assertEquals(new ArrayList<>(testMap.entrySet()), new ArrayList<>(keyless.entrySet()));
+      assertEquals(new ArrayList<>(testMap.keySet()),
+          keyless.keySet().parallelStream().collect(Collectors.toList()));
+      assertEquals(new ArrayList<>(testMap.entrySet()),
+          keyless.entrySet().parallelStream().collect(Collectors.toList()));
+
+      // Keys are cached by a keyed trie, but recreated every time by a keyless trie
+      assertEquals(testMap.firstKey(), keyless.keySet().iterator().next());
+      assertSame(keyed.keySet().iterator().next(), keyed.keySet().iterator().next());
+      assertFalse(keyless.keySet().iterator().next() == keyless.keySet().iterator().next());
+      assertFalse(hasKeyedNode(keyless.root));
+
+      for (final Cidr4 cidr : testMap.keySet()) {
+        final Cidr4 prefix = new Cidr4(cidr.getLowBinaryInteger(true),
+            Math.max(1, cidr.getMaskBits() - 4));
+        assertEquals(new ArrayList<>(keyed.prefixedByMap(prefix, true).keySet()),
+            new ArrayList<>(keyless.prefixedByMap(prefix, true).keySet()));
+        assertEquals(new ArrayList<>(keyed.prefixOfMap(cidr, true).entrySet()),
+            new ArrayList<>(keyless.prefixOfMap(cidr, true).entrySet()));
+      }
+
+      // The policy survives copying and serialization
+      final Cidr4Trie<String> copy = new Cidr4Trie<>(keyless);
+      assertTrue(copy.keyless);
+      assertFalse(hasKeyedNode(copy.root));
+      assertEquals(keyless, copy);
+      final Cidr4Trie<String> other =
+          TestingUtil.unpickle(TestingUtil.pickle(keyless), Cidr4Trie.class);
+      assertTrue(other.keyless);
+      assertFalse(hasKeyedNode(other.root));
+      assertEquals(keyless, other);
+      assertEquals(keyed, other);
+
+      // Removing everything through the views leaves an empty keyless trie
+      final Iterator<Cidr4> iter = keyless.keySet().iterator();
+      while (iter.hasNext()) {
+        iter.next();
+        iter.remove();
+      }
+      assertTrue(keyless.isEmpty());
+      assertEquals(1, countNodes(keyless.root));
+    }
+  }
+
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testParentless() throws ClassNotFoundException, IOException {
+
+    try {
+      new Cidr4Trie<String>(true, false, true);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+
+    final Random random = new Random(31);
+    for (final boolean compressed : new boolean[] {false, true}) {
+      final TreeMap<Cidr4, String> expected = new TreeMap<>();
+      final Cidr4Trie<String> linked = new Cidr4Trie<>(compressed);
+      final Cidr4Trie<String> parentless = new Cidr4Trie<>(compressed, true, true);
+      assertTrue(parentless.parentless);
+      assertTrue(parentless.keyless);
+
+      for (int round = 0; round < 20; ++round) {
+        // Few distinct addresses, so that keys share prefixes and compressed nodes split and merge
+        for (int i = 0; i < 300; ++i) {
+          final Cidr4 cidr = randomSharedCidr(random);
+          final String value = cidr.toString() + round;
+          final String oldValue = expected.put(cidr, value);
+          assertEquals(oldValue, linked.put(cidr, value));
+          assertEquals(oldValue, parentless.put(cidr, value));
+        }
+        for (int i = 0; i < 100; ++i) {
+          final Cidr4 cidr = randomSharedCidr(random);
+          final String value = expected.remove(cidr);
+          assertEquals(value, linked.remove(cidr));
+          assertEquals(value, parentless.remove(cidr));
+        }
+
+        // Remove through the iterators of the whole trie, and of a prefixed-by view
+        final int salt = random.nextInt();
+        removeByIterator(linked.keySet().iterator(), salt, expected);
+        removeByIterator(parentless.keySet().iterator(), salt, null);
+        final Cidr4 prefix = randomSharedCidr(random);
+        removeByIterator(linked.prefixedByMap(prefix, true).keySet().iterator(), salt + 1,
+            expected);
+        removeByIterator(parentless.prefixedByMap(prefix, true).keySet().iterator(), salt + 1,
+            null);
+        if (!expected.isEmpty()) {
+          final String value = expected.remove(expected.firstKey());
+          assertTrue(linked.values().remove(value));
+          assertTrue(parentless.values().remove(value));
+        }
+
+        assertEquals(expected, linked);
+        assertEquals(expected, parentless);
+        assertEquals(new ArrayList<>(expected.entrySet()),
+            new ArrayList<>(parentless.entrySet()));
+        assertEquals(expected.toString(), parentless.toString());
+        // The same operations in the same order give the same structure
+        assertTrue(AbstractBinaryTrie.compareAllNodes(linked.root, parentless.root));
+        assertTrue(hasConsistentParents(linked.root));
+        assertFalse(hasParents(parentless.root));
+      }
+
+      // A Node can not find its own key without its parents
+      try {
+        AbstractBinaryTrie.resolveKey(parentless.firstNode(), parentless);
+        fail("Expected an UnsupportedOperationException");
+      } catch (final UnsupportedOperationException e) {
+      }
+
+      // The layout survives copying and serialization
+      final Cidr4Trie<String> copy = new Cidr4Trie<>(parentless);
+      assertTrue(copy.parentless);
+      assertFalse(hasParents(copy.root));
+      assertEquals(expected, copy);
+      final Cidr4Trie<String> other =
+          TestingUtil.unpickle(TestingUtil.pickle(parentless), Cidr4Trie.class);
+      assertTrue(other.parentless);
+      assertFalse(hasParents(other.root));
+      assertEquals(expected, other);
+    }
+  }
+
+
+  @Test
+  public void testBuildSorted() {
+
+    final NavigableMap<Cidr4, String> sorted = getTestCidrs();
+    final Random random = new Random(13);
+    for (int i = 0; i < 5000; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+      sorted.put(cidr, cidr.toString());
+    }
+    final List<Entry<Cidr4, String>> shuffled = new ArrayList<>(sorted.entrySet());
+    Collections.shuffle(shuffled, random);
+
+    for (final boolean compressed : new boolean[] {false, true}) {
+      final Cidr4Trie<String> expected = new Cidr4Trie<>(compressed);
+      for (final Entry<Cidr4, String> entry : shuffled) {
+        expected.put(entry.getKey(), entry.getValue());
+      }
+
+      final Cidr4Trie<String> built = Cidr4Trie.buildSorted(sorted.entrySet().iterator(),
+          compressed);
+      assertEquals(sorted, built);
+      assertEquals(expected, built);
+      assertTrue(AbstractBinaryTrie.compareAllNodes(expected.root, built.root));
+
+      // Unsorted input is still inserted correctly
+      final Cidr4Trie<String> unsorted = Cidr4Trie.buildSorted(shuffled.iterator(), compressed);
+      assertEquals(expected, unsorted);
+      assertTrue(AbstractBinaryTrie.compareAllNodes(expected.root, unsorted.root));
+
+      // putAll of a sorted map, on top of existing entries, replacing some values
+      final Cidr4Trie<String> partial = new Cidr4Trie<>(compressed);
+      for (final Entry<Cidr4, String> entry : shuffled.subList(0, 1000)) {
+        partial.put(entry.getKey(), "old");
+      }
+      partial.putAll(sorted);
+      assertEquals(sorted.size(), partial.size());
+      assertEquals(expected, partial);
+      assertTrue(AbstractBinaryTrie.compareAllNodes(expected.root, partial.root));
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testCounted() throws ClassNotFoundException, IOException {
+
+    final Random random = new Random(31);
+    final NavigableMap<Cidr4, String> sorted = getTestCidrs();
+    for (int i = 0; i < 3000; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextBoolean() ? 0x0A000000 | random.nextInt(0x100000)
+          : random.nextInt(), 1 + random.nextInt(32));
+      sorted.put(cidr, cidr.toString());
+    }
+    final List<Cidr4> keys = new ArrayList<>(sorted.keySet());
+
+    for (final boolean[] layout : new boolean[][] {{false, false, false}, {true, false, false},
+        {true, true, false}, {true, true, true}}) {
+      final Cidr4Trie<String> trie = new Cidr4Trie<>(layout[0], layout[1], layout[2], true);
+      final Cidr4Trie<String> uncounted = new Cidr4Trie<>(layout[0], layout[1], layout[2]);
+      for (final Cidr4 cidr : keys) {
+        trie.put(cidr, cidr.toString());
+        uncounted.put(cidr, cidr.toString());
+      }
+      assertEquals(uncounted, trie);
+      assertEquals(trie.size(), countValues(trie.root));
+
+      // Removing some, from the trie, its views and their iterators
+      for (int i = 0; i < 300; ++i) {
+        final Cidr4 cidr = keys.get(random.nextInt(keys.size()));
+        trie.remove(cidr);
+        uncounted.remove(cidr);
+      }
+      final Cidr4 supernet = new Cidr4("10.0.0.0/12");
+      trie.prefixedByMap(supernet, true).keySet().remove(keys.get(keys.size() / 2));
+      uncounted.prefixedByMap(supernet, true).keySet().remove(keys.get(keys.size() / 2));
+      for (final Trie<Cidr4, String> t : Arrays.asList(trie, uncounted)) {
+        final Iterator<Cidr4> iter = t.prefixedByMap(supernet, false).keySet().iterator();
+        for (int i = 0; i < 10 && iter.hasNext(); ++i) {
+          iter.next();
+          if (i % 3 == 0) {
+            iter.remove();
+          }
+        }
+      }
+      assertEquals(uncounted, trie);
+      assertTrue(AbstractBinaryTrie.compareAllNodes(uncounted.root, trie.root));
+      assertCounts(trie.root);
+
+      // The sizes of views, with and without counts, equal the number iterated over
+      for (int i = 0; i < 500; ++i) {
+        final Cidr4 cidr = i % 2 == 0 ? keys.get(random.nextInt(keys.size()))
+            : new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+        final boolean inclusive = random.nextBoolean();
+        for (final Trie<Cidr4, String> t : Arrays.asList(trie, uncounted)) {
+          final Trie<Cidr4, String> by = t.prefixedByMap(cidr, inclusive);
+          assertEquals(iteratedSize(by.keySet()), by.size());
+          assertEquals(by.size(), t.prefixedByValues(cidr, inclusive).size());
+          assertEquals(by.size(), by.keySet().size());
+          assertEquals(by.size(), by.entrySet().size());
+          final Trie<Cidr4, String> of = t.prefixOfMap(cidr, inclusive);
+          assertEquals(iteratedSize(of.keySet()), of.size());
+          assertEquals(of.size(), t.prefixOfValues(cidr, inclusive).size());
+          assertEquals(of.size(), of.values().size());
+          if (cidr.getMaskBits() > 8) {
+            // Views restricted on both sides
+            final Trie<Cidr4, String> both = t.prefixedByMap(cidr.getLowestContainingCidr(8),
+                inclusive).prefixOfMap(cidr, inclusive);
+            assertEquals(iteratedSize(both.keySet()), both.size());
+          }
+        }
+        assertEquals(uncounted.prefixedByMap(cidr, inclusive).size(),
+            trie.prefixedByMap(cidr, inclusive).size());
+      }
+
+      // Copies and serialized tries are counted too
+      final Cidr4Trie<String> copy = new Cidr4Trie<>(trie);
+      assertCounts(copy.root);
+      final Cidr4Trie<String> unpickled =
+          TestingUtil.unpickle(TestingUtil.pickle(trie), Cidr4Trie.class);
+      assertCounts(unpickled.root);
+      assertEquals(trie, unpickled);
+      final Cidr4Trie<String> built = new Cidr4Trie<>(layout[0], layout[1], layout[2], true);
+      built.putAll(sorted);
+      assertCounts(built.root);
+      assertEquals(sorted.size(), built.root.subtreeCount());
+
+      trie.clear();
+      assertEquals(0, trie.prefixedByMap(supernet, true).size());
+      assertCounts(trie.root);
+    }
+  }
+
+
+  /**
+   * @param node the node to start counting from (usually root)
+   * @return the number of nodes, with or without values, under and including this node
+   */
+  private static int countNodes(final Node<?, ?> node) {
+    if (node == null) {
+      return 0;
+    }
+    return 1 + countNodes(node.left) + countNodes(node.right);
+  }
+
+
+  private static Cidr4 randomSharedCidr(final Random random) {
+    return new Cidr4(random.nextInt(64) << 26 | random.nextInt(256) << 8, 6 + random.nextInt(27));
+  }
+
+  private static void removeByIterator(final Iterator<Cidr4> iter, final int salt,
+      final NavigableMap<Cidr4, String> expected) {
+    while (iter.hasNext()) {
+      final Cidr4 cidr = iter.next();
+      if (((cidr.hashCode() ^ salt) & 3) == 0) {
+        iter.remove();
+        if (expected != null) {
+          expected.remove(cidr);
+        }
+      }
+    }
+  }
+
+  private static boolean hasConsistentParents(final Node<?, ?> node) {
+    if (node.left != null && (node.left.getParent() != node || !hasConsistentParents(node.left))) {
+      return false;
+    }
+    return node.right == null || (node.right.getParent() == node
+        && hasConsistentParents(node.right));
+  }
+
+  /**
+   * @param node the node to start counting from (usually root)
+   * @return the number of values under and including this node
+   */
+  private static int countValues(final Node<?, ?> node) {
+    if (node == null) {
+      return 0;
+    }
+    return (node.value != null ? 1 : 0) + countValues(node.left) + countValues(node.right);
+  }
+
+  private static void assertCounts(final Node<?, ?> node) {
+    if (node != null) {
+      assertEquals(countValues(node), node.subtreeCount());
+      assertCounts(node.left);
+      assertCounts(node.right);
+    }
+  }
+
+  private static int iteratedSize(final Iterable<?> iterable) {
+    int size = 0;
+    for (final Iterator<?> iter = iterable.iterator(); iter.hasNext(); iter.next()) {
+      ++size;
+    }
+    return size;
+  }
+
+  private static boolean hasParents(final Node<?, ?> node) {
+    if (node == null) {
+      return false;
+    }
+    return node instanceof AbstractBinaryTrie.LinkedNode || hasParents(node.left)
+        || hasParents(node.right);
+  }
+
+  private static boolean hasKeyedNode(final Node<?, ?> node) {
+    if (node == null) {
+      return false;
+    }
+    return node instanceof AbstractBinaryTrie.KeyedNode || hasKeyedNode(node.left)
+        || hasKeyedNode(node.right);
+  }
+
+
   /**
    * @return a NavigableMap containing our testing CIDR's
    */
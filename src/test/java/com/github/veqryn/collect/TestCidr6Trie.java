@@ -0,0 +1,225 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.github.veqryn.collect.Cidr6Trie.Cidr6Codec;
+import com.github.veqryn.net.Cidr6;
+import com.github.veqryn.net.Ip6;
+import com.github.veqryn.util.TestingUtil;
+
+/**
+ * Tests for the Cidr6Trie class
+ *
+ * @author Chris Duncan
+ */
+public class TestCidr6Trie {
+
+  @Test
+  public void testSimple() {
+    final Cidr6Trie<String> trie = new Cidr6Trie<>();
+    trie.put(new Cidr6("2001:db8::/32"), "32");
+    trie.put(new Cidr6("2001:db8:1::/48"), "48");
+    trie.put(new Cidr6("2001:db8:1::1/128"), "128");
+    trie.put(new Cidr6("8000::/1"), "1");
+
+    assertEquals(4, trie.size());
+    assertEquals("48", trie.get(new Cidr6("2001:db8:1::/48")));
+    assertNull(trie.get(new Cidr6("2001:db8:1::/47")));
+    assertEquals("128",
+        trie.longestPrefixOfValue(new Cidr6("2001:db8:1::1", true), true));
+    assertEquals("48", trie.longestPrefixOfValue(new Cidr6("2001:db8:1::2", true), true));
+    assertEquals("32", trie.shortestPrefixOfValue(new Cidr6("2001:db8:1::1", true), true));
+    assertEquals("[32, 48, 128, 1]", trie.values().toString());
+    assertEquals("{2001:db8:1::/48=48, 2001:db8:1::1/128=128}",
+        trie.prefixedByMap(new Cidr6("2001:db8:1::/48"), true).toString());
+
+    assertEquals("48", trie.remove(new Cidr6("2001:db8:1::/48")));
+    assertEquals("32", trie.longestPrefixOfValue(new Cidr6("2001:db8:1::2", true), true));
+    assertEquals("[32, 128, 1]", trie.values().toString());
+  }
+
+  @Test
+  public void testAgainstTreeMap() throws ClassNotFoundException, IOException {
+    final Random random = new Random(42);
+    final Cidr6Trie<Cidr6> trie = new Cidr6Trie<>();
+    final Cidr6Trie<Cidr6> parentless = new Cidr6Trie<>(true, true);
+    final TreeMap<Cidr6, Cidr6> expected = new TreeMap<>();
+    for (int i = 0; i < 5000; ++i) {
+      final Cidr6 cidr = randomCidr(random);
+      assertEquals(expected.put(cidr, cidr), trie.put(cidr, cidr));
+      parentless.put(cidr, cidr);
+      if (i % 4 == 0) {
+        final Cidr6 removed = randomCidr(random);
+        assertEquals(expected.remove(removed), trie.remove(removed));
+        parentless.remove(removed);
+      }
+    }
+
+    assertEquals(expected.size(), trie.size());
+    assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(trie.keySet()));
+    assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(parentless.keySet()));
+    assertEquals(expected, trie);
+    assertEquals(trie, parentless);
+    assertEquals(trie, new Cidr6Trie<>(trie));
+    assertEquals(trie, new Cidr6Trie<>(expected));
+    assertEquals(trie, Cidr6Trie.buildSorted(expected.entrySet().iterator()));
+    assertEquals(trie, TestingUtil.unpickle(TestingUtil.pickle(trie), Cidr6Trie.class));
+    assertEquals(trie, TestingUtil.unpickle(TestingUtil.pickle(parentless), Cidr6Trie.class));
+
+    for (final Entry<Cidr6, Cidr6> entry : trie.entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue());
+    }
+    for (final Entry<Cidr6, Cidr6> entry : parentless.entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Test
+  public void testPrimitiveLookups() {
+    final Random random = new Random(42);
+    final Cidr6Trie<Cidr6> trie = new Cidr6Trie<>();
+    final List<Cidr6> cidrs = new ArrayList<>();
+    for (int i = 0; i < 2000; ++i) {
+      final Cidr6 cidr = randomCidr(random);
+      trie.put(cidr, cidr);
+      cidrs.add(cidr);
+    }
+
+    for (int i = 0; i < 20000; ++i) {
+      // Addresses inside of the CIDRs, and a few random ones
+      final Cidr6 cidr = cidrs.get(random.nextInt(cidrs.size()));
+      final int hostBits = 128 - cidr.getMaskBits();
+      final long upper = i % 10 == 0 ? random.nextLong()
+          : cidr.getUpperLong() | randomBits(random, hostBits - 64);
+      final long lower = i % 10 == 0 ? random.nextLong()
+          : cidr.getLowerLong() | randomBits(random, hostBits);
+      final Cidr6 ip = new Ip6(upper, lower).getCidr();
+
+      assertEquals(trie.longestPrefixOfValue(ip, true), trie.longestPrefixOfValue(upper, lower));
+      assertEquals(trie.shortestPrefixOfValue(ip, true),
+          trie.shortestPrefixOfValue(upper, lower));
+      assertEquals(trie.longestPrefixOfValue(ip, true) != null,
+          trie.containsPrefixOf(upper, lower));
+      assertEquals(cidr, trie.get(cidr.getUpperLong(), cidr.getLowerLong(), cidr.getMaskBits()));
+      if (i % 10 != 0) {
+        assertTrue(cidr.isInRange(trie.longestPrefixOfValue(upper, lower)));
+        // Bits after the mask are ignored
+        assertEquals(cidr, trie.get(upper, lower, cidr.getMaskBits()));
+        assertTrue(trie.containsKey(upper, lower, cidr.getMaskBits()));
+      }
+    }
+
+    final Cidr6Trie<String> small = new Cidr6Trie<>();
+    small.put(new Cidr6("2001:db8::/32"), "32");
+    small.put(new Cidr6("2001:db8:0:0:8000::/65"), "65");
+    final Ip6 ip = new Ip6("2001:db8::8000:0:0:1");
+    assertEquals("65", small.longestPrefixOfValue(ip.getUpperLong(), ip.getLowerLong()));
+    assertEquals("32", small.shortestPrefixOfValue(ip.getUpperLong(), ip.getLowerLong()));
+    assertEquals("32", small.get(ip.getUpperLong(), ip.getLowerLong(), 32));
+    assertEquals(null, small.get(ip.getUpperLong(), ip.getLowerLong(), 64));
+    assertEquals("32", small.longestPrefixOfValue(ip.getUpperLong(), 1L));
+    assertFalse(small.containsPrefixOf(0L, 0L));
+
+    try {
+      small.get(0L, 0L, 0);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+    try {
+      small.get(0L, 0L, 129);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testCodec() {
+    final Cidr6Codec codec = new Cidr6Codec();
+    final Random random = new Random(42);
+    for (int i = 0; i < 1000; ++i) {
+      final Cidr6 cidr = randomCidr(random);
+      final int length = codec.length(cidr);
+      assertEquals(cidr.getMaskBits(), length);
+
+      final BitSet bits = new BitSet();
+      final long[] elements = new long[2];
+      for (int index = 0; index < length; ++index) {
+        if (!codec.isLeft(cidr, index)) {
+          bits.set(length - 1 - index);
+          elements[index >>> 6] |= 1L << (63 - (index & 63));
+        }
+      }
+      assertEquals(cidr, codec.recreateKey(bits, length));
+      assertEquals(cidr, codec.recreateKey(elements, length));
+
+      // Up to 64 elements at once, which may span the upper and lower longs
+      final int fromIndex = random.nextInt(length + 1);
+      final int count = random.nextInt(Math.min(64, length - fromIndex) + 1);
+      long expected = 0L;
+      for (int index = fromIndex; index < fromIndex + count; ++index) {
+        expected = (expected << 1) | (codec.isLeft(cidr, index) ? 0L : 1L);
+      }
+      assertEquals(expected, codec.bits(cidr, fromIndex, count));
+    }
+  }
+
+  @Test
+  public void testRemoveByIterator() {
+    final Random random = new Random(42);
+    final Cidr6Trie<Cidr6> trie = new Cidr6Trie<>(true, true);
+    final TreeMap<Cidr6, Cidr6> expected = new TreeMap<>();
+    for (int i = 0; i < 2000; ++i) {
+      final Cidr6 cidr = randomCidr(random);
+      trie.put(cidr, cidr);
+      expected.put(cidr, cidr);
+    }
+    final Iterator<Cidr6> iter = trie.keySet().iterator();
+    while (iter.hasNext()) {
+      final Cidr6 cidr = iter.next();
+      if (cidr.getMaskBits() % 3 == 0) {
+        iter.remove();
+        expected.remove(cidr);
+      }
+    }
+    assertEquals(expected, trie);
+  }
+
+  /**
+   * @return a long with up to 64 of its lowest bits random, and the rest 0
+   */
+  private static long randomBits(final Random random, final int bits) {
+    return bits <= 0 ? 0L : random.nextLong() >>> (64 - Math.min(64, bits));
+  }
+
+  /**
+   * @return a random CIDR, mostly from a few shared prefixes so that the
+   *         trie branches deep down, across the middle of the address
+   */
+  private static Cidr6 randomCidr(final Random random) {
+    final long upper = random.nextBoolean() ? 0x20010db800000000L | random.nextInt(4)
+        : random.nextLong();
+    final long lower = random.nextBoolean() ? random.nextInt(16) : random.nextLong();
+    final int maskBits = random.nextInt(4) == 0 ? 128 : 1 + random.nextInt(128);
+    return new Cidr6(upper, lower, maskBits);
+  }
+}
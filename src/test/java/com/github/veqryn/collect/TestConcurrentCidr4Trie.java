@@ -0,0 +1,279 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.TestUtil;
+import com.github.veqryn.util.TestingUtil;
+
+/**
+ * Tests for the ConcurrentCidr4Trie class
+ *
+ * @author Chris Duncan
+ */
+public class TestConcurrentCidr4Trie {
+
+  @Test
+  public void testMatchesCidr4Trie() {
+
+    final Cidr4Trie<String> trie = new Cidr4Trie<>();
+    final ConcurrentCidr4Trie<String> concurrent = new ConcurrentCidr4Trie<>();
+    final List<Cidr4> keys = new ArrayList<>();
+    for (final Object[] cidrArray : TestUtil.cidrs) {
+      keys.add(new Cidr4((String) cidrArray[9]));
+    }
+    final Random random = new Random(5);
+    for (int i = 0; i < 1000; ++i) {
+      keys.add(new Cidr4(random.nextInt(), 1 + random.nextInt(32)));
+    }
+
+    for (int i = 0; i < 5000; ++i) {
+      final Cidr4 key = keys.get(random.nextInt(keys.size()));
+      if (random.nextInt(3) == 0) {
+        assertEquals(trie.remove(key), concurrent.remove(key));
+      } else {
+        assertEquals(trie.put(key, "v" + i), concurrent.put(key, "v" + i));
+      }
+    }
+
+    assertEquals(trie.size(), concurrent.size());
+    assertEquals(trie, concurrent);
+    assertEquals(concurrent, trie);
+    assertEquals(trie.hashCode(), concurrent.hashCode());
+    assertEquals(new ArrayList<>(trie.keySet()), new ArrayList<>(concurrent.keySet()));
+
+    for (final Cidr4 cidr : keys) {
+      final Cidr4 wider = cidr.getLowestContainingCidr(Math.max(1, cidr.getMaskBits() - 3));
+      for (final Cidr4 key : new Cidr4[] {cidr, wider}) {
+        assertEquals(trie.get(key), concurrent.get(key));
+        assertEquals(trie.containsKey(key), concurrent.containsKey(key));
+        for (final boolean inclusive : new boolean[] {true, false}) {
+          assertEquals(trie.longestPrefixOfValue(key, inclusive),
+              concurrent.longestPrefixOfValue(key, inclusive));
+          assertEquals(trie.shortestPrefixOfValue(key, inclusive),
+              concurrent.shortestPrefixOfValue(key, inclusive));
+          assertEquals(new ArrayList<>(trie.prefixOfValues(key, inclusive)),
+              new ArrayList<>(concurrent.prefixOfValues(key, inclusive)));
+          assertEquals(new ArrayList<>(trie.prefixedByValues(key, inclusive)),
+              new ArrayList<>(concurrent.prefixedByValues(key, inclusive)));
+          assertEquals(trie.prefixOfMap(key, inclusive), concurrent.prefixOfMap(key, inclusive));
+          assertEquals(trie.prefixedByMap(key, inclusive),
+              concurrent.prefixedByMap(key, inclusive));
+          assertEquals(trie.prefixedByMap(key, inclusive).size(),
+              concurrent.prefixedByMap(key, inclusive).size());
+        }
+      }
+      final int address = cidr.getLowBinaryInteger(true);
+      assertEquals(trie.longestPrefixOfValue(address), concurrent.longestPrefixOfValue(address));
+      assertEquals(trie.shortestPrefixOfValue(address),
+          concurrent.shortestPrefixOfValue(address));
+      assertEquals(trie.get(address, cidr.getMaskBits()),
+          concurrent.get(address, cidr.getMaskBits()));
+    }
+
+    for (final Cidr4 key : keys) {
+      assertEquals(trie.remove(key), concurrent.remove(key));
+    }
+    assertTrue(concurrent.isEmpty());
+    assertFalse(concurrent.entrySet().iterator().hasNext());
+  }
+
+
+  @Test
+  public void testSnapshotIterators() {
+
+    final ConcurrentCidr4Trie<String> trie = new ConcurrentCidr4Trie<>();
+    trie.put(new Cidr4("10.0.0.0/8"), "8");
+    trie.put(new Cidr4("10.10.0.0/16"), "16");
+    trie.put(new Cidr4("10.10.10.0/24"), "24");
+
+    // Changes while iterating neither fail nor show up in the iterator
+    final Iterator<Entry<Cidr4, String>> iter = trie.entrySet().iterator();
+    assertEquals("8", iter.next().getValue());
+    trie.put(new Cidr4("10.10.10.10/32"), "32");
+    iter.remove();
+    assertEquals("16", iter.next().getValue());
+    assertEquals("24", iter.next().getValue());
+    assertFalse(iter.hasNext());
+
+    assertNull(trie.get(new Cidr4("10.0.0.0/8")));
+    assertEquals(3, trie.size());
+
+    // Entries write through
+    final Entry<Cidr4, String> entry = trie.entrySet().iterator().next();
+    assertEquals("16", entry.setValue("sixteen"));
+    assertEquals("sixteen", trie.get(new Cidr4("10.10.0.0/16")));
+
+    // The value replaced is returned, even if it changed after the snapshot
+    trie.put(new Cidr4("10.10.0.0/16"), "newer");
+    assertEquals("newer", entry.setValue("latest"));
+    assertEquals("latest", entry.getValue());
+    assertEquals("latest", trie.get(new Cidr4("10.10.0.0/16")));
+
+    try {
+      trie.put(new Cidr4("10.0.0.0/8"), null);
+      fail("Expected a NullPointerException");
+    } catch (final NullPointerException e) {
+    }
+    try {
+      trie.get(10, 33);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+  }
+
+
+  @Test
+  public void testPrefixViews() {
+
+    final ConcurrentCidr4Trie<String> trie = new ConcurrentCidr4Trie<>();
+    trie.put(new Cidr4("10.0.0.0/8"), "8");
+    trie.put(new Cidr4("10.10.0.0/16"), "16");
+    trie.put(new Cidr4("10.10.10.0/24"), "24");
+    trie.put(new Cidr4("10.20.0.0/16"), "20");
+
+    final Trie<Cidr4, String> by = trie.prefixedByMap(new Cidr4("10.0.0.0/8"), false);
+    final Trie<Cidr4, String> of = trie.prefixOfMap(new Cidr4("10.10.10.0/24"), true);
+    assertEquals(3, by.size());
+    assertEquals(3, of.size());
+    assertEquals("[8, 16, 24]", of.values().toString());
+
+    // Later changes to the trie show up in the views
+    trie.put(new Cidr4("10.10.10.10/32"), "32");
+    trie.put(new Cidr4("10.10.0.0/16"), "sixteen");
+    assertEquals(4, by.size());
+    assertEquals("sixteen", of.get(new Cidr4("10.10.0.0/16")));
+    assertNull(of.get(new Cidr4("10.10.10.10/32")));
+    assertFalse(by.containsKey(new Cidr4("10.0.0.0/8")));
+
+    // Puts and removes write through, and keys out of range are rejected
+    by.put(new Cidr4("10.30.0.0/16"), "30");
+    assertEquals("30", trie.get(new Cidr4("10.30.0.0/16")));
+    try {
+      by.put(new Cidr4("11.0.0.0/16"), "11");
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+    try {
+      by.put(new Cidr4("10.0.0.0/8"), "8");
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+    assertNull(by.remove(new Cidr4("10.0.0.0/8")));
+    assertEquals("8", trie.get(new Cidr4("10.0.0.0/8")));
+
+    final Iterator<String> iter = of.values().iterator();
+    assertEquals("8", iter.next());
+    iter.remove();
+    assertFalse(trie.containsKey(new Cidr4("10.0.0.0/8")));
+    assertEquals(2, of.size());
+
+    // Nested views combine their ranges
+    final Trie<Cidr4, String> nested = by.prefixedByMap(new Cidr4("10.10.0.0/16"), true)
+        .prefixOfMap(new Cidr4("10.10.10.0/24"), false);
+    assertEquals("[sixteen]", nested.values().toString());
+    try {
+      by.prefixOfMap(new Cidr4("11.0.0.0/8"), true);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+
+    by.prefixedByMap(new Cidr4("10.10.0.0/16"), true).clear();
+    assertEquals(2, trie.size());
+    assertEquals("20", trie.get(new Cidr4("10.20.0.0/16")));
+    assertEquals("30", trie.get(new Cidr4("10.30.0.0/16")));
+    by.clear();
+    assertTrue(by.isEmpty());
+    assertTrue(trie.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentReadersAndWriters() throws InterruptedException {
+
+    final ConcurrentCidr4Trie<Cidr4> trie = new ConcurrentCidr4Trie<>();
+    final Cidr4 always = new Cidr4("0.0.0.0/1");
+    final Cidr4 always2 = new Cidr4("128.0.0.0/1");
+    trie.put(always, always);
+    trie.put(always2, always2);
+
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; ++t) {
+      final int seed = t;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            final Random random = new Random(seed);
+            for (int i = 0; i < 20000; ++i) {
+              if (seed % 2 == 0) {
+                // writer: every CIDR written (unique to this thread) is removed again
+                final Cidr4 key = new Cidr4((random.nextInt() & ~3) | seed, 32);
+                assertNull(trie.put(key, key));
+                assertEquals(key, trie.remove(key));
+              } else {
+                // reader: every address is always covered by a /1
+                final int address = random.nextInt();
+                final Cidr4 found = trie.longestPrefixOfValue(address);
+                if (found == null || !found.equals(new Cidr4(address, found.getMaskBits()))) {
+                  throw new AssertionError("Bad lookup for " + address + ": " + found);
+                }
+                for (final Entry<Cidr4, Cidr4> entry : trie.entrySet()) {
+                  assertEquals(entry.getKey(), entry.getValue());
+                }
+              }
+            }
+          } catch (final Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    assertEquals(2, trie.size());
+    assertEquals(always, trie.get(always));
+  }
+
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSerialization() throws ClassNotFoundException, IOException {
+
+    final ConcurrentCidr4Trie<String> trie = new ConcurrentCidr4Trie<>();
+    for (final Object[] cidr : TestUtil.cidrs) {
+      trie.put(new Cidr4((String) cidr[9]), (String) cidr[9]);
+    }
+    final ConcurrentCidr4Trie<String> copy =
+        TestingUtil.unpickle(TestingUtil.pickle(trie), ConcurrentCidr4Trie.class);
+    assertEquals(trie, copy);
+    assertEquals(new ArrayList<>(trie.keySet()), new ArrayList<>(copy.keySet()));
+  }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.Cidr6;
+import com.github.veqryn.net.Ip4;
+import com.github.veqryn.net.Ip6;
+import com.github.veqryn.util.TestingUtil;
+
+/**
+ * Tests for the DualStackCidrTrie class
+ *
+ * @author Chris Duncan
+ */
+public class TestDualStackCidrTrie {
+
+  @Test
+  public void testSimple() throws IOException {
+    final DualStackCidrTrie<String> trie = new DualStackCidrTrie<>();
+    assertTrue(trie.isEmpty());
+    trie.put(new Cidr4("192.168.0.0/16"), "v4 16");
+    trie.put(new Cidr4("192.168.1.0/24"), "v4 24");
+    trie.put(new Cidr6("2001:db8::/32"), "v6 32");
+    trie.put(new Cidr6("::/64"), "v6 64");
+    assertEquals(4, trie.size());
+    assertEquals(2, trie.getCidr4Trie().size());
+    assertEquals(2, trie.getCidr6Trie().size());
+
+    assertEquals("v4 24", trie.longestPrefixOfValue(new Ip4("192.168.1.104")));
+    assertEquals("v4 16", trie.longestPrefixOfValue(new Ip4("192.168.2.1")));
+    assertNull(trie.longestPrefixOfValue(new Ip4("10.0.0.1")));
+    assertEquals("v6 32", trie.longestPrefixOfValue(new Ip6("2001:db8::1")));
+    assertNull(trie.longestPrefixOfValue(new Ip6("2001:db9::1")));
+
+    // IPv4-mapped addresses hit the IPv4 routes first, then IPv6 routes containing ::ffff:0:0/96
+    assertEquals("v4 24", trie.longestPrefixOfValue(new Ip6("::ffff:192.168.1.104")));
+    assertEquals("v6 64", trie.longestPrefixOfValue(new Ip6("::ffff:10.0.0.1")));
+    assertEquals("v6 64", trie.shortestPrefixOfValue(new Cidr6("::ffff:192.168.1.104/128"), true));
+    assertEquals("v4 16", trie.shortestPrefixOfValue(new Cidr4("192.168.1.104/32"), true));
+    assertEquals(Arrays.asList("v6 64", "v4 16", "v4 24"),
+        new ArrayList<>(trie.prefixOfValues(new Ip6("::ffff:192.168.1.104"))));
+    assertEquals(Arrays.asList("v4 16", "v4 24"),
+        new ArrayList<>(trie.prefixOfValues(new Ip4("192.168.1.104"))));
+    assertEquals(Arrays.asList("v6 32"),
+        new ArrayList<>(trie.prefixOfValues(new Ip6("2001:db8::1"))));
+
+    // Addresses as bytes, such as from InetAddress
+    assertEquals("v4 24",
+        trie.longestPrefixOfValue(InetAddress.getByName("192.168.1.104").getAddress()));
+    assertEquals("v6 32",
+        trie.longestPrefixOfValue(InetAddress.getByName("2001:db8::1").getAddress()));
+    assertEquals("v4 24", trie.longestPrefixOfValue(
+        new Ip6("::ffff:192.168.1.104").getInetAddress().getAddress()));
+    final byte[] mapped = new byte[16];
+    mapped[10] = (byte) 0xFF;
+    mapped[11] = (byte) 0xFF;
+    mapped[12] = (byte) 192;
+    mapped[13] = (byte) 168;
+    mapped[14] = (byte) 1;
+    assertEquals("v4 24", trie.longestPrefixOfValue(mapped));
+    try {
+      trie.longestPrefixOfValue(new byte[6]);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+
+    // IPv4-mapped CIDRs are stored as IPv4
+    assertEquals("v4 24", trie.put(new Cidr6("::ffff:192.168.1.0/120"), "mapped 24"));
+    assertEquals("mapped 24", trie.get(new Cidr4("192.168.1.0/24")));
+    assertEquals("mapped 24", trie.get(new Cidr6("::ffff:192.168.1.0/120")));
+    assertTrue(trie.containsKey(new Cidr6("::ffff:192.168.1.0/120")));
+    assertEquals(4, trie.size());
+    assertEquals("mapped 24", trie.remove(new Cidr6("::ffff:192.168.1.0/120")));
+    assertFalse(trie.containsKey(new Cidr4("192.168.1.0/24")));
+
+    // ::ffff:0:0/96 itself contains all of IPv4, so stays in the IPv6 trie
+    assertNull(trie.put(new Cidr6("::ffff:0:0/96"), "all v4"));
+    assertEquals(3, trie.getCidr6Trie().size());
+    assertEquals("all v4", trie.longestPrefixOfValue(new Ip6("::ffff:10.0.0.1")));
+    assertEquals("v4 16", trie.longestPrefixOfValue(new Ip6("::ffff:192.168.1.104")));
+
+    trie.clear();
+    assertTrue(trie.isEmpty());
+  }
+
+  @Test
+  public void testAgainstBruteForce() throws ClassNotFoundException, IOException {
+    final Random random = new Random(42);
+    final DualStackCidrTrie<String> trie = new DualStackCidrTrie<>();
+    final List<Cidr4> cidr4s = new ArrayList<>();
+    final List<Cidr6> cidr6s = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      final Cidr4 cidr4 = new Cidr4(0xC0A80000 | random.nextInt(0x10000), 8 + random.nextInt(25));
+      trie.put(cidr4, cidr4.toString());
+      cidr4s.add(cidr4);
+      final Cidr6 cidr6 = new Cidr6(random.nextInt(4), random.nextLong(), 1 + random.nextInt(96));
+      trie.put(cidr6, cidr6.toString());
+      cidr6s.add(cidr6);
+    }
+
+    for (int i = 0; i < 5000; ++i) {
+      final int ip4 = 0xC0A80000 | random.nextInt(0x10000);
+      final Ip6 mapped = new Ip6(0L, 0xFFFF00000000L | (ip4 & 0xFFFFFFFFL));
+      final Ip6 ip6 = new Ip6(random.nextInt(4), random.nextLong());
+
+      final String expected4 = bruteForceLongest4(cidr4s, ip4);
+      final String expected6 = bruteForceLongest6(cidr6s, ip6);
+      final String expectedMapped = expected4 != null ? expected4
+          : bruteForceLongest6(cidr6s, mapped);
+
+      assertEquals(expected4, trie.longestPrefixOfValue(ip4));
+      assertEquals(expected4, trie.longestPrefixOfValue(new Ip4(ip4)));
+      assertEquals(expectedMapped, trie.longestPrefixOfValue(mapped));
+      assertEquals(expectedMapped, trie.longestPrefixOfValue(mapped.getCidr(), true));
+      assertEquals(expected6, trie.longestPrefixOfValue(ip6));
+      assertEquals(expected6, trie.longestPrefixOfValue(ip6.getCidr(), true));
+    }
+
+    assertEquals(trie, TestingUtil.unpickle(TestingUtil.pickle(trie), DualStackCidrTrie.class));
+  }
+
+  private static String bruteForceLongest4(final List<Cidr4> cidrs, final int address) {
+    Cidr4 longest = null;
+    for (final Cidr4 cidr : cidrs) {
+      if (cidr.isInRange(new Ip4(address), true)
+          && (longest == null || cidr.getMaskBits() > longest.getMaskBits())) {
+        longest = cidr;
+      }
+    }
+    return longest == null ? null : longest.toString();
+  }
+
+  private static String bruteForceLongest6(final List<Cidr6> cidrs, final Ip6 address) {
+    Cidr6 longest = null;
+    for (final Cidr6 cidr : cidrs) {
+      if (cidr.isInRange(address)
+          && (longest == null || cidr.getMaskBits() > longest.getMaskBits())) {
+        longest = cidr;
+      }
+    }
+    return longest == null ? null : longest.toString();
+  }
+}
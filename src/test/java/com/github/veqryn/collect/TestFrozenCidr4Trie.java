@@ -0,0 +1,180 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.TestUtil;
+import com.github.veqryn.util.TestingUtil;
+
+/**
+ * Tests for the FrozenCidr4Trie class
+ *
+ * @author Chris Duncan
+ */
+public class TestFrozenCidr4Trie {
+
+  @Test
+  public void testMatchesCidr4Trie() {
+
+    for (final boolean compressed : new boolean[] {false, true}) {
+      final Cidr4Trie<String> trie = getTestTrie(compressed);
+      final FrozenCidr4Trie<String> frozen = trie.freeze();
+
+      assertEquals(trie.size(), frozen.size());
+      assertEquals(trie, frozen);
+      assertEquals(frozen, trie);
+      assertEquals(trie.hashCode(), frozen.hashCode());
+      assertEquals(new ArrayList<>(trie.keySet()), new ArrayList<>(frozen.keySet()));
+      assertEquals(new ArrayList<>(trie.values()), new ArrayList<>(frozen.values()));
+
+      for (final Object[] cidrArray : TestUtil.cidrs) {
+        final Cidr4 cidr = new Cidr4((String) cidrArray[9]);
+        final Cidr4 wider = cidr.getLowestContainingCidr(Math.max(1, cidr.getMaskBits() - 3));
+        for (final Cidr4 key : new Cidr4[] {cidr, wider}) {
+          assertEquals(trie.get(key), frozen.get(key));
+          assertEquals(trie.containsKey(key), frozen.containsKey(key));
+          for (final boolean inclusive : new boolean[] {true, false}) {
+            assertEquals(trie.longestPrefixOfValue(key, inclusive),
+                frozen.longestPrefixOfValue(key, inclusive));
+            assertEquals(trie.shortestPrefixOfValue(key, inclusive),
+                frozen.shortestPrefixOfValue(key, inclusive));
+            assertEquals(new ArrayList<>(trie.prefixOfValues(key, inclusive)),
+                new ArrayList<>(frozen.prefixOfValues(key, inclusive)));
+            assertEquals(new ArrayList<>(trie.prefixedByValues(key, inclusive)),
+                new ArrayList<>(frozen.prefixedByValues(key, inclusive)));
+            assertEquals(trie.prefixOfMap(key, inclusive), frozen.prefixOfMap(key, inclusive));
+            assertEquals(trie.prefixedByMap(key, inclusive),
+                frozen.prefixedByMap(key, inclusive));
+
+            final Trie<Cidr4, String> prefixedBy = trie.prefixedByMap(wider, true);
+            final Trie<Cidr4, String> frozenPrefixedBy = frozen.prefixedByMap(wider, true);
+            assertEquals(new ArrayList<>(prefixedBy.keySet()),
+                new ArrayList<>(frozenPrefixedBy.keySet()));
+            assertEquals(prefixedBy.get(cidr), frozenPrefixedBy.get(cidr));
+            assertEquals(prefixedBy.longestPrefixOfValue(cidr, inclusive),
+                frozenPrefixedBy.longestPrefixOfValue(cidr, inclusive));
+            assertEquals(prefixedBy.prefixedByMap(cidr, inclusive),
+                frozenPrefixedBy.prefixedByMap(cidr, inclusive));
+
+            final Trie<Cidr4, String> prefixOf = frozen.prefixOfMap(key, inclusive);
+            assertEquals(trie.shortestPrefixOfValue(key, inclusive),
+                prefixOf.shortestPrefixOfValue(key, true));
+            assertEquals(trie.longestPrefixOfValue(key, inclusive),
+                prefixOf.longestPrefixOfValue(key, true));
+          }
+        }
+
+        final int address = cidr.getLowBinaryInteger(true);
+        assertEquals(trie.longestPrefixOfValue(address), frozen.longestPrefixOfValue(address));
+        assertEquals(trie.shortestPrefixOfValue(address), frozen.shortestPrefixOfValue(address));
+        assertEquals(trie.containsPrefixOf(address), frozen.containsPrefixOf(address));
+        assertEquals(trie.get(address, cidr.getMaskBits()),
+            frozen.get(address, cidr.getMaskBits()));
+      }
+
+      final Random random = new Random(11);
+      for (int i = 0; i < 10000; ++i) {
+        final int address = random.nextInt();
+        assertEquals(trie.longestPrefixOfValue(address), frozen.longestPrefixOfValue(address));
+      }
+    }
+  }
+
+
+  @Test
+  public void testImmutable() {
+
+    final FrozenCidr4Trie<String> frozen = getTestTrie(false).freeze();
+    final Cidr4 cidr = frozen.keySet().iterator().next();
+
+    try {
+      frozen.put(cidr, "value");
+      fail("Expected an UnsupportedOperationException");
+    } catch (final UnsupportedOperationException e) {
+    }
+    try {
+      frozen.remove(cidr);
+      fail("Expected an UnsupportedOperationException");
+    } catch (final UnsupportedOperationException e) {
+    }
+    try {
+      frozen.clear();
+      fail("Expected an UnsupportedOperationException");
+    } catch (final UnsupportedOperationException e) {
+    }
+    try {
+      final Iterator<Entry<Cidr4, String>> iter = frozen.entrySet().iterator();
+      iter.next();
+      iter.remove();
+      fail("Expected an UnsupportedOperationException");
+    } catch (final UnsupportedOperationException e) {
+    }
+    try {
+      frozen.entrySet().iterator().next().setValue("value");
+      fail("Expected an UnsupportedOperationException");
+    } catch (final UnsupportedOperationException e) {
+    }
+    try {
+      frozen.prefixOfValues(cidr, true).clear();
+      fail("Expected an UnsupportedOperationException");
+    } catch (final UnsupportedOperationException e) {
+    }
+    assertTrue(frozen.containsKey(cidr));
+  }
+
+
+  @Test
+  public void testEmpty() {
+
+    final FrozenCidr4Trie<String> frozen = new Cidr4Trie<String>().freeze();
+    final Cidr4 cidr = new Cidr4("192.168.0.0/16");
+    assertTrue(frozen.isEmpty());
+    assertFalse(frozen.containsKey(cidr));
+    assertEquals(null, frozen.longestPrefixOfValue(cidr, true));
+    assertTrue(frozen.prefixedByValues(cidr, true).isEmpty());
+    assertFalse(frozen.entrySet().iterator().hasNext());
+  }
+
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSerialization() throws ClassNotFoundException, IOException {
+
+    final FrozenCidr4Trie<String> frozen = getTestTrie(true).freeze();
+    final FrozenCidr4Trie<String> copy =
+        TestingUtil.unpickle(TestingUtil.pickle(frozen), FrozenCidr4Trie.class);
+    assertEquals(frozen, copy);
+    assertEquals(new ArrayList<>(frozen.keySet()), new ArrayList<>(copy.keySet()));
+  }
+
+
+  private static Cidr4Trie<String> getTestTrie(final boolean compressed) {
+    final Cidr4Trie<String> trie = new Cidr4Trie<>(compressed);
+    for (final Object[] cidr : TestUtil.cidrs) {
+      trie.put(new Cidr4((String) cidr[9]), (String) cidr[9]);
+    }
+    final Random random = new Random(3);
+    for (int i = 0; i < 500; ++i) {
+      final Cidr4 cidr = new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+      trie.put(cidr, cidr.toString());
+    }
+    return trie;
+  }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.TestUtil;
+
+/**
+ * Tests for the OffHeapCidr4Trie class
+ *
+ * @author Chris Duncan
+ */
+public class TestOffHeapCidr4Trie {
+
+  @Test
+  public void testAllocateAndMap() throws IOException {
+
+    final Cidr4Trie<Long> trie = getTestTrie();
+    final File file = File.createTempFile("cidr4trie", ".bin");
+    file.deleteOnExit();
+    OffHeapCidr4Trie.write(trie, file);
+
+    for (final OffHeapCidr4Trie offHeap : new OffHeapCidr4Trie[] {
+        OffHeapCidr4Trie.allocate(trie), OffHeapCidr4Trie.map(file)}) {
+
+      assertEquals(trie.size(), offHeap.size());
+      assertEquals(trie, offHeap);
+      assertEquals(new ArrayList<>(trie.keySet()), new ArrayList<>(offHeap.keySet()));
+
+      for (final Object[] cidrArray : TestUtil.cidrs) {
+        final Cidr4 cidr = new Cidr4((String) cidrArray[9]);
+        final int address = cidr.getLowBinaryInteger(true);
+        for (final boolean inclusive : new boolean[] {true, false}) {
+          assertEquals(trie.longestPrefixOfValue(cidr, inclusive),
+              offHeap.longestPrefixOfValue(cidr, inclusive));
+          assertEquals(new ArrayList<>(trie.prefixOfValues(cidr, inclusive)),
+              new ArrayList<>(offHeap.prefixOfValues(cidr, inclusive)));
+          assertEquals(new ArrayList<>(trie.prefixedByValues(cidr, inclusive)),
+              new ArrayList<>(offHeap.prefixedByValues(cidr, inclusive)));
+          assertEquals(trie.prefixedByMap(cidr, inclusive),
+              offHeap.prefixedByMap(cidr, inclusive));
+        }
+        assertEquals(trie.get(cidr), offHeap.get(cidr));
+        assertEquals(handle(trie.get(cidr)), offHeap.getHandle(address, cidr.getMaskBits()));
+        assertEquals(handle(trie.shortestPrefixOfValue(address)),
+            offHeap.shortestPrefixOfHandle(address));
+      }
+
+      final Random random = new Random(5);
+      for (int i = 0; i < 10000; ++i) {
+        final int address = random.nextInt();
+        assertEquals(handle(trie.longestPrefixOfValue(address)),
+            offHeap.longestPrefixOfHandle(address));
+      }
+    }
+  }
+
+
+  @Test
+  public void testEmpty() throws IOException {
+
+    final File file = File.createTempFile("cidr4trie", ".bin");
+    file.deleteOnExit();
+    OffHeapCidr4Trie.write(new Cidr4Trie<Long>(), file);
+    final OffHeapCidr4Trie offHeap = OffHeapCidr4Trie.map(file);
+    assertTrue(offHeap.isEmpty());
+    assertEquals(OffHeapCidr4Trie.NO_VALUE, offHeap.longestPrefixOfHandle(0));
+  }
+
+
+  @Test
+  public void testInvalid() throws IOException {
+
+    final Cidr4Trie<Long> trie = new Cidr4Trie<>();
+    trie.put(new Cidr4("192.168.0.0/16"), -5L);
+    try {
+      OffHeapCidr4Trie.allocate(trie);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+
+    final File file = File.createTempFile("cidr4trie", ".bin");
+    file.deleteOnExit();
+
+    // A negative handle is found before the file is touched
+    OffHeapCidr4Trie.write(getTestTrie(), file);
+    final long length = file.length();
+    try {
+      OffHeapCidr4Trie.write(trie, file);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+    assertEquals(length, file.length());
+    assertEquals(getTestTrie(), OffHeapCidr4Trie.map(file));
+
+    // Child indexes must be within the file, after their parent
+    for (final int child : new int[] {1 << 20, 0, -2}) {
+      try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.seek(OffHeapCidr4Trie.HEADER_BYTES + OffHeapCidr4Trie.NODE_BYTES + 4);
+        raf.writeInt(child);
+      }
+      try {
+        OffHeapCidr4Trie.map(file);
+        fail("Expected an IOException: " + child);
+      } catch (final IOException e) {
+      }
+    }
+
+    try (final FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17});
+    }
+    try {
+      OffHeapCidr4Trie.map(file);
+      fail("Expected an IOException");
+    } catch (final IOException e) {
+    }
+  }
+
+
+  private static long handle(final Long value) {
+    return value == null ? OffHeapCidr4Trie.NO_VALUE : value;
+  }
+
+  private static Cidr4Trie<Long> getTestTrie() {
+    final Cidr4Trie<Long> trie = new Cidr4Trie<>();
+    long handle = 0;
+    for (final Object[] cidr : TestUtil.cidrs) {
+      trie.put(new Cidr4((String) cidr[9]), handle++);
+    }
+    final Random random = new Random(9);
+    for (int i = 0; i < 500; ++i) {
+      trie.put(new Cidr4(random.nextInt(), 1 + random.nextInt(32)), handle++);
+    }
+    return trie;
+  }
+
+}
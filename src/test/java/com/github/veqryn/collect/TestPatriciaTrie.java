@@ -11,19 +11,24 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.AbstractMap;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import org.junit.Test;
 
+import com.github.veqryn.collect.PatriciaTrie.PatriciaCodec;
 import com.github.veqryn.util.TestingUtil;
 
 /**
@@ -160,6 +165,106 @@ public class TestPatriciaTrie {
     assertTrue(trie2.keySet().isEmpty());
   }
 
+  @Test
+  public void testCompressedWords() {
+
+    final PatriciaTrie<String> trie1 = new PatriciaTrie<String>(true);
+    for (final String word : testWords) {
+      trie1.put(word, word);
+    }
+    final PatriciaTrie<String> trie2 = new PatriciaTrie<String>(trie1);
+
+    tryThisTrie(trie1);
+    tryThisTrie(trie2);
+
+    assertEquals(trie1, trie2);
+    assertEquals(new PatriciaTrie<String>(trie1), trie1);
+
+    // Long keys span multiple compressed nodes
+    final String longWord = "antidisestablishmentarianism";
+    trie1.put(longWord, longWord);
+    trie1.put("antidis", "antidis");
+    assertEquals(longWord, trie1.get(longWord));
+    assertEquals(null, trie1.get("antidises"));
+    assertEquals("antidis", trie1.longestPrefixOfValue("antidisestablish", true));
+    assertArrayEquals(new Object[] {"antidis", longWord},
+        trie1.prefixedByValues("antid", true).toArray());
+    assertEquals("antidis", trie1.remove("antidis"));
+    assertEquals(longWord, trie1.remove(longWord));
+    assertEquals(testWords.length - 1, trie1.size());
+  }
+
+  @Test
+  public void testIsLeftOnlyCodec() {
+
+    // Only implements isLeft, so the trie reads keys an element at a time
+    final PatriciaCodec codec = new PatriciaCodec();
+    final KeyCodec<String> isLeftCodec = new AbstractKeyCodec<String>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public int length(final String key) {
+        return codec.length(key);
+      }
+
+      @Override
+      public boolean isLeft(final String key, final int index) {
+        return codec.isLeft(key, index);
+      }
+
+      @Override
+      public String recreateKey(final BitSet bits, final int numElements) {
+        return codec.recreateKey(bits, numElements);
+      }
+    };
+
+    final AbstractBinaryTrie<String, String> trie1 =
+        new AbstractBinaryTrie<>(isLeftCodec, false);
+    final AbstractBinaryTrie<String, String> trie2 =
+        new AbstractBinaryTrie<>(isLeftCodec, true);
+    for (final String word : testWords) {
+      trie1.put(word, word);
+      trie2.put(word, word);
+    }
+    assertEquals(trie1, trie2);
+    tryThisTrie(trie1);
+    tryThisTrie(trie2);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSerialization() throws ClassNotFoundException, IOException {
+
+    for (final boolean compressed : new boolean[] {false, true}) {
+      final PatriciaTrie<String> trie = new PatriciaTrie<String>(compressed);
+      for (final String word : testWords) {
+        trie.put(word, word);
+      }
+      final PatriciaTrie<String> copy =
+          TestingUtil.unpickle(TestingUtil.pickle(trie), PatriciaTrie.class);
+      assertEquals(trie, copy);
+      assertArrayEquals(trie.keySet().toArray(), copy.keySet().toArray());
+      assertTrue(AbstractBinaryTrie.compareAllNodes(trie.root, copy.root));
+      tryThisTrie(copy);
+
+      final PatriciaTrie<String> empty =
+          TestingUtil.unpickle(TestingUtil.pickle(new PatriciaTrie<String>(compressed)),
+              PatriciaTrie.class);
+      assertTrue(empty.isEmpty());
+      assertEquals(null, empty.root.left);
+      assertEquals(null, empty.root.right);
+    }
+
+    // Tries serialized in the older (key-value pair) format can still be read
+    try (final ObjectInputStream in = new ObjectInputStream(getClass().getResourceAsStream(
+        "/data/test/PatriciaTrie.fullCollection.version1.obj"))) {
+      final PatriciaTrie<String> legacy = (PatriciaTrie<String>) in.readObject();
+      assertFalse(legacy.isEmpty());
+      assertEquals(legacy,
+          TestingUtil.unpickle(TestingUtil.pickle(legacy), PatriciaTrie.class));
+    }
+  }
+
   @Test
   public void testIndividualUnicodeCharacters() {
 
@@ -215,6 +320,57 @@ public class TestPatriciaTrie {
       assertEquals(expIter.next(), actIter.next());
     }
   }
-}
 
+  @Test
+  public void testCodecMatchesEncoding() {
+
+    final PatriciaCodec codec = new PatriciaCodec();
+    final Random random = new Random(42);
+    for (int n = 0; n < 1000; ++n) {
+      // Random chars, without surrogates, which can not be encoded on their own
+      final char[] chars = new char[1 + random.nextInt(20)];
+      for (int i = 0; i < chars.length; ++i) {
+        do {
+          chars[i] = (char) random.nextInt(0x10000);
+        } while (Character.isSurrogate(chars[i]));
+      }
+      final String key = new String(chars);
+      final byte[] bytes = key.getBytes(PatriciaCodec.CHARSET);
+      final int length = codec.length(key);
+      assertEquals(bytes.length * 8, length);
+
+      final BitSet bits = new BitSet();
+      final long[] elements = new long[(length + 63) / 64];
+      for (int i = 0; i < length; ++i) {
+        final boolean left = (bytes[i / 8] & (0x80 >>> (i % 8))) == 0;
+        assertEquals(left, codec.isLeft(key, i));
+        if (!left) {
+          bits.set(length - 1 - i);
+          elements[i >>> 6] |= 1L << (63 - (i & 63));
+        }
+      }
+      assertTrue(codec.isLeft(key, length));
+      assertEquals(key, codec.recreateKey(bits, length));
+      assertEquals(key, codec.recreateKey(elements, length));
+    }
+
+    // Up to 64 elements at once, which may span 5 chars
+    for (int n = 0; n < 1000; ++n) {
+      final String key = testWords[random.nextInt(testWords.length)] + (char) random.nextInt();
+      final int length = codec.length(key);
+      final int fromIndex = random.nextInt(length + 1);
+      final int count = random.nextInt(Math.min(64, length - fromIndex) + 1);
+      long expected = 0L;
+      for (int i = fromIndex; i < fromIndex + count; ++i) {
+        expected = (expected << 1) | (codec.isLeft(key, i) ? 0L : 1L);
+      }
+      assertEquals(expected, codec.bits(key, fromIndex, count));
+    }
 
+    // Unpaired surrogates are kept as they are
+    final PatriciaTrie<String> trie = new PatriciaTrie<>(true, true);
+    final String unpaired = "a\uD800b\uDC00";
+    trie.put(unpaired, unpaired);
+    assertEquals(unpaired, trie.keySet().iterator().next());
+  }
+}
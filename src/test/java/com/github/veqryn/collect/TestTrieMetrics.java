@@ -0,0 +1,200 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.collect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.github.veqryn.collect.TrieListener.LookupType;
+import com.github.veqryn.net.Cidr4;
+import com.github.veqryn.net.Cidr6;
+import com.github.veqryn.net.Ip4;
+
+/**
+ * Tests for the TrieListener hooks and the TrieMetrics class
+ *
+ * @author Chris Duncan
+ */
+public class TestTrieMetrics {
+
+  @Test
+  public void testLookups() {
+    for (final boolean compressed : new boolean[] {false, true}) {
+      final Cidr4Trie<String> trie = new Cidr4Trie<>(compressed);
+      trie.put(new Cidr4("10.0.0.0/8"), "8");
+      trie.put(new Cidr4("10.1.0.0/16"), "16");
+      trie.put(new Cidr4("10.1.2.0/24"), "24");
+
+      final List<String> reported = new ArrayList<>();
+      trie.setListener(new TrieListener() {
+        @Override
+        public void lookup(final LookupType type, final boolean hit, final int descentDepth,
+            final int matchLength, final long nanos) {
+          reported.add(type + " " + hit + " " + matchLength);
+        }
+      });
+
+      assertEquals("16", trie.get(new Cidr4("10.1.0.0/16")));
+      assertNull(trie.get(new Cidr4("10.1.0.0/17")));
+      assertEquals("24", trie.longestPrefixOfValue(new Ip4("10.1.2.3").getBinaryInteger()));
+      assertEquals("8", trie.shortestPrefixOfValue(new Cidr4("10.1.2.0/24"), true));
+      assertNull(trie.longestPrefixOfValue(new Cidr4("10.0.0.0/8"), false));
+      assertEquals("[10.1.0.0/16, 10.1.2.0/24]",
+          trie.prefixOfMap(new Cidr4("10.1.2.0/24"), true).prefixedByMap(
+              new Cidr4("10.1.0.0/16"), true).keySet().toString());
+      assertEquals("[GET true 16, GET false 0, LONGEST_PREFIX_OF true 24,"
+          + " SHORTEST_PREFIX_OF true 8, LONGEST_PREFIX_OF false 0,"
+          + " PREFIX_ITERATOR true 16, PREFIX_ITERATOR true 24, PREFIX_ITERATOR false 0]",
+          reported.toString());
+
+      // Nothing is reported once the listener is removed
+      reported.clear();
+      trie.setListener(null);
+      trie.get(new Cidr4("10.1.0.0/16"));
+      trie.longestPrefixOfValue(new Ip4("10.1.2.3").getBinaryInteger());
+      assertEquals(0, reported.size());
+    }
+  }
+
+  @Test
+  public void testPrimitiveLookups() {
+    final List<String> reported = new ArrayList<>();
+    final TrieListener listener = new TrieListener() {
+      @Override
+      public void lookup(final LookupType type, final boolean hit, final int descentDepth,
+          final int matchLength, final long nanos) {
+        reported.add(type + " " + hit + " " + matchLength);
+      }
+    };
+
+    final Cidr4Trie<String> trie4 = new Cidr4Trie<>();
+    trie4.put(new Cidr4("10.0.0.0/8"), "8");
+    trie4.put(new Cidr4("10.1.0.0/16"), "16");
+    trie4.setListener(listener);
+    final int address4 = new Ip4("10.1.2.3").getBinaryInteger();
+    assertTrue(trie4.containsPrefixOf(address4));
+    assertEquals("16", trie4.get(address4, 16));
+    assertFalse(trie4.containsKey(address4, 24));
+    assertEquals("8", trie4.shortestPrefixOfValue(address4));
+    assertEquals("[SHORTEST_PREFIX_OF true 8, GET true 16, GET false 0,"
+        + " SHORTEST_PREFIX_OF true 8]", reported.toString());
+
+    reported.clear();
+    final Cidr6Trie<String> trie6 = new Cidr6Trie<>();
+    trie6.put(new Cidr6("2001:db8::/32"), "32");
+    trie6.put(new Cidr6("2001:db8:1::/48"), "48");
+    trie6.setListener(listener);
+    final Cidr6 cidr6 = new Cidr6("2001:db8:1:2::/64");
+    final long upper = cidr6.getUpperLong();
+    final long lower = cidr6.getLowerLong();
+    assertEquals("48", trie6.longestPrefixOfValue(upper, lower));
+    assertEquals("32", trie6.shortestPrefixOfValue(upper, lower));
+    assertTrue(trie6.containsPrefixOf(upper, lower));
+    assertEquals("48", trie6.get(upper, lower, 48));
+    assertFalse(trie6.containsKey(upper, lower, 64));
+    assertEquals("[LONGEST_PREFIX_OF true 48, SHORTEST_PREFIX_OF true 32,"
+        + " SHORTEST_PREFIX_OF true 32, GET true 48, GET false 0]", reported.toString());
+  }
+
+  @Test
+  public void testDescentDepth() {
+    final Cidr4Trie<String> trie = new Cidr4Trie<>();
+    trie.put(new Cidr4("10.0.0.0/8"), "8");
+    trie.put(new Cidr4("10.1.2.0/24"), "24");
+
+    final List<Integer> depths = new ArrayList<>();
+    trie.setListener(new TrieListener() {
+      @Override
+      public void lookup(final LookupType type, final boolean hit, final int descentDepth,
+          final int matchLength, final long nanos) {
+        depths.add(descentDepth);
+      }
+    });
+
+    // A shortest prefix lookup stops at the first value, one node per bit
+    trie.shortestPrefixOfValue(new Cidr4("10.1.2.0/24"), true);
+    trie.longestPrefixOfValue(new Cidr4("10.1.2.0/24"), true);
+    trie.shortestPrefixOfValue(new Cidr4("11.0.0.0/24"), true);
+    assertEquals("[8, 24, 7]", depths.toString());
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    final Cidr4Trie<String> trie = new Cidr4Trie<>(true, true);
+    trie.put(new Cidr4("10.0.0.0/8"), "8");
+    trie.put(new Cidr4("10.1.0.0/16"), "16");
+    trie.put(new Cidr4("192.168.0.0/16"), "192");
+
+    final TrieMetrics metrics = new TrieMetrics();
+    trie.setListener(metrics);
+    assertSame(metrics, trie.getListener());
+    for (int i = 0; i < 10; ++i) {
+      trie.get(new Cidr4("10.1.0.0/16"));
+      trie.containsKey(new Cidr4("10.2.0.0/16"));
+      trie.longestPrefixOfValue(new Cidr4("10.1.2.3/32"), true);
+      trie.shortestPrefixOfValue(new Ip4("11.0.0.1").getBinaryInteger());
+    }
+    assertEquals(40, metrics.getLookupCount());
+    assertEquals(20, metrics.getHitCount());
+    assertEquals(20, metrics.getMissCount());
+    assertEquals(0.5, metrics.getHitRatio(), 0.0);
+    assertArrayEquals(new long[] {20, 10, 10, 0}, metrics.getLookupCounts());
+    assertEquals(10, metrics.getLookupCount(LookupType.LONGEST_PREFIX_OF));
+    assertEquals(40, sum(metrics.getDescentDepthHistogram()));
+    assertEquals(20, sum(metrics.getMatchLengthHistogram()));
+    assertEquals(20, metrics.getMatchLengthHistogram()[16]);
+
+    // Keyless tries recreate each key they return
+    assertEquals(3, trie.keySet().size());
+    assertEquals("[10.0.0.0/8, 10.1.0.0/16, 192.168.0.0/16]", trie.keySet().toString());
+    assertEquals(3, metrics.getKeyResolutionCount());
+
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = new ObjectName("com.github.veqryn.collect:type=TrieMetrics");
+    server.registerMBean(metrics, name);
+    try {
+      assertEquals(40L, server.getAttribute(name, "LookupCount"));
+      server.invoke(name, "reset", null, null);
+    } finally {
+      server.unregisterMBean(name);
+    }
+    assertEquals(0, metrics.getLookupCount());
+    assertEquals(0, metrics.getHitCount());
+    assertEquals(0, sum(metrics.getDescentDepthHistogram()));
+    assertEquals(0, metrics.getKeyResolutionCount());
+
+    // Prefix iterator steps are lookups, but do not count as hits or misses
+    trie.get(new Cidr4("10.1.0.0/16"));
+    assertEquals("[10.0.0.0/8, 10.1.0.0/16]",
+        trie.prefixOfMap(new Cidr4("10.1.2.0/24"), true).keySet().toString());
+    assertEquals(3, metrics.getLookupCount(LookupType.PREFIX_ITERATOR));
+    assertEquals(4, metrics.getLookupCount());
+    assertEquals(1, metrics.getHitCount());
+    assertEquals(0, metrics.getMissCount());
+    assertEquals(1.0, metrics.getHitRatio(), 0.0);
+  }
+
+  private static long sum(final long[] counts) {
+    long sum = 0L;
+    for (final long count : counts) {
+      sum += count;
+    }
+    return sum;
+  }
+}
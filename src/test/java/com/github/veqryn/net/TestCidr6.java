@@ -0,0 +1,189 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.veqryn.util.TestingUtil;
+
+/**
+ * Tests for the Cidr6 class
+ *
+ * @author Chris Duncan
+ */
+public class TestCidr6 {
+
+  // input, signature, low address, high address
+  private static final String[][] cidrs = new String[][] {
+      {"::/1", "::/1", "::", "7fff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"},
+      {"8000::/1", "8000::/1", "8000::", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"},
+      {"2001:db8:ffff:1::/32", "2001:db8::/32", "2001:db8::",
+          "2001:db8:ffff:ffff:ffff:ffff:ffff:ffff"},
+      {"2001:db8::1:0:0:0/63", "2001:db8::/63", "2001:db8::",
+          "2001:db8:0:1:ffff:ffff:ffff:ffff"},
+      {"2001:db8::/64", "2001:db8::/64", "2001:db8::", "2001:db8::ffff:ffff:ffff:ffff"},
+      {"2001:db8::ffff:ffff:ffff:ffff/65", "2001:db8:0:0:8000::/65", "2001:db8:0:0:8000::",
+          "2001:db8::ffff:ffff:ffff:ffff"},
+      {"2001:db8::ff00:42:8329/120", "2001:db8::ff00:42:8300/120", "2001:db8::ff00:42:8300",
+          "2001:db8::ff00:42:83ff"},
+      {"::ffff:192.168.1.104/128", "::ffff:c0a8:168/128", "::ffff:c0a8:168",
+          "::ffff:c0a8:168"},
+  };
+
+  private static final String[] invalid = new String[] {
+      "", "/", "::", "::/", "::/0", "::/129", "::/1000", "::/1a", "/64", "::1//64", "1::2::3/64",
+  };
+
+  @Test
+  public void testParseAndFormat() {
+    for (final String[] cidr : cidrs) {
+      final Cidr6 parsed = new Cidr6(cidr[0]);
+      assertEquals(cidr[1], parsed.getCidrSignature());
+      assertEquals(cidr[1], parsed.toString());
+      assertEquals(cidr[2], parsed.getLowAddress());
+      assertEquals(cidr[3], parsed.getHighAddress());
+      assertEquals('[' + cidr[2] + "--" + cidr[3] + ']', parsed.getAddressRange());
+      assertEquals(new Ip6(cidr[2]), parsed.getLowIp());
+      assertEquals(new Ip6(cidr[3]), parsed.getHighIp());
+      assertEquals(parsed, new Cidr6(cidr[1]));
+      assertEquals(parsed, new Cidr6(parsed));
+      assertEquals(parsed, new Cidr6(parsed.getLowIp(), parsed.getHighIp()));
+      assertEquals(parsed,
+          new Cidr6(parsed.getUpperLong(), parsed.getLowerLong(), parsed.getMaskBits()));
+    }
+  }
+
+  @Test
+  public void testInvalid() {
+    for (final String cidr : invalid) {
+      try {
+        new Cidr6(cidr);
+        fail("Expected an IllegalArgumentException for " + cidr);
+      } catch (final IllegalArgumentException e) {
+      }
+    }
+    try {
+      new Cidr6(0L, 0L, 0);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+    try {
+      new Cidr6(new Ip6("::2"), new Ip6("::1"));
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testAddressWithoutRange() {
+    assertEquals(new Cidr6("2001:db8::1/128"), new Cidr6("2001:db8::1", true));
+    assertEquals(new Cidr6("2001:db8::1/128"), new Ip6("2001:db8::1").getCidr());
+    try {
+      new Cidr6("2001:db8::1", false);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testFromRange() {
+    assertEquals(new Cidr6("2001:db8::ff00:42:8320/123"),
+        new Cidr6(new Ip6("2001:db8::ff00:42:8328"), new Ip6("2001:db8::ff00:42:8330")));
+    assertEquals(new Cidr6("::/1"), new Cidr6(new Ip6("::1"), new Ip6("7fff::")));
+    assertEquals(new Cidr6("::1/128"), new Cidr6(new Ip6("::1"), new Ip6("::1")));
+  }
+
+  @Test
+  public void testGetLowestContainingCidr() {
+    final Cidr6 cidr = new Cidr6("2001:db8:ffff::/48");
+    assertEquals(new Cidr6("2001:db8::/32"), cidr.getLowestContainingCidr(32));
+    assertEquals(cidr, cidr.getLowestContainingCidr(48));
+    assertEquals(cidr, cidr.getLowestContainingCidr(64));
+  }
+
+  @Test
+  public void testIsInRange() {
+    final Random random = new Random(42);
+    for (int i = 0; i < 10000; ++i) {
+      final Cidr6 cidr = new Cidr6(random.nextLong(), random.nextLong(), 1 + random.nextInt(128));
+      final int bit = random.nextInt(128);
+      final long upperFlip = bit < 64 ? 1L << (63 - bit) : 0L;
+      final long lowerFlip = bit < 64 ? 0L : 1L << (127 - bit);
+      final Ip6 inside = new Ip6(cidr.getUpperLong() | random.nextLong() & ~netmask(cidr, 0),
+          cidr.getLowerLong() | random.nextLong() & ~netmask(cidr, 64));
+      final Ip6 flipped = new Ip6(inside.getUpperLong() ^ upperFlip,
+          inside.getLowerLong() ^ lowerFlip);
+
+      assertTrue(cidr.isInRange(inside));
+      assertTrue(cidr.isInRange(cidr));
+      assertTrue(cidr.isInRange(inside.getCidr()));
+      assertEquals(bit >= cidr.getMaskBits(), cidr.isInRange(flipped));
+      assertEquals(bit >= cidr.getMaskBits(), cidr.isInRange(flipped.getCidr()));
+      assertTrue(cidr.getLowestContainingCidr(1).isInRange(cidr));
+      assertEquals(cidr.getMaskBits() == 1, cidr.isInRange(cidr.getLowestContainingCidr(1)));
+    }
+  }
+
+  private static long netmask(final Cidr6 cidr, final int from) {
+    final int bits = cidr.getMaskBits() - from;
+    return bits <= 0 ? 0L : bits >= 64 ? -1L : -1L << (64 - bits);
+  }
+
+  @Test
+  public void testSerializability() throws ClassNotFoundException, IOException {
+    for (final String[] cidr : cidrs) {
+      final Cidr6 parsed = new Cidr6(cidr[0]);
+      assertEquals(parsed, TestingUtil.unpickle(TestingUtil.pickle(parsed), Cidr6.class));
+    }
+  }
+
+  @Test
+  public void testComparibility() {
+    final List<Cidr6> sorted = new ArrayList<>();
+    sorted.add(new Cidr6("::/1"));
+    sorted.add(new Cidr6("::/64"));
+    sorted.add(new Cidr6("::/128"));
+    sorted.add(new Cidr6("::1/128"));
+    sorted.add(new Cidr6("::8000:0:0:0/65"));
+    sorted.add(new Cidr6("1::/16"));
+    sorted.add(new Cidr6("8000::/1"));
+    sorted.add(new Cidr6("8000::/2"));
+    sorted.add(new Cidr6("ffff::/16"));
+
+    final List<Cidr6> shuffled = new ArrayList<>(sorted);
+    Collections.shuffle(shuffled, new Random(42));
+    Collections.sort(shuffled);
+    assertEquals(sorted, shuffled);
+    for (int i = 1; i < sorted.size(); ++i) {
+      assertTrue(sorted.get(i - 1).compareTo(sorted.get(i)) < 0);
+    }
+  }
+
+  @Test
+  public void testEquality() {
+    for (final String[] cidr : cidrs) {
+      final Cidr6 parsed = new Cidr6(cidr[0]);
+      final Cidr6 other = new Cidr6(cidr[1]);
+      assertEquals(parsed, other);
+      assertEquals(parsed.hashCode(), other.hashCode());
+      assertEquals(0, parsed.compareTo(other));
+    }
+    assertNotEquals(new Cidr6("::/64"), new Cidr6("::/65"));
+    assertFalse(new Cidr6("::/64").equals(new Ip6("::")));
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.net;
+
+import static com.github.veqryn.net.TestUtil.cidrs;
+import static com.github.veqryn.net.TestUtil.ips;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Ip4Parser class
+ *
+ * @author Chris Duncan
+ */
+public class TestIp4Parser {
+
+  private static final String[] INVALID = new String[] {
+      "", ".", "...", "1.2.3", "1.2.3.", ".1.2.3", "1..2.3", "1.2.3.4.", "1.2.3.4.5",
+      "256.0.0.1", "1.2.3.256", "1.2.3.999", "1.2.3.0001", "1234.1.1.1", " 1.2.3.4",
+      "1.2.3.4 ", "1.2.3.4/", "1.2.3.4/0", "1.2.3.4/33", "1.2.3.4/0032", "1.2.3.4//8",
+      "1.2.3.4/8/", "1.2.3.4/ 8", "1.2.3.4/-1", "1.2.3.4/+8", "1.2.3.a", "a.b.c.d",
+      "1.2.3.4:80", "-1.2.3.4", "+1.2.3.4", "1.2.3.\u0664", "\u0661.2.3.4", "1,2,3,4",
+  };
+
+
+  @Test
+  public void testParseIp4() {
+
+    for (final Object[] ip : ips) {
+      final String address = (String) ip[0];
+      assertEquals(ip[2], Ip4Parser.parseIp4(address));
+      assertEquals(new Ip4(address), new Ip4(Ip4Parser.parseIp4(address)));
+    }
+    assertEquals(-1062731416, Ip4Parser.parseIp4("192.168.1.104"));
+    assertEquals(0, Ip4Parser.parseIp4("0.0.0.0"));
+    assertEquals(-1, Ip4Parser.parseIp4("255.255.255.255"));
+    assertEquals(Integer.MIN_VALUE, Ip4Parser.parseIp4("128.000.00.0"));
+
+    final Random random = new Random(17);
+    for (int i = 0; i < 10000; ++i) {
+      final int expected = random.nextInt();
+      assertEquals(expected, Ip4Parser.parseIp4(new Ip4(expected).getAddress()));
+    }
+  }
+
+
+  @Test
+  public void testParseCidr4() {
+
+    for (final Object[] cidr : cidrs) {
+      final String notation = (String) cidr[9];
+      assertEquals(new Cidr4(notation), Ip4Parser.parseCidr4(notation));
+    }
+    assertEquals(new Cidr4("192.168.0.0/16"), Ip4Parser.parseCidr4("192.168.99.99/16"));
+    assertEquals(new Cidr4("10.0.0.1/32"), new Cidr4("10.0.0.1", true));
+
+    final Random random = new Random(19);
+    for (int i = 0; i < 10000; ++i) {
+      final Cidr4 expected = new Cidr4(random.nextInt(), 1 + random.nextInt(32));
+      assertEquals(expected, Ip4Parser.parseCidr4(expected.getCidrSignature()));
+      assertEquals(expected, new Cidr4(expected.getCidrSignature()));
+    }
+  }
+
+
+  @Test
+  public void testParseInPlace() {
+
+    final String line = "src=192.168.1.104 dst=10.0.0.0/8 end";
+    final char[] chars = line.toCharArray();
+    final byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+    final StringBuilder builder = new StringBuilder(line);
+
+    assertEquals(-1062731416, Ip4Parser.parseIp4(line, 4, 17));
+    assertEquals(-1062731416, Ip4Parser.parseIp4(builder, 4, 17));
+    assertEquals(-1062731416, Ip4Parser.parseIp4(chars, 4, 13));
+    assertEquals(-1062731416, Ip4Parser.parseIp4(bytes, 4, 13));
+
+    final Cidr4 expected = new Cidr4("10.0.0.0/8");
+    assertEquals(expected, Ip4Parser.parseCidr4(line, 22, 32));
+    assertEquals(expected, Ip4Parser.parseCidr4(builder, 22, 32));
+    assertEquals(expected, Ip4Parser.parseCidr4(chars, 22, 10));
+    assertEquals(expected, Ip4Parser.parseCidr4(bytes, 22, 10));
+
+    try {
+      Ip4Parser.parseIp4(bytes, 30, 10);
+      fail("Expected an IndexOutOfBoundsException");
+    } catch (final IndexOutOfBoundsException e) {
+    }
+    try {
+      Ip4Parser.parseIp4(line, 4, 18);
+      fail("Expected an IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+    }
+  }
+
+
+  @Test
+  public void testInvalid() {
+
+    for (final String invalid : INVALID) {
+      final char[] chars = invalid.toCharArray();
+      final byte[] bytes = invalid.getBytes(StandardCharsets.UTF_8);
+      for (final int mode : new int[] {Ip4Parser.IP, Ip4Parser.CIDR, Ip4Parser.CIDR_OR_IP}) {
+        assertEquals(invalid, Ip4Parser.INVALID,
+            Ip4Parser.parse(invalid, 0, invalid.length(), mode));
+        assertEquals(invalid, Ip4Parser.INVALID, Ip4Parser.parse(chars, 0, chars.length, mode));
+        assertEquals(invalid, Ip4Parser.INVALID, Ip4Parser.parse(bytes, 0, bytes.length, mode));
+      }
+      try {
+        new Cidr4(invalid);
+        fail("Expected an IllegalArgumentException: " + invalid);
+      } catch (final IllegalArgumentException e) {
+      }
+      try {
+        new Ip4(invalid);
+        fail("Expected an IllegalArgumentException: " + invalid);
+      } catch (final IllegalArgumentException e) {
+      }
+    }
+  }
+
+
+  @Test
+  public void testMatchesPattern() {
+
+    // Random strings of digits, dots and slashes, accepted exactly when the regular
+    // expressions (that used to be the only parsers) accept them
+    final char[] alphabet = "0123456789./".toCharArray();
+    final Random random = new Random(23);
+    for (int i = 0; i < 200000; ++i) {
+      final char[] chars = new char[7 + random.nextInt(12)];
+      for (int j = 0; j < chars.length; ++j) {
+        chars[j] = random.nextInt(3) == 0 ? '.' : alphabet[random.nextInt(alphabet.length)];
+      }
+      final String input = new String(chars);
+
+      final Matcher ip = Ips.addressPattern.matcher(input);
+      final long expectedIp = ip.matches() && inRange(ip, 4, 255) ? 32L << 32
+          | (Ips.toInteger(Ips.matchAddress(ip), true) & 0xFFFFFFFFL) : Ip4Parser.INVALID;
+      assertEquals(input, expectedIp, Ip4Parser.parse(input, 0, input.length(), Ip4Parser.IP));
+
+      final Matcher cidr = Cidrs.cidrPattern.matcher(input);
+      final long expectedCidr = cidr.matches() && inRange(cidr, 4, 255)
+          && Integer.parseInt(cidr.group(5)) >= 1 && Integer.parseInt(cidr.group(5)) <= 32
+              ? (long) Integer.parseInt(cidr.group(5)) << 32
+                  | (Ips.toInteger(Ips.matchAddress(cidr), true) & 0xFFFFFFFFL)
+              : Ip4Parser.INVALID;
+      assertEquals(input, expectedCidr, Ip4Parser.parse(chars, 0, chars.length, Ip4Parser.CIDR));
+    }
+  }
+
+  private static boolean inRange(final Matcher matcher, final int groups, final int max) {
+    for (int i = 1; i <= groups; ++i) {
+      if (Integer.parseInt(matcher.group(i)) > max) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  @Test
+  public void testTryParse() {
+
+    final String line = "x 192.168.1.104 10.0.0.0/8 300.1.1.1";
+    final byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+    final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    // A slice has a non-zero array offset
+    final ByteBuffer sliced = ByteBuffer.wrap(("junk" + line).getBytes(StandardCharsets.US_ASCII));
+    sliced.position(4);
+    final ByteBuffer slice = sliced.slice();
+
+    assertEquals(-1062731416, Ip4Parser.address(Ip4Parser.tryParseIp4(line, 2, 15)));
+    assertEquals(32, Ip4Parser.maskBits(Ip4Parser.tryParseIp4(line, 2, 15)));
+    assertEquals(-1062731416, Ip4Parser.address(Ip4Parser.tryParseIp4(line.toCharArray(), 2, 13)));
+    assertEquals(-1062731416, Ip4Parser.address(Ip4Parser.tryParseIp4(bytes, 2, 13)));
+    assertEquals(-1062731416, Ip4Parser.address(Ip4Parser.tryParseIp4(direct, 2, 13)));
+    assertEquals(-1062731416, Ip4Parser.address(Ip4Parser.tryParseIp4(slice, 2, 13)));
+    assertEquals(0, direct.position());
+
+    for (final long parsed : new long[] {Ip4Parser.tryParseCidr4(line, 16, 26),
+        Ip4Parser.tryParseCidr4(line.toCharArray(), 16, 10),
+        Ip4Parser.tryParseCidr4(bytes, 16, 10), Ip4Parser.tryParseCidr4(direct, 16, 10),
+        Ip4Parser.tryParseCidr4(slice, 16, 10)}) {
+      assertEquals(new Cidr4("10.0.0.0/8"),
+          new Cidr4(Ip4Parser.address(parsed), Ip4Parser.maskBits(parsed)));
+    }
+    assertEquals(32, Ip4Parser.maskBits(Ip4Parser.tryParseCidr4(line, 2, 15)));
+
+    assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseIp4(line, 16, 26));
+    assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseIp4(bytes, 27, 9));
+    assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseIp4(direct, 27, 9));
+    assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseCidr4(slice, 27, 9));
+    assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseIp4(bytes, 0, 0));
+  }
+
+
+  @Test
+  public void testScan() {
+
+    final String data = "1.2.3.4\nbad\n\n10.0.0.0/8\n255.255.255.255\n";
+    final byte[] bytes = ("##" + data).getBytes(StandardCharsets.US_ASCII);
+    final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    direct.position(2);
+
+    for (final boolean cidrs : new boolean[] {false, true}) {
+      final String expected = "1.2.3.4/32@2-9 !10-13 !14-14 "
+          + (cidrs ? "10.0.0.0/8@15-25 " : "!15-25 ") + "255.255.255.255/32@26-41 ";
+
+      final StringBuilder fromBytes = new StringBuilder();
+      assertEquals(5, Ip4Parser.scan(bytes, 2, bytes.length - 2, (byte) '\n', cidrs,
+          new RecordingHandler(fromBytes)));
+      assertEquals(expected, fromBytes.toString());
+
+      final StringBuilder fromBuffer = new StringBuilder();
+      direct.position(2);
+      assertEquals(5, Ip4Parser.scan(direct, (byte) '\n', cidrs,
+          new RecordingHandler(fromBuffer)));
+      assertEquals(expected, fromBuffer.toString());
+      assertEquals(direct.limit(), direct.position());
+    }
+
+    final StringBuilder none = new StringBuilder();
+    assertEquals(0, Ip4Parser.scan(bytes, 2, 0, (byte) '\n', false, new RecordingHandler(none)));
+    assertEquals("", none.toString());
+  }
+
+
+  @Test
+  public void testParseIp4Batch() {
+
+    final Random random = new Random(29);
+    final int[] expected = new int[1000];
+    final StringBuilder data = new StringBuilder();
+    for (int i = 0; i < expected.length; ++i) {
+      expected[i] = random.nextInt();
+      data.append(i % 7 == 3 ? "bad" : new Ip4(expected[i]).getAddress()).append(',');
+    }
+    final byte[] bytes = data.toString().getBytes(StandardCharsets.US_ASCII);
+
+    for (final ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.wrap(bytes),
+        ByteBuffer.allocateDirect(bytes.length).put(bytes)}) {
+      buffer.rewind();
+      final int[] batch = new int[64];
+      final BitSet invalid = new BitSet();
+      int total = 0;
+      int count;
+      while ((count = Ip4Parser.parseIp4Batch(buffer, (byte) ',', batch, invalid)) > 0) {
+        for (int i = 0; i < count; ++i, ++total) {
+          assertEquals(total % 7 == 3, invalid.get(i));
+          if (!invalid.get(i)) {
+            assertEquals(expected[total], batch[i]);
+          }
+        }
+      }
+      assertEquals(expected.length, total);
+      assertEquals(buffer.limit(), buffer.position());
+    }
+  }
+
+  @Test
+  public void testHighBitBytes() {
+
+    // 0xFF must not be read as -1, which marks the end of the input
+    for (final byte high : new byte[] {(byte) 0xFF, (byte) 0x80, (byte) 0xAF}) {
+      final byte[] ip = new byte[] {'1', '.', '2', '.', '3', '.', '4', high};
+      final byte[] cidr = new byte[] {'1', '.', '2', '.', '3', '.', '0', '/', '2', '4', high};
+      final ByteBuffer direct = ByteBuffer.allocateDirect(cidr.length);
+      direct.put(cidr).flip();
+
+      assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseIp4(ip, 0, ip.length));
+      assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseCidr4(ip, 0, ip.length));
+      assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseIp4(ByteBuffer.wrap(ip), 0, ip.length));
+      assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseCidr4(cidr, 0, cidr.length));
+      assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseCidr4(direct, 0, cidr.length));
+      assertEquals(Ip4Parser.INVALID, Ip4Parser.tryParseCidr4(ByteBuffer.wrap(cidr), 0, 8));
+      try {
+        Ip4Parser.parseIp4(ip, 0, ip.length);
+        fail("Expected an IllegalArgumentException");
+      } catch (final IllegalArgumentException e) {
+      }
+      try {
+        Ip4Parser.parseCidr4(cidr, 0, cidr.length);
+        fail("Expected an IllegalArgumentException");
+      } catch (final IllegalArgumentException e) {
+      }
+
+      final StringBuilder scanned = new StringBuilder();
+      Ip4Parser.scan(ip, 0, ip.length, (byte) '\n', true, new RecordingHandler(scanned));
+      assertEquals("!0-8 ", scanned.toString());
+
+      final int[] batch = new int[4];
+      final BitSet invalid = new BitSet();
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(ip.length);
+      buffer.put(ip).flip();
+      assertEquals(1, Ip4Parser.parseIp4Batch(buffer, (byte) '\n', batch, invalid));
+      assertTrue(invalid.get(0));
+    }
+    final byte[] valid = new byte[] {'1', '.', '2', '.', '3', '.', '4'};
+    assertEquals(0x01020304, Ip4Parser.parseIp4(valid, 0, valid.length));
+  }
+
+  /** Records each field as "address/mask@start-end " or "!start-end " */
+  private static final class RecordingHandler implements Ip4Parser.FieldHandler {
+
+    private final StringBuilder out;
+
+    private RecordingHandler(final StringBuilder out) {
+      this.out = out;
+    }
+
+    @Override
+    public void field(final int address, final int maskBits, final int start, final int end) {
+      out.append(new Ip4(address)).append('/').append(maskBits)
+          .append('@').append(start).append('-').append(end).append(' ');
+    }
+
+    @Override
+    public void invalidField(final int start, final int end) {
+      out.append('!').append(start).append('-').append(end).append(' ');
+    }
+  }
+
+}
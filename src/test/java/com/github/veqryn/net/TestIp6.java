@@ -0,0 +1,153 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.github.veqryn.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.veqryn.util.TestingUtil;
+
+/**
+ * Tests for the Ip6 class
+ *
+ * @author Chris Duncan
+ */
+public class TestIp6 {
+
+  // input, canonical format, upper, lower
+  private static final Object[][] ips = new Object[][] {
+      {"::", "::", 0L, 0L},
+      {"::1", "::1", 0L, 1L},
+      {"1::", "1::", 0x0001000000000000L, 0L},
+      {"2001:DB8::1", "2001:db8::1", 0x20010db800000000L, 1L},
+      {"2001:0db8:0000:0000:0000:ff00:0042:8329", "2001:db8::ff00:42:8329",
+          0x20010db800000000L, 0x0000ff0000428329L},
+      {"2001:db8:0:0:1:0:0:1", "2001:db8::1:0:0:1", 0x20010db800000000L, 0x0001000000000001L},
+      {"2001:db8:0:1:1:1:1:1", "2001:db8:0:1:1:1:1:1", 0x20010db800000001L, 0x0001000100010001L},
+      {"2001:0:0:1::1", "2001:0:0:1::1", 0x2001000000000001L, 1L},
+      {"fe80::1:2:3:4", "fe80::1:2:3:4", 0xfe80000000000000L, 0x0001000200030004L},
+      {"::ffff:192.168.1.104", "::ffff:c0a8:168", 0L, 0x0000ffffc0a80168L},
+      {"64:ff9b::10.0.0.1", "64:ff9b::a00:1", 0x0064ff9b00000000L, 0x000000000a000001L},
+      {"ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff",
+          -1L, -1L},
+  };
+
+  private static final String[] invalid = new String[] {
+      "", ":", ":::", "1", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "1::2::3", ":1::", "1::2:",
+      "12345::", "g::", "1:2:3:4:5:6:7:8::", "::1.2.3", "::1.2.3.256", "1.2.3.4",
+      "1:2:3:4:5:6:7:1.2.3.4", "::1 ", "fe80::1%eth0",
+      "\uFF11::", "\u0661::", "::\uFF41", // non-ASCII digits and letters
+  };
+
+  @Test
+  public void testParseAndFormat() {
+    for (final Object[] ip : ips) {
+      final Ip6 parsed = new Ip6((String) ip[0]);
+      assertEquals(ip[2], parsed.getUpperLong());
+      assertEquals(ip[3], parsed.getLowerLong());
+      assertEquals(ip[1], parsed.getAddress());
+      assertEquals(ip[1], parsed.toString());
+      assertEquals(parsed, new Ip6((String) ip[1]));
+      assertEquals(parsed, new Ip6((Long) ip[2], (Long) ip[3]));
+      assertEquals(parsed, new Ip6(parsed));
+    }
+  }
+
+  @Test
+  public void testInvalid() {
+    for (final String ip : invalid) {
+      try {
+        new Ip6(ip);
+        fail("Expected an IllegalArgumentException for " + ip);
+      } catch (final IllegalArgumentException e) {
+      }
+    }
+  }
+
+  @Test
+  public void testAgainstInetAddress() throws UnknownHostException {
+    final Random random = new Random(42);
+    for (int i = 0; i < 10000; ++i) {
+      // Mostly zero groups, to get plenty of runs to shorten
+      long upper = 0L;
+      long lower = 0L;
+      for (int group = 0; group < 4; ++group) {
+        upper = (upper << 16) | (random.nextBoolean() ? 0 : random.nextInt(0x10000));
+        lower = (lower << 16) | (random.nextBoolean() ? 0 : random.nextInt(0x10000));
+      }
+      if (upper == 0L && lower >>> 32 == 0xFFFFL) {
+        continue; // InetAddress turns IPv4-mapped addresses into IPv4 addresses
+      }
+      final Ip6 ip = new Ip6(upper, lower);
+      final InetAddress inet = ip.getInetAddress();
+      assertEquals(ip, new Ip6(ip.getAddress()));
+      assertEquals(ip, new Ip6(inet.getHostAddress()));
+      assertEquals(InetAddress.getByName(ip.getAddress()), inet);
+    }
+  }
+
+  @Test
+  public void testGetCidr() {
+    final Ip6 ip = new Ip6("2001:db8::ff00:42:8329");
+    assertEquals(new Cidr6("2001:db8::ff00:42:8329/128"), ip.getCidr());
+    assertEquals(new Cidr6("2001:db8::/32"), ip.getLowestContainingCidr(32));
+    assertEquals(new Cidr6("2001:db8::ff00:42:8300/120"), ip.getLowestContainingCidr(120));
+  }
+
+  @Test
+  public void testSerializability() throws ClassNotFoundException, IOException {
+    for (final Object[] ip : ips) {
+      final Ip6 parsed = new Ip6((String) ip[0]);
+      assertEquals(parsed, TestingUtil.unpickle(TestingUtil.pickle(parsed), Ip6.class));
+    }
+  }
+
+  @Test
+  public void testComparibility() {
+    final List<Ip6> sorted = new ArrayList<>();
+    sorted.add(new Ip6("::"));
+    sorted.add(new Ip6("::1"));
+    sorted.add(new Ip6("::8000:0:0:0"));
+    sorted.add(new Ip6("::ffff:ffff:ffff:ffff"));
+    sorted.add(new Ip6("1::"));
+    sorted.add(new Ip6("7fff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+    sorted.add(new Ip6("8000::"));
+    sorted.add(new Ip6("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+
+    final List<Ip6> shuffled = new ArrayList<>(sorted);
+    Collections.shuffle(shuffled, new Random(42));
+    Collections.sort(shuffled);
+    assertEquals(sorted, shuffled);
+    for (int i = 1; i < sorted.size(); ++i) {
+      assertTrue(sorted.get(i - 1).compareTo(sorted.get(i)) < 0);
+    }
+  }
+
+  @Test
+  public void testEquality() {
+    for (final Object[] ip : ips) {
+      final Ip6 parsed = new Ip6((String) ip[0]);
+      final Ip6 other = new Ip6((Long) ip[2], (Long) ip[3]);
+      assertEquals(parsed, other);
+      assertEquals(parsed.hashCode(), other.hashCode());
+      assertEquals(0, parsed.compareTo(other));
+    }
+    assertNotEquals(new Ip6("::1"), new Ip6("1::"));
+    assertNotEquals(new Ip6("::1"), new Cidr6("::1/128"));
+  }
+}